@@ -0,0 +1,39 @@
+package serializer.benchmarks;
+
+/**
+ * Runs the benchmarks with the JMH command line, defaulting to the allocation profiler (-prof gc)
+ * and to Json results in jmh-result.json (-rf json -rff jmh-result.json), so runs can be compared.
+ * Options given on the command line take precedence over the defaults.
+ * Run with: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexps]
+ **/
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+public class BenchmarkMain {
+
+  public static void main (String[] args) throws Exception {
+    CommandLineOptions command_line = new CommandLineOptions(args);
+    // Listing and help need none of the defaults
+    if (command_line.shouldHelp() || command_line.shouldList() || command_line.shouldListWithParams()
+        || command_line.shouldListProfilers() || command_line.shouldListResultFormats()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(command_line);
+    if (!command_line.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!command_line.getResult().hasValue()) {
+      options.result("jmh-result.json");
+    }
+    if (command_line.getProfilers().isEmpty()) {
+      options.addProfiler(GCProfiler.class);
+    }
+    new Runner(options.build()).run();
+  }
+
+}
@@ -0,0 +1,80 @@
+package serializer.benchmarks;
+
+/**
+ * Bytes allocated per message by Serializer and Deserializer against a reused SerializerContext and
+ * DeserializerContext, on an Object[] of Object2 and Object3 where every Object2 is followed by its Object1.
+ * The allocation is the gc.alloc.rate.norm of the gc profiler, which BenchmarkMain adds by default.
+ * Deserializing allocates the objects it reads, so the difference is what the contexts save.
+ * Run with: java -jar benchmarks/target/benchmarks.jar ContextAllocationBenchmark
+ **/
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContextAllocationBenchmark {
+
+  @Param({ "100" })
+  public int objects;
+
+  private Object graph;
+  private byte[] json;
+  private Object serializer;
+  private Object deserializer;
+
+  // Discards what is written, so only the serializer allocates
+  private final OutputStream sink = new OutputStream() {
+    @Override
+    public void write (int b) {
+    }
+
+    @Override
+    public void write (byte[] b, int offset, int length) {
+    }
+  };
+
+  @Setup
+  public void setUp () throws Throwable {
+    Object[] array = new Object[objects];
+    Field obj1 = Class.forName("Object2").getDeclaredField("obj1");
+    obj1.setAccessible(true);
+    for (int i = 0; i + 1 < objects; i += 2) {
+      Object object2 = SerializerApi.create("Object2", "setB", i % 4 == 0, "setObj1X", i, "setObj1Y", i / 3f);
+      array[i] = object2;
+      array[i + 1] = i % 8 == 2 ? SerializerApi.create("Object3") : obj1.get(object2);
+    }
+    graph = array;
+    json = SerializerApi.serializeObject(graph).getBytes(StandardCharsets.UTF_8);
+    serializer = SerializerApi.newSerializerContext();
+    deserializer = SerializerApi.newDeserializerContext();
+  }
+
+  @Benchmark
+  public void serialize () throws Throwable {
+    SerializerApi.serializeObject(graph, sink);
+  }
+
+  @Benchmark
+  public void serializeWithContext () throws Throwable {
+    SerializerApi.serialize(serializer, graph, sink);
+  }
+
+  @Benchmark
+  public Object deserialize () throws Throwable {
+    return SerializerApi.deserializeObject(new ByteArrayInputStream(json));
+  }
+
+  @Benchmark
+  public Object deserializeWithContext () throws Throwable {
+    return SerializerApi.deserialize(deserializer, json, 0, json.length);
+  }
+
+}
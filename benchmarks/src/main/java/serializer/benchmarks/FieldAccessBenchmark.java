@@ -0,0 +1,103 @@
+package serializer.benchmarks;
+
+/**
+ * Reading and writing the fields of a graph of 1000 Object2, each holding an Object1, through Field.get and Field.set
+ * against the FieldAccessor methods the Serializer and Deserializer use, and a Json round trip of the same graph.
+ * Each operation reads or writes the b field of one Object2 and the x and y fields of its Object1.
+ * Run with: java -jar benchmarks/target/benchmarks.jar FieldAccessBenchmark
+ **/
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FieldAccessBenchmark {
+
+  private static final int OBJECTS = 1000;
+
+  private final Object[] graph = new Object[OBJECTS];
+  private Field b;
+  private Field obj1;
+  private Field x;
+  private Field y;
+  private Object b_accessor;
+  private Object obj1_accessor;
+  private Object x_accessor;
+  private Object y_accessor;
+  private int next = 0;
+
+  @Setup
+  public void setUp () throws Throwable {
+    for (int i = 0; i < OBJECTS; i++) {
+      graph[i] = SerializerApi.create("Object2", "setB", i % 2 == 0, "setObj1X", i, "setObj1Y", i / 2f);
+    }
+    b = field("Object2", "b");
+    obj1 = field("Object2", "obj1");
+    x = field("Object1", "x");
+    y = field("Object1", "y");
+    b_accessor = SerializerApi.unreflect(b);
+    obj1_accessor = SerializerApi.unreflect(obj1);
+    x_accessor = SerializerApi.unreflect(x);
+    y_accessor = SerializerApi.unreflect(y);
+  }
+
+  @Benchmark
+  public long fieldGet () throws Exception {
+    Object o = nextObject();
+    Object o1 = obj1.get(o);
+    return ((Boolean) b.get(o) ? 1 : 0) + (Integer) x.get(o1) + (long) (float) (Float) y.get(o1);
+  }
+
+  @Benchmark
+  public long accessorGet () throws Throwable {
+    Object o = nextObject();
+    Object o1 = SerializerApi.get(obj1_accessor, o);
+    return (SerializerApi.getBoolean(b_accessor, o) ? 1 : 0) + SerializerApi.getInt(x_accessor, o1) + (long) SerializerApi.getFloat(y_accessor, o1);
+  }
+
+  @Benchmark
+  public void fieldSet () throws Exception {
+    Object o = nextObject();
+    Object o1 = obj1.get(o);
+    b.set(o, (next & 1) == 0);
+    x.set(o1, next);
+    y.set(o1, (float) next);
+  }
+
+  @Benchmark
+  public void accessorSet () throws Throwable {
+    Object o = nextObject();
+    Object o1 = SerializerApi.get(obj1_accessor, o);
+    SerializerApi.setBoolean(b_accessor, o, (next & 1) == 0);
+    SerializerApi.setInt(x_accessor, o1, next);
+    SerializerApi.setFloat(y_accessor, o1, (float) next);
+  }
+
+  /**
+   * Serialize and deserialize the whole graph
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object roundTrip () throws Throwable {
+    return SerializerApi.deserializeObject(SerializerApi.serializeObject(graph));
+  }
+
+  private Object nextObject () {
+    next = next + 1 == OBJECTS ? 0 : next + 1;
+    return graph[next];
+  }
+
+  private static Field field (String class_name, String name) throws ReflectiveOperationException {
+    Field field = Class.forName(class_name).getDeclaredField(name);
+    // The serializer classes are in the unnamed module, like the benchmarks, so their fields can be opened
+    field.setAccessible(true);
+    return field;
+  }
+
+}
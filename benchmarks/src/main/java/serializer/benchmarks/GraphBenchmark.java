@@ -0,0 +1,150 @@
+package serializer.benchmarks;
+
+/**
+ * Throughput and latency of Serializer.serializeObject and Deserializer.deserializeObject on synthetic graphs
+ * of a given number of objects, or of array entries for the primitive arrays:
+ *   wide        an Object[] of unrelated nodes
+ *   deep        a chain of nodes, each referencing the next
+ *   dag         layers of nodes referencing two nodes of the next layer, so every node below the first
+ *               layer is shared and written once with references to it
+ *   primitives  one object holding large int, long, double and byte arrays
+ * Run with: java -jar benchmarks/target/benchmarks.jar GraphBenchmark -p shape=dag
+ **/
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+
+  // Width of a layer of the dag
+  private static final int LAYER = 16;
+
+  @Param({ "wide", "deep", "dag", "primitives" })
+  public String shape;
+
+  @Param({ "100", "10000" })
+  public int size;
+
+  private Object source;
+  private String json;
+
+  /**
+   * Node of the wide, deep and dag graphs
+   */
+  public static class Node {
+    private int value;
+    private double weight;
+    private Node next;
+    private Node other;
+  }
+
+  /**
+   * Root of the primitives graph
+   */
+  public static class Arrays {
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private byte[] bytes;
+  }
+
+  @Setup
+  public void setUp () throws Throwable {
+    source = build(shape, size);
+    json = SerializerApi.serializeObject(source);
+  }
+
+  @Benchmark
+  public String serialize () throws Throwable {
+    return SerializerApi.serializeObject(source);
+  }
+
+  @Benchmark
+  public Object deserialize () throws Throwable {
+    return SerializerApi.deserializeObject(json);
+  }
+
+  /**
+   * Time to the first value of the root with Deserializer.deserializeLazy, which only indexes the other objects
+   */
+  @Benchmark
+  public Object deserializeLazyRoot () throws Throwable {
+    Object root = SerializerApi.lazyView(json, 0);
+    switch (shape) {
+      case "deep": return SerializerApi.getField(root, "value");
+      case "primitives": return SerializerApi.getField(root, "ints");
+      default: return SerializerApi.getEntry(root, 0);
+    }
+  }
+
+  static Object build (String shape, int size) {
+    switch (shape) {
+      case "wide": {
+        Object[] nodes = new Object[size];
+        for (int i = 0; i < size; i++) {
+          nodes[i] = node(i);
+        }
+        return nodes;
+      }
+      case "deep": {
+        Node head = node(0);
+        Node tail = head;
+        for (int i = 1; i < size; i++) {
+          tail.next = node(i);
+          tail = tail.next;
+        }
+        return head;
+      }
+      case "dag": {
+        Node[] layer = new Node[Math.min(LAYER, size)];
+        Object[] first = new Object[layer.length];
+        for (int i = 0; i < layer.length; i++) {
+          layer[i] = node(i);
+          first[i] = layer[i];
+        }
+        for (int created = layer.length; created < size; ) {
+          Node[] below = new Node[Math.min(LAYER, size - created)];
+          for (int i = 0; i < below.length; i++) {
+            below[i] = node(created++);
+          }
+          for (int i = 0; i < layer.length; i++) {
+            layer[i].next = below[i % below.length];
+            layer[i].other = below[(i + 1) % below.length];
+          }
+          layer = below;
+        }
+        return first;
+      }
+      case "primitives": {
+        Arrays arrays = new Arrays();
+        arrays.ints = new int[size];
+        arrays.longs = new long[size];
+        arrays.doubles = new double[size];
+        arrays.bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+          arrays.ints[i] = i * 31;
+          arrays.longs[i] = (long) i << 33;
+          arrays.doubles[i] = i / 7.0;
+          arrays.bytes[i] = (byte) i;
+        }
+        return arrays;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown graph shape " + shape);
+    }
+  }
+
+  private static Node node (int value) {
+    Node node = new Node();
+    node.value = value;
+    node.weight = value / 3.0;
+    return node;
+  }
+
+}
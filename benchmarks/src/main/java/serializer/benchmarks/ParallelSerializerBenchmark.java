@@ -0,0 +1,59 @@
+package serializer.benchmarks;
+
+/**
+ * Time to serialize a large graph with Serializer against ParallelSerializer on pools of 1, 2, 4 and 8 threads.
+ * The graph is the wide graph of GraphBenchmark, an Object[] of nodes, and a HashMap holding every fourth node.
+ * ParallelSerializer only gains on a machine with at least as many cores as the pool has threads. A pool of
+ * one thread, or any pool on a single core, writes with Serializer, so it measures the same as serialize.
+ * Run with: java -jar benchmarks/target/benchmarks.jar ParallelSerializerBenchmark
+ **/
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelSerializerBenchmark {
+
+  @Param({ "1", "2", "4", "8" })
+  public int threads;
+
+  @Param({ "200000" })
+  public int size;
+
+  private Object graph;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setUp () {
+    Object[] nodes = (Object[]) GraphBenchmark.build("wide", size);
+    Map<Integer, Object> map = new HashMap<Integer, Object>();
+    for (int i = 0; i < size; i += 4) {
+      map.put(i, nodes[i]);
+    }
+    graph = new Object[] { nodes, map };
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown () {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public String serialize () throws Throwable {
+    return SerializerApi.serializeObject(graph);
+  }
+
+  @Benchmark
+  public String serializeParallel () throws Throwable {
+    return SerializerApi.serializeParallel(graph, pool);
+  }
+
+}
@@ -0,0 +1,314 @@
+package serializer.benchmarks;
+
+/**
+ * Handles on the public methods of Serializer and Deserializer. JMH only accepts benchmarks in a named package,
+ * and code in a named package cannot refer to the classes of the unnamed package the serializer lives in,
+ * so the benchmarks reach them by name. The handles are static final, which lets the JIT bind invokeExact
+ * like a direct call, so they cost nothing in the measurements.
+ **/
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+final class SerializerApi {
+
+  private static final MethodHandle SERIALIZE_OBJECT = findStatic("Serializer", "serializeObject", String.class, Object.class);
+  private static final MethodHandle SERIALIZE_PARALLEL = findStatic("ParallelSerializer", "serializeObject", String.class, Object.class, ForkJoinPool.class);
+  private static final MethodHandle DESERIALIZE_OBJECT = findStatic("Deserializer", "deserializeObject", Object.class, String.class);
+  private static final MethodHandle SERIALIZE_TO_STREAM = findStatic("Serializer", "serializeObject", void.class, Object.class, OutputStream.class);
+  private static final MethodHandle DESERIALIZE_STREAM = findStatic("Deserializer", "deserializeObject", Object.class, InputStream.class);
+  private static final MethodHandle NEW_SERIALIZER_CONTEXT = findConstructor("SerializerContext");
+  private static final MethodHandle CONTEXT_SERIALIZE = findVirtual("SerializerContext", "serialize", void.class, Object.class, OutputStream.class);
+  private static final MethodHandle NEW_DESERIALIZER_CONTEXT = findConstructor("DeserializerContext");
+  private static final MethodHandle CONTEXT_DESERIALIZE = findVirtual("DeserializerContext", "deserialize", Object.class, byte[].class, int.class, int.class);
+  private static final MethodHandle DESERIALIZE_LAZY = findStatic("Deserializer", "deserializeLazy", "LazyGraph", String.class);
+  private static final MethodHandle VIEW = findVirtual("LazyGraph", "view", "LazyGraph$View", int.class);
+  private static final MethodHandle GET_FIELD = findVirtual("LazyGraph$View", "getField", Object.class, String.class);
+  private static final MethodHandle GET_ENTRY = findVirtual("LazyGraph$View", "getEntry", Object.class, int.class);
+  private static final MethodHandle SERIALIZE_SNAPSHOT = findStatic("Serializer", "serializeSnapshot", void.class, Object.class, Path.class);
+  private static final MethodHandle OPEN_SNAPSHOT = findStatic("Deserializer", "openSnapshot", "SnapshotFile", Path.class);
+  private static final MethodHandle SNAPSHOT_GET = findVirtual("SnapshotFile", "get", Object.class, int.class);
+  private static final MethodHandle SNAPSHOT_VIEW = findVirtual("SnapshotFile", "view", "LazyGraph$View", int.class);
+  private static final MethodHandle SNAPSHOT_CLOSE = findVirtual("SnapshotFile", "close", void.class);
+  private static final MethodHandle UNREFLECT = findStatic("FieldAccessor", "unreflect", "FieldAccessor", Field.class);
+  private static final MethodHandle ACCESSOR_GET = findVirtual("FieldAccessor", "get", Object.class, Object.class);
+  private static final MethodHandle ACCESSOR_GET_BOOLEAN = findVirtual("FieldAccessor", "getBoolean", boolean.class, Object.class);
+  private static final MethodHandle ACCESSOR_GET_INT = findVirtual("FieldAccessor", "getInt", int.class, Object.class);
+  private static final MethodHandle ACCESSOR_GET_FLOAT = findVirtual("FieldAccessor", "getFloat", float.class, Object.class);
+  private static final MethodHandle ACCESSOR_SET_BOOLEAN = findVirtual("FieldAccessor", "setBoolean", void.class, Object.class, boolean.class);
+  private static final MethodHandle ACCESSOR_SET_INT = findVirtual("FieldAccessor", "setInt", void.class, Object.class, int.class);
+  private static final MethodHandle ACCESSOR_SET_FLOAT = findVirtual("FieldAccessor", "setFloat", void.class, Object.class, float.class);
+  private static final MethodHandle NEW_LOG = findConstructor("SnapshotLog", Path.class);
+  private static final MethodHandle LOG_APPEND = findVirtual("SnapshotLog", "append", void.class, String.class, Object.class);
+  private static final MethodHandle LOG_SYNC = findVirtual("SnapshotLog", "sync", void.class);
+  private static final MethodHandle LOG_CLOSE = findVirtual("SnapshotLog", "close", void.class);
+
+  private SerializerApi () {
+  }
+
+  /**
+   * Serializer.serializeObject(source)
+   */
+  static String serializeObject (Object source) throws Throwable {
+    return (String) SERIALIZE_OBJECT.invokeExact(source);
+  }
+
+  /**
+   * ParallelSerializer.serializeObject(source, pool)
+   */
+  static String serializeParallel (Object source, ForkJoinPool pool) throws Throwable {
+    return (String) SERIALIZE_PARALLEL.invokeExact(source, pool);
+  }
+
+  /**
+   * Deserializer.deserializeObject(source)
+   */
+  static Object deserializeObject (String source) throws Throwable {
+    return (Object) DESERIALIZE_OBJECT.invokeExact(source);
+  }
+
+  /**
+   * Serializer.serializeObject(source, out)
+   */
+  static void serializeObject (Object source, OutputStream out) throws Throwable {
+    SERIALIZE_TO_STREAM.invokeExact(source, out);
+  }
+
+  /**
+   * Deserializer.deserializeObject(source)
+   */
+  static Object deserializeObject (InputStream source) throws Throwable {
+    return (Object) DESERIALIZE_STREAM.invokeExact(source);
+  }
+
+  /**
+   * new SerializerContext()
+   */
+  static Object newSerializerContext () throws Throwable {
+    return (Object) NEW_SERIALIZER_CONTEXT.invokeExact();
+  }
+
+  /**
+   * context.serialize(source, out) of a SerializerContext
+   */
+  static void serialize (Object context, Object source, OutputStream out) throws Throwable {
+    CONTEXT_SERIALIZE.invokeExact(context, source, out);
+  }
+
+  /**
+   * new DeserializerContext()
+   */
+  static Object newDeserializerContext () throws Throwable {
+    return (Object) NEW_DESERIALIZER_CONTEXT.invokeExact();
+  }
+
+  /**
+   * context.deserialize(source, offset, length) of a DeserializerContext
+   */
+  static Object deserialize (Object context, byte[] source, int offset, int length) throws Throwable {
+    return (Object) CONTEXT_DESERIALIZE.invokeExact(context, source, offset, length);
+  }
+
+  /**
+   * Deserializer.deserializeLazy(source).view(id)
+   */
+  static Object lazyView (String source, int id) throws Throwable {
+    Object graph = (Object) DESERIALIZE_LAZY.invokeExact(source);
+    return (Object) VIEW.invokeExact(graph, id);
+  }
+
+  /**
+   * view.getField(name) of a LazyGraph.View
+   */
+  static Object getField (Object view, String name) throws Throwable {
+    return (Object) GET_FIELD.invokeExact(view, name);
+  }
+
+  /**
+   * view.getEntry(index) of a LazyGraph.View
+   */
+  static Object getEntry (Object view, int index) throws Throwable {
+    return (Object) GET_ENTRY.invokeExact(view, index);
+  }
+
+  /**
+   * Serializer.serializeSnapshot(source, file)
+   */
+  static void serializeSnapshot (Object source, Path file) throws Throwable {
+    SERIALIZE_SNAPSHOT.invokeExact(source, file);
+  }
+
+  /**
+   * Deserializer.openSnapshot(file)
+   */
+  static Object openSnapshot (Path file) throws Throwable {
+    return (Object) OPEN_SNAPSHOT.invokeExact(file);
+  }
+
+  /**
+   * snapshot.get(id) of a SnapshotFile
+   */
+  static Object snapshotGet (Object snapshot, int id) throws Throwable {
+    return (Object) SNAPSHOT_GET.invokeExact(snapshot, id);
+  }
+
+  /**
+   * snapshot.view(id) of a SnapshotFile
+   */
+  static Object snapshotView (Object snapshot, int id) throws Throwable {
+    return (Object) SNAPSHOT_VIEW.invokeExact(snapshot, id);
+  }
+
+  /**
+   * snapshot.close() of a SnapshotFile
+   */
+  static void closeSnapshot (Object snapshot) throws Throwable {
+    SNAPSHOT_CLOSE.invokeExact(snapshot);
+  }
+
+  /**
+   * FieldAccessor.unreflect(field)
+   */
+  static Object unreflect (Field field) throws Throwable {
+    return (Object) UNREFLECT.invokeExact(field);
+  }
+
+  /**
+   * accessor.get(obj) of a FieldAccessor
+   */
+  static Object get (Object accessor, Object obj) throws Throwable {
+    return (Object) ACCESSOR_GET.invokeExact(accessor, obj);
+  }
+
+  /**
+   * accessor.getBoolean(obj) of a FieldAccessor
+   */
+  static boolean getBoolean (Object accessor, Object obj) throws Throwable {
+    return (boolean) ACCESSOR_GET_BOOLEAN.invokeExact(accessor, obj);
+  }
+
+  /**
+   * accessor.getInt(obj) of a FieldAccessor
+   */
+  static int getInt (Object accessor, Object obj) throws Throwable {
+    return (int) ACCESSOR_GET_INT.invokeExact(accessor, obj);
+  }
+
+  /**
+   * accessor.getFloat(obj) of a FieldAccessor
+   */
+  static float getFloat (Object accessor, Object obj) throws Throwable {
+    return (float) ACCESSOR_GET_FLOAT.invokeExact(accessor, obj);
+  }
+
+  /**
+   * accessor.setBoolean(obj, value) of a FieldAccessor
+   */
+  static void setBoolean (Object accessor, Object obj, boolean value) throws Throwable {
+    ACCESSOR_SET_BOOLEAN.invokeExact(accessor, obj, value);
+  }
+
+  /**
+   * accessor.setInt(obj, value) of a FieldAccessor
+   */
+  static void setInt (Object accessor, Object obj, int value) throws Throwable {
+    ACCESSOR_SET_INT.invokeExact(accessor, obj, value);
+  }
+
+  /**
+   * accessor.setFloat(obj, value) of a FieldAccessor
+   */
+  static void setFloat (Object accessor, Object obj, float value) throws Throwable {
+    ACCESSOR_SET_FLOAT.invokeExact(accessor, obj, value);
+  }
+
+  /**
+   * new SnapshotLog(file)
+   */
+  static Object openLog (Path file) throws Throwable {
+    return (Object) NEW_LOG.invokeExact(file);
+  }
+
+  /**
+   * log.append(key, value) of a SnapshotLog
+   */
+  static void append (Object log, String key, Object value) throws Throwable {
+    LOG_APPEND.invokeExact(log, key, value);
+  }
+
+  /**
+   * log.sync() of a SnapshotLog
+   */
+  static void sync (Object log) throws Throwable {
+    LOG_SYNC.invokeExact(log);
+  }
+
+  /**
+   * log.close() of a SnapshotLog
+   */
+  static void closeLog (Object log) throws Throwable {
+    LOG_CLOSE.invokeExact(log);
+  }
+
+  /**
+   * Create an instance of one of the ObjectN classes with its public constructor, and call its setters
+   * @param name Name of the class, such as "Object2"
+   * @param calls Pairs of setter name and argument, such as "setX", 3
+   */
+  static Object create (String name, Object... calls) throws ReflectiveOperationException {
+    Class<?> c = Class.forName(name);
+    Object instance = c.getConstructor().newInstance();
+    for (int i = 0; i < calls.length; i += 2) {
+      for (java.lang.reflect.Method method : c.getMethods()) {
+        if (method.getName().equals(calls[i]) && method.getParameterCount() == 1) {
+          method.invoke(instance, calls[i + 1]);
+          break;
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static MethodHandle findStatic (String class_name, String method, Object result, Class<?>... parameters) {
+    try {
+      MethodHandle handle = MethodHandles.publicLookup().findStatic(Class.forName(class_name), method, MethodType.methodType(classOf(result), parameters));
+      // Results of the serializer's own classes are passed around as Object
+      return handle.asType(handle.type().changeReturnType(result instanceof Class ? (Class<?>) result : Object.class));
+    }
+    catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static MethodHandle findVirtual (String class_name, String method, Object result, Class<?>... parameters) {
+    try {
+      MethodHandle handle = MethodHandles.publicLookup().findVirtual(Class.forName(class_name), method, MethodType.methodType(classOf(result), parameters));
+      // The receiver too is passed as Object
+      return handle.asType(MethodType.methodType(result instanceof Class ? (Class<?>) result : Object.class, Object.class, parameters));
+    }
+    catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static MethodHandle findConstructor (String class_name, Class<?>... parameters) {
+    try {
+      MethodHandle handle = MethodHandles.publicLookup().findConstructor(Class.forName(class_name), MethodType.methodType(void.class, parameters));
+      return handle.asType(handle.type().changeReturnType(Object.class));
+    }
+    catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * @param type A Class, or the name of a class of the serializer
+   */
+  private static Class<?> classOf (Object type) throws ClassNotFoundException {
+    return type instanceof Class ? (Class<?>) type : Class.forName((String) type);
+  }
+
+}
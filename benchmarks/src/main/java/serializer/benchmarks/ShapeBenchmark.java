@@ -0,0 +1,49 @@
+package serializer.benchmarks;
+
+/**
+ * Throughput and latency of Serializer.serializeObject and Deserializer.deserializeObject
+ * on each of the Object1 to Object5 shapes ObjectCreator offers.
+ * Run with: java -jar benchmarks/target/benchmarks.jar ShapeBenchmark
+ **/
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShapeBenchmark {
+
+  @Param({ "Object1", "Object2", "Object3", "Object4", "Object5" })
+  public String shape;
+
+  private Object source;
+  private String json;
+
+  @Setup
+  public void setUp () throws Throwable {
+    switch (shape) {
+      case "Object1": source = SerializerApi.create(shape, "setX", 42, "setY", 1.5f); break;
+      case "Object2": source = SerializerApi.create(shape, "setB", true, "setObj1X", 42, "setObj1Y", 1.5f); break;
+      case "Object3": source = SerializerApi.create(shape, "setArr0", 1, "setArr1", 2, "setArr2", 3); break;
+      // Object4 fills its array of Object1 itself
+      case "Object4": source = SerializerApi.create(shape); break;
+      default: source = SerializerApi.create(shape, "addItem", "first", "addItem", "second", "addItem", "third"); break;
+    }
+    json = SerializerApi.serializeObject(source);
+  }
+
+  @Benchmark
+  public String serialize () throws Throwable {
+    return SerializerApi.serializeObject(source);
+  }
+
+  @Benchmark
+  public Object deserialize () throws Throwable {
+    return SerializerApi.deserializeObject(json);
+  }
+
+}
@@ -0,0 +1,69 @@
+package serializer.benchmarks;
+
+/**
+ * Latency of reading single objects out of snapshot files written by Serializer.serializeSnapshot, for files
+ * of a given number of objects: the wide graph of GraphBenchmark, an Object[] of unrelated nodes.
+ *   openAndGet  open the file, build one node and close it
+ *   view        read a field of one node of a file kept open, without building it
+ * Both should take the same time whatever the size of the file.
+ * Run with: java -jar benchmarks/target/benchmarks.jar SnapshotBenchmark
+ **/
+
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+  @Param({ "10000", "1000000" })
+  public int size;
+
+  private Path file;
+  private Object snapshot;
+  // Id of the node read next, stepping through the file in a scattered order
+  private int next = 1;
+
+  @Setup
+  public void setUp () throws Throwable {
+    file = Files.createTempFile("snapshot", ".snap");
+    SerializerApi.serializeSnapshot(GraphBenchmark.build("wide", size), file);
+    snapshot = SerializerApi.openSnapshot(file);
+  }
+
+  @TearDown
+  public void tearDown () throws Throwable {
+    SerializerApi.closeSnapshot(snapshot);
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public Object openAndGet () throws Throwable {
+    Object opened = SerializerApi.openSnapshot(file);
+    try {
+      return SerializerApi.snapshotGet(opened, nextId());
+    }
+    finally {
+      SerializerApi.closeSnapshot(opened);
+    }
+  }
+
+  @Benchmark
+  public Object view () throws Throwable {
+    return SerializerApi.getField(SerializerApi.snapshotView(snapshot, nextId()), "value");
+  }
+
+  /**
+   * @return id of a node, 1 to size, the root array being 0
+   */
+  private int nextId () {
+    next = (int) ((next + 7919L) % size) + 1;
+    return next;
+  }
+
+}
@@ -0,0 +1,60 @@
+package serializer.benchmarks;
+
+/**
+ * Throughput of appending small objects to a SnapshotLog on local disk, under 1,000 keys so compactions run
+ * as the file grows:
+ *   append         appends from one thread, left to the commit thread to write and fsync in batches
+ *   appendAndSync  16 threads each waiting for its append to be on disk, which share fsyncs through group commit
+ * Run with: java -jar benchmarks/target/benchmarks.jar SnapshotLogBenchmark
+ **/
+
+import java.nio.file.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotLogBenchmark {
+
+  private static final int KEYS = 1000;
+
+  private Path file;
+  private Object log;
+  private Object value;
+  private final String[] keys = new String[KEYS];
+
+  @Setup
+  public void setUp () throws Throwable {
+    file = Files.createTempFile("snapshot", ".log");
+    Files.delete(file);
+    log = SerializerApi.openLog(file);
+    value = GraphBenchmark.build("deep", 4);
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "key-" + i;
+    }
+  }
+
+  @TearDown
+  public void tearDown () throws Throwable {
+    SerializerApi.closeLog(log);
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public void append () throws Throwable {
+    SerializerApi.append(log, keys[ThreadLocalRandom.current().nextInt(KEYS)], value);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void appendAndSync () throws Throwable {
+    SerializerApi.append(log, keys[ThreadLocalRandom.current().nextInt(KEYS)], value);
+    SerializerApi.sync(log);
+  }
+
+}
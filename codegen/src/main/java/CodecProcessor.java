@@ -0,0 +1,383 @@
+/**
+ * Annotation processor generating a codec for every class annotated with GenerateCodec.
+ * The codec numbers the instance fields of the class the way ClassMetadata lists them, subclass fields first,
+ * and has one static method per direction and value type that reads or writes a field by number:
+ * readPrimitive and writePrimitive carry primitives as the raw bits of a long, readReference and writeReference
+ * carry references. Fields the codec can name are read and written as plain field accesses. Private fields are
+ * read and written through a VarHandle looked up once with private access, and final fields are written through
+ * a setter MethodHandle of the Field made accessible, which is the reflective fallback spelled out in the source.
+ * The generated source only refers to java.* types besides the annotated class, so it compiles in any package,
+ * and Codec binds its methods at runtime. Registered in META-INF/services, so javac runs it on whatever it
+ * compiles with the processor on its classpath.
+ **/
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+
+@SupportedAnnotationTypes("GenerateCodec")
+public class CodecProcessor extends AbstractProcessor {
+
+  // Package of the class whose codec is being generated, which is also the package of the codec
+  private PackageElement codec_package;
+
+  @Override
+  public SourceVersion getSupportedSourceVersion () {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process (Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    for (TypeElement annotation : annotations) {
+      for (Element element : round.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind() != ElementKind.CLASS) {
+          error(element, "@GenerateCodec only applies to classes");
+          continue;
+        }
+        TypeElement type = (TypeElement) element;
+        codec_package = processingEnv.getElementUtils().getPackageOf(type);
+        if (!isTypeAccessible(type)) {
+          error(type, "@GenerateCodec needs a class that is visible to its package");
+          continue;
+        }
+        try {
+          writeCodec(type);
+        }
+        catch (IOException e) {
+          error(type, "Cannot write the codec of " + type.getQualifiedName() + ": " + e.getMessage());
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Generate the source of the codec of type
+   * @param type Annotated class
+   */
+  private void writeCodec (TypeElement type) throws IOException {
+    Elements elements = processingEnv.getElementUtils();
+    PackageElement package_element = codec_package;
+    String binary_name = elements.getBinaryName(type).toString();
+    String codec_name = binary_name.substring(binary_name.lastIndexOf('.') + 1).replace('$', '_') + "Codec";
+    String type_name = type.getQualifiedName().toString();
+
+    // Instance fields in ClassMetadata order, with the class declaring each
+    List<VariableElement> fields = new ArrayList<VariableElement>();
+    List<TypeElement> declaring_classes = new ArrayList<TypeElement>();
+    for (TypeElement declaring = type; declaring != null; declaring = superclassOf(declaring)) {
+      for (VariableElement field : ElementFilter.fieldsIn(declaring.getEnclosedElements())) {
+        if (!field.getModifiers().contains(Modifier.STATIC)) {
+          fields.add(field);
+          declaring_classes.add(declaring);
+        }
+      }
+    }
+
+    StringBuilder source = new StringBuilder();
+    source.append("// Generated by CodecProcessor from ").append(type_name).append(", do not edit\n");
+    if (!package_element.isUnnamed()) {
+      source.append("package ").append(package_element.getQualifiedName()).append(";\n");
+    }
+    source.append("\nimport java.lang.invoke.*;\n");
+    source.append("import java.lang.reflect.*;\n\n");
+    source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\n");
+    source.append("public final class ").append(codec_name).append(" {\n\n");
+
+    source.append("  // Declaring class and name of each field, by field number\n");
+    source.append("  public static final String[] FIELDS = {\n");
+    for (int i = 0; i < fields.size(); i++) {
+      source.append("    \"").append(elements.getBinaryName(declaring_classes.get(i))).append('.')
+          .append(fields.get(i).getSimpleName()).append("\",\n");
+    }
+    source.append("  };\n\n");
+
+    // Handles of the fields the codec cannot read or write by name
+    boolean handles = false;
+    for (int i = 0; i < fields.size(); i++) {
+      VariableElement field = fields.get(i);
+      String declaring = classLiteral(type, declaring_classes.get(i));
+      String name = field.getSimpleName().toString();
+      if (needsVarHandle(declaring_classes.get(i), field)) {
+        source.append("  private static final VarHandle FIELD_").append(i).append(" = varHandle(")
+            .append(declaring).append(", \"").append(name).append("\");\n");
+        handles = true;
+      }
+      if (field.getModifiers().contains(Modifier.FINAL)) {
+        source.append("  private static final MethodHandle SETTER_").append(i).append(" = setter(")
+            .append(declaring).append(", \"").append(name).append("\", ").append(valueType(field)).append(".class);\n");
+        handles = true;
+      }
+    }
+    if (handles) {
+      source.append("\n");
+    }
+
+    if (hasAccessibleConstructor(type)) {
+      source.append("  public static Object newInstance () {\n");
+      source.append("    return new ").append(type_name).append("();\n");
+      source.append("  }\n\n");
+    }
+
+    writeReader(source, type, fields, declaring_classes, true);
+    writeReader(source, type, fields, declaring_classes, false);
+    writeWriter(source, type, fields, declaring_classes, true);
+    writeWriter(source, type, fields, declaring_classes, false);
+
+    source.append("  private static VarHandle varHandle (Class<?> declaring, String name) {\n");
+    source.append("    try {\n");
+    source.append("      return MethodHandles.privateLookupIn(declaring, MethodHandles.lookup()).unreflectVarHandle(declaring.getDeclaredField(name));\n");
+    source.append("    }\n");
+    source.append("    catch (ReflectiveOperationException e) {\n");
+    source.append("      throw new IllegalStateException(\"Cannot look up \" + name + \" of \" + declaring.getName(), e);\n");
+    source.append("    }\n");
+    source.append("  }\n\n");
+    source.append("  private static MethodHandle setter (Class<?> declaring, String name, Class<?> value_type) {\n");
+    source.append("    try {\n");
+    source.append("      Field field = declaring.getDeclaredField(name);\n");
+    source.append("      field.setAccessible(true);\n");
+    source.append("      return MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, value_type));\n");
+    source.append("    }\n");
+    source.append("    catch (ReflectiveOperationException e) {\n");
+    source.append("      throw new IllegalStateException(\"Cannot look up \" + name + \" of \" + declaring.getName(), e);\n");
+    source.append("    }\n");
+    source.append("  }\n\n");
+    source.append("  private static RuntimeException unchecked (Throwable t) {\n");
+    source.append("    if (t instanceof RuntimeException) return (RuntimeException) t;\n");
+    source.append("    if (t instanceof Error) throw (Error) t;\n");
+    source.append("    return new IllegalStateException(t);\n");
+    source.append("  }\n\n");
+    source.append("}\n");
+
+    String qualified_name = package_element.isUnnamed() ? codec_name : package_element.getQualifiedName() + "." + codec_name;
+    JavaFileObject file = processingEnv.getFiler().createSourceFile(qualified_name, type);
+    try (Writer writer = file.openWriter()) {
+      writer.write(source.toString());
+    }
+  }
+
+  /**
+   * Generate readPrimitive or readReference, returning the value of a field by number
+   * @param source Codec source being generated
+   * @param type Annotated class
+   * @param fields Instance fields by number
+   * @param declaring_classes Class declaring each field
+   * @param primitive Whether to generate the method for primitive fields
+   */
+  private void writeReader (StringBuilder source, TypeElement type, List<VariableElement> fields, List<TypeElement> declaring_classes, boolean primitive) {
+    source.append("  public static ").append(primitive ? "long readPrimitive" : "Object readReference").append(" (Object obj, int field) {\n");
+    source.append("    switch (field) {\n");
+    for (int i = 0; i < fields.size(); i++) {
+      VariableElement field = fields.get(i);
+      TypeKind kind = field.asType().getKind();
+      if (kind.isPrimitive() != primitive) continue;
+
+      String value;
+      if (canRead(declaring_classes.get(i), field)) {
+        value = "((" + declaring_classes.get(i).getQualifiedName() + ") obj)." + field.getSimpleName();
+      }
+      else {
+        value = "((" + valueType(field) + ") FIELD_" + i + ".get((" + type.getQualifiedName() + ") obj))";
+      }
+      source.append("      case ").append(i).append(": return ").append(primitive ? toBits(kind, value) : value).append(";\n");
+    }
+    source.append("      default: throw new IllegalArgumentException(\"No ").append(primitive ? "primitive" : "reference")
+        .append(" field \" + field);\n");
+    source.append("    }\n");
+    source.append("  }\n\n");
+  }
+
+  /**
+   * Generate writePrimitive or writeReference, assigning the value of a field by number
+   * @param source Codec source being generated
+   * @param type Annotated class
+   * @param fields Instance fields by number
+   * @param declaring_classes Class declaring each field
+   * @param primitive Whether to generate the method for primitive fields
+   */
+  private void writeWriter (StringBuilder source, TypeElement type, List<VariableElement> fields, List<TypeElement> declaring_classes, boolean primitive) {
+    Types types = processingEnv.getTypeUtils();
+    source.append("  public static void ").append(primitive ? "writePrimitive (Object obj, int field, long value)" : "writeReference (Object obj, int field, Object value)").append(" {\n");
+    source.append("    switch (field) {\n");
+    for (int i = 0; i < fields.size(); i++) {
+      VariableElement field = fields.get(i);
+      TypeMirror field_type = field.asType();
+      TypeKind kind = field_type.getKind();
+      if (kind.isPrimitive() != primitive) continue;
+
+      String value = primitive ? fromBits(kind) : "value";
+      source.append("      case ").append(i).append(":\n");
+      if (field.getModifiers().contains(Modifier.FINAL)) {
+        source.append("        try {\n");
+        source.append("          SETTER_").append(i).append(".invokeExact(obj, ").append(value).append(");\n");
+        source.append("        }\n");
+        source.append("        catch (Throwable t) {\n");
+        source.append("          throw unchecked(t);\n");
+        source.append("        }\n");
+      }
+      else if (!needsVarHandle(declaring_classes.get(i), field)) {
+        String cast = primitive ? "" : "(" + types.erasure(field_type) + ") ";
+        source.append("        ((").append(declaring_classes.get(i).getQualifiedName()).append(") obj).").append(field.getSimpleName())
+            .append(" = ").append(cast).append(value).append(";\n");
+      }
+      else {
+        source.append("        FIELD_").append(i).append(".set((").append(type.getQualifiedName()).append(") obj, ").append(value).append(");\n");
+      }
+      source.append("        return;\n");
+    }
+    source.append("      default: throw new IllegalArgumentException(\"No ").append(primitive ? "primitive" : "reference")
+        .append(" field \" + field);\n");
+    source.append("    }\n");
+    source.append("  }\n\n");
+  }
+
+  /**
+   * @return expression of the long holding the raw bits of a primitive value
+   */
+  private static String toBits (TypeKind kind, String value) {
+    switch (kind) {
+      case BOOLEAN: return "(" + value + " ? 1L : 0L)";
+      case FLOAT: return "Float.floatToRawIntBits(" + value + ")";
+      case DOUBLE: return "Double.doubleToRawLongBits(" + value + ")";
+      default: return value;
+    }
+  }
+
+  /**
+   * @return expression of the primitive value held in the raw bits of the long named value
+   */
+  private static String fromBits (TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN: return "value != 0";
+      case FLOAT: return "Float.intBitsToFloat((int) value)";
+      case DOUBLE: return "Double.longBitsToDouble(value)";
+      case LONG: return "value";
+      default: return "(" + kind.name().toLowerCase(Locale.ROOT) + ") value";
+    }
+  }
+
+  /**
+   * @return the primitive type of field, or Object for references
+   */
+  private static String valueType (VariableElement field) {
+    TypeMirror field_type = field.asType();
+    return field_type.getKind().isPrimitive() ? field_type.toString() : "Object";
+  }
+
+  /**
+   * @param type Annotated class
+   * @param declaring type or one of its superclasses
+   * @return class literal of declaring, or the chain of getSuperclass calls from type when it cannot be named
+   */
+  private String classLiteral (TypeElement type, TypeElement declaring) {
+    Types types = processingEnv.getTypeUtils();
+    if (isTypeAccessible(declaring)) {
+      return types.erasure(declaring.asType()) + ".class";
+    }
+    StringBuilder literal = new StringBuilder(types.erasure(type.asType()) + ".class");
+    for (TypeElement c = type; c != declaring; c = superclassOf(c)) {
+      literal.append(".getSuperclass()");
+    }
+    return literal.toString();
+  }
+
+  /**
+   * @param declaring Class declaring the field
+   * @param field Instance field
+   * @return whether the codec can name the field, which also lets it assign the field unless it is final
+   */
+  private boolean canRead (TypeElement declaring, VariableElement field) {
+    return isTypeAccessible(declaring) && isMemberAccessible(declaring, field);
+  }
+
+  /**
+   * @param declaring Class declaring the field
+   * @param field Instance field
+   * @return whether the codec reads or writes the field through a VarHandle: when it cannot name the field,
+   *   or cannot cast to the type of a field it assigns
+   */
+  private boolean needsVarHandle (TypeElement declaring, VariableElement field) {
+    if (!canRead(declaring, field)) return true;
+    return !field.getModifiers().contains(Modifier.FINAL) && !field.asType().getKind().isPrimitive() && !isNameable(field.asType());
+  }
+
+  /**
+   * @return whether the codec can cast to the erasure of type
+   */
+  private boolean isNameable (TypeMirror type) {
+    TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+    if (erased.getKind() == TypeKind.ARRAY) {
+      return isNameable(((ArrayType) erased).getComponentType());
+    }
+    if (erased.getKind() == TypeKind.DECLARED) {
+      return isTypeAccessible((TypeElement) ((DeclaredType) erased).asElement());
+    }
+    return erased.getKind().isPrimitive();
+  }
+
+  /**
+   * @param type Annotated class
+   * @return whether the codec can call new on type with no arguments
+   */
+  private boolean hasAccessibleConstructor (TypeElement type) {
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) return false;
+    if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) return false;
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()) {
+        return !constructor.getModifiers().contains(Modifier.PRIVATE);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A generated codec lives in the package of the annotated class, so it sees non-private
+   * members of classes in that package and public members of public classes elsewhere
+   * @param declaring Class declaring the member
+   * @param member Field or method
+   * @return whether the codec can use member directly
+   */
+  private boolean isMemberAccessible (TypeElement declaring, Element member) {
+    Set<Modifier> modifiers = member.getModifiers();
+    if (modifiers.contains(Modifier.PUBLIC)) return true;
+    return !modifiers.contains(Modifier.PRIVATE) && isSamePackage(declaring);
+  }
+
+  /**
+   * @param type Class the codec refers to
+   * @return whether type and every class enclosing it can be named from the codec
+   */
+  private boolean isTypeAccessible (TypeElement type) {
+    for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+      Set<Modifier> modifiers = element.getModifiers();
+      if (modifiers.contains(Modifier.PRIVATE)) return false;
+      if (!modifiers.contains(Modifier.PUBLIC) && !isSamePackage((TypeElement) element)) return false;
+    }
+    return true;
+  }
+
+  private boolean isSamePackage (TypeElement type) {
+    return processingEnv.getElementUtils().getPackageOf(type).equals(codec_package);
+  }
+
+  /**
+   * @param type Class
+   * @return the superclass of type, or null when type extends Object
+   */
+  private TypeElement superclassOf (TypeElement type) {
+    TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) return null;
+    TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+    return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+  }
+
+  private void error (Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+}
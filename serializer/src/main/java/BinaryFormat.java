@@ -0,0 +1,479 @@
+/**
+ * Compact binary wire format.
+ * A message is the magic bytes "SB", a format version, the varint length of the body and the body.
+ * The body holds one record per object in id order, so ids are never written, and ends with a 0.
+ * Each record starts with the varint index of its class in a per-message class table. The first record
+ * of a class defines it inline: its name and, for classes other than arrays and JDK containers, the name and
+ * declaring class of each field. Object records hold their field values in that order, array records a varint
+ * length and their entries. JDK collection and map records hold a varint size and their elements, or their keys
+ * and values alternating, as tagged references.
+ * Field values and object array entries are type-tagged: primitives are tagged with their ClassMetadata kind and
+ * written in native width, references are a varint id. Inline values such as Strings and boxed primitives are
+ * tagged with the varint index of their class, defined inline on first use, and written in place: boxed primitives
+ * in native width and the rest as their UTF-8 String form. Primitive arrays are written in native width without tags.
+ * All numbers are big-endian.
+ **/
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class BinaryFormat implements Format {
+
+  private static final int MAGIC = 0x5342;
+  private static final int VERSION = 1;
+
+  // Type tags of values that are not primitives. Primitives are tagged with their ClassMetadata kind
+  private static final int TAG_NULL = 0x10;
+  private static final int TAG_REFERENCE = 0x11;
+  private static final int TAG_VALUE = 0x12;
+
+  @Override
+  public String getName () {
+    return "binary";
+  }
+
+  /**
+   * Encode source and its referenced objects, then write the message to out in one piece
+   * @param source Object to be serialized
+   * @param out OutputStream the message is written to
+   */
+  @Override
+  public void write (Object source, OutputStream out) throws Exception {
+    ObjectTable object_table = new ObjectTable();
+    object_table.idOf(source);
+    Map<Class<?>, Integer> class_table = new HashMap<Class<?>, Integer>();
+    Output body = new Output();
+
+    // Encode objects in the order they were discovered, encoding one may discover more
+    for (int id = 0; id < object_table.size(); id++) {
+      writeRecord(object_table.get(id), body, object_table, class_table);
+    }
+    body.writeVarint(0);
+
+    Output header = new Output();
+    header.writeShort(MAGIC);
+    header.writeByte(VERSION);
+    header.writeVarint(body.buffer.position());
+    header.writeTo(out);
+    body.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Read one message from in. Exactly the bytes of the message are consumed, so messages can follow each
+   * other on the same stream. in should be buffered, the header is read a byte at a time.
+   * @param in InputStream positioned at the start of a message
+   * @return Object instance with ID 0
+   */
+  @Override
+  public Object read (InputStream in) throws Exception {
+    int first = in.read();
+    if (first < 0) {
+      throw new EOFException("No more messages");
+    }
+    int magic = (first << 8) | readByte(in);
+    int version = readByte(in);
+    if (magic != MAGIC || version != VERSION) {
+      throw new IOException("Not a binary message of version " + VERSION);
+    }
+
+    // Read the varint body length, then the body in one piece
+    int length = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = readByte(in);
+      length |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) break;
+    }
+    byte[] body = new byte[length];
+    new DataInputStream(in).readFully(body);
+
+    return readBody(ByteBuffer.wrap(body));
+  }
+
+  /**
+   * Encode the record of one object, defining its class first if this is the first object of that class
+   */
+  private static void writeRecord (Object source, Output out, ObjectTable object_table, Map<Class<?>, Integer> class_table) throws IllegalAccessException {
+    Class<?> object_class = source.getClass();
+    ClassMetadata metadata = ClassMetadata.forClass(object_class);
+    writeClassIndex(object_class, out, class_table);
+
+    // Inline value at the root: The value itself
+    if (metadata.inline) {
+      writeInline(source, out);
+    }
+
+    // Array: Length and entries
+    else if (object_class.isArray()) {
+      int length = Array.getLength(source);
+      out.writeVarint(length);
+      Class<?> component = object_class.getComponentType();
+      if (component.isPrimitive()) {
+        writePrimitiveArray(source, ClassMetadata.kindOf(component), length, out);
+      }
+      else {
+        Object[] entries = (Object[]) source;
+        for (int i = 0; i < length; i++) {
+          writeReference(entries[i], out, object_table, class_table);
+        }
+      }
+    }
+
+    // JDK Collection or Map: Size and elements
+    else if (metadata.container != JdkCollections.NONE) {
+      Object[] elements = JdkCollections.elementsOf(source, metadata.container);
+      out.writeVarint(metadata.container == JdkCollections.MAP ? elements.length / 2 : elements.length);
+      for (Object element : elements) {
+        writeReference(element, out, object_table, class_table);
+      }
+    }
+
+    // Object: Tagged field values in class definition order
+    else {
+      for (int i = 0; i < metadata.fields.length; i++) {
+        FieldAccessor field = metadata.accessors[i];
+        int kind = metadata.kinds[i];
+        if (kind != ClassMetadata.KIND_OBJECT) {
+          out.writeByte(kind);
+        }
+        switch (kind) {
+          case ClassMetadata.KIND_BOOLEAN: out.writeByte(field.getBoolean(source) ? 1 : 0); break;
+          case ClassMetadata.KIND_BYTE: out.writeByte(field.getByte(source)); break;
+          case ClassMetadata.KIND_CHAR: out.writeShort(field.getChar(source)); break;
+          case ClassMetadata.KIND_SHORT: out.writeShort(field.getShort(source)); break;
+          case ClassMetadata.KIND_INT: out.ensure(4).putInt(field.getInt(source)); break;
+          case ClassMetadata.KIND_LONG: out.ensure(8).putLong(field.getLong(source)); break;
+          case ClassMetadata.KIND_FLOAT: out.ensure(4).putFloat(field.getFloat(source)); break;
+          case ClassMetadata.KIND_DOUBLE: out.ensure(8).putDouble(field.getDouble(source)); break;
+          default: writeReference(field.get(source), out, object_table, class_table); break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode the index of a class, with the class definition following the first use of an index
+   */
+  private static void writeClassIndex (Class<?> object_class, Output out, Map<Class<?>, Integer> class_table) {
+    Integer class_index = class_table.get(object_class);
+    if (class_index != null) {
+      out.writeVarint(class_index);
+      return;
+    }
+    class_index = class_table.size() + 1;
+    class_table.put(object_class, class_index);
+    out.writeVarint(class_index);
+    ClassMetadata metadata = ClassMetadata.forClass(object_class);
+    out.writeString(metadata.name);
+    if (metadata.describesFields()) {
+      out.writeVarint(metadata.fields.length);
+      for (int i = 0; i < metadata.fields.length; i++) {
+        out.writeString(metadata.names[i]);
+        out.writeString(metadata.declaring_classes[i]);
+      }
+    }
+  }
+
+  /**
+   * Encode a reference as TAG_NULL, TAG_REFERENCE and the id of obj, or TAG_VALUE and the class index and value of an inline value
+   */
+  private static void writeReference (Object obj, Output out, ObjectTable object_table, Map<Class<?>, Integer> class_table) {
+    if (obj == null) {
+      out.writeByte(TAG_NULL);
+    }
+    else if (ClassMetadata.forClass(obj.getClass()).inline) {
+      out.writeByte(TAG_VALUE);
+      writeClassIndex(InlineValues.classOf(obj), out, class_table);
+      writeInline(obj, out);
+    }
+    else {
+      out.writeByte(TAG_REFERENCE);
+      out.writeVarint(object_table.idOf(obj));
+    }
+  }
+
+  /**
+   * Encode an inline value: boxed primitives in native width, anything else as its String form
+   */
+  private static void writeInline (Object value, Output out) {
+    if (value instanceof Boolean) out.writeByte((Boolean) value ? 1 : 0);
+    else if (value instanceof Byte) out.writeByte((Byte) value);
+    else if (value instanceof Character) out.writeShort((Character) value);
+    else if (value instanceof Short) out.writeShort((Short) value);
+    else if (value instanceof Integer) out.ensure(4).putInt((Integer) value);
+    else if (value instanceof Long) out.ensure(8).putLong((Long) value);
+    else if (value instanceof Float) out.ensure(4).putFloat((Float) value);
+    else if (value instanceof Double) out.ensure(8).putDouble((Double) value);
+    else out.writeString(InlineValues.toText(value));
+  }
+
+  /**
+   * Decode an inline value of the given class
+   */
+  private static Object readInline (Class<?> type, ByteBuffer in) {
+    if (type == Boolean.class) return in.get() != 0;
+    if (type == Byte.class) return in.get();
+    if (type == Character.class) return in.getChar();
+    if (type == Short.class) return in.getShort();
+    if (type == Integer.class) return in.getInt();
+    if (type == Long.class) return in.getLong();
+    if (type == Float.class) return in.getFloat();
+    if (type == Double.class) return in.getDouble();
+    return InlineValues.fromText(type, readString(in));
+  }
+
+  /**
+   * Encode the entries of a primitive array in native width with bulk buffer copies
+   */
+  private static void writePrimitiveArray (Object source, int kind, int length, Output out) {
+    switch (kind) {
+      case ClassMetadata.KIND_BOOLEAN:
+        ByteBuffer booleans = out.ensure(length);
+        for (boolean b : (boolean[]) source) booleans.put((byte) (b ? 1 : 0));
+        break;
+      case ClassMetadata.KIND_BYTE: out.ensure(length).put((byte[]) source); break;
+      case ClassMetadata.KIND_CHAR: out.ensure(length * 2).asCharBuffer().put((char[]) source); out.skip(length * 2); break;
+      case ClassMetadata.KIND_SHORT: out.ensure(length * 2).asShortBuffer().put((short[]) source); out.skip(length * 2); break;
+      case ClassMetadata.KIND_INT: out.ensure(length * 4).asIntBuffer().put((int[]) source); out.skip(length * 4); break;
+      case ClassMetadata.KIND_LONG: out.ensure(length * 8).asLongBuffer().put((long[]) source); out.skip(length * 8); break;
+      case ClassMetadata.KIND_FLOAT: out.ensure(length * 4).asFloatBuffer().put((float[]) source); out.skip(length * 4); break;
+      default: out.ensure(length * 8).asDoubleBuffer().put((double[]) source); out.skip(length * 8); break;
+    }
+  }
+
+  /**
+   * Decode the records of a message body, creating each object and setting its values in a single pass.
+   * References to objects whose record comes later are patched after the last record.
+   */
+  private static Object readBody (ByteBuffer in) throws Exception {
+    InstanceTable instances = new InstanceTable();
+    int count = 0;
+    List<ClassDescriptor> classes = new ArrayList<ClassDescriptor>();
+    // Class index 0 marks the end of the body
+    classes.add(null);
+    PendingReferences pending = new PendingReferences();
+    JdkCollections.Fill containers = new JdkCollections.Fill();
+
+    for (int class_index = readVarint(in); class_index != 0; class_index = readVarint(in)) {
+      ClassDescriptor entry = classAt(class_index, in, classes);
+
+      // Inline value at the root
+      if (entry.inline) {
+        instances.put(count++, readInline(entry.type, in));
+        continue;
+      }
+
+      int length = entry.type.isArray() || entry.container != JdkCollections.NONE ? readVarint(in) : 0;
+
+      // JDK container built from its elements: Gather them, it is built once every object has been decoded
+      if (entry.built) {
+        Object[] elements = new Object[JdkCollections.elementCount(entry.container, length)];
+        readReferences(elements, in, instances, classes, pending);
+        containers.defer(entry.type, count++, entry.container, elements);
+        continue;
+      }
+
+      Object object_instance = Deserializer.newInstance(entry.type, length);
+      instances.put(count++, object_instance);
+
+      // Array: Primitive entries in bulk, object entries as tagged references
+      if (entry.type.isArray()) {
+        if (entry.component_kind != ClassMetadata.KIND_OBJECT) {
+          readPrimitiveArray(object_instance, entry.component_kind, length, in);
+        }
+        else {
+          readReferences((Object[]) object_instance, in, instances, classes, pending);
+        }
+      }
+
+      // JDK Collection or Map: Gather the elements, they are added once every object has been decoded
+      else if (entry.container != JdkCollections.NONE) {
+        Object[] elements = new Object[JdkCollections.elementCount(entry.container, length)];
+        readReferences(elements, in, instances, classes, pending);
+        containers.add(object_instance, entry.container, elements);
+      }
+
+      // Object: Tagged field values in class definition order
+      else {
+        for (int j = 0; j < entry.fields.length; j++) {
+          readFieldValue(object_instance, entry.accessors[j], in, instances, classes, pending);
+        }
+      }
+    }
+
+    containers.fillAll(instances, pending);
+    return instances.get(0);
+  }
+
+  /**
+   * Decode tagged references and inline values into every entry of entries
+   */
+  private static void readReferences (Object[] entries, ByteBuffer in, InstanceTable instances, List<ClassDescriptor> classes, PendingReferences pending) throws Exception {
+    for (int j = 0; j < entries.length; j++) {
+      int tag = in.get();
+      if (tag == TAG_REFERENCE) {
+        int id = readVarint(in);
+        if (instances.has(id)) entries[j] = instances.get(id);
+        else pending.add(entries, null, j, id);
+      }
+      else if (tag == TAG_VALUE) {
+        entries[j] = readInline(classAt(readVarint(in), in, classes).type, in);
+      }
+    }
+  }
+
+  /**
+   * Look up a class index, decoding the class definition that follows the first use of an index
+   */
+  private static ClassDescriptor classAt (int class_index, ByteBuffer in, List<ClassDescriptor> classes) throws Exception {
+    if (class_index == classes.size()) {
+      classes.add(readClassDefinition(in));
+    }
+    return classes.get(class_index);
+  }
+
+  /**
+   * Decode one tagged value and set it on the field of object_instance
+   */
+  private static void readFieldValue (Object object_instance, FieldAccessor field, ByteBuffer in, InstanceTable instances, List<ClassDescriptor> classes, PendingReferences pending) throws Exception {
+    int tag = in.get();
+    switch (tag) {
+      case ClassMetadata.KIND_BOOLEAN: field.setBoolean(object_instance, in.get() != 0); break;
+      case ClassMetadata.KIND_BYTE: field.setByte(object_instance, in.get()); break;
+      case ClassMetadata.KIND_CHAR: field.setChar(object_instance, in.getChar()); break;
+      case ClassMetadata.KIND_SHORT: field.setShort(object_instance, in.getShort()); break;
+      case ClassMetadata.KIND_INT: field.setInt(object_instance, in.getInt()); break;
+      case ClassMetadata.KIND_LONG: field.setLong(object_instance, in.getLong()); break;
+      case ClassMetadata.KIND_FLOAT: field.setFloat(object_instance, in.getFloat()); break;
+      case ClassMetadata.KIND_DOUBLE: field.setDouble(object_instance, in.getDouble()); break;
+      case TAG_NULL: field.set(object_instance, null); break;
+      case TAG_REFERENCE:
+        int id = readVarint(in);
+        if (instances.has(id)) field.set(object_instance, instances.get(id));
+        else pending.add(object_instance, field, 0, id);
+        break;
+      case TAG_VALUE: field.set(object_instance, readInline(classAt(readVarint(in), in, classes).type, in)); break;
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  /**
+   * Decode the entries of a primitive array with bulk buffer copies
+   */
+  private static void readPrimitiveArray (Object object_instance, int kind, int length, ByteBuffer in) {
+    switch (kind) {
+      case ClassMetadata.KIND_BOOLEAN:
+        boolean[] booleans = (boolean[]) object_instance;
+        for (int j = 0; j < length; j++) booleans[j] = in.get() != 0;
+        return;
+      case ClassMetadata.KIND_BYTE: in.get((byte[]) object_instance); return;
+      case ClassMetadata.KIND_CHAR: in.asCharBuffer().get((char[]) object_instance); length *= 2; break;
+      case ClassMetadata.KIND_SHORT: in.asShortBuffer().get((short[]) object_instance); length *= 2; break;
+      case ClassMetadata.KIND_INT: in.asIntBuffer().get((int[]) object_instance); length *= 4; break;
+      case ClassMetadata.KIND_LONG: in.asLongBuffer().get((long[]) object_instance); length *= 8; break;
+      case ClassMetadata.KIND_FLOAT: in.asFloatBuffer().get((float[]) object_instance); length *= 4; break;
+      default: in.asDoubleBuffer().get((double[]) object_instance); length *= 8; break;
+    }
+    // The typed views do not move the position of the underlying buffer
+    in.position(in.position() + length);
+  }
+
+  /**
+   * Decode a class definition and resolve its fields against the local class once for the whole message
+   */
+  private static ClassDescriptor readClassDefinition (ByteBuffer in) throws Exception {
+    Class<?> type = ClassMetadata.classForName(readString(in));
+    int field_count = ClassMetadata.forClass(type).describesFields() ? readVarint(in) : 0;
+    String[] names = new String[field_count];
+    String[] declaring_classes = new String[field_count];
+    for (int i = 0; i < field_count; i++) {
+      names[i] = readString(in);
+      declaring_classes[i] = readString(in);
+    }
+    return ClassDescriptor.resolve(type, names, declaring_classes);
+  }
+
+  private static int readByte (InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException("Message ended early");
+    }
+    return b;
+  }
+
+  private static int readVarint (ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+  }
+
+  private static String readString (ByteBuffer in) {
+    int length = readVarint(in);
+    String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return s;
+  }
+
+  /**
+   * Growable big-endian byte buffer the message is encoded into
+   */
+  private static class Output {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    /**
+     * Make room for n more bytes
+     * @return the buffer, positioned where the bytes go
+     */
+    ByteBuffer ensure (int n) {
+      if (buffer.remaining() < n) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + n));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+      }
+      return buffer;
+    }
+
+    /**
+     * Move past n bytes written through a typed view of the buffer
+     */
+    void skip (int n) {
+      buffer.position(buffer.position() + n);
+    }
+
+    void writeByte (int b) {
+      ensure(1).put((byte) b);
+    }
+
+    void writeShort (int s) {
+      ensure(2).putShort((short) s);
+    }
+
+    void writeVarint (int value) {
+      ensure(5);
+      while ((value & ~0x7f) != 0) {
+        buffer.put((byte) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      buffer.put((byte) value);
+    }
+
+    void writeString (String s) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      ensure(bytes.length).put(bytes);
+    }
+
+    void writeTo (OutputStream out) throws IOException {
+      out.write(buffer.array(), 0, buffer.position());
+    }
+  }
+
+}
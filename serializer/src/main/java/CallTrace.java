@@ -0,0 +1,154 @@
+/**
+ * What one traced call to serialize or deserialize an object did: the class of its root, how many objects
+ * it wrote or read, the length of the Json and how long each of its phases took. A SerializationListener
+ * receives it once the call returns, and the same values are committed as a SerializeEvent or DeserializeEvent
+ * when Flight Recorder records them. Calls that throw are not reported. A call for a batch of roots, such as
+ * Serializer.serializeAll, has the collection of its roots as its root.
+ * Serializing goes through TRAVERSE, walking the graph and generating its Json, then OUTPUT, flushing
+ * the generator and building the String returned. Deserializing a String goes through PARSE, reading the
+ * Json into a tree, CREATE, instantiating every object, and ASSIGN, setting their fields and entries.
+ * Deserializing a Reader, an InputStream or the schema-once layout creates and populates each object
+ * as it is read, in the single READ phase, then links up forward references and fills collections in RESOLVE.
+ **/
+
+public final class CallTrace {
+
+  // Operations
+  public static final int SERIALIZE = 0;
+  public static final int DESERIALIZE = 1;
+
+  // Phases
+  public static final int TRAVERSE = 0;
+  public static final int OUTPUT = 1;
+  public static final int PARSE = 2;
+  public static final int CREATE = 3;
+  public static final int ASSIGN = 4;
+  public static final int READ = 5;
+  public static final int RESOLVE = 6;
+  public static final int PHASES = 7;
+
+  private static final String[] PHASE_NAMES = { "traverse", "output", "parse", "create", "assign", "read", "resolve" };
+
+  private final int operation;
+  private final long start;
+  private long last;
+  private final long[] phase_nanos = new long[PHASES];
+  private Class<?> root_class = null;
+  int objects = 0;
+  private long length = 0;
+  // Flight Recorder event of the call, null if Flight Recorder does not record it
+  private final jdk.jfr.Event event;
+
+  private CallTrace (int operation, jdk.jfr.Event event) {
+    this.operation = operation;
+    this.event = event;
+    if (event != null) {
+      event.begin();
+    }
+    start = System.nanoTime();
+    last = start;
+  }
+
+  /**
+   * Start tracing a call
+   * @param operation SERIALIZE or DESERIALIZE
+   * @return the trace of the call, or null if neither a listener nor Flight Recorder would receive it
+   */
+  static CallTrace begin (int operation) {
+    jdk.jfr.Event event = operation == SERIALIZE ? new SerializeEvent() : new DeserializeEvent();
+    if (!event.isEnabled()) {
+      if (Instrumentation.getListener() == null) {
+        return null;
+      }
+      event = null;
+    }
+    return new CallTrace(operation, event);
+  }
+
+  /**
+   * End the given phase, which started when the previous one ended
+   */
+  void mark (int phase) {
+    long now = System.nanoTime();
+    phase_nanos[phase] += now - last;
+    last = now;
+  }
+
+  /**
+   * Report the call to the listener and to Flight Recorder
+   * @param root Root object of the call
+   * @param json_length Length of the Json, in bytes for streams and byte arrays and in chars otherwise
+   */
+  void end (Object root, long json_length) {
+    root_class = root == null ? null : root.getClass();
+    length = json_length;
+    if (event != null) {
+      if (operation == SERIALIZE) {
+        ((SerializeEvent) event).set(this);
+      }
+      else {
+        ((DeserializeEvent) event).set(this);
+      }
+      event.end();
+      if (event.shouldCommit()) {
+        event.commit();
+      }
+    }
+    SerializationListener listener = Instrumentation.getListener();
+    if (listener != null) {
+      listener.completed(this);
+    }
+  }
+
+  /**
+   * @return SERIALIZE or DESERIALIZE
+   */
+  public int getOperation () {
+    return operation;
+  }
+
+  /**
+   * @return class of the root object, null for a null root, the class of the collection of roots for a batch
+   */
+  public Class<?> getRootClass () {
+    return root_class;
+  }
+
+  /**
+   * @return number of objects written or read, counting the root and inline values at the root but not
+   *         values written in place such as Strings and boxed primitives
+   */
+  public int getObjects () {
+    return objects;
+  }
+
+  /**
+   * @return length of the Json produced or consumed, in bytes for streams and byte arrays and in chars otherwise
+   */
+  public long getLength () {
+    return length;
+  }
+
+  /**
+   * @param phase One of the phases, such as TRAVERSE
+   * @return nanoseconds spent in it, 0 for phases the call does not go through
+   */
+  public long getPhaseNanos (int phase) {
+    return phase_nanos[phase];
+  }
+
+  /**
+   * @return nanoseconds from the start of the call to the end of its last phase
+   */
+  public long getTotalNanos () {
+    return last - start;
+  }
+
+  /**
+   * @return name of the phase, such as "traverse"
+   */
+  public static String phaseName (int phase) {
+    return PHASE_NAMES[phase];
+  }
+
+}
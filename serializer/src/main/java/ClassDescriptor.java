@@ -0,0 +1,72 @@
+/**
+ * Layout of a class as defined once in a message: the class and, for classes written as their fields, the fields
+ * whose values follow in order. Formats that write this layout once per message instead of naming
+ * every field resolve it to local Field objects here once, then bind values by position.
+ **/
+
+import java.lang.reflect.*;
+
+public class ClassDescriptor {
+
+  @SuppressWarnings("rawtypes")
+  final Class type;
+  // Fields in the order their values are written, for classes written as their fields
+  final Field[] fields;
+  // FieldAccessor of each entry of fields
+  final FieldAccessor[] accessors;
+  // ClassMetadata kind of each entry of fields
+  final int[] kinds;
+  // ClassMetadata kind of the component type, for array classes
+  final int component_kind;
+  // JdkCollections container kind of type, containers are written as their elements like object arrays
+  final int container;
+  // Whether type is a JDK container built from its elements, see JdkCollections.isBuilt
+  final boolean built;
+  // Whether type is an InlineValues type, whose instances are written as their value
+  final boolean inline;
+
+  @SuppressWarnings("rawtypes")
+  private ClassDescriptor (Class type, Field[] fields, FieldAccessor[] accessors, int[] kinds, int component_kind, int container) {
+    this.type = type;
+    this.fields = fields;
+    this.accessors = accessors;
+    this.kinds = kinds;
+    this.component_kind = component_kind;
+    this.container = container;
+    this.built = container != JdkCollections.NONE && JdkCollections.isBuilt(ClassMetadata.forClass(type).form);
+    this.inline = InlineValues.isInline(type);
+  }
+
+  /**
+   * Resolve a class layout read from a message against the local class
+   * @param type Local class named in the message
+   * @param names Names of the fields in the order their values are written, ignored for arrays, containers and inline values
+   * @param declaring_classes Names of the classes declaring each field
+   * @return ClassDescriptor binding each position to a local Field
+   */
+  @SuppressWarnings("rawtypes")
+  public static ClassDescriptor resolve (Class type, String[] names, String[] declaring_classes) throws NoSuchFieldException {
+    if (type.isArray()) {
+      return new ClassDescriptor(type, null, null, null, ClassMetadata.kindOf(type.getComponentType()), JdkCollections.NONE);
+    }
+
+    ClassMetadata metadata = ClassMetadata.forClass(type);
+    if (!metadata.describesFields()) {
+      return new ClassDescriptor(type, null, null, null, ClassMetadata.KIND_OBJECT, metadata.container);
+    }
+    Field[] fields = new Field[names.length];
+    FieldAccessor[] accessors = new FieldAccessor[names.length];
+    int[] kinds = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      int field_index = metadata.indexOf(names[i], declaring_classes[i], i);
+      if (field_index < 0) {
+        throw new NoSuchFieldException(declaring_classes[i] + "." + names[i]);
+      }
+      fields[i] = metadata.fields[field_index];
+      accessors[i] = metadata.accessors[field_index];
+      kinds[i] = metadata.kinds[field_index];
+    }
+    return new ClassDescriptor(type, fields, accessors, kinds, ClassMetadata.KIND_OBJECT, JdkCollections.NONE);
+  }
+
+}
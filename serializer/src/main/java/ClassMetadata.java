@@ -0,0 +1,211 @@
+/**
+ * Caches the reflective information the Serializer and Deserializer need about a class:
+ * its ordered instance fields, the accessible Field objects and their FieldAccessors,
+ * the primitive kind of each field and the name of the class declaring it.
+ * Metadata is computed the first time a class is seen and kept in a ClassValue, so the
+ * reflection lookups happen once per class and the cache does not keep classes from unloading.
+ * JDK collections and maps are described by their JdkCollections container kind instead of their fields,
+ * and the immutable value types InlineValues writes inline have no fields either.
+ * Classes annotated with GenerateCodec read and write their fields through their generated Codec instead,
+ * and only fall back to reflection when they were compiled without it.
+ **/
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ClassMetadata {
+
+  // Primitive kind of a field. KIND_OBJECT is used for every reference type
+  public static final int KIND_OBJECT = 0;
+  public static final int KIND_BOOLEAN = 1;
+  public static final int KIND_BYTE = 2;
+  public static final int KIND_CHAR = 3;
+  public static final int KIND_SHORT = 4;
+  public static final int KIND_INT = 5;
+  public static final int KIND_LONG = 6;
+  public static final int KIND_FLOAT = 7;
+  public static final int KIND_DOUBLE = 8;
+
+  // Classes named in messages, so each name is resolved through Class.forName once. They are only weakly
+  // referenced, so a class and its ClassLoader can still be unloaded once nothing else uses them
+  private static final Map<String, WeakReference<Class<?>>> NAMED_CLASSES = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+
+  private static final ClassValue<ClassMetadata> CACHE = new ClassValue<ClassMetadata>() {
+    @Override
+    protected ClassMetadata computeValue(Class<?> type) {
+      return new ClassMetadata(type);
+    }
+  };
+
+  @SuppressWarnings("rawtypes")
+  final Class type;
+  // All instance variables of type, subclass fields first, made accessible unless type has a codec
+  final Field[] fields;
+  // JdkCollections container kind of type. Containers are written as their elements and have no fields here
+  final int container;
+  // JdkCollections form of a container, how it is made and rebuilt
+  final int form;
+  // Name type is written under, its own or the logical name of a container made by a JDK factory
+  final String name;
+  // Whether values of type are written inline by InlineValues, such values have no fields here either
+  final boolean inline;
+  // Generated codec of type, or null when type is read and written reflectively
+  final Codec codec;
+  // Accessor of each entry of fields, calling the codec when there is one and MethodHandle based otherwise
+  final FieldAccessor[] accessors;
+  // Primitive kind of each entry of fields
+  final int[] kinds;
+  // Name of each entry of fields
+  final String[] names;
+  // Name of the class declaring each entry of fields
+  final String[] declaring_classes;
+  // Created on first use, since only deserializing needs it
+  private volatile Instantiator instantiator;
+
+  /**
+   * Return the cached metadata for the given class, computing it on first use
+   * @param c Class to describe
+   * @return ClassMetadata for c
+   */
+  @SuppressWarnings("rawtypes")
+  public static ClassMetadata forClass (Class c) {
+    return CACHE.get(c);
+  }
+
+  @SuppressWarnings("rawtypes")
+  private ClassMetadata (Class c) {
+    type = c;
+    container = JdkCollections.containerOf(c);
+    form = container == JdkCollections.NONE ? JdkCollections.CONSTRUCTED : JdkCollections.formOf(c);
+    name = container == JdkCollections.NONE ? c.getName() : JdkCollections.nameOf(c);
+    inline = InlineValues.isInline(c);
+    fields = describesFields() ? getAllInstanceVariables(c) : new Field[0];
+    codec = describesFields() ? Codec.forClass(c, fields) : null;
+    accessors = new FieldAccessor[fields.length];
+    kinds = new int[fields.length];
+    names = new String[fields.length];
+    declaring_classes = new String[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      if (codec != null) {
+        accessors[i] = codec.accessor(fields[i], i);
+      }
+      else {
+        // Reflection: make sure the field is accessible
+        if (!Modifier.isPublic(fields[i].getModifiers())) {
+          fields[i].setAccessible(true);
+        }
+        accessors[i] = FieldAccessor.unreflect(fields[i]);
+      }
+      kinds[i] = kindOf(fields[i].getType());
+      names[i] = fields[i].getName();
+      declaring_classes[i] = fields[i].getDeclaringClass().getName();
+    }
+  }
+
+  /**
+   * Resolve a class named in a message, caching the result
+   * @param name Name of the class as given by Class.getName, or the logical name of a JDK container
+   * @return the Class
+   */
+  @SuppressWarnings("rawtypes")
+  public static Class classForName (String name) throws ClassNotFoundException {
+    WeakReference<Class<?>> cached = NAMED_CLASSES.get(name);
+    Class c = cached == null ? null : cached.get();
+    if (c == null) {
+      c = JdkCollections.logicalClass(name);
+    }
+    if (c == null) {
+      // Replaces the entry of a class that was unloaded as well
+      c = Class.forName(name);
+      NAMED_CLASSES.put(name, new WeakReference<Class<?>>(c));
+    }
+    return c;
+  }
+
+  /**
+   * @return the cached Instantiator creating empty instances of the class
+   */
+  public Instantiator instantiator () {
+    Instantiator result = instantiator;
+    if (result == null) {
+      // Two threads may both resolve it, either result is as good as the other
+      result = new Instantiator(this);
+      instantiator = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return true if instances of the class are written as their fields, false for arrays, containers and inline values
+   */
+  public boolean describesFields () {
+    return !type.isArray() && container == JdkCollections.NONE && !inline;
+  }
+
+  /**
+   * Find the index of the field with the given name and declaring class.
+   * Fields are usually read back in the order they were written, so hint is checked first.
+   * @param name Name of the field
+   * @param declaring_class Name of the class declaring the field
+   * @param hint Index the field is expected at
+   * @return index of the field in fields, or -1 if this class has no such field
+   */
+  public int indexOf (String name, String declaring_class, int hint) {
+    if (hint >= 0 && hint < fields.length && names[hint].equals(name) && declaring_classes[hint].equals(declaring_class)) {
+      return hint;
+    }
+    for (int i = 0; i < fields.length; i++) {
+      if (names[i].equals(name) && declaring_classes[i].equals(declaring_class)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Map a field type to its primitive kind
+   * @param c Type of a field or array component
+   * @return one of the KIND_ constants
+   */
+  @SuppressWarnings("rawtypes")
+  public static int kindOf (Class c) {
+    if (!c.isPrimitive()) return KIND_OBJECT;
+    if (c == boolean.class) return KIND_BOOLEAN;
+    if (c == byte.class) return KIND_BYTE;
+    if (c == char.class) return KIND_CHAR;
+    if (c == short.class) return KIND_SHORT;
+    if (c == int.class) return KIND_INT;
+    if (c == long.class) return KIND_LONG;
+    if (c == float.class) return KIND_FLOAT;
+    return KIND_DOUBLE;
+  }
+
+  /**
+   * The following code is adapted from the Java Reflection in Action textbook by Ira R. Forman and Nate Forman
+   * on page 38 listing 2.2 as of November 26, 2020 from: http://citeseerx.ist.psu.edu/viewdoc/download?doi=10.1.1.116.5796&rep=rep1&type=pdf
+   * @param c Class whose fields will be explored
+   * @return Field[] containing all instance variables of c
+   */
+  @SuppressWarnings("rawtypes")
+  private static Field[] getAllInstanceVariables (Class c) {
+    List<Field> allFields = new ArrayList<Field>();
+    // Traverse inheritance hierarchy completely, collecting instance variables along the way
+    while (c != null) {
+      Field[] f = c.getDeclaredFields();
+      for (int i = 0; i < f.length; i++) {
+        int mods = f[i].getModifiers();
+        // Ignore static fields
+        if (!Modifier.isStatic(mods)) {
+          allFields.add(f[i]);
+        }
+      }
+      // Move up inheritance hierarchy
+      c = c.getSuperclass();
+    }
+    return allFields.toArray(new Field[allFields.size()]);
+  }
+
+}
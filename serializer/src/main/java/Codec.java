@@ -0,0 +1,280 @@
+/**
+ * The codec CodecProcessor generated for a class annotated with GenerateCodec, bound once per class.
+ * A generated codec only refers to java.* types, so it compiles in the package of any annotated class, and
+ * is found here by name: it lists the instance fields of the class in ClassMetadata order, and reads and
+ * writes them by number through the static methods readPrimitive, readReference, writePrimitive and
+ * writeReference, with primitives carried as the raw bits of a long. Their MethodHandles are bound to each
+ * field number once, so the FieldAccessors of a codec call straight into the generated field accesses
+ * without any reflective access check, and the Field objects of the class are never made accessible.
+ * A codec whose fields do not match the class, such as one left over from an earlier compile, is not used.
+ **/
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+public final class Codec {
+
+  // Generated methods, see CodecProcessor
+  private static final MethodType READ_PRIMITIVE = MethodType.methodType(long.class, Object.class, int.class);
+  private static final MethodType READ_REFERENCE = MethodType.methodType(Object.class, Object.class, int.class);
+  private static final MethodType WRITE_PRIMITIVE = MethodType.methodType(void.class, Object.class, int.class, long.class);
+  private static final MethodType WRITE_REFERENCE = MethodType.methodType(void.class, Object.class, int.class, Object.class);
+
+  // ()Object calling the no-arg constructor, or null when the class has no accessible one
+  private final MethodHandle new_instance;
+  private final MethodHandle read_primitive;
+  private final MethodHandle read_reference;
+  private final MethodHandle write_primitive;
+  private final MethodHandle write_reference;
+
+  private Codec (Class<?> codec_class) throws ReflectiveOperationException {
+    MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+    MethodHandle constructor;
+    try {
+      constructor = lookup.findStatic(codec_class, "newInstance", MethodType.methodType(Object.class));
+    }
+    catch (NoSuchMethodException e) {
+      constructor = null;
+    }
+    new_instance = constructor;
+    read_primitive = lookup.findStatic(codec_class, "readPrimitive", READ_PRIMITIVE);
+    read_reference = lookup.findStatic(codec_class, "readReference", READ_REFERENCE);
+    write_primitive = lookup.findStatic(codec_class, "writePrimitive", WRITE_PRIMITIVE);
+    write_reference = lookup.findStatic(codec_class, "writeReference", WRITE_REFERENCE);
+  }
+
+  /**
+   * Load the codec CodecProcessor generated for an annotated class
+   * @param c Class to find the codec of
+   * @param fields Instance fields of c in ClassMetadata order
+   * @return Codec for c, or null if c is not annotated, was compiled without the processor or has other fields than its codec
+   */
+  static Codec forClass (Class<?> c, Field[] fields) {
+    if (!c.isAnnotationPresent(GenerateCodec.class)) {
+      return null;
+    }
+    Class<?> codec_class;
+    try {
+      codec_class = Class.forName(c.getName().replace('$', '_') + "Codec", true, c.getClassLoader());
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+    try {
+      String[] codec_fields = (String[]) codec_class.getField("FIELDS").get(null);
+      if (codec_fields.length != fields.length) {
+        return null;
+      }
+      for (int i = 0; i < fields.length; i++) {
+        if (!codec_fields[i].equals(fields[i].getDeclaringClass().getName() + "." + fields[i].getName())) {
+          return null;
+        }
+      }
+      return new Codec(codec_class);
+    }
+    catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalStateException("Cannot load the generated codec of " + c.getName(), e);
+    }
+  }
+
+  /**
+   * @return a new instance built with the no-arg constructor, or null if the class has no accessible one
+   */
+  public Object newInstance () {
+    if (new_instance == null) {
+      return null;
+    }
+    try {
+      return (Object) new_instance.invokeExact();
+    }
+    catch (Throwable t) {
+      throw unchecked(t);
+    }
+  }
+
+  /**
+   * @param field Instance field of the class
+   * @param number Index of field in ClassMetadata order, which is its number in the codec
+   * @return FieldAccessor calling the generated methods for field
+   */
+  FieldAccessor accessor (Field field, int number) {
+    if (field.getType().isPrimitive()) {
+      return new CodecAccessor(field, MethodHandles.insertArguments(read_primitive, 1, number), MethodHandles.insertArguments(write_primitive, 1, number));
+    }
+    return new CodecAccessor(field, MethodHandles.insertArguments(read_reference, 1, number), MethodHandles.insertArguments(write_reference, 1, number));
+  }
+
+  /**
+   * The generated code only throws what the field access itself can, such as a NullPointerException or ClassCastException
+   */
+  private static RuntimeException unchecked (Throwable t) {
+    if (t instanceof RuntimeException) return (RuntimeException) t;
+    if (t instanceof Error) throw (Error) t;
+    return new IllegalStateException(t);
+  }
+
+  /**
+   * Reads and writes one field through the methods of a generated codec. A typed method for a wider type than
+   * the field widens its value, and one for a narrower type is widened to the field, as Field.getInt and
+   * Field.setInt do. Any other combination throws IllegalArgumentException.
+   */
+  private static final class CodecAccessor extends FieldAccessor {
+    // (Object)long for primitive fields, (Object)Object for references
+    private final MethodHandle reader;
+    // (Object,long)void for primitive fields, (Object,Object)void for references
+    private final MethodHandle writer;
+
+    CodecAccessor (Field field, MethodHandle reader, MethodHandle writer) {
+      super(field);
+      this.reader = reader;
+      this.writer = writer;
+    }
+
+    /**
+     * @return the raw bits of a primitive field
+     */
+    private long bits (Object obj) {
+      try { return (long) reader.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    private void putBits (Object obj, long bits) {
+      try { writer.invokeExact(obj, bits); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    private IllegalArgumentException mismatch (String type) {
+      return new IllegalArgumentException("Field " + field + " cannot be accessed as " + type);
+    }
+
+    @Override
+    public Object get (Object obj) {
+      switch (kind) {
+        case ClassMetadata.KIND_OBJECT:
+          try { return (Object) reader.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+        case ClassMetadata.KIND_BOOLEAN: return getBoolean(obj);
+        case ClassMetadata.KIND_BYTE: return getByte(obj);
+        case ClassMetadata.KIND_CHAR: return getChar(obj);
+        case ClassMetadata.KIND_SHORT: return getShort(obj);
+        case ClassMetadata.KIND_INT: return getInt(obj);
+        case ClassMetadata.KIND_LONG: return getLong(obj);
+        case ClassMetadata.KIND_FLOAT: return getFloat(obj);
+        default: return getDouble(obj);
+      }
+    }
+
+    @Override
+    public boolean getBoolean (Object obj) {
+      if (kind != ClassMetadata.KIND_BOOLEAN) throw mismatch("boolean");
+      return bits(obj) != 0;
+    }
+
+    @Override
+    public byte getByte (Object obj) {
+      if (kind != ClassMetadata.KIND_BYTE) throw mismatch("byte");
+      return (byte) bits(obj);
+    }
+
+    @Override
+    public char getChar (Object obj) {
+      if (kind != ClassMetadata.KIND_CHAR) throw mismatch("char");
+      return (char) bits(obj);
+    }
+
+    @Override
+    public short getShort (Object obj) {
+      if (kind == ClassMetadata.KIND_SHORT) return (short) bits(obj);
+      if (kind == ClassMetadata.KIND_BYTE) return getByte(obj);
+      throw mismatch("short");
+    }
+
+    @Override
+    public int getInt (Object obj) {
+      if (kind == ClassMetadata.KIND_INT) return (int) bits(obj);
+      if (kind == ClassMetadata.KIND_CHAR) return getChar(obj);
+      return getShort(obj);
+    }
+
+    @Override
+    public long getLong (Object obj) {
+      if (kind == ClassMetadata.KIND_LONG) return bits(obj);
+      return getInt(obj);
+    }
+
+    @Override
+    public float getFloat (Object obj) {
+      if (kind == ClassMetadata.KIND_FLOAT) return Float.intBitsToFloat((int) bits(obj));
+      return getLong(obj);
+    }
+
+    @Override
+    public double getDouble (Object obj) {
+      if (kind == ClassMetadata.KIND_DOUBLE) return Double.longBitsToDouble(bits(obj));
+      return getFloat(obj);
+    }
+
+    @Override
+    public void set (Object obj, Object value) throws IllegalAccessException {
+      if (kind == ClassMetadata.KIND_OBJECT) {
+        try { writer.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+      }
+      else if (value instanceof Boolean) setBoolean(obj, (Boolean) value);
+      else if (value instanceof Byte) setByte(obj, (Byte) value);
+      else if (value instanceof Character) setChar(obj, (Character) value);
+      else if (value instanceof Short) setShort(obj, (Short) value);
+      else if (value instanceof Integer) setInt(obj, (Integer) value);
+      else if (value instanceof Long) setLong(obj, (Long) value);
+      else if (value instanceof Float) setFloat(obj, (Float) value);
+      else if (value instanceof Double) setDouble(obj, (Double) value);
+      else throw mismatch(value == null ? "null" : value.getClass().getName());
+    }
+
+    @Override
+    public void setBoolean (Object obj, boolean value) {
+      if (kind != ClassMetadata.KIND_BOOLEAN) throw mismatch("boolean");
+      putBits(obj, value ? 1 : 0);
+    }
+
+    @Override
+    public void setByte (Object obj, byte value) {
+      if (kind == ClassMetadata.KIND_BYTE) putBits(obj, value);
+      else setShort(obj, value);
+    }
+
+    @Override
+    public void setChar (Object obj, char value) {
+      if (kind == ClassMetadata.KIND_CHAR) putBits(obj, value);
+      else setInt(obj, value);
+    }
+
+    @Override
+    public void setShort (Object obj, short value) {
+      if (kind == ClassMetadata.KIND_SHORT) putBits(obj, value);
+      else setInt(obj, value);
+    }
+
+    @Override
+    public void setInt (Object obj, int value) {
+      if (kind == ClassMetadata.KIND_INT) putBits(obj, value);
+      else setLong(obj, value);
+    }
+
+    @Override
+    public void setLong (Object obj, long value) {
+      if (kind == ClassMetadata.KIND_LONG) putBits(obj, value);
+      else setFloat(obj, value);
+    }
+
+    @Override
+    public void setFloat (Object obj, float value) {
+      if (kind == ClassMetadata.KIND_FLOAT) putBits(obj, Float.floatToRawIntBits(value));
+      else setDouble(obj, value);
+    }
+
+    @Override
+    public void setDouble (Object obj, double value) {
+      if (kind != ClassMetadata.KIND_DOUBLE) throw mismatch("double");
+      putBits(obj, Double.doubleToRawLongBits(value));
+    }
+
+  }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Table of the objects of a graph shared by the tasks of ParallelSerializer, which assigns the same ids as ObjectTable.
+ * Objects are kept in an open addressing identity table whose slots are claimed with compare-and-set,
+ * so many tasks can discover references at once. Ids stay exactly the ones ObjectTable assigns
+ * sequentially: each new object is claimed with the position it was first referenced from, the
+ * (id, slot) pair of the referencing object, and the lowest position wins. Once every claim of a
+ * level of the graph is in, the winners are numbered in position order by assign.
+ * The table only grows between phases, through ensureCapacity and reserve, never while tasks run.
+ **/
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class ConcurrentObjectTable implements ObjectIds {
+
+  // Identity table, half full at most. A value is id + 1 once assigned, minus the lowest
+  // claim position + 1 while the object is only claimed, and 0 for a free slot
+  private AtomicReferenceArray<Object> keys = new AtomicReferenceArray<Object>(64);
+  private AtomicLongArray values = new AtomicLongArray(64);
+  // Objects indexed by id
+  private Object[] objects = new Object[16];
+  private int size = 0;
+
+  /**
+   * Return the id of an object that has been assigned one. An object that has not is assigned the next id,
+   * which is not thread safe and only done for the root, before any task runs.
+   * @param obj Non-null object to look up
+   * @return id of obj
+   */
+  @Override
+  public int idOf (Object obj) {
+    long value = values.get(slotOf(obj));
+    if (value > 0) {
+      return (int) (value - 1);
+    }
+    ensureCapacity(1);
+    reserve(size + 1);
+    int id = size;
+    claim(obj, 0);
+    assign(obj, id);
+    size = id + 1;
+    return id;
+  }
+
+  /**
+   * @param id Id of an assigned object
+   * @return the object with the given id
+   */
+  public Object get (int id) {
+    return objects[id];
+  }
+
+  /**
+   * @return number of objects assigned an id
+   */
+  public int size () {
+    return size;
+  }
+
+  /**
+   * Make room for up to more objects to be claimed. Every claimed object is assigned before the next
+   * level is claimed, so the objects in the table are the size assigned ones. Not thread safe.
+   */
+  public void ensureCapacity (long more) {
+    long needed = (size + more) * 2;
+    if (needed <= keys.length()) {
+      return;
+    }
+    int capacity = keys.length();
+    while (capacity < needed) {
+      capacity *= 2;
+    }
+    AtomicReferenceArray<Object> old_keys = keys;
+    AtomicLongArray old_values = values;
+    keys = new AtomicReferenceArray<Object>(capacity);
+    values = new AtomicLongArray(capacity);
+    for (int i = 0; i < old_keys.length(); i++) {
+      Object key = old_keys.get(i);
+      if (key != null) {
+        int slot = slotOf(key);
+        keys.set(slot, key);
+        values.set(slot, old_values.get(i));
+      }
+    }
+  }
+
+  /**
+   * Make room for ids up to new_size, to be numbered by assign. Not thread safe.
+   */
+  public void reserve (int new_size) {
+    if (new_size > objects.length) {
+      objects = Arrays.copyOf(objects, Math.max(objects.length * 2, new_size));
+    }
+  }
+
+  /**
+   * Claim obj for the given position unless it already has an id or a lower claim. Thread safe.
+   * @param obj Non-null object referenced at position
+   * @param position Position of the reference, lower for references the sequential ObjectTable would see first
+   * @return true if obj has no id and position is its lowest claim so far
+   */
+  public boolean claim (Object obj, long position) {
+    int mask = keys.length() - 1;
+    int slot = hash(obj) & mask;
+    while (true) {
+      Object key = keys.get(slot);
+      if (key == null && keys.compareAndSet(slot, null, obj)) {
+        break;
+      }
+      if (keys.get(slot) == obj) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+    long claimed = -(position + 1);
+    while (true) {
+      long value = values.get(slot);
+      if (value > 0 || (value < 0 && value >= claimed)) {
+        return false;
+      }
+      if (values.compareAndSet(slot, value, claimed)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return true if the lowest claim of obj, which has no id yet, is the given position. Thread safe.
+   */
+  public boolean isClaimedBy (Object obj, long position) {
+    return values.get(slotOf(obj)) == -(position + 1);
+  }
+
+  /**
+   * Give a claimed object its id. Tasks may assign different objects at once, once reserve made room for the ids.
+   */
+  public void assign (Object obj, int id) {
+    values.set(slotOf(obj), id + 1L);
+    objects[id] = obj;
+  }
+
+  /**
+   * Set the number of assigned ids once every object of a level has been assigned. Not thread safe.
+   */
+  public void setSize (int new_size) {
+    size = new_size;
+  }
+
+  /**
+   * @return slot of obj, or of the free slot where it would be added
+   */
+  private int slotOf (Object obj) {
+    int mask = keys.length() - 1;
+    int slot = hash(obj) & mask;
+    Object key;
+    while ((key = keys.get(slot)) != null && key != obj) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int hash (Object obj) {
+    // Spread the bits into the low ones the mask keeps
+    int h = System.identityHashCode(obj) * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+}
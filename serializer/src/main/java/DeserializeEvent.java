@@ -0,0 +1,56 @@
+/**
+ * Flight Recorder event of one call to deserialize an object, tagged with the class of its root.
+ * Enable serializer.Deserialize in a recording to get it, see CallTrace.
+ **/
+
+import jdk.jfr.*;
+
+@Name("serializer.Deserialize")
+@Label("Deserialize")
+@Category("Serializer")
+@Description("Deserialization of an object graph from Json")
+@StackTrace(false)
+final class DeserializeEvent extends Event {
+
+  @Label("Root Class")
+  Class<?> root_class;
+
+  @Label("Objects")
+  int objects;
+
+  @Label("Length")
+  @Description("Bytes read from a stream or byte array, or chars read from a Reader or String")
+  long length;
+
+  @Label("Parse")
+  @Timespan
+  long parse;
+
+  @Label("Create")
+  @Timespan
+  long create;
+
+  @Label("Assign")
+  @Timespan
+  long assign;
+
+  @Label("Read")
+  @Timespan
+  long read;
+
+  @Label("Resolve")
+  @Timespan
+  long resolve;
+
+  void set (CallTrace trace) {
+    root_class = trace.getRootClass();
+    objects = trace.getObjects();
+    length = trace.getLength();
+    parse = trace.getPhaseNanos(CallTrace.PARSE);
+    create = trace.getPhaseNanos(CallTrace.CREATE);
+    assign = trace.getPhaseNanos(CallTrace.ASSIGN);
+    read = trace.getPhaseNanos(CallTrace.READ);
+    resolve = trace.getPhaseNanos(CallTrace.RESOLVE);
+  }
+
+}
@@ -0,0 +1,1173 @@
+/**
+ * Deserialize a given JSON object string passed in as parameter,
+ * returning the re-constructed object alongside any objects it refers to.
+ * A Reader or InputStream can also be deserialized in a single streaming pass,
+ * without reading the whole message into a JsonObject first.
+ * Documents in the schema-once layout written by Format.JSON_SCHEMA are read by every path.
+ * deserializeAll reads back every root of a batch document written by Serializer.serializeAll.
+*/
+
+import javax.json.*;
+import javax.json.stream.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.*;
+import java.util.*;
+
+public class Deserializer {
+
+   // Looking up the JSON provider is expensive, so readers and parsers all come from cached factories
+   private static final JsonReaderFactory READER_FACTORY = Json.createReaderFactory(null);
+   private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+	/**
+	 * Given a String containing a Json object, deserialize and return its object
+	 * @param source String containing Json to be deserialized
+	 * @return Object instance of data found within source
+	 * @throws Exception
+	 */
+   public static Object deserializeObject(String source) throws Exception {
+     CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+     JsonObject obj = readJson(source);
+     if (trace != null) {
+       trace.mark(CallTrace.PARSE);
+     }
+     // ID 0 = Source object
+     return endTrace(readInstances(obj, trace), trace, source.length());
+   }
+
+   /**
+    * Given a String containing a Json object, index its objects without building any of them.
+    * Each object is built the first time it is reached through the returned LazyGraph.
+    * @param source String containing Json to be deserialized
+    * @return LazyGraph of the objects found within source
+    */
+   public static LazyGraph deserializeLazy(String source) {
+     return new LazyGraph(source);
+   }
+
+   /**
+    * Open a snapshot file written by Serializer.serializeSnapshot without reading its objects.
+    * Each object is built the first time it is asked for, parsing only its entry and those of the objects it references.
+    * @param file Snapshot file
+    * @return SnapshotFile to get the objects from, to be closed once done with
+    */
+   public static SnapshotFile openSnapshot(java.nio.file.Path file) throws IOException {
+     return SnapshotFile.open(file);
+   }
+
+   /**
+    * Given a String containing a Json document written by Serializer.serializeAll, deserialize every root
+    * @param source String containing Json to be deserialized
+    * @return the roots in the order they were serialized, or a list of the only root of a document
+    *         written by Serializer.serializeObject
+    */
+   public static List<Object> deserializeAll(String source) throws Exception {
+     CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+     JsonObject obj = readJson(source);
+     if (trace != null) {
+       trace.mark(CallTrace.PARSE);
+     }
+     JsonArray roots = obj.containsKey("roots") ? obj.getJsonArray("roots") : null;
+     return endTrace(roots, readInstances(obj, trace), trace, source.length());
+   }
+
+   /**
+    * Deserialize every root of the Json document read from the given Reader in a single forward pass.
+    * The result is the same as deserializeAll(String) on the same document. The Reader is not closed.
+    * @param source Reader containing Json to be deserialized
+    * @return the roots in the order they were serialized
+    */
+   public static List<Object> deserializeAll(Reader source) throws Exception {
+     CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+     Instrumentation.CountingReader counter = trace == null ? null : new Instrumentation.CountingReader(source);
+     List<JsonValue> roots = new ArrayList<JsonValue>();
+     InstanceTable instance_table = deserializeDocument(PARSER_FACTORY.createParser(trace == null ? source : counter), roots, trace);
+     return endTrace(roots.isEmpty() ? null : roots.get(0).asJsonArray(), instance_table, trace, trace == null ? 0 : counter.count);
+   }
+
+   /**
+    * Deserialize every root of the UTF-8 encoded Json document read from the given InputStream in a single
+    * forward pass. The result is the same as deserializeAll(String) on the same document. The InputStream is not closed.
+    * @param source InputStream containing Json to be deserialized
+    * @return the roots in the order they were serialized
+    */
+   public static List<Object> deserializeAll(InputStream source) throws Exception {
+     CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+     Instrumentation.CountingInputStream counter = trace == null ? null : new Instrumentation.CountingInputStream(source);
+     List<JsonValue> roots = new ArrayList<JsonValue>();
+     InstanceTable instance_table = deserializeDocument(PARSER_FACTORY.createParser(trace == null ? source : counter, StandardCharsets.UTF_8), roots, trace);
+     return endTrace(roots.isEmpty() ? null : roots.get(0).asJsonArray(), instance_table, trace, trace == null ? 0 : counter.count);
+   }
+
+   /**
+    * Convert String to JsonObject
+    */
+   private static JsonObject readJson(String source) {
+     return readJson(new StringReader(source));
+   }
+
+   /**
+    * Read one JsonObject from the given Reader, which is not closed
+    */
+   static JsonObject readJson(Reader source) {
+     return READER_FACTORY.createReader(source).readObject();
+   }
+
+   /**
+    * Apply one message of a SerializerSession to the instances of the previous messages:
+    * drop the released objects, create the new ones and populate them, then patch the changed ones.
+    * Immutable, singleton and unmodifiable containers cannot be changed in place, so a changed one is built anew,
+    * see replaceReferences.
+    * @param message JsonObject of the message
+    * @param instance_table Every instance of the session by id, updated in place
+    * @return the root of the message
+    */
+   @SuppressWarnings("rawtypes")
+   static Object applyDelta(JsonObject message, InstanceTable instance_table) throws Exception {
+     // Released Ids: Forget their objects, the ids may be reused by the new objects
+     for (JsonValue released : message.getJsonArray("released")) {
+       instance_table.put(intValue(released), null);
+     }
+
+     // New Objects: Created, then populated like the objects of a document, as they may reference each other
+     JsonArray object_list = message.getJsonArray("objects");
+     createInstances(instance_table, object_list);
+     PendingReferences pending = new PendingReferences();
+     JdkCollections.Fill containers = new JdkCollections.Fill();
+     assignFieldValues(instance_table, object_list, pending, containers);
+
+     // Changed Objects: Set the changed fields and entries, replace the elements of JDK collections and maps
+     JsonArray changes = message.getJsonArray("changes");
+     // Ids and elements of the changed containers that are built from their elements
+     int[] rebuilt_ids = new int[4];
+     Object[][] rebuilt_elements = new Object[4][];
+     int rebuilt_count = 0;
+     for (int i = 0; i < changes.size(); i++) {
+       JsonObject change = changes.getJsonObject(i);
+       Object object_instance = instance_table.get(intValue(change.get("id")));
+       ClassMetadata metadata = ClassMetadata.forClass(object_instance.getClass());
+
+       if (change.containsKey("fields")) {
+         JsonArray object_fields = change.getJsonArray("fields");
+         for (int j = 0; j < object_fields.size(); j++) {
+           assignField(object_instance, metadata, -1, object_fields.getJsonObject(j), instance_table, pending);
+         }
+       }
+       else if (change.containsKey("entries")) {
+         Class component_class = metadata.type.getComponentType();
+         JsonArray entries = change.getJsonArray("entries");
+         for (int j = 0; j < entries.size(); j++) {
+           JsonObject entry = entries.getJsonObject(j);
+           assignArrayEntry(object_instance, component_class, intValue(entry.get("index")), entry, instance_table, pending);
+         }
+       }
+       else if (change.containsKey("values")) {
+         assignPrimitiveEntries(object_instance, ClassMetadata.kindOf(metadata.type.getComponentType()), change.get("values"));
+       }
+       else {
+         JsonArray entries = change.getJsonArray("elements");
+         Object[] elements = new Object[entries.size()];
+         for (int j = 0; j < elements.length; j++) {
+           assignArrayEntry(elements, Object.class, j, entries.getJsonObject(j), instance_table, pending);
+         }
+         if (JdkCollections.isBuilt(JdkCollections.formOf(metadata.type))) {
+           if (rebuilt_count == rebuilt_ids.length) {
+             rebuilt_ids = Arrays.copyOf(rebuilt_ids, rebuilt_count * 2);
+             rebuilt_elements = Arrays.copyOf(rebuilt_elements, rebuilt_count * 2);
+           }
+           rebuilt_ids[rebuilt_count] = intValue(change.get("id"));
+           rebuilt_elements[rebuilt_count++] = elements;
+         }
+         else {
+           JdkCollections.clear(object_instance, metadata.container);
+           containers.add(object_instance, metadata.container, elements);
+         }
+       }
+     }
+     containers.fillAll(instance_table, pending);
+
+     // Every element is read now, so the changed built containers can be built and put in place of the old ones
+     if (rebuilt_count > 0) {
+       Map<Object, Object> replaced = new IdentityHashMap<Object, Object>();
+       for (int i = 0; i < rebuilt_count; i++) {
+         Object old_instance = instance_table.get(rebuilt_ids[i]);
+         Object new_instance = JdkCollections.build(old_instance.getClass(), rebuilt_elements[i]);
+         instance_table.put(rebuilt_ids[i], new_instance);
+         replaced.put(old_instance, new_instance);
+       }
+       replaceReferences(instance_table, replaced);
+     }
+
+     return deserializeJsonValue(message.getJsonObject("root"), instance_table, Object.class);
+   }
+
+   /**
+    * Point every reference to a replaced instance at its replacement: fields, object array entries and the elements of
+    * JDK collections and maps. A built container referencing a replaced instance is built anew and replaced in turn.
+    * Every instance of the session is visited, so this is only done for messages that change a built container.
+    * @param instance_table Every instance of the session by id, updated in place
+    * @param replaced Replacement of each replaced instance
+    */
+   private static void replaceReferences(InstanceTable instance_table, Map<Object, Object> replaced) throws Exception {
+     while (!replaced.isEmpty()) {
+       Map<Object, Object> rebuilt = new IdentityHashMap<Object, Object>();
+       for (int id = 0; id < instance_table.size(); id++) {
+         Object instance = instance_table.get(id);
+         if (instance == null) {
+           continue;
+         }
+         ClassMetadata metadata = ClassMetadata.forClass(instance.getClass());
+         if (metadata.container != JdkCollections.NONE) {
+           Object[] elements = JdkCollections.elementsOf(instance, metadata.container);
+           if (!replaceEntries(elements, replaced)) {
+             continue;
+           }
+           if (JdkCollections.isBuilt(JdkCollections.formOf(metadata.type))) {
+             Object new_instance = JdkCollections.build(metadata.type, elements);
+             instance_table.put(id, new_instance);
+             rebuilt.put(instance, new_instance);
+           }
+           else {
+             JdkCollections.clear(instance, metadata.container);
+             JdkCollections.fill(instance, metadata.container, elements);
+           }
+         }
+         else if (instance instanceof Object[]) {
+           replaceEntries((Object[]) instance, replaced);
+         }
+         else if (!metadata.type.isArray()) {
+           for (int i = 0; i < metadata.fields.length; i++) {
+             if (metadata.kinds[i] != ClassMetadata.KIND_OBJECT) {
+               continue;
+             }
+             Object value = metadata.accessors[i].get(instance);
+             Object replacement = value == null ? null : replaced.get(value);
+             if (replacement != null) {
+               metadata.accessors[i].set(instance, replacement);
+             }
+           }
+         }
+       }
+       // Holders of the containers just built still reference the ones they replace
+       replaced = rebuilt;
+     }
+   }
+
+   /**
+    * @return true if any entry of values was replaced
+    */
+   private static boolean replaceEntries(Object[] values, Map<Object, Object> replaced) {
+     boolean any = false;
+     for (int i = 0; i < values.length; i++) {
+       Object replacement = values[i] == null ? null : replaced.get(values[i]);
+       if (replacement != null) {
+         values[i] = replacement;
+         any = true;
+       }
+     }
+     return any;
+   }
+
+   /**
+    * @param roots "roots" list of ids and nulls, or null for a document with a single root
+    * @param instance_table Every instance of the document
+    * @return the instance of each root
+    */
+   private static List<Object> rootsOf(JsonArray roots, InstanceTable instance_table) {
+     if (roots == null) {
+       return new ArrayList<Object>(Collections.singletonList(instance_table.get(0)));
+     }
+     List<Object> instances = new ArrayList<Object>(roots.size());
+     for (JsonValue root : roots) {
+       instances.add(root.getValueType() == JsonValue.ValueType.NULL ? null : instance_table.get(((JsonNumber) root).intValue()));
+     }
+     return instances;
+   }
+
+   /**
+    * Create every object of a document read into a JsonObject
+    * @param obj Json document
+    * @param trace Trace the phases are marked in, or null
+    * @return every instance of the document by id
+    */
+   private static InstanceTable readInstances(JsonObject obj, CallTrace trace) throws Exception {
+     // Schema-once layout: Read the class table, then each object in a single pass
+     if (obj.containsKey("classes")) {
+       List<ClassDescriptor> classes = readClassTable(obj.getJsonArray("classes"));
+       JsonArray entries = obj.getJsonArray("objects");
+       InstanceTable instance_table = new InstanceTable();
+       PendingReferences pending = new PendingReferences();
+       JdkCollections.Fill containers = new JdkCollections.Fill();
+       for (int i = 0; i < entries.size(); i++) {
+         readSchemaEntry(entries.getJsonArray(i), i, classes, instance_table, pending, containers);
+       }
+       if (trace != null) {
+         trace.mark(CallTrace.READ);
+       }
+       containers.fillAll(instance_table, pending);
+       if (trace != null) {
+         trace.mark(CallTrace.RESOLVE);
+       }
+       return instance_table;
+     }
+
+     // Extract list of objects from "object" value
+     JsonArray object_list = obj.getJsonArray("objects");
+
+     // Create and populate the table of all object instances in JsonObject
+     InstanceTable instance_table = new InstanceTable();
+     createInstances(instance_table, object_list);
+     if (trace != null) {
+       trace.mark(CallTrace.CREATE);
+     }
+
+     // Assign values to the object according to JsonObject, then build and fill JDK collections and maps
+     PendingReferences pending = new PendingReferences();
+     JdkCollections.Fill containers = new JdkCollections.Fill();
+     assignFieldValues(instance_table, object_list, pending, containers);
+     containers.fillAll(instance_table, pending);
+     if (trace != null) {
+       trace.mark(CallTrace.ASSIGN);
+     }
+     return instance_table;
+
+   }
+
+   /**
+    * Deserialize the Json document read from the given Reader in a single forward pass.
+    * The result is the same as deserializeObject(String) on the same document. The Reader is not closed.
+    * @param source Reader containing Json to be deserialized
+    * @return Object instance of data found within source
+    */
+   public static Object deserializeObject(Reader source) throws Exception {
+     CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+     if (trace == null) {
+       return deserializeDocument(PARSER_FACTORY.createParser(source), null, null).get(0);
+     }
+     Instrumentation.CountingReader counter = new Instrumentation.CountingReader(source);
+     return endTrace(deserializeDocument(PARSER_FACTORY.createParser(counter), null, trace), trace, counter.count);
+   }
+
+   /**
+    * Deserialize the UTF-8 encoded Json document read from the given InputStream in a single forward pass.
+    * The result is the same as deserializeObject(String) on the same document. The InputStream is not closed.
+    * @param source InputStream containing Json to be deserialized
+    * @return Object instance of data found within source
+    */
+   public static Object deserializeObject(InputStream source) throws Exception {
+     CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+     if (trace == null) {
+       return deserializeDocument(PARSER_FACTORY.createParser(source, StandardCharsets.UTF_8), null, null).get(0);
+     }
+     Instrumentation.CountingInputStream counter = new Instrumentation.CountingInputStream(source);
+     return endTrace(deserializeDocument(PARSER_FACTORY.createParser(counter, StandardCharsets.UTF_8), null, trace), trace, counter.count);
+   }
+
+   /**
+    * Read one message in the given wire format from the InputStream and deserialize it. The InputStream is not closed.
+    * @param source InputStream containing the message
+    * @param format Format of the message, such as Format.JSON or Format.BINARY
+    * @return Object instance of data found within source
+    */
+   public static Object deserializeObject(InputStream source, Format format) throws Exception {
+     return format.read(source);
+   }
+
+   /**
+    * Report a traced call that read the given instances
+    * @param instance_table Every instance of the document by id
+    * @param trace Trace of the call, or null if it is not traced
+    * @param length Length of the Json read
+    * @return the root of the document
+    */
+   static Object endTrace(InstanceTable instance_table, CallTrace trace, long length) {
+     Object root = instance_table.get(0);
+     if (trace != null) {
+       trace.objects = instance_table.size();
+       trace.end(root, length);
+     }
+     return root;
+   }
+
+   /**
+    * Report a traced call that read a batch, with the List of its roots as the root
+    * @param roots Ids of the roots, or null for a document of a single root
+    * @param instance_table Every instance of the document by id
+    * @param trace Trace of the call, or null if it is not traced
+    * @param length Length of the Json read
+    * @return the roots in the order they were serialized
+    */
+   private static List<Object> endTrace(JsonArray roots, InstanceTable instance_table, CallTrace trace, long length) {
+     List<Object> instances = rootsOf(roots, instance_table);
+     if (trace != null) {
+       trace.objects = instance_table.size();
+       trace.end(instances, length);
+     }
+     return instances;
+   }
+
+   /**
+    * Walk the parser events of a {"objects":[...]} document, creating each object instance and setting its
+    * fields as soon as its entry is read. References to objects that appear later in the list are recorded
+    * as pending and patched once the whole list has been read.
+    * @param parser JsonParser positioned before the start of the document
+    * @param roots Where the "roots" list of a batch document is added, or null to skip it
+    * @param trace Trace the READ and RESOLVE phases are marked in, or null
+    * @return every instance of the document by id
+    */
+   private static InstanceTable deserializeDocument(JsonParser parser, List<JsonValue> roots, CallTrace trace) throws Exception {
+     InstanceTable instance_table = new InstanceTable();
+     deserializeDocument(parser, roots, instance_table, new PendingReferences(), new JdkCollections.Fill(), trace);
+     return instance_table;
+   }
+
+   /**
+    * Walk the parser events of a document like deserializeDocument(JsonParser, List, CallTrace), into the given tables
+    * @param parser JsonParser positioned before the start of the document
+    * @param roots Where the "roots" list of a batch document is added, or null to skip it
+    * @param instance_table Empty table every instance of the document is put in by id
+    * @param pending Empty table of references, such as the reused one of a DeserializerContext
+    * @param containers Empty table of containers to fill, such as the reused one of a DeserializerContext
+    * @param trace Trace the READ and RESOLVE phases are marked in, or null
+    */
+   static void deserializeDocument(JsonParser parser, List<JsonValue> roots, InstanceTable instance_table, PendingReferences pending, JdkCollections.Fill containers, CallTrace trace) throws Exception {
+     // Class table of the schema-once layout, which comes before the objects
+     List<ClassDescriptor> classes = null;
+
+     expect(parser, JsonParser.Event.START_OBJECT);
+     while (parser.next() == JsonParser.Event.KEY_NAME) {
+       String key = parser.getString();
+       if (key.equals("classes")) {
+         expect(parser, JsonParser.Event.START_ARRAY);
+         classes = readClassTable(parser.getArray());
+         continue;
+       }
+       if (key.equals("roots") && roots != null) {
+         expect(parser, JsonParser.Event.START_ARRAY);
+         roots.add(parser.getArray());
+         continue;
+       }
+       // Skip anything that is not the list of objects
+       if (!key.equals("objects")) {
+         skipValue(parser, parser.next());
+         continue;
+       }
+       expect(parser, JsonParser.Event.START_ARRAY);
+       JsonParser.Event event;
+       for (int i = 0; (event = parser.next()) != JsonParser.Event.END_ARRAY; i++) {
+         if (event == JsonParser.Event.START_ARRAY && classes != null) {
+           readSchemaEntry(parser.getArray(), i, classes, instance_table, pending, containers);
+         }
+         else if (event == JsonParser.Event.START_OBJECT) {
+           readObjectEntry(parser, instance_table, pending, containers);
+         }
+         else {
+           throw new JsonException("Unexpected " + event + " in the list of objects");
+         }
+       }
+     }
+
+     // Every object now exists, so forward references can be resolved and JDK collections and maps filled
+     if (trace != null) {
+       trace.mark(CallTrace.READ);
+     }
+     containers.fillAll(instance_table, pending);
+     if (trace != null) {
+       trace.mark(CallTrace.RESOLVE);
+     }
+   }
+
+   /**
+    * Read one entry of the "objects" list, instantiate it and assign its fields or array entries.
+    * "class", "id" and "length" have to come before "fields" or "entries", as Serializer writes them.
+    * @param parser JsonParser positioned just after the START_OBJECT of the entry
+    * @param instance_table Table of all object instances read so far, the new instance is added to it
+    * @param pending Pending references to objects that have not been read yet
+    * @param containers JDK collections and maps whose gathered elements are added after the last entry
+    */
+   @SuppressWarnings({ "rawtypes", "unchecked" })
+   static void readObjectEntry(JsonParser parser, InstanceTable instance_table, PendingReferences pending, JdkCollections.Fill containers) throws Exception {
+     String class_name = null;
+     int id = -1;
+     int length = 0;
+
+     while (parser.next() == JsonParser.Event.KEY_NAME) {
+       String key = parser.getString();
+       JsonParser.Event event = parser.next();
+
+       if (key.equals("class")) {
+         class_name = parser.getString();
+       }
+       else if (key.equals("id")) {
+         id = parseInt(parser, event);
+       }
+       else if (key.equals("length")) {
+         length = parseInt(parser, event);
+       }
+       else if (key.equals("value")) {
+         // Inline value at the root
+         instance_table.put(id, InlineValues.read(parser.getValue(), ClassMetadata.classForName(class_name)));
+       }
+       else if (key.equals("fields") || key.equals("entries")) {
+         if (class_name == null || id < 0) {
+           throw new JsonException("Object entry has \"" + key + "\" before its \"class\" and \"id\"");
+         }
+         // JDK container built from its elements: Gather them, it is built once every object has been read
+         Class object_class = ClassMetadata.classForName(class_name);
+         ClassMetadata metadata = ClassMetadata.forClass(object_class);
+         if (JdkCollections.isBuilt(metadata.form)) {
+           Object[] elements = new Object[JdkCollections.elementCount(metadata.container, length)];
+           for (int j = 0; parser.next() == JsonParser.Event.START_OBJECT; j++) {
+             assignArrayEntry(elements, Object.class, j, parser.getObject(), instance_table, pending);
+           }
+           containers.defer(object_class, id, metadata.container, elements);
+           continue;
+         }
+
+         // Create the instance and make it available to later references right away
+         Object object_instance = newInstance(object_class, length);
+         instance_table.put(id, object_instance);
+
+         // JDK Collection or Map: Gather its elements, they are added once every object has been read
+         int container = metadata.container;
+         if (container != JdkCollections.NONE) {
+           Object[] elements = new Object[JdkCollections.elementCount(container, length)];
+           for (int j = 0; parser.next() == JsonParser.Event.START_OBJECT; j++) {
+             assignArrayEntry(elements, Object.class, j, parser.getObject(), instance_table, pending);
+           }
+           containers.add(object_instance, container, elements);
+         }
+         else if (key.equals("entries")) {
+           Class component_class = object_instance.getClass().getComponentType();
+           int kind = ClassMetadata.kindOf(component_class);
+
+           // Base64 String: byte[] entries stored in one piece
+           if (event == JsonParser.Event.VALUE_STRING) {
+             assignBytes(object_instance, parser.getString());
+             continue;
+           }
+           // Otherwise a JsonObject per entry, or a plain value per entry of a primitive array
+           JsonParser.Event entry_event;
+           for (int j = 0; (entry_event = parser.next()) != JsonParser.Event.END_ARRAY; j++) {
+             if (entry_event == JsonParser.Event.START_OBJECT) {
+               assignArrayEntry(object_instance, component_class, j, parser.getObject(), instance_table, pending);
+             }
+             else {
+               readPrimitiveEntry(object_instance, kind, j, parser, entry_event);
+             }
+           }
+         }
+         else {
+           for (int j = 0; parser.next() == JsonParser.Event.START_OBJECT; j++) {
+             assignField(object_instance, metadata, j, parser.getObject(), instance_table, pending);
+           }
+         }
+       }
+       else {
+         skipValue(parser, event);
+       }
+     }
+   }
+
+   /**
+    * Resolve the class table of the schema-once layout to local classes and fields, once per message
+    * @param class_list JsonArray of {"name":..., "fields":[{"name":..., "declaringclass":...}, ...]}
+    * @return ClassDescriptor for each class index
+    */
+   private static List<ClassDescriptor> readClassTable(JsonArray class_list) throws Exception {
+     List<ClassDescriptor> classes = new ArrayList<ClassDescriptor>(class_list.size());
+     for (int i = 0; i < class_list.size(); i++) {
+       JsonObject class_info = class_list.getJsonObject(i);
+       JsonArray field_list = class_info.containsKey("fields") ? class_info.getJsonArray("fields") : JsonValue.EMPTY_JSON_ARRAY;
+       String[] names = new String[field_list.size()];
+       String[] declaring_classes = new String[field_list.size()];
+       for (int j = 0; j < names.length; j++) {
+         names[j] = field_list.getJsonObject(j).getString("name");
+         declaring_classes[j] = field_list.getJsonObject(j).getString("declaringclass");
+       }
+       classes.add(ClassDescriptor.resolve(ClassMetadata.classForName(class_info.getString("name")), names, declaring_classes));
+     }
+     return classes;
+   }
+
+   /**
+    * Instantiate one object of the schema-once layout and bind its values by position
+    * @param entry JsonArray of the class index followed by the field values, or by the entries of an array
+    * @param id ID of the object, which is its position in the list of objects
+    * @param classes Class table of the message
+    * @param instance_table Table of all object instances read so far, the new instance is added to it
+    * @param pending Pending references to objects that have not been read yet
+    * @param containers JDK collections and maps whose gathered elements are added after the last entry
+    */
+   @SuppressWarnings({ "rawtypes", "unchecked" })
+   private static void readSchemaEntry(JsonArray entry, int id, List<ClassDescriptor> classes, InstanceTable instance_table, PendingReferences pending, JdkCollections.Fill containers) throws Exception {
+     ClassDescriptor descriptor = classes.get(entry.getInt(0));
+     Object object_instance;
+
+     // Inline value at the root: The value follows the class index
+     if (descriptor.inline) {
+       instance_table.put(id, InlineValues.read(entry.get(1), descriptor.type));
+       return;
+     }
+
+     // JDK Collection or Map: Gather the elements that follow the class index, they are added after the last entry
+     if (descriptor.container != JdkCollections.NONE) {
+       JsonArray element_list = entry.getJsonArray(1);
+       int size = descriptor.container == JdkCollections.MAP ? element_list.size() / 2 : element_list.size();
+       object_instance = descriptor.built ? null : newInstance(descriptor.type, size);
+       if (!descriptor.built) {
+         instance_table.put(id, object_instance);
+       }
+       Object[] elements = new Object[element_list.size()];
+       for (int j = 0; j < elements.length; j++) {
+         assignSchemaValue(elements, null, ClassMetadata.KIND_OBJECT, j, element_list.get(j), classes, instance_table, pending);
+       }
+       if (descriptor.built) {
+         containers.defer(descriptor.type, id, descriptor.container, elements);
+       }
+       else {
+         containers.add(object_instance, descriptor.container, elements);
+       }
+       return;
+     }
+
+     // Array: The entries follow the class index, in the compact form for primitive arrays
+     if (descriptor.type.isArray()) {
+       JsonValue entries = entry.get(1);
+       if (descriptor.component_kind == ClassMetadata.KIND_BYTE) {
+         object_instance = Base64.getDecoder().decode(((JsonString) entries).getString());
+         instance_table.put(id, object_instance);
+         return;
+       }
+       JsonArray entries_array = (JsonArray) entries;
+       object_instance = newInstance(descriptor.type, entries_array.size());
+       instance_table.put(id, object_instance);
+
+       if (descriptor.component_kind != ClassMetadata.KIND_OBJECT) {
+         assignPrimitiveEntries(object_instance, descriptor.component_kind, entries_array);
+       }
+       else {
+         for (int j = 0; j < entries_array.size(); j++) {
+           assignSchemaValue(object_instance, null, ClassMetadata.KIND_OBJECT, j, entries_array.get(j), classes, instance_table, pending);
+         }
+       }
+     }
+
+     // Object: The field values follow the class index, in class table order
+     else {
+       object_instance = newInstance(descriptor.type, 0);
+       instance_table.put(id, object_instance);
+       for (int j = 0; j < descriptor.fields.length; j++) {
+         assignSchemaValue(object_instance, descriptor.accessors[j], descriptor.kinds[j], 0, entry.get(j + 1), classes, instance_table, pending);
+       }
+     }
+   }
+
+   /**
+    * Set a field, or an entry of an object array, from a positional value of the schema-once layout
+    * @param object_instance Object or Object[] to be populated
+    * @param field Field to set, or null to set entry index of the array object_instance
+    * @param kind ClassMetadata kind of the field
+    * @param index Index of the entry when field is null
+    * @param value Json number or boolean for primitives, ID or null for references, or an inline value
+    * @param classes Class table of the message, for the classes of inline values
+    * @param instance_table Table of all object instances read so far
+    * @param pending Pending references to objects that have not been read yet
+    */
+   @SuppressWarnings("rawtypes")
+   private static void assignSchemaValue(Object object_instance, FieldAccessor field, int kind, int index, JsonValue value, List<ClassDescriptor> classes, InstanceTable instance_table, PendingReferences pending) throws IllegalAccessException {
+     switch (kind) {
+       case ClassMetadata.KIND_BOOLEAN: field.setBoolean(object_instance, value == JsonValue.TRUE); return;
+       case ClassMetadata.KIND_BYTE: field.setByte(object_instance, (byte) ((JsonNumber) value).intValue()); return;
+       case ClassMetadata.KIND_CHAR: field.setChar(object_instance, (char) ((JsonNumber) value).intValue()); return;
+       case ClassMetadata.KIND_SHORT: field.setShort(object_instance, (short) ((JsonNumber) value).intValue()); return;
+       case ClassMetadata.KIND_INT: field.setInt(object_instance, ((JsonNumber) value).intValue()); return;
+       case ClassMetadata.KIND_LONG: field.setLong(object_instance, ((JsonNumber) value).longValue()); return;
+       case ClassMetadata.KIND_FLOAT: field.setFloat(object_instance, Float.parseFloat(numberText(value))); return;
+       case ClassMetadata.KIND_DOUBLE: field.setDouble(object_instance, Double.parseDouble(numberText(value))); return;
+       default: break;
+     }
+
+     // Reference: null, the ID of an object that may not have been read yet, or an inline value.
+     // Strings and Booleans are written as themselves, other inline values as their class index and value
+     Object referenced = null;
+     if (value.getValueType() == JsonValue.ValueType.ARRAY) {
+       JsonArray inline = (JsonArray) value;
+       referenced = InlineValues.read(inline.get(1), classes.get(inline.getInt(0)).type);
+     }
+     else if (value.getValueType() != JsonValue.ValueType.NULL && value.getValueType() != JsonValue.ValueType.NUMBER) {
+       referenced = InlineValues.read(value, String.class);
+     }
+     else if (value.getValueType() != JsonValue.ValueType.NULL) {
+       int reference = ((JsonNumber) value).intValue();
+       if (!instance_table.has(reference)) {
+         pending.add(object_instance, field, index, reference);
+         return;
+       }
+       referenced = instance_table.get(reference);
+     }
+     if (field != null) {
+       field.set(object_instance, referenced);
+     }
+     else {
+       ((Object[]) object_instance)[index] = referenced;
+     }
+   }
+
+   /**
+    * Populate the instance table with instances of every object in the given object_list
+    * @param instance_table Table to be populated. Both id and instance are derived from object_list
+    * @param object_list JsonArray containing a list of objects to be instantiated
+    * @throws Exception
+    */
+   @SuppressWarnings({ "rawtypes", "unchecked" })
+   private static void createInstances(InstanceTable instance_table, JsonArray object_list) throws Exception {
+
+     // For Each JsonObject in object_list: Create an instance and store it in instance_table
+     for (int i = 0; i < object_list.size(); i++) {
+       // Get the JsonObject, id and class
+       JsonObject object_info = object_list.getJsonObject(i);
+       int id = intValue(object_info.get("id"));
+       Class object_class = ClassMetadata.classForName(object_info.getString("class"));
+
+       // Create object instance, or read an inline value at the root
+       Object object_instance;
+       if (object_info.containsKey("value")) {
+         object_instance = InlineValues.read(object_info.get("value"), object_class);
+       }
+       else if (JdkCollections.isBuilt(ClassMetadata.forClass(object_class).form)) {
+         // Built by assignFieldValues from its elements
+         continue;
+       }
+       else {
+         int length = object_info.containsKey("length") ? intValue(object_info.get("length")) : 0;
+         object_instance = newInstance(object_class, length);
+       }
+
+       // Add the Array or Object instance into the table
+       instance_table.put(id, object_instance);
+     }
+
+   }
+
+   /**
+    * Create an empty instance of the given class with its cached Instantiator
+    * @param object_class Class to instantiate
+    * @param length Length of the array if object_class is an array class, size of a JDK collection or map, ignored otherwise
+    * @return new instance of object_class
+    */
+   @SuppressWarnings("rawtypes")
+   static Object newInstance(Class object_class, int length) throws Exception {
+     return ClassMetadata.forClass(object_class).instantiator().newInstance(length);
+   }
+
+   /**
+    * Reflectively assign field values for each object instance in instance_table using information from object_list
+    * @param instance_table Table containing the object instances containing fields to be populated
+    * @param object_list JsonArray containing field values of every object instance
+    * @param pending Where references to the JDK containers that are built from their elements are recorded
+    * @param containers Where the elements of JDK collections and maps are gathered, to be added after every object is populated
+    */
+   @SuppressWarnings("rawtypes")
+   private static void assignFieldValues (InstanceTable instance_table, JsonArray object_list, PendingReferences pending, JdkCollections.Fill containers) throws ReflectiveOperationException {
+
+     // For Each Object in instance_table: Set its fields using its corresponding JsonObject from object_list
+     for (int i = 0; i < object_list.size(); i++) {
+
+       // Get the JsonObject, Class and instance of the current id entry
+       JsonObject object_info = object_list.getJsonObject(i);
+       int id = intValue(object_info.get("id"));
+       Object object_instance = instance_table.get(id);
+       // Only containers built from their elements do not exist yet
+       Class object_class = object_instance != null ? object_instance.getClass() : ClassMetadata.classForName(object_info.getString("class"));
+       int container = ClassMetadata.forClass(object_class).container;
+
+       // Inline Value: Already complete
+       if (ClassMetadata.forClass(object_class).inline) {
+         continue;
+       }
+
+       // JDK Collection or Map: Gather its elements from the entries
+       if (container != JdkCollections.NONE) {
+         JsonArray entries = object_info.getJsonArray("entries");
+         Object[] elements = new Object[entries.size()];
+         for (int j = 0; j < elements.length; j++) {
+           assignArrayEntry(elements, Object.class, j, entries.getJsonObject(j), instance_table, pending);
+         }
+         if (object_instance == null) {
+           containers.defer(object_class, id, container, elements);
+         }
+         else {
+           containers.add(object_instance, container, elements);
+         }
+       }
+
+       // Array Object: Retrieve its entries and store each corresponding value from JsonObject
+       else if (object_class.isArray()) {
+         Class component_class = object_class.getComponentType();
+         JsonValue entries = object_info.get("entries");
+
+         // Primitive Array: Entries are stored as one compact list of values
+         if (component_class.isPrimitive() && isCompactEntries(entries)) {
+           assignPrimitiveEntries(object_instance, ClassMetadata.kindOf(component_class), entries);
+           continue;
+         }
+
+         JsonArray field_array = (JsonArray) entries;
+         for (int j = 0; j < field_array.size(); j++) {
+           assignArrayEntry(object_instance, component_class, j, field_array.getJsonObject(j), instance_table, pending);
+         }
+       }
+
+       // Object: Populate fields using "field" entry in JsonObject
+       else {
+         JsonArray object_fields = object_info.getJsonArray("fields");
+         ClassMetadata metadata = ClassMetadata.forClass(object_class);
+
+         for (int j = 0; j < object_fields.size(); j++) {
+           assignField(object_instance, metadata, j, object_fields.getJsonObject(j), instance_table, pending);
+         }
+       }
+
+     }
+
+   }
+
+   /**
+    * @param entries "entries" value of a primitive array
+    * @return true if entries is a base64 String or a list of plain values, false if it is a list of JsonObjects
+    */
+   private static boolean isCompactEntries (JsonValue entries) {
+     if (entries.getValueType() == JsonValue.ValueType.STRING) {
+       return true;
+     }
+     JsonArray entries_array = (JsonArray) entries;
+     return entries_array.isEmpty() || entries_array.get(0).getValueType() != JsonValue.ValueType.OBJECT;
+   }
+
+   /**
+    * Fill a primitive array directly from its compact "entries" value, without boxing any element
+    * @param object_instance Primitive array to be populated
+    * @param kind ClassMetadata kind of the component type of the array
+    * @param entries Base64 String for a byte[], or a list of Json numbers, booleans and non-finite Strings
+    */
+   private static void assignPrimitiveEntries (Object object_instance, int kind, JsonValue entries) {
+     if (kind == ClassMetadata.KIND_BYTE) {
+       assignBytes(object_instance, ((JsonString) entries).getString());
+       return;
+     }
+
+     JsonArray values = (JsonArray) entries;
+     switch (kind) {
+       case ClassMetadata.KIND_BOOLEAN:
+         boolean[] booleans = (boolean[]) object_instance;
+         for (int j = 0; j < booleans.length; j++) booleans[j] = values.getBoolean(j);
+         break;
+       case ClassMetadata.KIND_CHAR:
+         char[] chars = (char[]) object_instance;
+         for (int j = 0; j < chars.length; j++) chars[j] = (char) values.getInt(j);
+         break;
+       case ClassMetadata.KIND_SHORT:
+         short[] shorts = (short[]) object_instance;
+         for (int j = 0; j < shorts.length; j++) shorts[j] = (short) values.getInt(j);
+         break;
+       case ClassMetadata.KIND_INT:
+         int[] ints = (int[]) object_instance;
+         for (int j = 0; j < ints.length; j++) ints[j] = values.getInt(j);
+         break;
+       case ClassMetadata.KIND_LONG:
+         long[] longs = (long[]) object_instance;
+         for (int j = 0; j < longs.length; j++) longs[j] = values.getJsonNumber(j).longValue();
+         break;
+       case ClassMetadata.KIND_FLOAT:
+         // Parse the decimal text directly, rounding through double can differ in the last bit
+         float[] floats = (float[]) object_instance;
+         for (int j = 0; j < floats.length; j++) floats[j] = Float.parseFloat(numberText(values.get(j)));
+         break;
+       default:
+         double[] doubles = (double[]) object_instance;
+         for (int j = 0; j < doubles.length; j++) doubles[j] = Double.parseDouble(numberText(values.get(j)));
+         break;
+     }
+   }
+
+   /**
+    * Fill a byte[] from the base64 String its entries are stored as
+    */
+   private static void assignBytes (Object object_instance, String base64) {
+     byte[] bytes = Base64.getDecoder().decode(base64);
+     System.arraycopy(bytes, 0, object_instance, 0, bytes.length);
+   }
+
+   /**
+    * Set one entry of a primitive array from the current parser value, without boxing it
+    * @param object_instance Primitive array to be populated
+    * @param kind ClassMetadata kind of the component type of the array
+    * @param index Index of the entry
+    * @param parser JsonParser positioned on the value of the entry
+    * @param event Event of the value of the entry
+    */
+   private static void readPrimitiveEntry (Object object_instance, int kind, int index, JsonParser parser, JsonParser.Event event) {
+     switch (kind) {
+       case ClassMetadata.KIND_BOOLEAN:
+         ((boolean[]) object_instance)[index] = event == JsonParser.Event.VALUE_TRUE;
+         break;
+       case ClassMetadata.KIND_CHAR:
+         ((char[]) object_instance)[index] = (char) parser.getInt();
+         break;
+       case ClassMetadata.KIND_SHORT:
+         ((short[]) object_instance)[index] = (short) parser.getInt();
+         break;
+       case ClassMetadata.KIND_INT:
+         ((int[]) object_instance)[index] = parser.getInt();
+         break;
+       case ClassMetadata.KIND_LONG:
+         ((long[]) object_instance)[index] = parser.getLong();
+         break;
+       case ClassMetadata.KIND_FLOAT:
+         ((float[]) object_instance)[index] = Float.parseFloat(parser.getString());
+         break;
+       case ClassMetadata.KIND_DOUBLE:
+         ((double[]) object_instance)[index] = Double.parseDouble(parser.getString());
+         break;
+       default:
+         throw new JsonException("Unexpected " + event + " in entries of " + object_instance.getClass().getName());
+     }
+   }
+
+   /**
+    * @return text of a Json number, or of a String such as "NaN" holding a non-finite value
+    */
+   private static String numberText (JsonValue value) {
+     if (value.getValueType() == JsonValue.ValueType.STRING) {
+       return ((JsonString) value).getString();
+     }
+     return value.toString();
+   }
+
+   /**
+    * Set one entry of an array instance from its JsonObject
+    * @param object_instance Array to be populated
+    * @param component_class Component type of the array
+    * @param index Index of the entry
+    * @param field_obj JsonObject containing the value or reference of the entry
+    * @param instance_table Table containing all object instances read so far
+    * @param pending Where to record references to objects not read yet, or null if every object already exists
+    */
+   @SuppressWarnings("rawtypes")
+   private static void assignArrayEntry (Object object_instance, Class component_class, int index, JsonObject field_obj, InstanceTable instance_table, PendingReferences pending) throws ClassNotFoundException {
+     int reference = referenceOf(field_obj);
+     if (pending != null && reference >= 0 && !instance_table.has(reference)) {
+       pending.add(object_instance, null, index, reference);
+       return;
+     }
+     Array.set(object_instance, index, deserializeJsonValue(field_obj, instance_table, component_class));
+   }
+
+   /**
+    * Set one field of an object instance from its JsonObject
+    * @param object_instance Object to be populated
+    * @param metadata Cached metadata of the class of object_instance
+    * @param position Position of the field in the serialized "fields" list
+    * @param object_field JsonObject containing the name, declaring class and value or reference of the field
+    * @param instance_table Table containing all object instances read so far
+    * @param pending Where to record references to objects not read yet, or null if every object already exists
+    */
+   @SuppressWarnings("rawtypes")
+   private static void assignField (Object object_instance, ClassMetadata metadata, int position, JsonObject object_field, InstanceTable instance_table, PendingReferences pending) throws ReflectiveOperationException {
+     String field_name = object_field.getString("name");
+     String field_class_name = object_field.getString("declaringclass");
+
+     // Look up the accessible Field in the class metadata, expecting fields in serialized order
+     int field_index = metadata.indexOf(field_name, field_class_name, position);
+     if (field_index < 0) {
+       throw new NoSuchFieldException(field_class_name + "." + field_name);
+     }
+     FieldAccessor field = metadata.accessors[field_index];
+     int kind = metadata.kinds[field_index];
+
+     // Primitive: Parse the value straight into the field
+     if (kind != ClassMetadata.KIND_OBJECT && object_field.containsKey("value")) {
+       assignPrimitiveValue(object_instance, field, kind, object_field.get("value"));
+       return;
+     }
+     int reference = referenceOf(object_field);
+     if (pending != null && reference >= 0 && !instance_table.has(reference)) {
+       pending.add(object_instance, field, 0, reference);
+       return;
+     }
+     // Set the field properly
+     field.set(object_instance, deserializeJsonValue(object_field, instance_table, metadata.fields[field_index].getType()));
+   }
+
+   /**
+    * Set a primitive field from its Json number or boolean without boxing, with a char as its code.
+    * Documents written before values were Json numbers hold the String form of the value instead.
+    * @param object_instance Object to be populated
+    * @param field FieldAccessor of the field
+    * @param kind ClassMetadata kind of the field
+    * @param value Json value of the field
+    */
+   private static void assignPrimitiveValue (Object object_instance, FieldAccessor field, int kind, JsonValue value) throws IllegalAccessException {
+     // Non-finite floating point values are Strings in both forms
+     if (value.getValueType() == JsonValue.ValueType.STRING && kind != ClassMetadata.KIND_FLOAT && kind != ClassMetadata.KIND_DOUBLE) {
+       assignPrimitiveText(object_instance, field, kind, ((JsonString) value).getString());
+       return;
+     }
+     switch (kind) {
+       case ClassMetadata.KIND_BOOLEAN: field.setBoolean(object_instance, value == JsonValue.TRUE); break;
+       case ClassMetadata.KIND_BYTE: field.setByte(object_instance, (byte) ((JsonNumber) value).intValue()); break;
+       case ClassMetadata.KIND_CHAR: field.setChar(object_instance, (char) ((JsonNumber) value).intValue()); break;
+       case ClassMetadata.KIND_SHORT: field.setShort(object_instance, (short) ((JsonNumber) value).intValue()); break;
+       case ClassMetadata.KIND_INT: field.setInt(object_instance, ((JsonNumber) value).intValue()); break;
+       case ClassMetadata.KIND_LONG: field.setLong(object_instance, ((JsonNumber) value).longValue()); break;
+       // Parse the decimal text directly, rounding through double can differ in the last bit
+       case ClassMetadata.KIND_FLOAT: field.setFloat(object_instance, Float.parseFloat(numberText(value))); break;
+       default: field.setDouble(object_instance, Double.parseDouble(numberText(value))); break;
+     }
+   }
+
+   /**
+    * Parse the String value of a primitive field, as older documents hold it, and set it without boxing
+    * @param object_instance Object to be populated
+    * @param field FieldAccessor of the field
+    * @param kind ClassMetadata kind of the field
+    * @param value String form of the value
+    */
+   private static void assignPrimitiveText (Object object_instance, FieldAccessor field, int kind, String value) throws IllegalAccessException {
+     switch (kind) {
+       case ClassMetadata.KIND_BOOLEAN: field.setBoolean(object_instance, Boolean.parseBoolean(value)); break;
+       case ClassMetadata.KIND_BYTE: field.setByte(object_instance, Byte.parseByte(value)); break;
+       case ClassMetadata.KIND_CHAR: field.setChar(object_instance, value.charAt(0)); break;
+       case ClassMetadata.KIND_SHORT: field.setShort(object_instance, Short.parseShort(value)); break;
+       case ClassMetadata.KIND_INT: field.setInt(object_instance, Integer.parseInt(value)); break;
+       case ClassMetadata.KIND_LONG: field.setLong(object_instance, Long.parseLong(value)); break;
+       case ClassMetadata.KIND_FLOAT: field.setFloat(object_instance, Float.parseFloat(value)); break;
+       default: field.setDouble(object_instance, Double.parseDouble(value)); break;
+     }
+   }
+
+   /**
+    * @param f JsonObject of a field or array entry
+    * @return ID of the object f references, or -1 if f holds a value or a null reference.
+    *         References are Json numbers or null, and Strings such as "3" or "null" in older documents
+    */
+   static int referenceOf (JsonObject f) {
+     JsonValue reference = f.get("reference");
+     if (reference == null || reference.getValueType() == JsonValue.ValueType.NULL) {
+       return -1;
+     }
+     if (reference.getValueType() == JsonValue.ValueType.STRING) {
+       String text = ((JsonString) reference).getString();
+       return text.equals("null") ? -1 : Integer.parseInt(text);
+     }
+     return ((JsonNumber) reference).intValue();
+   }
+
+   /**
+    * @param value Json number, or a String holding one as ids and lengths are in older documents
+    * @return the int value
+    */
+   static int intValue (JsonValue value) {
+     if (value.getValueType() == JsonValue.ValueType.STRING) {
+       return Integer.parseInt(((JsonString) value).getString());
+     }
+     return ((JsonNumber) value).intValue();
+   }
+
+   /**
+    * @return the int value of the current parser value, a Json number or a String holding one
+    */
+   private static int parseInt (JsonParser parser, JsonParser.Event event) {
+     if (event == JsonParser.Event.VALUE_STRING) {
+       return Integer.parseInt(parser.getString());
+     }
+     return parser.getInt();
+   }
+
+   /**
+    * Given a JsonObject, return the stored value/reference Object if it contains one
+    * Used when deserializing an array entry or Object field
+    * @param f JsonObject containing a value or reference
+    * @param instance_table Table containing all object instances. Used to retrieve object from references
+    * @param f_type Type of the value contained in f
+    * @return Object representing the value or reference found in f
+    */
+   @SuppressWarnings("rawtypes")
+   static Object deserializeJsonValue (JsonObject f, InstanceTable instance_table, Class f_type) throws ClassNotFoundException {
+
+	 // No Reference or Value Key Found: Return null
+     if (!(f.containsKey("value")) && !(f.containsKey("reference"))) {
+       return null;
+     }
+     // Reference Key: Retrieve the object from instance_table using its id
+     else if (f.containsKey("reference")) {
+       int reference = referenceOf(f);
+       return reference < 0 ? null : instance_table.get(reference);
+     }
+     // Inline Value: Read it as its written class, or as the declared type when none was written
+     else if (!f_type.isPrimitive()) {
+       Class value_class = f.containsKey("valueclass") ? ClassMetadata.classForName(f.getString("valueclass")) : f_type;
+       return InlineValues.read(f.get("value"), value_class);
+     }
+     // Value Key: Box the primitive value contained
+     else {
+       return primitiveValue(f.get("value"), f_type);
+     }
+
+  }
+
+   /**
+    * Box a primitive value written as a Json number or boolean, with a char as its code,
+    * or as its String form in older documents
+    * @param value Json value of the primitive
+    * @param type Primitive type of the value
+    * @return boxed value
+    */
+   @SuppressWarnings("rawtypes")
+   static Object primitiveValue (JsonValue value, Class type) {
+     if (value.getValueType() == JsonValue.ValueType.STRING) {
+       String text = ((JsonString) value).getString();
+       if (type == char.class) return text.charAt(0);
+       if (type == boolean.class) return Boolean.parseBoolean(text);
+       if (type == byte.class) return Byte.parseByte(text);
+       if (type == short.class) return Short.parseShort(text);
+       if (type == int.class) return Integer.parseInt(text);
+       if (type == long.class) return Long.parseLong(text);
+       if (type == float.class) return Float.parseFloat(text);
+       return Double.parseDouble(text);
+     }
+     if (type == boolean.class) return value == JsonValue.TRUE;
+     if (type == char.class) return (char) ((JsonNumber) value).intValue();
+     if (type == byte.class) return (byte) ((JsonNumber) value).intValue();
+     if (type == short.class) return (short) ((JsonNumber) value).intValue();
+     if (type == int.class) return ((JsonNumber) value).intValue();
+     if (type == long.class) return ((JsonNumber) value).longValue();
+     if (type == float.class) return Float.parseFloat(value.toString());
+     return Double.parseDouble(value.toString());
+   }
+
+   /**
+    * Fail unless the next parser event is the expected one
+    */
+   private static void expect (JsonParser parser, JsonParser.Event expected) {
+     JsonParser.Event event = parser.next();
+     if (event != expected) {
+       throw new JsonException("Expected " + expected + " but found " + event);
+     }
+   }
+
+   /**
+    * Skip over the value that starts with the given event
+    */
+   private static void skipValue (JsonParser parser, JsonParser.Event event) {
+     if (event == JsonParser.Event.START_OBJECT) {
+       parser.skipObject();
+     }
+     else if (event == JsonParser.Event.START_ARRAY) {
+       parser.skipArray();
+     }
+   }
+
+}
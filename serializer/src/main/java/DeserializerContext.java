@@ -0,0 +1,158 @@
+/**
+ * Deserializes one message after another with the same instance, reference and container tables and the same
+ * UTF-8 decoder, cleared between messages, so that once they have grown to the size of the largest message,
+ * deserializing allocates little besides the objects read and the Strings of the keys the parser returns.
+ * The JsonParser of each message is closed against a Reader that does not close the source,
+ * which returns its buffer to the pool of the Json provider instead of leaving it to the garbage collector.
+ * Reads the same documents as Deserializer.deserializeObject, in a single forward pass. A context deserializes
+ * one message at a time: share one per thread through forThread, or give each thread its own.
+ **/
+
+import java.io.*;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class DeserializerContext {
+
+  // Looking up the JSON provider is expensive, so parsers all come from one factory
+  private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+  private static final ThreadLocal<DeserializerContext> THREAD_CONTEXT = ThreadLocal.withInitial(DeserializerContext::new);
+
+  private final InstanceTable instance_table = new InstanceTable();
+  private final PendingReferences pending = new PendingReferences();
+  private final JdkCollections.Fill containers = new JdkCollections.Fill();
+  // Decoder of messages read from bytes or an InputStream
+  private final Utf8Reader utf8 = new Utf8Reader();
+  // Messages read from a Reader go through it, so closing the parser leaves the Reader open
+  private final SourceReader source_reader = new SourceReader();
+  private boolean in_use = false;
+
+  /**
+   * Reader passing on what the source of the message holds, except close
+   */
+  private static class SourceReader extends Reader {
+    Reader in;
+
+    @Override
+    public int read (char[] chars, int offset, int length) throws IOException {
+      return in.read(chars, offset, length);
+    }
+
+    @Override
+    public void close () {
+    }
+  }
+
+  /**
+   * @return the context of the current thread, created on first use
+   */
+  public static DeserializerContext forThread () {
+    return THREAD_CONTEXT.get();
+  }
+
+  /**
+   * @param source String containing Json to be deserialized
+   * @return Object instance of data found within source
+   */
+  public Object deserialize (String source) throws Exception {
+    return deserialize(new StringReader(source));
+  }
+
+  /**
+   * @param source Reader containing Json to be deserialized, which is not closed
+   * @return Object instance of data found within source
+   */
+  public Object deserialize (Reader source) throws Exception {
+    begin();
+    try {
+      CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+      if (trace == null) {
+        source_reader.in = source;
+        return read(source_reader, null);
+      }
+      Instrumentation.CountingReader counter = new Instrumentation.CountingReader(source);
+      source_reader.in = counter;
+      Object root = read(source_reader, trace);
+      trace.end(root, counter.count);
+      return root;
+    }
+    finally {
+      source_reader.in = null;
+      in_use = false;
+    }
+  }
+
+  /**
+   * @param source InputStream containing UTF-8 encoded Json to be deserialized, which is not closed
+   * @return Object instance of data found within source
+   */
+  public Object deserialize (InputStream source) throws Exception {
+    begin();
+    try {
+      CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+      if (trace == null) {
+        utf8.reset(source);
+        return read(utf8, null);
+      }
+      Instrumentation.CountingInputStream counter = new Instrumentation.CountingInputStream(source);
+      utf8.reset(counter);
+      Object root = read(utf8, trace);
+      trace.end(root, counter.count);
+      return root;
+    }
+    finally {
+      utf8.reset(null, 0, 0);
+      in_use = false;
+    }
+  }
+
+  /**
+   * @param source Array holding UTF-8 encoded Json to be deserialized, such as the payload of a frame
+   * @param offset Index of the first byte of the Json
+   * @param length Number of bytes of the Json
+   * @return Object instance of data found within source
+   */
+  public Object deserialize (byte[] source, int offset, int length) throws Exception {
+    begin();
+    try {
+      CallTrace trace = CallTrace.begin(CallTrace.DESERIALIZE);
+      utf8.reset(source, offset, length);
+      Object root = read(utf8, trace);
+      if (trace != null) {
+        trace.end(root, length);
+      }
+      return root;
+    }
+    finally {
+      utf8.reset(null, 0, 0);
+      in_use = false;
+    }
+  }
+
+  private void begin () {
+    if (in_use) {
+      throw new IllegalStateException("DeserializerContext is already deserializing a message");
+    }
+    in_use = true;
+  }
+
+  private Object read (Reader reader, CallTrace trace) throws Exception {
+    try {
+      JsonParser parser = PARSER_FACTORY.createParser(reader);
+      Deserializer.deserializeDocument(parser, null, instance_table, pending, containers, trace);
+      // Closing returns the buffer of the parser to the pool
+      parser.close();
+      if (trace != null) {
+        trace.objects = instance_table.size();
+      }
+      return instance_table.get(0);
+    }
+    finally {
+      // Keep no reference to the objects read once they are returned
+      instance_table.clear();
+      pending.clear();
+      containers.clear();
+    }
+  }
+
+}
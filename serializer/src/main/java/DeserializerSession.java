@@ -0,0 +1,71 @@
+/**
+ * Receiving side of a SerializerSession. Keeps every instance of the previous messages by id, so each message
+ * patches the same live objects: new objects are created, changed fields, entries and elements are set in place,
+ * and released objects are forgotten. Messages must be applied in the order they were serialized.
+ * Immutable, singleton and unmodifiable containers are the exception: a changed one is replaced by a new
+ * instance, which every object that referenced the old one references instead.
+ * A receiver that joins a session late, after message 0, ignores every message until the next message 0,
+ * which the sender sends after a reset.
+ * JDK hash based collections and maps are only rebuilt when their elements change, not when a field
+ * of an element that is part of its hash code does, as with any HashMap whose keys are mutated.
+ **/
+
+import java.io.*;
+import javax.json.*;
+
+public class DeserializerSession {
+
+  // Every instance of the session by id
+  private InstanceTable instance_table = new InstanceTable();
+  // Number of the next message expected
+  private int sequence = 0;
+
+  /**
+   * Apply the next message of the session
+   * @param source String containing the Json of the message
+   * @return the root of the message
+   */
+  public Object deserialize (String source) throws Exception {
+    return deserialize(new StringReader(source));
+  }
+
+  /**
+   * Apply the next message of the session read from the given Reader, which is not closed
+   * @param source Reader containing the Json of the message
+   * @return the root of the message
+   */
+  public Object deserialize (Reader source) throws Exception {
+    return deserialize(Deserializer.readJson(source));
+  }
+
+  /**
+   * Apply the next message of the session, already parsed, as a MessagePipeline worker may do
+   * @param message JsonObject of the message
+   * @return the root of the message, or null while waiting for a message 0, see isStarted
+   */
+  public Object deserialize (JsonObject message) throws Exception {
+    int session = message.getInt("session");
+
+    // Message 0 is a full snapshot, sent first and again after the SerializerSession was reset
+    if (session == 0) {
+      instance_table = new InstanceTable();
+    }
+    else if (sequence == 0) {
+      // Joined after message 0, the changes are to objects never received
+      return null;
+    }
+    else if (session != sequence) {
+      throw new IllegalStateException("Expected message " + sequence + " of the session, got " + session);
+    }
+    sequence = session + 1;
+    return Deserializer.applyDelta(message, instance_table);
+  }
+
+  /**
+   * @return true once a message 0 has been applied, false while the messages received are ignored
+   */
+  public boolean isStarted () {
+    return sequence > 0;
+  }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * Reads and writes one field of an object.
+ * Primitive fields are read and written through typed methods such as getInt and setFloat,
+ * so their values are never boxed. FieldAccessor.unreflect builds an accessor from MethodHandles
+ * unreflected once from the Field, which skips the reflective access checks of Field.get/Field.set.
+ * Codec subclasses FieldAccessor to call the field accesses generated by CodecProcessor.
+ * Any typed method that is not overridden, or does not match the type of the field, goes through the Field
+ * itself, which applies the usual widening conversions.
+ **/
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+public class FieldAccessor {
+
+  protected final Field field;
+  // ClassMetadata kind of the field
+  protected final int kind;
+
+  /**
+   * @param field Accessible instance field
+   */
+  public FieldAccessor (Field field) {
+    this.field = field;
+    this.kind = ClassMetadata.kindOf(field.getType());
+  }
+
+  /**
+   * Build an accessor that calls MethodHandles unreflected from the given field
+   * @param field Accessible instance field
+   * @return FieldAccessor for field
+   */
+  public static FieldAccessor unreflect (Field field) {
+    return new MethodHandleAccessor(field);
+  }
+
+  /**
+   * @return the Field this accessor reads and writes
+   */
+  public Field getField () {
+    return field;
+  }
+
+  public Object get (Object obj) {
+    try { return field.get(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public boolean getBoolean (Object obj) {
+    try { return field.getBoolean(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public byte getByte (Object obj) {
+    try { return field.getByte(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public char getChar (Object obj) {
+    try { return field.getChar(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public short getShort (Object obj) {
+    try { return field.getShort(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public int getInt (Object obj) {
+    try { return field.getInt(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public long getLong (Object obj) {
+    try { return field.getLong(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public float getFloat (Object obj) {
+    try { return field.getFloat(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public double getDouble (Object obj) {
+    try { return field.getDouble(obj); } catch (IllegalAccessException e) { throw new IllegalStateException(e); }
+  }
+
+  public void set (Object obj, Object value) throws IllegalAccessException {
+    field.set(obj, value);
+  }
+
+  public void setBoolean (Object obj, boolean value) throws IllegalAccessException {
+    field.setBoolean(obj, value);
+  }
+
+  public void setByte (Object obj, byte value) throws IllegalAccessException {
+    field.setByte(obj, value);
+  }
+
+  public void setChar (Object obj, char value) throws IllegalAccessException {
+    field.setChar(obj, value);
+  }
+
+  public void setShort (Object obj, short value) throws IllegalAccessException {
+    field.setShort(obj, value);
+  }
+
+  public void setInt (Object obj, int value) throws IllegalAccessException {
+    field.setInt(obj, value);
+  }
+
+  public void setLong (Object obj, long value) throws IllegalAccessException {
+    field.setLong(obj, value);
+  }
+
+  public void setFloat (Object obj, float value) throws IllegalAccessException {
+    field.setFloat(obj, value);
+  }
+
+  public void setDouble (Object obj, double value) throws IllegalAccessException {
+    field.setDouble(obj, value);
+  }
+
+  /**
+   * Calls a getter and setter MethodHandle unreflected once from the field, adapted to exact types
+   */
+  private static class MethodHandleAccessor extends FieldAccessor {
+    // (Object)T, where T is the primitive type of the field or Object for references
+    private final MethodHandle getter;
+    // (Object,T)void, or null when the field can only be set through Field.set
+    private final MethodHandle setter;
+
+    MethodHandleAccessor (Field field) {
+      super(field);
+      Class<?> value_type = field.getType().isPrimitive() ? field.getType() : Object.class;
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+      try {
+        getter = lookup.unreflectGetter(field).asType(MethodType.methodType(value_type, Object.class));
+      }
+      catch (IllegalAccessException e) {
+        throw new IllegalStateException("Field is not accessible: " + field, e);
+      }
+
+      MethodHandle field_setter;
+      try {
+        field_setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, value_type));
+      }
+      catch (IllegalAccessException e) {
+        // Such as final fields of records and hidden classes
+        field_setter = null;
+      }
+      setter = field_setter;
+    }
+
+    @Override
+    public Object get (Object obj) {
+      if (kind != ClassMetadata.KIND_OBJECT) return getBoxed(obj);
+      try { return (Object) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public boolean getBoolean (Object obj) {
+      if (kind != ClassMetadata.KIND_BOOLEAN) return super.getBoolean(obj);
+      try { return (boolean) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public byte getByte (Object obj) {
+      if (kind != ClassMetadata.KIND_BYTE) return super.getByte(obj);
+      try { return (byte) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public char getChar (Object obj) {
+      if (kind != ClassMetadata.KIND_CHAR) return super.getChar(obj);
+      try { return (char) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public short getShort (Object obj) {
+      if (kind != ClassMetadata.KIND_SHORT) return super.getShort(obj);
+      try { return (short) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public int getInt (Object obj) {
+      if (kind != ClassMetadata.KIND_INT) return super.getInt(obj);
+      try { return (int) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public long getLong (Object obj) {
+      if (kind != ClassMetadata.KIND_LONG) return super.getLong(obj);
+      try { return (long) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public float getFloat (Object obj) {
+      if (kind != ClassMetadata.KIND_FLOAT) return super.getFloat(obj);
+      try { return (float) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public double getDouble (Object obj) {
+      if (kind != ClassMetadata.KIND_DOUBLE) return super.getDouble(obj);
+      try { return (double) getter.invokeExact(obj); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void set (Object obj, Object value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_OBJECT || setter == null) { field.set(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setBoolean (Object obj, boolean value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_BOOLEAN || setter == null) { field.setBoolean(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setByte (Object obj, byte value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_BYTE || setter == null) { field.setByte(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setChar (Object obj, char value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_CHAR || setter == null) { field.setChar(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setShort (Object obj, short value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_SHORT || setter == null) { field.setShort(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setInt (Object obj, int value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_INT || setter == null) { field.setInt(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setLong (Object obj, long value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_LONG || setter == null) { field.setLong(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setFloat (Object obj, float value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_FLOAT || setter == null) { field.setFloat(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    @Override
+    public void setDouble (Object obj, double value) throws IllegalAccessException {
+      if (kind != ClassMetadata.KIND_DOUBLE || setter == null) { field.setDouble(obj, value); return; }
+      try { setter.invokeExact(obj, value); } catch (Throwable t) { throw unchecked(t); }
+    }
+
+    /**
+     * Read a primitive field as its box, for callers that need an Object
+     */
+    private Object getBoxed (Object obj) {
+      switch (kind) {
+        case ClassMetadata.KIND_BOOLEAN: return getBoolean(obj);
+        case ClassMetadata.KIND_BYTE: return getByte(obj);
+        case ClassMetadata.KIND_CHAR: return getChar(obj);
+        case ClassMetadata.KIND_SHORT: return getShort(obj);
+        case ClassMetadata.KIND_INT: return getInt(obj);
+        case ClassMetadata.KIND_LONG: return getLong(obj);
+        case ClassMetadata.KIND_FLOAT: return getFloat(obj);
+        default: return getDouble(obj);
+      }
+    }
+
+    /**
+     * The handles only throw what the field access itself can, such as a NullPointerException or ClassCastException
+     */
+    private static RuntimeException unchecked (Throwable t) {
+      if (t instanceof RuntimeException) return (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      return new IllegalStateException(t);
+    }
+
+  }
+
+}
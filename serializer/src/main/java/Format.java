@@ -0,0 +1,53 @@
+/**
+ * A wire format a serialized object graph can be written in and read back from.
+ * Format.JSON is the {"objects":[...]} document written by Serializer, Format.JSON_SCHEMA
+ * the same document with each class layout written once, and Format.BINARY is a compact
+ * binary encoding of the same graph.
+ **/
+
+import java.io.*;
+
+public interface Format {
+
+  Format JSON = new JsonFormat(false);
+  Format JSON_SCHEMA = new JsonFormat(true);
+  Format BINARY = new BinaryFormat();
+
+  /**
+   * @return name of the format as used by forName
+   */
+  String getName ();
+
+  /**
+   * Serialize source and its referenced objects to out. The stream is flushed but not closed.
+   * @param source Object to be serialized
+   * @param out OutputStream the message is written to
+   */
+  void write (Object source, OutputStream out) throws Exception;
+
+  /**
+   * Read one message from in and return the re-constructed object. The stream is not closed.
+   * @param in InputStream containing the message
+   * @return Object instance of data found within the message
+   */
+  Object read (InputStream in) throws Exception;
+
+  /**
+   * Find a format by name, as given on the command line
+   * @param name "json", "json-schema" or "binary"
+   * @return the matching Format
+   */
+  static Format forName (String name) {
+    if (name.equalsIgnoreCase(JSON.getName())) {
+      return JSON;
+    }
+    if (name.equalsIgnoreCase(JSON_SCHEMA.getName())) {
+      return JSON_SCHEMA;
+    }
+    if (name.equalsIgnoreCase(BINARY.getName())) {
+      return BINARY;
+    }
+    throw new IllegalArgumentException("Unknown format: " + name);
+  }
+
+}
@@ -0,0 +1,343 @@
+/**
+ * Broadcasts frames to every connected client from a single thread, over non-blocking channels and a Selector.
+ * broadcast only queues the frame and wakes the selector thread, which writes as much of it to each client as
+ * its socket takes and finishes the rest when the client becomes writable again, so a slow reader never holds
+ * up the sender or the other clients. The payload is framed once and shared by every client.
+ * A client whose unsent frames exceed max_pending_bytes is too far behind to catch up and is disconnected.
+ * Clients only receive the frames broadcast after they connected. The only thing they send is the hello of Frames,
+ * and messages larger than the compression threshold are sent compressed to the clients that offered to inflate them.
+ * Each message is compressed once, with one reused Deflater, for every such client. Anything else clients send is discarded.
+ **/
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+public class FrameServer implements Closeable {
+
+  public static final int DEFAULT_MAX_PENDING_BYTES = 16 << 20;
+  // Smaller messages are not worth the time compressing them takes
+  public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+  // Threshold that turns compression off
+  public static final int NO_COMPRESSION = Integer.MAX_VALUE;
+  // How long close waits for the frames already broadcast to be written
+  private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+  private final ServerSocketChannel server;
+  private final Selector selector;
+  private final int max_pending_bytes;
+  private final int compression_threshold;
+  // Reused for every compressed message, by one broadcast at a time
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final Thread thread;
+  // Frames broadcast and not yet queued for each client: the plain frame, and the compressed frame or null
+  private final Queue<ByteBuffer[]> outgoing = new ConcurrentLinkedQueue<ByteBuffer[]>();
+  // Connected clients, only used by the selector thread
+  private final List<Client> clients = new ArrayList<Client>();
+  // Buffer what clients send is read into and discarded
+  private final ByteBuffer discard = ByteBuffer.allocate(256);
+  private volatile boolean closing = false;
+  private volatile int client_count = 0;
+  private volatile long accepted_count = 0;
+  private volatile long dropped_count = 0;
+  // Clients that offered to inflate compressed frames, messages are only compressed when there are some
+  private volatile int deflate_count = 0;
+
+  /**
+   * One connection, with the frames not written to it yet
+   */
+  private static class Client {
+    final SocketChannel channel;
+    final SelectionKey key;
+    final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+    long pending_bytes = 0;
+    // Hello read so far
+    final ByteBuffer hello = ByteBuffer.allocate(Frames.HELLO_LENGTH);
+    boolean accepts_deflate = false;
+
+    Client (SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+  }
+
+  /**
+   * Listen on the given port of every interface, with the default limit on unsent bytes per client and compression threshold
+   */
+  public FrameServer (int port) throws IOException {
+    this(new InetSocketAddress(port), DEFAULT_MAX_PENDING_BYTES, DEFAULT_COMPRESSION_THRESHOLD);
+  }
+
+  /**
+   * @param address Address to listen on, with port 0 for any free port
+   * @param max_pending_bytes Most bytes of unsent frames a client may have before it is disconnected
+   */
+  public FrameServer (InetSocketAddress address, int max_pending_bytes) throws IOException {
+    this(address, max_pending_bytes, DEFAULT_COMPRESSION_THRESHOLD);
+  }
+
+  /**
+   * @param address Address to listen on, with port 0 for any free port
+   * @param max_pending_bytes Most bytes of unsent frames a client may have before it is disconnected
+   * @param compression_threshold Size above which messages are compressed for the clients that accept it, or NO_COMPRESSION
+   */
+  public FrameServer (InetSocketAddress address, int max_pending_bytes, int compression_threshold) throws IOException {
+    this.max_pending_bytes = max_pending_bytes;
+    this.compression_threshold = compression_threshold;
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.bind(address);
+    server.configureBlocking(false);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(this::run, "FrameServer-" + getLocalPort());
+    thread.setDaemon(true);
+  }
+
+  /**
+   * Start accepting clients and sending them frames
+   */
+  public void start () {
+    thread.start();
+  }
+
+  public int getLocalPort () {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * @return number of clients connected now
+   */
+  public int clientCount () {
+    return client_count;
+  }
+
+  /**
+   * @return number of clients accepted since the server started, which changes whenever a client connects
+   */
+  public long acceptedCount () {
+    return accepted_count;
+  }
+
+  /**
+   * @return number of clients disconnected for falling more than max_pending_bytes behind
+   */
+  public long droppedCount () {
+    return dropped_count;
+  }
+
+  /**
+   * Send one frame to every connected client without waiting for it to be written. Thread safe.
+   * @param payload Message to be framed, which must not be modified afterwards
+   */
+  public void broadcast (byte[] payload) {
+    if (closing) {
+      throw new IllegalStateException("FrameServer is closed");
+    }
+    ByteBuffer compressed = null;
+    if (payload.length > compression_threshold && deflate_count > 0) {
+      synchronized (deflater) {
+        compressed = Frames.deflate(payload, deflater);
+      }
+    }
+    outgoing.add(new ByteBuffer[] { Frames.frame(payload), compressed });
+    selector.wakeup();
+  }
+
+  /**
+   * Stop accepting clients, wait up to 5 seconds for the frames already broadcast to be written, then disconnect every client
+   */
+  @Override
+  public void close () throws IOException {
+    closing = true;
+    selector.wakeup();
+    if (thread.isAlive()) {
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    else {
+      shutdown();
+    }
+  }
+
+  private void run () {
+    long deadline = Long.MAX_VALUE;
+    try {
+      while (true) {
+        if (closing) {
+          if (deadline == Long.MAX_VALUE) {
+            deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+            server.close();
+          }
+          if ((outgoing.isEmpty() && !hasPending()) || System.currentTimeMillis() > deadline) {
+            break;
+          }
+          selector.select(100);
+        }
+        else {
+          selector.select();
+        }
+
+        // Accept new clients, notice closed ones and write to the ones that became writable
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Client client = (Client) key.attachment();
+          if (key.isReadable()) {
+            read(client);
+          }
+          if (key.isValid() && key.isWritable()) {
+            write(client);
+          }
+        }
+        selector.selectedKeys().clear();
+
+        // Queue the frames broadcast since, writing each right away to the clients that keep up
+        ByteBuffer[] frames;
+        while ((frames = outgoing.poll()) != null) {
+          for (Client client : new ArrayList<Client>(clients)) {
+            ByteBuffer frame = client.accepts_deflate && frames[1] != null ? frames[1] : frames[0];
+            queue(client, frame.duplicate());
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      System.out.println("FrameServer: Selector failed: " + e.getMessage());
+    }
+    finally {
+      shutdown();
+    }
+  }
+
+  private void accept () throws IOException {
+    SocketChannel channel = server.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+    Client client = new Client(channel, key);
+    key.attach(client);
+    clients.add(client);
+    client_count = clients.size();
+    accepted_count++;
+  }
+
+  private void read (Client client) {
+    try {
+      int read;
+      // The first bytes are the hello, then anything else is discarded
+      if (client.hello.hasRemaining()) {
+        read = client.channel.read(client.hello);
+        if (!client.hello.hasRemaining() && (Frames.helloFlags(client.hello.array()) & Frames.ACCEPT_DEFLATE) != 0) {
+          client.accepts_deflate = true;
+          deflate_count++;
+        }
+        if (read <= 0 || client.hello.hasRemaining()) {
+          if (read < 0) {
+            disconnect(client);
+          }
+          return;
+        }
+      }
+      do {
+        discard.clear();
+        read = client.channel.read(discard);
+      } while (read > 0);
+      if (read < 0) {
+        disconnect(client);
+      }
+    }
+    catch (IOException e) {
+      disconnect(client);
+    }
+  }
+
+  private void queue (Client client, ByteBuffer frame) {
+    client.pending.add(frame);
+    client.pending_bytes += frame.remaining();
+    if (client.pending_bytes > max_pending_bytes) {
+      dropped_count++;
+      disconnect(client);
+      return;
+    }
+    if (client.pending.size() == 1) {
+      write(client);
+    }
+  }
+
+  /**
+   * Write as many pending frames as the socket takes, then wait for OP_WRITE if some are left
+   */
+  private void write (Client client) {
+    try {
+      ByteBuffer head;
+      while ((head = client.pending.peek()) != null) {
+        client.pending_bytes -= client.channel.write(head);
+        if (head.hasRemaining()) {
+          break;
+        }
+        client.pending.poll();
+      }
+      client.key.interestOps(client.pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+    catch (IOException e) {
+      disconnect(client);
+    }
+  }
+
+  private boolean hasPending () {
+    for (Client client : clients) {
+      if (!client.pending.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void disconnect (Client client) {
+    client.key.cancel();
+    try {
+      client.channel.close();
+    }
+    catch (IOException e) {
+      // Already unusable
+    }
+    client.pending.clear();
+    if (clients.remove(client) && client.accepts_deflate) {
+      deflate_count--;
+    }
+    client_count = clients.size();
+  }
+
+  private void shutdown () {
+    for (Client client : new ArrayList<Client>(clients)) {
+      disconnect(client);
+    }
+    synchronized (deflater) {
+      deflater.end();
+    }
+    try {
+      server.close();
+      selector.close();
+    }
+    catch (IOException e) {
+      // Nothing left to release
+    }
+  }
+
+}
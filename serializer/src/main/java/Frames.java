@@ -0,0 +1,173 @@
+/**
+ * Length-prefixed frames, the unit ObjectCreator sends messages in: the 4 byte big endian length of the payload,
+ * then the payload, a message in any Format. Unlike one message per line, payloads may hold any byte,
+ * and a reader knows the size of a message before reading it.
+ * The top bit of the length marks a compressed frame, whose payload is the 4 byte length of the message
+ * followed by the message compressed with Deflater. Frames are only compressed for readers that offered
+ * to inflate them in the hello they send when connecting: "SF", the version 1 and a byte of ACCEPT_ flags.
+ **/
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.*;
+
+public class Frames {
+
+  public static final int HEADER_LENGTH = 4;
+  // Larger lengths are taken for a corrupt stream rather than allocated
+  public static final int MAX_PAYLOAD_LENGTH = 1 << 30;
+  // Bit of the length set for compressed frames
+  public static final int COMPRESSED = 0x80000000;
+
+  public static final int HELLO_LENGTH = 4;
+  // Hello flag of readers that inflate compressed frames
+  public static final int ACCEPT_DEFLATE = 1;
+  private static final byte HELLO_VERSION = 1;
+
+  private Frames () {
+  }
+
+  /**
+   * @param payload Message to be framed
+   * @return ByteBuffer holding the header and the payload, ready to be written
+   */
+  public static ByteBuffer frame (byte[] payload) {
+    ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+    frame.putInt(payload.length).put(payload);
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Frame a message compressed, unless that does not make it smaller
+   * @param payload Message to be framed
+   * @param deflater Deflater to reuse, reset before use, owned by the caller thread
+   * @return ByteBuffer holding the compressed frame, ready to be written, or null if compressing does not pay
+   */
+  public static ByteBuffer deflate (byte[] payload, Deflater deflater) {
+    // The compressed frame has to fit in the size of the plain one
+    byte[] frame = new byte[HEADER_LENGTH + payload.length];
+    int start = HEADER_LENGTH + 4;
+    if (start >= frame.length) {
+      return null;
+    }
+    deflater.reset();
+    deflater.setInput(payload);
+    deflater.finish();
+    int end = start;
+    while (!deflater.finished() && end < frame.length) {
+      end += deflater.deflate(frame, end, frame.length - end);
+    }
+    if (!deflater.finished()) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(frame, end));
+    buffer.putInt(0, (end - HEADER_LENGTH) | COMPRESSED);
+    buffer.putInt(HEADER_LENGTH, payload.length);
+    return buffer;
+  }
+
+  /**
+   * @param flags ACCEPT_ flags of the reader
+   * @return hello a reader sends when connecting
+   */
+  public static byte[] hello (int flags) {
+    return new byte[] { 'S', 'F', HELLO_VERSION, (byte) flags };
+  }
+
+  /**
+   * @param hello HELLO_LENGTH bytes sent by a reader
+   * @return its ACCEPT_ flags, or 0 if it is not a hello
+   */
+  public static int helloFlags (byte[] hello) {
+    if (hello.length != HELLO_LENGTH || hello[0] != 'S' || hello[1] != 'F' || hello[2] < HELLO_VERSION) {
+      return 0;
+    }
+    return hello[3];
+  }
+
+  /**
+   * Write one frame to the given OutputStream, which is flushed but not closed
+   * @param out Stream of the connection
+   * @param payload Message to be framed
+   */
+  public static void write (OutputStream out, byte[] payload) throws IOException {
+    out.write(frame(payload).array());
+    out.flush();
+  }
+
+  /**
+   * Read one frame from the given InputStream, which is not closed. Compressed frames are refused.
+   * @param in Stream of the connection
+   * @return payload of the frame, or null if the stream ended before a new frame
+   * @throws EOFException if the stream ended within a frame
+   */
+  public static byte[] read (InputStream in) throws IOException {
+    return read(in, null);
+  }
+
+  /**
+   * Read one frame from the given InputStream, which is not closed, inflating it if it is compressed
+   * @param in Stream of the connection
+   * @param inflater Inflater to reuse, owned by the caller thread, or null to refuse compressed frames
+   * @return payload of the frame, or null if the stream ended before a new frame
+   * @throws EOFException if the stream ended within a frame
+   */
+  public static byte[] read (InputStream in, Inflater inflater) throws IOException {
+    DataInputStream data = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+    int first = data.read();
+    if (first < 0) {
+      return null;
+    }
+    int header = first << 24 | data.readUnsignedByte() << 16 | data.readUnsignedByte() << 8 | data.readUnsignedByte();
+    int length = header & ~COMPRESSED;
+    if (length > MAX_PAYLOAD_LENGTH) {
+      throw new IOException("Invalid frame length " + length);
+    }
+    byte[] payload = new byte[length];
+    data.readFully(payload);
+    if ((header & COMPRESSED) == 0) {
+      return payload;
+    }
+    if (inflater == null) {
+      throw new IOException("Compressed frame received without offering to inflate");
+    }
+    return inflate(payload, inflater);
+  }
+
+  /**
+   * @param payload Payload of a compressed frame
+   * @param inflater Inflater to reuse
+   * @return message of the frame
+   */
+  private static byte[] inflate (byte[] payload, Inflater inflater) throws IOException {
+    int length = payload.length < 4 ? -1 : ByteBuffer.wrap(payload).getInt();
+    if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+      throw new IOException("Invalid compressed frame length " + length);
+    }
+    byte[] message = new byte[length];
+    inflater.reset();
+    inflater.setInput(payload, 4, payload.length - 4);
+    try {
+      // Inflate into the message, then check the compressed data ends right where the message does
+      int inflated = 0;
+      byte[] beyond = new byte[1];
+      while (!inflater.finished()) {
+        int count = inflated < length ? inflater.inflate(message, inflated, length - inflated) : inflater.inflate(beyond);
+        if ((inflated == length && count > 0) || (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))) {
+          throw new IOException("Corrupt compressed frame");
+        }
+        inflated += count;
+      }
+      if (inflated != length) {
+        throw new IOException("Corrupt compressed frame");
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed frame: " + e.getMessage(), e);
+    }
+    return message;
+  }
+
+}
@@ -0,0 +1,16 @@
+/**
+ * Marks a class for which CodecProcessor generates a Codec at compile time.
+ * The generated class is named after the annotated class with a Codec suffix, with '$' of nested
+ * classes replaced by '_', and lives in the same package. It creates instances with the no-arg
+ * constructor and reads and writes each field by name, or through a handle looked up once when the
+ * field is private or final. Classes compiled without the processor fall back to reflection,
+ * so the serialized form is the same either way.
+ **/
+
+import java.lang.annotation.*;
+
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec {
+}
@@ -0,0 +1,158 @@
+/**
+ * Immutable value types written inline wherever they are referenced, instead of as entries of their own.
+ * These are String, the boxed primitives, enum constants, BigDecimal, BigInteger and the value types of java.time.
+ * Their identity is not kept: two references to the same String are read back as two equal Strings.
+ * In Json, Strings and Booleans are written as Json strings and booleans, boxed numbers, BigDecimal and BigInteger
+ * as Json numbers, and the rest, including Characters and non-finite floating point values, as their String form.
+ * The binary format writes boxed primitives in native width and the rest as their String form.
+ **/
+
+import java.math.*;
+import java.time.*;
+import java.util.*;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class InlineValues {
+
+  // Inline classes other than enums and region zones by name
+  private static final Map<String, Class<?>> CLASSES = new HashMap<String, Class<?>>();
+  static {
+    for (Class<?> c : new Class<?>[] {
+        String.class, Boolean.class, Byte.class, Character.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+        BigDecimal.class, BigInteger.class, Instant.class, Duration.class, Period.class, LocalDate.class, LocalTime.class,
+        LocalDateTime.class, OffsetTime.class, OffsetDateTime.class, ZonedDateTime.class, Year.class, YearMonth.class,
+        MonthDay.class, ZoneOffset.class, ZoneId.class }) {
+      CLASSES.put(c.getName(), c);
+    }
+  }
+
+  /**
+   * @param c Class of a value
+   * @return true if values of class c are written inline
+   */
+  @SuppressWarnings("rawtypes")
+  public static boolean isInline (Class c) {
+    if (CLASSES.get(c.getName()) == c) return true;
+    // Enum constants with a body are instances of an anonymous subclass of the enum
+    if (c.isEnum() || (c.getSuperclass() != null && c.getSuperclass().isEnum())) return true;
+    // Region based zones are a private subclass of ZoneId
+    return ZoneId.class.isAssignableFrom(c) && c.getName().startsWith("java.time.");
+  }
+
+  /**
+   * @param value Inline value
+   * @return the class value is read back as, which is the enum for constants with a body and ZoneId for region zones
+   */
+  @SuppressWarnings("rawtypes")
+  public static Class classOf (Object value) {
+    if (value instanceof Enum) return ((Enum) value).getDeclaringClass();
+    if (value instanceof ZoneId && !(value instanceof ZoneOffset)) return ZoneId.class;
+    return value.getClass();
+  }
+
+  /**
+   * @param value Inline value
+   * @return true if the Json form of value tells its class without the class being written, as for Strings and Booleans
+   */
+  public static boolean isSelfDescribing (Object value) {
+    return value instanceof String || value instanceof Boolean;
+  }
+
+  /**
+   * Write the Json form of an inline value as the next value of the generator
+   * @param value Inline value
+   * @param generator JsonGenerator positioned where a value can be written
+   */
+  public static void write (Object value, JsonGenerator generator) {
+    if (value instanceof String) generator.write((String) value);
+    else if (value instanceof Boolean) generator.write((Boolean) value);
+    else if (value instanceof Integer || value instanceof Short || value instanceof Byte) generator.write(((Number) value).intValue());
+    else if (value instanceof Long) generator.write((Long) value);
+    else if (value instanceof BigDecimal) generator.write((BigDecimal) value);
+    else if (value instanceof BigInteger) generator.write((BigInteger) value);
+    // Shortest decimal form of a float, not the float widened to double, and non-finite values as Strings
+    else if (value instanceof Float && Float.isFinite((Float) value)) generator.write(new BigDecimal(value.toString()));
+    else if (value instanceof Double && Double.isFinite((Double) value)) generator.write((Double) value);
+    else generator.write(toText(value));
+  }
+
+  /**
+   * Read an inline value from its Json form
+   * @param json Json form of the value
+   * @param type Class of the value, or the declared type it was written for when its class was not written
+   * @return the value
+   */
+  @SuppressWarnings("rawtypes")
+  public static Object read (JsonValue json, Class type) {
+    switch (json.getValueType()) {
+      case TRUE: return Boolean.TRUE;
+      case FALSE: return Boolean.FALSE;
+      case NULL: return null;
+      case STRING:
+        String text = ((JsonString) json).getString();
+        // A String in a field or entry declared as a supertype such as Object
+        return isInline(type) ? fromText(type, text) : text;
+      case NUMBER:
+        JsonNumber number = (JsonNumber) json;
+        if (type == Integer.class || type == int.class) return number.intValueExact();
+        if (type == Long.class || type == long.class) return number.longValueExact();
+        if (type == Short.class || type == short.class) return (short) number.intValueExact();
+        if (type == Byte.class || type == byte.class) return (byte) number.intValueExact();
+        if (type == BigDecimal.class) return number.bigDecimalValue();
+        if (type == BigInteger.class) return number.bigIntegerValueExact();
+        // Parse the decimal text directly, rounding through double can differ in the last bit
+        return fromText(type, number.toString());
+      default:
+        throw new JsonException("Unexpected " + json.getValueType() + " for a value of " + type.getName());
+    }
+  }
+
+  /**
+   * @param value Inline value
+   * @return String form of value, which fromText reads back
+   */
+  public static String toText (Object value) {
+    if (value instanceof Enum) return ((Enum<?>) value).name();
+    return value.toString();
+  }
+
+  /**
+   * Read an inline value from its String form
+   * @param type Class of the value
+   * @param text String form written by toText
+   * @return the value
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static Object fromText (Class type, String text) {
+    if (type == String.class) return text;
+    // The class of the root value is written as getClass gives it, which is a subclass for constants with a body
+    if (Enum.class.isAssignableFrom(type)) return Enum.valueOf(type.isEnum() ? type : type.getSuperclass(), text);
+    if (type == Boolean.class) return Boolean.valueOf(text);
+    if (type == Character.class) return text.charAt(0);
+    if (type == Byte.class) return Byte.valueOf(text);
+    if (type == Short.class) return Short.valueOf(text);
+    if (type == Integer.class) return Integer.valueOf(text);
+    if (type == Long.class) return Long.valueOf(text);
+    if (type == Float.class) return Float.valueOf(text);
+    if (type == Double.class) return Double.valueOf(text);
+    if (type == BigDecimal.class) return new BigDecimal(text);
+    if (type == BigInteger.class) return new BigInteger(text);
+    if (type == Instant.class) return Instant.parse(text);
+    if (type == Duration.class) return Duration.parse(text);
+    if (type == Period.class) return Period.parse(text);
+    if (type == LocalDate.class) return LocalDate.parse(text);
+    if (type == LocalTime.class) return LocalTime.parse(text);
+    if (type == LocalDateTime.class) return LocalDateTime.parse(text);
+    if (type == OffsetTime.class) return OffsetTime.parse(text);
+    if (type == OffsetDateTime.class) return OffsetDateTime.parse(text);
+    if (type == ZonedDateTime.class) return ZonedDateTime.parse(text);
+    if (type == Year.class) return Year.parse(text);
+    if (type == YearMonth.class) return YearMonth.parse(text);
+    if (type == MonthDay.class) return MonthDay.parse(text);
+    if (type == ZoneOffset.class) return ZoneOffset.of(text);
+    if (ZoneId.class.isAssignableFrom(type)) return ZoneId.of(text);
+    throw new IllegalArgumentException(type.getName() + " is not an inline value type");
+  }
+
+}
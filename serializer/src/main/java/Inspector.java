@@ -0,0 +1,251 @@
+/**
+ * Client side of system. Will listen and wait for JSON strings to be passed
+ * from an ObjectCreator instance. Then, it will deserialize the string and print
+ * information about the object to terminal.
+ */
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import javax.json.JsonObject;
+
+public class Inspector {
+
+  /**
+   * A message decoded by a pipeline worker: its Json text, and its objects, or the parsed message of a session
+   */
+  private static class Received {
+    String text;
+    List<Object> objects;
+    JsonObject session_message;
+  }
+
+  /**
+   * Connect with ObjectCreator, obtain Json Strings and display once deserialized
+   * @param args --format=binary or --format=json-schema to receive messages in another format than JSON Strings,
+   *             --session to receive the messages of a SerializerSession,
+   *             --workers=n to deserialize on n threads, when virtual threads are not available,
+   *             --queue=n to read at most n messages ahead of the display,
+   *             --no-compression to receive every message uncompressed,
+   *             --metrics to print counters and histograms of the messages deserialized once the connection closes
+   */
+  public static void main (String args[]) throws Exception {
+    // Wire format: json by default, or as given with --format=json-schema or --format=binary. Must match ObjectCreator
+    Format format = Format.JSON;
+    DeserializerSession session = null;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int queue = 64;
+    boolean compression = true;
+    SerializationMetrics metrics = null;
+    for (String arg : args) {
+      if (arg.startsWith("--format=")) {
+        format = Format.forName(arg.substring("--format=".length()));
+      }
+      else if (arg.equals("--session")) {
+        session = new DeserializerSession();
+      }
+      else if (arg.startsWith("--workers=")) {
+        workers = Integer.parseInt(arg.substring("--workers=".length()));
+      }
+      else if (arg.startsWith("--queue=")) {
+        queue = Integer.parseInt(arg.substring("--queue=".length()));
+      }
+      else if (arg.equals("--no-compression")) {
+        compression = false;
+      }
+      else if (arg.equals("--metrics")) {
+        metrics = new SerializationMetrics();
+        Instrumentation.setListener(metrics);
+      }
+    }
+
+    // Network connection configuration - change this as needed
+    String hostname = "LAPTOP-3AMPCPHU";
+    int port = 6868;
+
+    // Connect to ObjectCreator.java
+    ExecutorService worker_pool = MessagePipeline.newWorkers(workers);
+    try (Socket clientSocket = new Socket(hostname, port)) {
+      System.out.println("Inspector: Listening on port " + Integer.toString(port));
+
+      // Offer to inflate compressed messages, ObjectCreator compresses the large ones then
+      OutputStream output = clientSocket.getOutputStream();
+      output.write(Frames.hello(compression ? Frames.ACCEPT_DEFLATE : 0));
+      output.flush();
+
+      // Ready input stream. Every message arrives in one length-prefixed frame
+      InputStream input = new BufferedInputStream(clientSocket.getInputStream());
+
+      // Messages are deserialized concurrently by the workers, then displayed in the order they arrived.
+      // Session messages build on each other, so workers only parse them and they are applied in order
+      Format message_format = format;
+      DeserializerSession message_session = session;
+      MessagePipeline.Decoder<Received> decoder = frame -> decode(frame, message_format, message_session != null);
+      MessagePipeline.Output<Received> display = received -> display(received, message_format, message_session);
+      new MessagePipeline<Received>(decoder, display, worker_pool, queue).run(input);
+      System.out.println("Inspector: ObjectCreator closed the connection");
+    }
+    catch (UnknownHostException ex) {
+        System.out.println("Server not found: " + ex.getMessage());
+    }
+    catch (IOException ex) {
+        System.out.println("I/O error: " + ex.getMessage());
+    }
+    finally {
+      worker_pool.shutdown();
+      if (metrics != null) {
+        System.out.print(metrics.report());
+      }
+    }
+
+  } // End of main
+
+  /**
+   * Deserialize one frame, on a pipeline worker
+   * @param frame Payload of the frame
+   * @param format Wire format of the connection
+   * @param session true if the frame holds a session message, which is only parsed
+   */
+  private static Received decode (byte[] frame, Format format, boolean session) throws Exception {
+    Received received = new Received();
+    if (!(format instanceof JsonFormat)) {
+      received.objects = Collections.singletonList(Deserializer.deserializeObject(new ByteArrayInputStream(frame), format));
+      return received;
+    }
+    received.text = new String(frame, StandardCharsets.UTF_8);
+    if (session) {
+      received.session_message = Deserializer.readJson(new StringReader(received.text));
+    }
+    else {
+      // Deserialize the String to recreate the object sent over, or every object of a batch
+      received.objects = Deserializer.deserializeAll(received.text);
+    }
+    return received;
+  }
+
+  /**
+   * Print a decoded message, in the order messages were received
+   * @param received Message decoded by a worker
+   * @param format Wire format of the connection
+   * @param session Session the messages are applied to, or null
+   */
+  private static void display (Received received, Format format, DeserializerSession session) throws Exception {
+    if (received.text != null) {
+      System.out.println("Inspector: Received the following from ObjectCreator: " + received.text);
+    }
+    else {
+      System.out.println("Inspector: Received a " + format.getName() + " message from ObjectCreator");
+    }
+
+    List<Object> restored_objs = received.objects;
+    if (received.session_message != null) {
+      // A session message patches the list of every object created, of which the newest is displayed
+      List<?> session_objs = (List<?>) session.deserialize(received.session_message);
+      if (!session.isStarted()) {
+        System.out.println("--- Inspector: Waiting for the next full snapshot of the session ---");
+        return;
+      }
+      restored_objs = Collections.singletonList(session_objs.get(session_objs.size() - 1));
+    }
+
+    // Print information about each object
+    for (Object restored_obj : restored_objs) {
+      displayObjectInformation(restored_obj);
+    }
+  }
+
+  /**
+   * Given an Object, display information about its Class name and contents
+   * @param obj Object to be examined
+   */
+  @SuppressWarnings("rawtypes")
+  private static void displayObjectInformation (Object obj) throws IllegalArgumentException, IllegalAccessException {
+	Map object_tracking_map = new IdentityHashMap();
+	displayHelper(obj, obj.getClass(), 0, object_tracking_map);
+  }
+
+  /**
+   * Helper function for recursively displaying information on Objects as they are discovered.
+   * @param obj Base object to explote
+   * @param c Class of obj
+   * @param depth Depth level of traversal
+   * @param map Map containing all objects previously encountered
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static void displayHelper (Object obj, Class c, int depth, Map map) throws IllegalArgumentException, IllegalAccessException {
+	// Check if the given object has been encountered before
+	if (map.containsValue(obj)) {
+		printDepth(depth);
+		System.out.println("-> Object " + obj + " has been encountered before");
+		return;
+	}
+	// Else: Object not encountered before - Add it to the map
+	String object_id = Integer.toString(map.size());
+	map.put(obj, object_id);
+
+	// Display information about object
+	if (!c.isPrimitive()) {
+		printDepth(depth); System.out.println("---- OBJECT INFORMATION ----");
+	}
+	printDepth(depth); System.out.println("Class Name: " + c.getName());
+
+	// Array: Display length and entries
+	if (c.isArray()) {
+		printDepth(depth); System.out.println("Type: Array");
+	    printDepth(depth); System.out.println("Length: " + Integer.toString(Array.getLength(obj)));
+	    printDepth(depth); System.out.println("Entries: ");
+	    Class comp = c.getComponentType();
+	    for (int i = 0; i < Array.getLength(obj); i++) {
+	    	// Object Entry: Recursively explore
+	    	if (!comp.isPrimitive()) {
+	    		displayHelper(Array.get(obj, i), comp, depth + 1, map);
+	    	}
+	    	else {
+	    		printDepth(depth); System.out.println("#" + Integer.toString(i) + ": " + Array.get(obj, i));
+	    	}
+	    }
+	  }
+	// Object: Display fields
+	else {
+		printDepth(depth); System.out.println("Type: Object");
+		printDepth(depth); System.out.println("Fields:");
+		Field[] f = c.getDeclaredFields();
+
+		for (int i = 0 ; i < f.length; i++) {
+			if (!Modifier.isPublic(f[i].getModifiers())) {
+				f[i].setAccessible(true);
+			}
+			printDepth(depth + 1); System.out.println("--- Field Name: " + f[i].getName() + " ---");
+			printDepth(depth + 1); System.out.println("Field Class/Type: " + f[i].getType().getName());
+			// Check if the field is primitive or not
+			if (f[i].getType().isArray()) {
+				printDepth(depth + 1); System.out.println("Recursively exploring Array field");
+				displayHelper(f[i].get(obj), f[i].get(obj).getClass(), depth + 2, map);
+			}
+			else if (!f[i].getType().isPrimitive()) {
+				printDepth(depth + 1); System.out.println("Recursively exploring Object field");
+				displayHelper(f[i].get(obj), f[i].getType(), depth + 2, map);
+			}
+			else {
+				printDepth(depth + 1); System.out.println("Field Value: " + f[i].get(obj));
+			}
+		}
+	}
+
+  }
+
+  /**
+   * Helper function to print depth level to make traversal visually easier to understand
+   * @param depth indicates how many spaces to print out
+   */
+  private static void printDepth (int depth) {
+	  for (int i = 0; i < depth; i++) {
+		  System.out.print("\s\s\s");
+	  }
+  }
+
+}
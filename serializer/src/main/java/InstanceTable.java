@@ -0,0 +1,60 @@
+/**
+ * Instances read back from a message, indexed by their id.
+ * Ids are assigned densely from 0 by ObjectTable when serializing, so a plain array indexed
+ * by id holds them without hashing or boxing the ids.
+ **/
+
+import java.util.*;
+
+public class InstanceTable {
+
+  private Object[] instances = new Object[16];
+  // One more than the highest id put so far
+  private int size = 0;
+
+  /**
+   * @param id ID of the instance in the message
+   * @param instance Instance read for id
+   */
+  public void put (int id, Object instance) {
+    if (id >= instances.length) {
+      instances = Arrays.copyOf(instances, Math.max(instances.length * 2, id + 1));
+    }
+    instances[id] = instance;
+    if (id >= size) {
+      size = id + 1;
+    }
+  }
+
+  /**
+   * @param id ID of an instance
+   * @return the instance with the given id, or null if it has not been read
+   */
+  public Object get (int id) {
+    return id < size ? instances[id] : null;
+  }
+
+  /**
+   * @param id ID of an instance
+   * @return true if the instance with the given id has been read
+   */
+  public boolean has (int id) {
+    return id < size && instances[id] != null;
+  }
+
+  /**
+   * @return one more than the highest id read so far
+   */
+  public int size () {
+    return size;
+  }
+
+  /**
+   * Forget every instance, keeping the array for the next message
+   */
+  public void clear () {
+    Arrays.fill(instances, 0, size, null);
+    size = 0;
+  }
+
+}
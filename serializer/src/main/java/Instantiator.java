@@ -0,0 +1,141 @@
+/**
+ * Creates empty instances of one class for the deserializers, resolving the fastest way to do so once per class.
+ * In order of preference, an instance is created by:
+ * - Array.newInstance for arrays, and the public API sized for the elements for JDK collections and maps
+ * - the generated Codec of a class annotated with GenerateCodec
+ * - a MethodHandle unreflected from the no-arg constructor, made accessible if needed
+ * - a serialization constructor from ReflectionFactory, which allocates the class and runs only the no-arg
+ *   constructor of Object, the way ObjectInputStream creates instances. This covers classes without a no-arg
+ *   constructor; their fields keep the default values of their types until they are set. ReflectionFactory
+ *   lives in the jdk.unsupported module, so it is looked up by name, and a runtime without it only loses
+ *   this last resort.
+ * Instantiators are cached in ClassMetadata, so repeated messages do no reflective lookups.
+ **/
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+public class Instantiator {
+
+  // (Class,Constructor)Constructor calling ReflectionFactory.newConstructorForSerialization, or null
+  private static final MethodHandle NEW_CONSTRUCTOR_FOR_SERIALIZATION = findReflectionFactory();
+
+  @SuppressWarnings("rawtypes")
+  private final Class type;
+  // Component type of an array class, otherwise null
+  @SuppressWarnings("rawtypes")
+  private final Class component;
+  // JdkCollections container kind of type
+  private final int container;
+  // Generated codec of type, or null
+  private final Codec codec;
+  // ()Object calling the no-arg constructor, or null
+  private final MethodHandle constructor;
+  // Serialization constructor of a class without a usable no-arg constructor, or null
+  @SuppressWarnings("rawtypes")
+  private final Constructor serialization_constructor;
+
+  /**
+   * @param metadata Metadata of the class to instantiate
+   */
+  Instantiator (ClassMetadata metadata) {
+    type = metadata.type;
+    component = type.getComponentType();
+    container = metadata.container;
+    codec = metadata.codec;
+    // Containers made by JDK factories only come from JdkCollections
+    boolean factory = container != JdkCollections.NONE && metadata.form != JdkCollections.CONSTRUCTED;
+    constructor = component != null || metadata.inline || factory ? null : findConstructor(type);
+    serialization_constructor = component != null || metadata.inline || factory || constructor != null ? null : findSerializationConstructor(type);
+  }
+
+  /**
+   * Create an empty instance
+   * @param length Length of an array, or number of elements or entries of a JDK collection or map, ignored otherwise
+   * @return new instance of the class
+   */
+  public Object newInstance (int length) throws Exception {
+    if (component != null) {
+      return Array.newInstance(component, length);
+    }
+    if (container != JdkCollections.NONE) {
+      Object sized = JdkCollections.newContainer(type, length);
+      if (sized != null) return sized;
+    }
+    if (codec != null) {
+      Object instance = codec.newInstance();
+      if (instance != null) return instance;
+    }
+    if (constructor == null) {
+      if (serialization_constructor == null) {
+        throw new InstantiationException("Cannot instantiate " + type.getName());
+      }
+      return serialization_constructor.newInstance();
+    }
+    try {
+      return (Object) constructor.invokeExact();
+    }
+    catch (Exception | Error e) {
+      throw e;
+    }
+    catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  /**
+   * @return ()Object handle calling the no-arg constructor of c, or null if c has none that can be made accessible
+   */
+  private static MethodHandle findConstructor (Class<?> c) {
+    if (c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+      return null;
+    }
+    try {
+      Constructor<?> no_arg = c.getDeclaredConstructor();
+      if (!Modifier.isPublic(no_arg.getModifiers()) || !Modifier.isPublic(c.getModifiers())) {
+        no_arg.setAccessible(true);
+      }
+      return MethodHandles.lookup().unreflectConstructor(no_arg).asType(MethodType.methodType(Object.class));
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      // No no-arg constructor, or one in a module that is not open to us
+      return null;
+    }
+  }
+
+  /**
+   * The serialization constructor is generated bytecode that cannot be unreflected to a MethodHandle,
+   * so it is kept as a Constructor, whose newInstance does no access checks once it is resolved
+   * @return serialization constructor of c, or null for interfaces and abstract classes
+   */
+  @SuppressWarnings("rawtypes")
+  private static Constructor findSerializationConstructor (Class<?> c) {
+    if (NEW_CONSTRUCTOR_FOR_SERIALIZATION == null || c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+      return null;
+    }
+    try {
+      return (Constructor) NEW_CONSTRUCTOR_FOR_SERIALIZATION.invokeExact(c, Object.class.getDeclaredConstructor());
+    }
+    catch (Throwable t) {
+      if (t instanceof Error) throw (Error) t;
+      return null;
+    }
+  }
+
+  /**
+   * @return handle calling newConstructorForSerialization on the ReflectionFactory, or null if the runtime has none
+   */
+  private static MethodHandle findReflectionFactory () {
+    try {
+      Class<?> factory_class = Class.forName("sun.reflect.ReflectionFactory");
+      Object factory = factory_class.getMethod("getReflectionFactory").invoke(null);
+      MethodHandle handle = MethodHandles.publicLookup().findVirtual(factory_class, "newConstructorForSerialization",
+          MethodType.methodType(Constructor.class, Class.class, Constructor.class));
+      return handle.bindTo(factory);
+    }
+    catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Where the SerializationListener is registered, and the counting Readers, Writers and streams the
+ * Json length of a traced call is measured with.
+ * With no listener and no Flight Recorder recording of serializer.Serialize or serializer.Deserialize events,
+ * a call checks one field and the event setting and records nothing, so instrumentation costs almost nothing
+ * when it is not used.
+ **/
+
+import java.io.*;
+
+public class Instrumentation {
+
+  private static volatile SerializationListener listener = null;
+
+  private Instrumentation () {
+  }
+
+  /**
+   * Report every later call to the given listener
+   * @param l Listener, or null to stop reporting
+   */
+  public static void setListener (SerializationListener l) {
+    listener = l;
+  }
+
+  /**
+   * @return the registered listener, or null if there is none
+   */
+  public static SerializationListener getListener () {
+    return listener;
+  }
+
+  /**
+   * Writer counting the chars written through it
+   */
+  static class CountingWriter extends FilterWriter {
+    long count = 0;
+
+    CountingWriter (Writer out) {
+      super(out);
+    }
+
+    @Override
+    public void write (int c) throws IOException {
+      out.write(c);
+      count++;
+    }
+
+    @Override
+    public void write (char[] chars, int offset, int length) throws IOException {
+      out.write(chars, offset, length);
+      count += length;
+    }
+
+    @Override
+    public void write (String str, int offset, int length) throws IOException {
+      out.write(str, offset, length);
+      count += length;
+    }
+  }
+
+  /**
+   * OutputStream counting the bytes written through it
+   */
+  static class CountingOutputStream extends FilterOutputStream {
+    long count = 0;
+
+    CountingOutputStream (OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write (int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write (byte[] b, int offset, int length) throws IOException {
+      out.write(b, offset, length);
+      count += length;
+    }
+  }
+
+  /**
+   * Reader counting the chars read through it
+   */
+  static class CountingReader extends FilterReader {
+    long count = 0;
+
+    CountingReader (Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read () throws IOException {
+      int c = in.read();
+      if (c >= 0) {
+        count++;
+      }
+      return c;
+    }
+
+    @Override
+    public int read (char[] chars, int offset, int length) throws IOException {
+      int read = in.read(chars, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+  }
+
+  /**
+   * InputStream counting the bytes read through it
+   */
+  static class CountingInputStream extends FilterInputStream {
+    long count = 0;
+
+    CountingInputStream (InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read () throws IOException {
+      int b = in.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read (byte[] b, int offset, int length) throws IOException {
+      int read = in.read(b, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+  }
+
+}
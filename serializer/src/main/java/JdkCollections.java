@@ -0,0 +1,530 @@
+/**
+ * Logical form of the JDK collections and maps.
+ * Public collection and map classes of the java.* packages with a public no-arg constructor, such as
+ * ArrayList, HashSet, ArrayDeque and HashMap, are written as their elements, or for maps as their keys
+ * and values alternating, instead of their internal fields. They are rebuilt through their public API,
+ * created with a capacity that fits the elements so they do not resize while being filled.
+ * The collections made by JDK factories, whose classes are private, are written the same way under the name
+ * of the interface they implement and a tag telling the factory, such as "java.util.List:immutable" for List.of,
+ * and rebuilt with that factory. Immutable, singleton and unmodifiable collections can only be built once all of
+ * their elements are known, so they are built last: until then no other object can reference them.
+ * Elements can be referenced before every object of the message has been read, so the elements of each
+ * container are gathered first and added by a Fill once the whole message has been read.
+ * Sorted collections are only supported with their natural ordering, since comparators are usually lambdas.
+ **/
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class JdkCollections {
+
+  // ClassMetadata container kind of a class
+  public static final int NONE = 0;
+  public static final int COLLECTION = 1;
+  public static final int MAP = 2;
+
+  // How a container is made, which is also how it is rebuilt
+  // Public class created with its constructor
+  public static final int CONSTRUCTED = 0;
+  // List.of, Set.of, Map.of and the like
+  public static final int IMMUTABLE = 1;
+  // Collections.unmodifiableList and the like, rebuilt around a copy of the elements
+  public static final int UNMODIFIABLE = 2;
+  // Collections.synchronizedList and the like, rebuilt around an empty container filled through the wrapper
+  public static final int SYNCHRONIZED = 3;
+  // Collections.emptyList, emptySet and emptyMap
+  public static final int EMPTY = 4;
+  // Collections.singletonList, singleton and singletonMap
+  public static final int SINGLETON = 5;
+  // Arrays.asList, rebuilt around an array of the elements
+  public static final int ARRAY = 6;
+
+  // Tag written after the interface name for each factory form
+  private static final String[] TAGS = { null, "immutable", "unmodifiable", "synchronized", "empty", "singleton", "array" };
+
+  // Interface each class made by a JDK factory is written as, and its form
+  private static final Map<Class<?>, Class<?>> INTERFACES = new HashMap<Class<?>, Class<?>>();
+  private static final Map<Class<?>, Integer> FORMS = new HashMap<Class<?>, Integer>();
+  // Class standing for each logical name, the first class registered under it
+  private static final Map<String, Class<?>> LOGICAL_CLASSES = new HashMap<String, Class<?>>();
+
+  static {
+    List<Object> list = new ArrayList<Object>();
+    List<Object> linked_list = new LinkedList<Object>();
+    Set<Object> set = new HashSet<Object>();
+    TreeSet<Object> sorted_set = new TreeSet<Object>();
+    Map<Object, Object> map = new HashMap<Object, Object>();
+    TreeMap<Object, Object> sorted_map = new TreeMap<Object, Object>();
+
+    register(List.of(1, 2, 3), List.class, IMMUTABLE);
+    register(List.of(1), List.class, IMMUTABLE);
+    register(List.of(1, 2, 3).subList(0, 2), List.class, IMMUTABLE);
+    register(Set.of(1, 2, 3), Set.class, IMMUTABLE);
+    register(Set.of(1), Set.class, IMMUTABLE);
+    register(Map.of(1, 1, 2, 2), Map.class, IMMUTABLE);
+    register(Map.of(1, 1), Map.class, IMMUTABLE);
+
+    register(Collections.unmodifiableCollection(list), Collection.class, UNMODIFIABLE);
+    register(Collections.unmodifiableList(list), List.class, UNMODIFIABLE);
+    register(Collections.unmodifiableList(linked_list), List.class, UNMODIFIABLE);
+    register(Collections.unmodifiableSet(set), Set.class, UNMODIFIABLE);
+    register(Collections.unmodifiableSortedSet(sorted_set), SortedSet.class, UNMODIFIABLE);
+    register(Collections.unmodifiableNavigableSet(sorted_set), NavigableSet.class, UNMODIFIABLE);
+    register(Collections.unmodifiableMap(map), Map.class, UNMODIFIABLE);
+    register(Collections.unmodifiableSortedMap(sorted_map), SortedMap.class, UNMODIFIABLE);
+    register(Collections.unmodifiableNavigableMap(sorted_map), NavigableMap.class, UNMODIFIABLE);
+
+    register(Collections.synchronizedCollection(list), Collection.class, SYNCHRONIZED);
+    register(Collections.synchronizedList(list), List.class, SYNCHRONIZED);
+    register(Collections.synchronizedList(linked_list), List.class, SYNCHRONIZED);
+    register(Collections.synchronizedSet(set), Set.class, SYNCHRONIZED);
+    register(Collections.synchronizedSortedSet(sorted_set), SortedSet.class, SYNCHRONIZED);
+    register(Collections.synchronizedNavigableSet(sorted_set), NavigableSet.class, SYNCHRONIZED);
+    register(Collections.synchronizedMap(map), Map.class, SYNCHRONIZED);
+    register(Collections.synchronizedSortedMap(sorted_map), SortedMap.class, SYNCHRONIZED);
+    register(Collections.synchronizedNavigableMap(sorted_map), NavigableMap.class, SYNCHRONIZED);
+
+    register(Collections.emptyList(), List.class, EMPTY);
+    register(Collections.emptySet(), Set.class, EMPTY);
+    register(Collections.emptyMap(), Map.class, EMPTY);
+    register(Collections.singletonList(null), List.class, SINGLETON);
+    register(Collections.singleton(null), Set.class, SINGLETON);
+    register(Collections.singletonMap(null, null), Map.class, SINGLETON);
+    register(Arrays.asList(), List.class, ARRAY);
+  }
+
+  private static void register (Object sample, Class<?> logical_interface, int form) {
+    Class<?> c = sample.getClass();
+    INTERFACES.put(c, logical_interface);
+    FORMS.put(c, form);
+    LOGICAL_CLASSES.putIfAbsent(logical_interface.getName() + ":" + TAGS[form], c);
+  }
+
+  /**
+   * @param c Class to check
+   * @return COLLECTION or MAP if c is written in its logical form, NONE otherwise
+   */
+  public static int containerOf (Class<?> c) {
+    boolean collection = Collection.class.isAssignableFrom(c);
+    if (!collection && !Map.class.isAssignableFrom(c)) return NONE;
+    if (!FORMS.containsKey(c)) {
+      if (!c.getName().startsWith("java.") || !Modifier.isPublic(c.getModifiers()) || Modifier.isAbstract(c.getModifiers())) return NONE;
+      try {
+        c.getConstructor();
+      }
+      catch (NoSuchMethodException e) {
+        return NONE;
+      }
+    }
+    return collection ? COLLECTION : MAP;
+  }
+
+  /**
+   * @param c Class with a container kind other than NONE
+   * @return CONSTRUCTED, or the JDK factory form of c
+   */
+  public static int formOf (Class<?> c) {
+    Integer form = FORMS.get(c);
+    return form == null ? CONSTRUCTED : form;
+  }
+
+  /**
+   * @param c Class with a container kind other than NONE
+   * @return name c is written under, its own or that of its interface and form
+   */
+  public static String nameOf (Class<?> c) {
+    Class<?> logical_interface = INTERFACES.get(c);
+    return logical_interface == null ? c.getName() : logical_interface.getName() + ":" + TAGS[FORMS.get(c)];
+  }
+
+  /**
+   * @param name Name written by nameOf
+   * @return a class with the interface and form named, or null if name is not a logical name
+   */
+  public static Class<?> logicalClass (String name) {
+    return LOGICAL_CLASSES.get(name);
+  }
+
+  /**
+   * @param form Form of a container class
+   * @return whether containers of that form are built from their elements, instead of created empty and filled
+   */
+  public static boolean isBuilt (int form) {
+    return form == IMMUTABLE || form == SINGLETON || form == UNMODIFIABLE;
+  }
+
+  /**
+   * The logical contents of a container: the elements of a collection in iteration order,
+   * or the keys and values of a map alternating, in iteration order of the entries
+   * @param container Collection or Map whose class has the given kind
+   * @param container_kind COLLECTION or MAP
+   * @return elements of container
+   */
+  @SuppressWarnings("rawtypes")
+  public static Object[] elementsOf (Object container, int container_kind) {
+    checkOrdering(container);
+    if (container_kind == COLLECTION) {
+      return ((Collection) container).toArray();
+    }
+    Map map = (Map) container;
+    Object[] elements = new Object[map.size() * 2];
+    int i = 0;
+    for (Object o : map.entrySet()) {
+      Map.Entry entry = (Map.Entry) o;
+      elements[i++] = entry.getKey();
+      elements[i++] = entry.getValue();
+    }
+    return elements;
+  }
+
+  /**
+   * @param container_kind COLLECTION or MAP
+   * @param size Number of elements of a collection, or entries of a map
+   * @return number of values written for a container of that size
+   */
+  public static int elementCount (int container_kind, int size) {
+    return container_kind == MAP ? size * 2 : size;
+  }
+
+  /**
+   * Create an empty container sized for the given number of elements or entries
+   * @param c Class with a container kind other than NONE, and a form that is not built from its elements
+   * @param size Number of elements of a collection, or entries of a map
+   * @return new empty instance of c, or null for containers without a capacity, which are created with their no-arg constructor
+   */
+  @SuppressWarnings("rawtypes")
+  public static Object newContainer (Class c, int size) {
+    switch (formOf(c)) {
+      case SYNCHRONIZED: return wrap(INTERFACES.get(c), SYNCHRONIZED, newBacking(INTERFACES.get(c), size));
+      case EMPTY: return empty(INTERFACES.get(c));
+      case ARRAY: return Arrays.asList(new Object[size]);
+      case CONSTRUCTED: break;
+      default: throw new IllegalArgumentException(nameOf(c) + " is built from its elements");
+    }
+    if (c == ArrayList.class) return new ArrayList(size);
+    if (c == HashMap.class) return new HashMap(hashCapacity(size));
+    if (c == HashSet.class) return new HashSet(hashCapacity(size));
+    if (c == LinkedHashMap.class) return new LinkedHashMap(hashCapacity(size));
+    if (c == LinkedHashSet.class) return new LinkedHashSet(hashCapacity(size));
+    if (c == ArrayDeque.class) return new ArrayDeque(size);
+    if (c == Vector.class) return new Vector(Math.max(size, 1));
+    if (c == Hashtable.class) return new Hashtable(hashCapacity(size));
+    if (c == IdentityHashMap.class) return new IdentityHashMap(size);
+    if (c == PriorityQueue.class) return new PriorityQueue(Math.max(size, 1));
+    if (c == ConcurrentHashMap.class) return new ConcurrentHashMap(size);
+    // Linked and tree based containers have no capacity
+    return null;
+  }
+
+  /**
+   * Build a container of a form that is built from its elements, with the JDK factory it was made by
+   * @param c Class with a container kind other than NONE, and a form isBuilt is true for
+   * @param elements Elements of a collection, or keys and values of a map alternating
+   * @return new container of the same interface and form as c
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static Object build (Class<?> c, Object[] elements) {
+    Class<?> logical_interface = INTERFACES.get(c);
+    switch (formOf(c)) {
+      case IMMUTABLE:
+        if (logical_interface == Set.class) return Set.of(elements);
+        if (logical_interface == Map.class) {
+          Map.Entry[] entries = new Map.Entry[elements.length / 2];
+          for (int i = 0; i < entries.length; i++) {
+            entries[i] = Map.entry(elements[i * 2], elements[i * 2 + 1]);
+          }
+          return Map.ofEntries(entries);
+        }
+        // Lists from Stream.toList hold nulls, which List.of rejects
+        return Arrays.asList(elements).contains(null) ? Arrays.stream(elements).toList() : List.of(elements);
+      case SINGLETON:
+        if (logical_interface == Set.class) return Collections.singleton(elements[0]);
+        if (logical_interface == Map.class) return Collections.singletonMap(elements[0], elements[1]);
+        return Collections.singletonList(elements[0]);
+      case UNMODIFIABLE:
+        int kind = Map.class.isAssignableFrom(logical_interface) ? MAP : COLLECTION;
+        Object backing = newBacking(logical_interface, kind == MAP ? elements.length / 2 : elements.length);
+        fill(backing, kind, elements);
+        return wrap(logical_interface, UNMODIFIABLE, backing);
+      default:
+        throw new IllegalArgumentException(c.getName() + " is not built from its elements");
+    }
+  }
+
+  /**
+   * @return the empty container an unmodifiable or synchronized wrapper of logical_interface is built around
+   */
+  @SuppressWarnings("rawtypes")
+  private static Object newBacking (Class<?> logical_interface, int size) {
+    if (logical_interface == Set.class) return new LinkedHashSet(hashCapacity(size));
+    if (logical_interface == Map.class) return new LinkedHashMap(hashCapacity(size));
+    if (SortedSet.class.isAssignableFrom(logical_interface)) return new TreeSet();
+    if (SortedMap.class.isAssignableFrom(logical_interface)) return new TreeMap();
+    return new ArrayList(size);
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static Object wrap (Class<?> logical_interface, int form, Object backing) {
+    boolean unmodifiable = form == UNMODIFIABLE;
+    if (logical_interface == List.class) return unmodifiable ? Collections.unmodifiableList((List) backing) : Collections.synchronizedList((List) backing);
+    if (logical_interface == Set.class) return unmodifiable ? Collections.unmodifiableSet((Set) backing) : Collections.synchronizedSet((Set) backing);
+    if (logical_interface == SortedSet.class) return unmodifiable ? Collections.unmodifiableSortedSet((SortedSet) backing) : Collections.synchronizedSortedSet((SortedSet) backing);
+    if (logical_interface == NavigableSet.class) return unmodifiable ? Collections.unmodifiableNavigableSet((NavigableSet) backing) : Collections.synchronizedNavigableSet((NavigableSet) backing);
+    if (logical_interface == Map.class) return unmodifiable ? Collections.unmodifiableMap((Map) backing) : Collections.synchronizedMap((Map) backing);
+    if (logical_interface == SortedMap.class) return unmodifiable ? Collections.unmodifiableSortedMap((SortedMap) backing) : Collections.synchronizedSortedMap((SortedMap) backing);
+    if (logical_interface == NavigableMap.class) return unmodifiable ? Collections.unmodifiableNavigableMap((NavigableMap) backing) : Collections.synchronizedNavigableMap((NavigableMap) backing);
+    return unmodifiable ? Collections.unmodifiableCollection((Collection) backing) : Collections.synchronizedCollection((Collection) backing);
+  }
+
+  private static Object empty (Class<?> logical_interface) {
+    if (logical_interface == Set.class) return Collections.emptySet();
+    if (logical_interface == Map.class) return Collections.emptyMap();
+    return Collections.emptyList();
+  }
+
+  /**
+   * Add the gathered elements to a container created by newContainer
+   * @param container Empty Collection or Map
+   * @param container_kind COLLECTION or MAP
+   * @param elements Elements of a collection, or keys and values of a map alternating
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static void fill (Object container, int container_kind, Object[] elements) {
+    if (container_kind == COLLECTION && formOf(container.getClass()) == ARRAY) {
+      // Fixed size: set in place
+      List list = (List) container;
+      for (int i = 0; i < elements.length; i++) {
+        list.set(i, elements[i]);
+      }
+    }
+    else if (container_kind == COLLECTION) {
+      Collection collection = (Collection) container;
+      for (Object element : elements) {
+        collection.add(element);
+      }
+    }
+    else {
+      Map map = (Map) container;
+      for (int i = 0; i < elements.length; i += 2) {
+        map.put(elements[i], elements[i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Remove every element of a container, so it can be filled again with its new elements
+   * @param container Collection or Map
+   * @param container_kind COLLECTION or MAP
+   */
+  @SuppressWarnings("rawtypes")
+  public static void clear (Object container, int container_kind) {
+    if (formOf(container.getClass()) == ARRAY) {
+      // Fixed size, fill sets every element again
+      return;
+    }
+    if (container_kind == COLLECTION) {
+      ((Collection) container).clear();
+    }
+    else {
+      ((Map) container).clear();
+    }
+  }
+
+  /**
+   * Capacity of a hash based container holding size entries without resizing at the default load factor
+   */
+  private static int hashCapacity (int size) {
+    return (int) (size / 0.75f) + 1;
+  }
+
+  /**
+   * A comparator cannot be written, so reject sorted containers that have one instead of reordering them silently
+   */
+  @SuppressWarnings("rawtypes")
+  private static void checkOrdering (Object container) {
+    Comparator comparator = null;
+    if (container instanceof SortedSet) comparator = ((SortedSet) container).comparator();
+    else if (container instanceof SortedMap) comparator = ((SortedMap) container).comparator();
+    else if (container instanceof PriorityQueue) comparator = ((PriorityQueue) container).comparator();
+    else if (container instanceof PriorityBlockingQueue) comparator = ((PriorityBlockingQueue) container).comparator();
+    if (comparator != null) {
+      throw new IllegalArgumentException(container.getClass().getName() + " with a comparator cannot be serialized");
+    }
+  }
+
+  /**
+   * Containers of a message whose elements have been gathered but not added yet, stored in parallel arrays.
+   * Elements that were forward references are patched into the gathered arrays first, then fillAll adds them.
+   * Containers that are built from their elements are only built by fillAll, and put in the instance table then.
+   */
+  public static class Fill {
+    // Container to fill, or null for one that is built
+    private Object[] containers = new Object[16];
+    private int[] kinds = new int[16];
+    private Object[][] elements = new Object[16][];
+    // Class and id of each container that is built, null and -1 for the others
+    private Class<?>[] types = new Class<?>[16];
+    private int[] ids = new int[16];
+    private int size = 0;
+    // Index of each container that is built, by id
+    private final Map<Integer, Integer> built = new HashMap<Integer, Integer>();
+
+    // State of a container while fillAll completes it
+    private static final byte BUSY = 1;
+    private static final byte DONE = 2;
+
+    /**
+     * @param container Empty container
+     * @param container_kind COLLECTION or MAP
+     * @param gathered Array the elements are gathered into, filled by the caller
+     */
+    public void add (Object container, int container_kind, Object[] gathered) {
+      append(container, container_kind, gathered, null, -1);
+    }
+
+    /**
+     * Add a container that is built from its elements. Until fillAll builds it, it is not in the instance table,
+     * so every reference to it has to be left pending.
+     * @param type Class with a form isBuilt is true for
+     * @param id ID of the container in the message
+     * @param container_kind COLLECTION or MAP
+     * @param gathered Array the elements are gathered into, filled by the caller
+     */
+    public void defer (Class<?> type, int id, int container_kind, Object[] gathered) {
+      built.put(id, size);
+      append(null, container_kind, gathered, type, id);
+    }
+
+    /**
+     * @return whether the object with the given id is a container that fillAll builds
+     */
+    public boolean isDeferred (int id) {
+      return !built.isEmpty() && built.containsKey(id);
+    }
+
+    private void append (Object container, int container_kind, Object[] gathered, Class<?> type, int id) {
+      if (size == containers.length) {
+        containers = Arrays.copyOf(containers, size * 2);
+        kinds = Arrays.copyOf(kinds, size * 2);
+        elements = Arrays.copyOf(elements, size * 2);
+        types = Arrays.copyOf(types, size * 2);
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      containers[size] = container;
+      kinds[size] = container_kind;
+      elements[size] = gathered;
+      types[size] = type;
+      ids[size] = id;
+      size++;
+    }
+
+    /**
+     * Set the pending references and add the elements of every container. Containers are filled in reverse order
+     * of their ids, so containers nested in hash based containers are complete before their hash code is taken,
+     * unless they form a cycle.
+     * @param instances Every instance of the message, which the built containers are put in
+     * @param pending References to objects that were not read yet when they were
+     */
+    public void fillAll (InstanceTable instances, PendingReferences pending) throws IllegalAccessException {
+      if (built.isEmpty()) {
+        pending.resolve(instances);
+        for (int i = size - 1; i >= 0; i--) {
+          fill(containers[i], kinds[i], elements[i]);
+        }
+        return;
+      }
+      new Builder(instances, pending).completeAll();
+      pending.resolve(instances);
+    }
+
+    /**
+     * Forget every container, keeping the arrays for the next message
+     */
+    public void clear () {
+      Arrays.fill(containers, 0, size, null);
+      Arrays.fill(elements, 0, size, null);
+      Arrays.fill(types, 0, size, null);
+      built.clear();
+      size = 0;
+    }
+
+    /**
+     * Completes the containers of a message that has containers built from their elements. Building one needs its
+     * elements, so each container first takes the pending references into its gathered array, completing any built
+     * container they reference, and the containers among its elements.
+     */
+    private class Builder {
+      private final InstanceTable instances;
+      private final PendingReferences pending;
+      private final byte[] states = new byte[size];
+      // Pending references into the gathered array of each container, as a linked list through next
+      private final int[] first = new int[size];
+      private final int[] next;
+      // Index of each container that is filled, by instance
+      private final Map<Object, Integer> filled = new IdentityHashMap<Object, Integer>();
+
+      Builder (InstanceTable instances, PendingReferences pending) {
+        this.instances = instances;
+        this.pending = pending;
+        Map<Object, Integer> gathered = new IdentityHashMap<Object, Integer>();
+        for (int i = 0; i < size; i++) {
+          gathered.put(elements[i], i);
+          if (containers[i] != null) {
+            filled.put(containers[i], i);
+          }
+        }
+        Arrays.fill(first, -1);
+        next = new int[pending.size()];
+        for (int p = 0; p < next.length; p++) {
+          Integer i = gathered.get(pending.holderAt(p));
+          if (i != null) {
+            next[p] = first[i];
+            first[i] = p;
+          }
+        }
+      }
+
+      void completeAll () {
+        for (int i = size - 1; i >= 0; i--) {
+          complete(i);
+        }
+      }
+
+      private void complete (int i) {
+        if (states[i] == DONE) return;
+        if (states[i] == BUSY) {
+          if (containers[i] == null) {
+            throw new IllegalStateException(nameOf(types[i]) + " " + ids[i] + " contains itself, so it cannot be built");
+          }
+          // A cycle of filled containers, filled in the usual order
+          return;
+        }
+        states[i] = BUSY;
+        Object[] gathered = elements[i];
+        for (int p = first[i]; p >= 0; p = next[p]) {
+          int id = pending.idAt(p);
+          Integer target = built.get(id);
+          if (target != null) {
+            complete(target);
+          }
+          gathered[pending.indexAt(p)] = instances.get(id);
+        }
+        for (Object element : gathered) {
+          Integer nested = element == null ? null : filled.get(element);
+          if (nested != null) {
+            complete(nested);
+          }
+        }
+        if (containers[i] == null) {
+          instances.put(ids[i], build(types[i], gathered));
+        }
+        else {
+          fill(containers[i], kinds[i], gathered);
+        }
+        states[i] = DONE;
+      }
+    }
+  }
+
+}
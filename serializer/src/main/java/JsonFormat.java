@@ -0,0 +1,36 @@
+/**
+ * The UTF-8 encoded JSON document written by Serializer and read by Deserializer.
+ * Format.JSON_SCHEMA writes the same graph in the schema-once layout, where each class layout is
+ * described once at the top and objects only hold positional values. Deserializer reads both layouts.
+ * A JSON message is read until the end of the stream, since the parser may read ahead of the document.
+ **/
+
+import java.io.*;
+
+public class JsonFormat implements Format {
+
+  private final boolean schema_once;
+
+  /**
+   * @param schema_once true to write the class layouts once per message instead of naming every field
+   */
+  public JsonFormat (boolean schema_once) {
+    this.schema_once = schema_once;
+  }
+
+  @Override
+  public String getName () {
+    return schema_once ? "json-schema" : "json";
+  }
+
+  @Override
+  public void write (Object source, OutputStream out) throws Exception {
+    Serializer.serializeJson(source, out, schema_once);
+  }
+
+  @Override
+  public Object read (InputStream in) throws Exception {
+    return Deserializer.deserializeObject(in);
+  }
+
+}
@@ -0,0 +1,560 @@
+/**
+ * A document written by Serializer.serializeObject, deserialized lazily: creating it only finds where each entry
+ * of the "objects" list starts and ends, without parsing or instantiating any of them. An object is built the
+ * first time get(id) or root() reaches it, together with every object it references, and kept for later calls,
+ * so objects shared between subgraphs are still built once. A View reads the class and the fields of a single
+ * entry without building anything, and views the objects it references in turn, so a consumer looking at a few
+ * fields of a large document only ever parses the entries it visits.
+ * Entries are found by their "id" when the document is indexed, so documents written before version 2, with
+ * String ids and entries in any order, are read as well. Documents in the schema-once layout are not supported.
+ * A LazyGraph is safe to use from several threads at once.
+ * SnapshotFile reads the entries of a file the same way, through its own Entries.
+ **/
+
+import java.io.*;
+import java.util.*;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class LazyGraph {
+
+  // Looking up the JSON provider is expensive, so parsers all come from one factory
+  private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+  private final Entries entries;
+
+  private final InstanceTable instance_table = new SparseInstanceTable();
+  // Objects built by the call of get in progress, only put into instance_table once all of them are complete
+  private final StagedInstances staged = new StagedInstances();
+  private final PendingReferences pending = new PendingReferences();
+  private final JdkCollections.Fill containers = new JdkCollections.Fill();
+  private int materialized = 0;
+
+  /**
+   * Index the entries of the document, which is kept and parsed entry by entry as they are reached
+   * @param json Json document written by Serializer.serializeObject
+   */
+  public LazyGraph (String json) {
+    this(new TextEntries(json));
+  }
+
+  LazyGraph (Entries entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Where the entry of each object is read from, by id
+   */
+  interface Entries {
+    /**
+     * @return number of entries
+     */
+    int size ();
+
+    /**
+     * @param id ID of an entry, less than size()
+     * @return a parser positioned before the start of the entry, which only holds that entry
+     */
+    JsonParser parser (int id) throws IOException;
+  }
+
+  /**
+   * @return number of entries in the "objects" list
+   */
+  public int size () {
+    return entries.size();
+  }
+
+  /**
+   * @return number of objects built so far
+   */
+  public synchronized int materializedCount () {
+    return materialized;
+  }
+
+  /**
+   * @return the root object, built with every object it references
+   */
+  public Object root () throws Exception {
+    return get(0);
+  }
+
+  /**
+   * Build the object with the given id and every object it references, unless they were built by an earlier call.
+   * If an entry cannot be read, none of the objects of the call are kept, and a later call reads them again
+   * @param id ID of the object
+   * @return the object, the same instance on every call
+   */
+  public synchronized Object get (int id) throws Exception {
+    checkId(id);
+    if (instance_table.has(id)) {
+      return instance_table.get(id);
+    }
+
+    try {
+      // Read the entry of each object reached that is not built yet, following the references they leave pending
+      int[] stack = { id };
+      int top = 1;
+      int read = 0;
+      while (top > 0) {
+        int next = stack[--top];
+        if (staged.has(next) || containers.isDeferred(next)) {
+          continue;
+        }
+        int first = pending.size();
+        readEntry(next);
+        read++;
+        for (int i = first; i < pending.size(); i++) {
+          int reference = pending.idAt(i);
+          if (!staged.has(reference) && !containers.isDeferred(reference)) {
+            checkId(reference);
+            if (top == stack.length) {
+              stack = Arrays.copyOf(stack, top * 2);
+            }
+            stack[top++] = reference;
+          }
+        }
+      }
+
+      // Every object reached now exists or can be built, so references between them can be set and JDK collections and maps filled
+      containers.fillAll(staged, pending);
+      staged.publish();
+      materialized += read;
+    }
+    finally {
+      pending.clear();
+      containers.clear();
+      staged.clear();
+    }
+    return instance_table.get(id);
+  }
+
+  /**
+   * @param id ID of an object
+   * @return a view of its entry, which builds nothing
+   */
+  public View view (int id) {
+    checkId(id);
+    return new View(id);
+  }
+
+  /**
+   * The entry of one object, read without building it. Values are the boxed value of primitives,
+   * the value itself for Strings, boxed primitives and other values written in place, a View for
+   * referenced objects and null for null references.
+   */
+  public class View {
+    private final int id;
+    // Entry of the object, parsed on first use
+    private JsonObject entry;
+
+    private View (int id) {
+      this.id = id;
+    }
+
+    /**
+     * @return ID of the object
+     */
+    public int getId () {
+      return id;
+    }
+
+    /**
+     * @return name of the class of the object
+     */
+    public String getClassName () {
+      return entry().getString("class");
+    }
+
+    /**
+     * @return length of an array, size of a JDK collection or map, 0 for other objects
+     */
+    public int getLength () {
+      JsonValue length = entry().get("length");
+      return length == null ? 0 : Deserializer.intValue(length);
+    }
+
+    /**
+     * @param name Name of a field, the first one written when a superclass has a field with the same name
+     * @return value of the field
+     */
+    public Object getField (String name) throws Exception {
+      return getField(name, null);
+    }
+
+    /**
+     * @param name Name of a field
+     * @param declaring_class Name of the class declaring the field, or null for the first field with that name
+     * @return value of the field
+     */
+    @SuppressWarnings("rawtypes")
+    public Object getField (String name, String declaring_class) throws Exception {
+      JsonArray fields = entry().getJsonArray("fields");
+      for (int position = 0; fields != null && position < fields.size(); position++) {
+        JsonObject field = fields.getJsonObject(position);
+        if (!field.getString("name").equals(name) || (declaring_class != null && !field.getString("declaringclass").equals(declaring_class))) {
+          continue;
+        }
+        int reference = Deserializer.referenceOf(field);
+        if (reference >= 0) {
+          return view(reference);
+        }
+        ClassMetadata metadata = ClassMetadata.forClass(ClassMetadata.classForName(getClassName()));
+        int index = metadata.indexOf(name, field.getString("declaringclass"), position);
+        if (index < 0) {
+          throw new NoSuchFieldException(field.getString("declaringclass") + "." + name);
+        }
+        Class type = metadata.fields[index].getType();
+        return Deserializer.deserializeJsonValue(field, null, type);
+      }
+      throw new NoSuchFieldException(getClassName() + "." + name);
+    }
+
+    /**
+     * @param index Index of an entry of an array, or of an element of a JDK collection.
+     *              Maps have their keys and values alternating
+     * @return value of the entry
+     */
+    @SuppressWarnings("rawtypes")
+    public Object getEntry (int index) throws Exception {
+      JsonValue entries = entry().get("entries");
+      if (entries == null) {
+        throw new IllegalStateException(getClassName() + " has no entries");
+      }
+      Class object_class = ClassMetadata.classForName(getClassName());
+      Class component = object_class.isArray() ? object_class.getComponentType() : Object.class;
+
+      // Base64 String: byte[] entries stored in one piece
+      if (entries.getValueType() == JsonValue.ValueType.STRING) {
+        return Base64.getDecoder().decode(((JsonString) entries).getString())[index];
+      }
+      JsonValue value = entries.asJsonArray().get(index);
+      if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+        return Deserializer.primitiveValue(value, component);
+      }
+      int reference = Deserializer.referenceOf(value.asJsonObject());
+      if (reference >= 0) {
+        return view(reference);
+      }
+      return Deserializer.deserializeJsonValue(value.asJsonObject(), null, component);
+    }
+
+    /**
+     * @return the object built with every object it references, see LazyGraph.get
+     */
+    public Object materialize () throws Exception {
+      return get(id);
+    }
+
+    private JsonObject entry () {
+      if (entry == null) {
+        try (JsonParser parser = entries.parser(id)) {
+          parser.next();
+          entry = parser.getObject();
+        }
+        catch (IOException e) {
+          throw new JsonException("Cannot read entry " + id, e);
+        }
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Instantiate the object of the given id and assign what its entry holds, leaving references
+   * to objects that are not built yet pending
+   */
+  private void readEntry (int id) throws Exception {
+    try (JsonParser parser = entries.parser(id)) {
+      if (parser.next() != JsonParser.Event.START_OBJECT) {
+        throw new JsonException("Entry " + id + " of the list of objects is not an object");
+      }
+      Deserializer.readObjectEntry(parser, staged, pending, containers);
+    }
+    if (!staged.has(id) && !containers.isDeferred(id)) {
+      throw new JsonException("Entry " + id + " of the list of objects does not have id " + id);
+    }
+  }
+
+  /**
+   * The objects built by one call of get, seen over those built by earlier calls. Objects of earlier calls are never
+   * changed while reading, since only the objects read leave references pending, so dropping the staged objects
+   * is all it takes to forget a call that failed.
+   */
+  private class StagedInstances extends InstanceTable {
+    private final SparseInstanceTable built = new SparseInstanceTable();
+    // IDs put into built, in order
+    private int[] ids = new int[16];
+    private int count = 0;
+
+    @Override
+    public void put (int id, Object instance) {
+      if (!built.has(id)) {
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = id;
+      }
+      built.put(id, instance);
+    }
+
+    @Override
+    public Object get (int id) {
+      return built.has(id) ? built.get(id) : instance_table.get(id);
+    }
+
+    @Override
+    public boolean has (int id) {
+      return built.has(id) || instance_table.has(id);
+    }
+
+    @Override
+    public int size () {
+      return Math.max(built.size(), instance_table.size());
+    }
+
+    @Override
+    public void clear () {
+      built.clear();
+      count = 0;
+    }
+
+    /**
+     * Put every object built into instance_table, once all of them are complete
+     */
+    void publish () {
+      for (int i = 0; i < count; i++) {
+        instance_table.put(ids[i], built.get(ids[i]));
+      }
+    }
+  }
+
+  private void checkId (int id) {
+    if (id < 0 || id >= entries.size()) {
+      throw new IndexOutOfBoundsException("No object with id " + id + " in a document of " + entries.size());
+    }
+  }
+
+  /**
+   * Entries of a Json document in a String, found by skipping over their contents once
+   */
+  private static class TextEntries implements Entries {
+    private final String json;
+    // Where the entry of each id starts in json, and where it ends
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size = 0;
+
+    TextEntries (String json) {
+      this.json = json;
+      try {
+        index();
+      }
+      catch (StringIndexOutOfBoundsException e) {
+        throw new JsonException("Json document ends before its last entry");
+      }
+    }
+
+    @Override
+    public int size () {
+      return size;
+    }
+
+    @Override
+    public JsonParser parser (int id) {
+      return PARSER_FACTORY.createParser(new EntryReader(starts[id], ends[id]));
+    }
+
+    /**
+     * Reader of the text of one entry
+     */
+    private class EntryReader extends Reader {
+      private int position;
+      private final int end;
+
+      EntryReader (int start, int end) {
+        position = start;
+        this.end = end;
+      }
+
+      @Override
+      public int read (char[] chars, int offset, int length) {
+        if (position >= end) {
+          return -1;
+        }
+        int count = Math.min(length, end - position);
+        json.getChars(position, position + count, chars, offset);
+        position += count;
+        return count;
+      }
+
+      @Override
+      public void close () {
+      }
+    }
+
+    /**
+     * Find the start and end of every entry of the "objects" list, skipping over their contents
+     */
+    private void index () {
+      int i = skipWhitespace(0);
+      expect(i++, '{');
+      i = skipWhitespace(i);
+      while (json.charAt(i) != '}') {
+        int key_start = i;
+        i = skipString(i);
+        String key = json.substring(key_start + 1, i - 1);
+        i = skipWhitespace(i);
+        expect(i++, ':');
+        i = skipWhitespace(i);
+        if (key.equals("classes")) {
+          throw new JsonException("LazyGraph does not read documents in the schema-once layout");
+        }
+        if (key.equals("objects")) {
+          i = indexObjects(i);
+        }
+        else {
+          i = skipValue(i);
+        }
+        i = skipWhitespace(i);
+        if (json.charAt(i) == ',') {
+          i = skipWhitespace(i + 1);
+        }
+      }
+    }
+
+    /**
+     * @param i Position of the [ of the list of objects
+     * @return position after its ]
+     */
+    private int indexObjects (int i) {
+      expect(i++, '[');
+      i = skipWhitespace(i);
+      while (json.charAt(i) != ']') {
+        int start = i;
+        int id = idOf(start);
+        if (id >= starts.length) {
+          starts = Arrays.copyOf(starts, Math.max(starts.length * 2, id + 1));
+          ends = Arrays.copyOf(ends, starts.length);
+        }
+        if (ends[id] != 0) {
+          throw new JsonException("Two entries of the list of objects have id " + id);
+        }
+        starts[id] = start;
+        i = skipValue(i);
+        ends[id] = i;
+        size++;
+        i = skipWhitespace(i);
+        if (json.charAt(i) == ',') {
+          i = skipWhitespace(i + 1);
+        }
+      }
+      // The ids are all different, so one missing below size means the ids are not 0 to size - 1
+      for (int id = 0; id < size; id++) {
+        if (ends[id] == 0) {
+          throw new JsonException("No entry of the list of objects has id " + id);
+        }
+      }
+      return i + 1;
+    }
+
+    /**
+     * @param i Position of the { of an entry
+     * @return its "id", a Json number, or a String in documents written before version 2
+     */
+    private int idOf (int i) {
+      int start = i;
+      expect(i++, '{');
+      i = skipWhitespace(i);
+      while (json.charAt(i) != '}') {
+        boolean is_id = json.startsWith("\"id\"", i);
+        i = skipString(i);
+        i = skipWhitespace(i);
+        expect(i++, ':');
+        i = skipWhitespace(i);
+        int value_start = i;
+        i = skipValue(i);
+        if (is_id) {
+          String id = json.charAt(value_start) == '"' ? json.substring(value_start + 1, i - 1) : json.substring(value_start, i);
+          try {
+            int value = Integer.parseInt(id);
+            if (value >= 0) {
+              return value;
+            }
+          }
+          catch (NumberFormatException e) {
+          }
+          throw new JsonException("Entry at " + start + " of the list of objects has id " + id);
+        }
+        i = skipWhitespace(i);
+        if (json.charAt(i) == ',') {
+          i = skipWhitespace(i + 1);
+        }
+      }
+      throw new JsonException("Entry at " + start + " of the list of objects has no id");
+    }
+
+    /**
+     * @return position after the Json value starting at i
+     */
+    private int skipValue (int i) {
+      char c = json.charAt(i);
+      if (c == '"') {
+        return skipString(i);
+      }
+      // Number, true, false or null
+      if (c != '{' && c != '[') {
+        while (i < json.length() && ",}] \t\r\n".indexOf(json.charAt(i)) < 0) {
+          i++;
+        }
+        return i;
+      }
+      int depth = 0;
+      do {
+        c = json.charAt(i);
+        if (c == '"') {
+          i = skipString(i);
+          continue;
+        }
+        if (c == '{' || c == '[') {
+          depth++;
+        }
+        else if (c == '}' || c == ']') {
+          depth--;
+        }
+        i++;
+      } while (depth > 0);
+      return i;
+    }
+
+    /**
+     * @return position after the closing quote of the String starting at i
+     */
+    private int skipString (int i) {
+      expect(i++, '"');
+      while (true) {
+        char c = json.charAt(i++);
+        if (c == '\\') {
+          i++;
+        }
+        else if (c == '"') {
+          return i;
+        }
+      }
+    }
+
+    private int skipWhitespace (int i) {
+      while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+        i++;
+      }
+      return i;
+    }
+
+    private void expect (int i, char expected) {
+      if (json.charAt(i) != expected) {
+        throw new JsonException("Expected '" + expected + "' at " + i + " but found '" + json.charAt(i) + "'");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Decodes the frames of a stream concurrently while handing the results on in the order the frames arrived.
+ * A reader thread reads each frame, inflating compressed ones with one reused Inflater, queues a task for it
+ * and submits the task to the workers. The thread calling run takes the tasks from the queue in order
+ * and passes each result to the output once it is decoded.
+ * The queue is bounded: once capacity frames are read but not output yet, the reader stops reading, so a slow
+ * output holds back the connection instead of buffering the whole stream in memory.
+ * Decoding must not depend on earlier frames. Work that does, such as applying session messages, belongs in the output.
+ **/
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.zip.Inflater;
+
+public class MessagePipeline<T> {
+
+  /**
+   * Turns one frame into a message. Called concurrently from the workers.
+   */
+  public interface Decoder<T> {
+    T decode (byte[] frame) throws Exception;
+  }
+
+  /**
+   * Receives every message in the order its frame arrived. Called from the thread running the pipeline only.
+   */
+  public interface Output<T> {
+    void accept (T message) throws Exception;
+  }
+
+  // Queued after the last frame
+  private final FutureTask<T> end = new FutureTask<T>(() -> null);
+
+  private final Decoder<T> decoder;
+  private final Output<T> output;
+  private final Executor workers;
+  private final BlockingQueue<FutureTask<T>> queue;
+  // First failure of the reader thread
+  private volatile Exception read_failure;
+
+  /**
+   * @param decoder Decodes each frame on the workers
+   * @param output Receives each message in order on the thread calling run
+   * @param workers Executor the frames are decoded on, such as one from newWorkers
+   * @param capacity Most frames read ahead of the output before the reader waits
+   */
+  public MessagePipeline (Decoder<T> decoder, Output<T> output, Executor workers, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+    }
+    this.decoder = decoder;
+    this.output = output;
+    this.workers = workers;
+    this.queue = new ArrayBlockingQueue<FutureTask<T>>(capacity);
+  }
+
+  /**
+   * @param threads Number of threads when virtual threads are not available
+   * @return an Executor running each task on a new virtual thread where the JDK has them, a pool of threads otherwise.
+   *         The capacity of a MessagePipeline bounds how many tasks run at once either way.
+   */
+  public static ExecutorService newWorkers (int threads) {
+    try {
+      Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) virtual.invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      // JDK without virtual threads
+    }
+    ThreadFactory daemons = task -> {
+      Thread thread = new Thread(task, "MessagePipeline-worker");
+      thread.setDaemon(true);
+      return thread;
+    };
+    return Executors.newFixedThreadPool(threads, daemons);
+  }
+
+  /**
+   * Read frames from the given stream until it ends, passing every decoded message to the output in order.
+   * The stream is not closed. If the output or a decoder fails, run throws right away and stops the reader thread,
+   * which is either waiting for room in the queue, and stops then, or in its read of the stream, and stops once
+   * the read returns, such as when the caller closes the stream.
+   * @param in Stream of length-prefixed frames
+   */
+  public void run (InputStream in) throws Exception {
+    Thread reader = new Thread(() -> read(in), "MessagePipeline-reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    try {
+      while (true) {
+        FutureTask<T> task = queue.take();
+        if (task == end) {
+          break;
+        }
+        T message;
+        try {
+          message = task.get();
+        }
+        catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        output.accept(message);
+      }
+    }
+    catch (Exception e) {
+      // Nothing takes from the queue any more, so the reader must not wait for room in it
+      reader.interrupt();
+      queue.clear();
+      throw e;
+    }
+
+    if (read_failure != null) {
+      throw read_failure;
+    }
+  }
+
+  /**
+   * Reader stage: Queue a task for each frame in order, waiting while the queue is full, then submit it.
+   * Queueing first keeps the tasks running at once within the capacity.
+   */
+  private void read (InputStream in) {
+    Inflater inflater = new Inflater();
+    try {
+      byte[] frame;
+      while ((frame = Frames.read(in, inflater)) != null) {
+        byte[] payload = frame;
+        Decoding<T> task = new Decoding<T>(() -> decoder.decode(payload));
+        queue.put(task);
+        try {
+          workers.execute(task);
+        }
+        catch (RuntimeException e) {
+          // Such as a RejectedExecutionException from workers that were shut down, which run throws rather than wait for the task
+          task.fail(e);
+          throw e;
+        }
+      }
+    }
+    catch (Exception e) {
+      read_failure = e;
+    }
+    finally {
+      inflater.end();
+      try {
+        queue.put(end);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Task decoding one frame, which fails without running when it cannot be submitted
+   */
+  private static class Decoding<T> extends FutureTask<T> {
+    Decoding (Callable<T> decode) {
+      super(decode);
+    }
+
+    void fail (Throwable t) {
+      setException(t);
+    }
+  }
+
+}
@@ -2,6 +2,7 @@
  * Contains a simple object with only primitives for instance variables
  **/
 
+@GenerateCodec
 public class Object1 {
 
   private int x;
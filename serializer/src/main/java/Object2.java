@@ -2,6 +2,7 @@
  * Contains an object that contains references to other objects
  **/
 
+@GenerateCodec
 public class Object2 {
 
   private boolean b;
@@ -2,6 +2,7 @@
  * Contains an object that contains an array of primitives
  **/
 
+@GenerateCodec
 public class Object3 {
    private int[] arr;
 
@@ -2,6 +2,7 @@
  * Contains an object that contains an array of object references
  **/
 
+@GenerateCodec
 public class Object4 {
   private Object1[] obj1Arr;
 
@@ -3,6 +3,7 @@
  **/
 import java.util.ArrayList;
 
+@GenerateCodec
 public class Object5 {
 
   private ArrayList<String> items;
@@ -2,11 +2,13 @@
  * Server side of system. Creates objects under the direction of the user.
  * Allows the user to create one object at a time from a given selection
  * using a text-based menu. Then, it will print the JSON form of the
- * object and serialize it. Finally, it will send the serialized string
- * over the socket connection to the awaiting Inspector.java.
+ * object and serialize it. Finally, it will send the serialized message
+ * to every connected Inspector.java, in length-prefixed frames.
+ * With --log=file, every object is also appended to a SnapshotLog, and the objects
+ * already in the log are replayed into the list of created objects at startup.
  */
 
-import java.util.Scanner;
+import java.util.*;
 import java.io.*;
 import java.net.*;
 import java.net.InetAddress;
@@ -19,29 +21,61 @@ public class ObjectCreator {
   private static Object4 object4;
   private static Object5 object5;
   private static Scanner keyboard;
+  // Every object created so far, sent together as one batch on request
+  private static List<Object> created = new ArrayList<Object>();
 
   public static void main (String[] args) throws Exception {
 
     keyboard = new Scanner (System.in);
 
+    // Wire format: json by default, or as given with --format=json-schema or --format=binary
+    // With --session, every message carries the objects created so far, as what changed since the previous message
+    // Messages larger than --compress-above=n bytes are compressed for the Inspectors that accept it, none with n < 0
+    // With --log=file, every object created is persisted to a SnapshotLog in file
+    Format format = Format.JSON;
+    SerializerSession session = null;
+    int compression_threshold = FrameServer.DEFAULT_COMPRESSION_THRESHOLD;
+    String log_file = null;
+    for (String arg : args) {
+      if (arg.startsWith("--format=")) {
+        format = Format.forName(arg.substring("--format=".length()));
+      }
+      else if (arg.equals("--session")) {
+        session = new SerializerSession();
+      }
+      else if (arg.startsWith("--compress-above=")) {
+        compression_threshold = Integer.parseInt(arg.substring("--compress-above=".length()));
+        if (compression_threshold < 0) {
+          compression_threshold = FrameServer.NO_COMPRESSION;
+        }
+      }
+      else if (arg.startsWith("--log=")) {
+        log_file = arg.substring("--log=".length());
+      }
+    }
+    if (session != null && !(format instanceof JsonFormat)) {
+      System.out.println("--- Sessions are Json, --session is ignored with --format=" + format.getName() + " ---");
+      session = null;
+    }
+
     // Socket connection setup
     int port = 6868;
     String hostname = null;
 
-    try (ServerSocket serverSocket = new ServerSocket(port)) {
+    SnapshotLog log = log_file == null ? null : openLog(java.nio.file.Paths.get(log_file));
+    try (FrameServer server = new FrameServer(new InetSocketAddress(port), FrameServer.DEFAULT_MAX_PENDING_BYTES, compression_threshold)) {
 
       InetAddress address;
       address = InetAddress.getLocalHost();
       hostname = address.getHostName();
       System.out.println("ObjectCreator: Starting connection set-up. Hostname is " + hostname);
 
-      System.out.println("ObjectCreator: Server listening on port " + Integer.toString(port));
-      Socket socket = serverSocket.accept();
-      System.out.println("ObjectCreator: Successfully connected with Inspector");
+      // Any number of Inspectors may connect at any time, each receives the messages sent after it connected
+      server.start();
+      System.out.println("ObjectCreator: Server listening on port " + Integer.toString(port) + " for Inspectors");
 
-      // Get input/output streams for connection ready
-      OutputStream output = socket.getOutputStream();
-      PrintWriter writer = new PrintWriter(output, true);
+      // Number of Inspectors accepted when the session last started over, so newcomers get a full snapshot
+      long session_clients = 0;
 
       // Menu Loop: Keep asking the user which objects to create until they quit
       int choice;
@@ -52,50 +86,75 @@ public class ObjectCreator {
         // Display first menu: Create object or Exit program
         choice = menuDisplayCreateObjectOrExit();
 
-        // Option 1 = Create object, Option 2 = Exit program
+        // Option 1 = Create object, Option 2 = Exit program, Option 3 = Send every object created so far
         if (choice == 2) {
           System.out.println("--- Exiting Program ---");
           menuLoop = false;
           continue;
         }
+        if (choice == 3) {
+          sendBatch(server, format);
+          continue;
+        }
 
         // Display second menu: Which object to create from option 1-5
         choice = menuDisplayObjectChoices();
 
-        // Create jsonString according to user choice
-        String jsonString = null;
+        // Create the object according to user choice
+        Object object = null;
 
         if (choice == 1) {
           createObject1();
-          jsonString = Serializer.serializeObject(object1);
+          object = object1;
         }
         else if (choice == 2) {
           createObject2();
-          jsonString = Serializer.serializeObject(object2);
+          object = object2;
         }
         else if (choice == 3) {
           createObject3();
-          jsonString = Serializer.serializeObject(object3);
+          object = object3;
         }
         else if (choice == 4) {
           createObject4();
-          jsonString = Serializer.serializeObject(object4);
+          object = object4;
         }
         else if (choice == 5) {
           createObject5();
-          jsonString = Serializer.serializeObject(object5);
+          object = object5;
         }
         else {
           System.out.println("--- Invalid Input Given - Try Again ---");
           continue;
         }
 
-        // Display the JSON string
-        System.out.println("ObjectCreator: Object #" + Integer.toString(choice) + "'s JSON String is: " + jsonString);
+        created.add(object);
+        if (log != null) {
+          log.append("object-" + Integer.toString(created.size() - 1), object);
+          log.sync();
+        }
 
-        // Send data over socket connection
-        writer.println(jsonString);
-        System.out.println("--- ObjectCreator: Have sent JSON String of object #" + Integer.toString(choice) + " to Inspector ---");
+        // Display the JSON string
+        System.out.print("ObjectCreator: Object #" + Integer.toString(choice) + "'s JSON String is: ");
+        Serializer.serializeObject(object, System.out);
+        System.out.println();
+
+        // Send data to every Inspector, one message per length-prefixed frame
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        if (session != null) {
+          // A client accepted after this check receives changes first, which it ignores until this resets again
+          if (server.acceptedCount() != session_clients) {
+            session_clients = server.acceptedCount();
+            session.reset();
+          }
+          session.serialize(created, message);
+        }
+        else {
+          Serializer.serializeObject(object, message, format);
+        }
+        server.broadcast(message.toByteArray());
+        System.out.println("--- ObjectCreator: Have sent " + format.getName() + " message of object #" + Integer.toString(choice)
+            + " to " + Integer.toString(server.clientCount()) + " Inspectors ---");
 
       } // End of menu loop
 
@@ -106,18 +165,67 @@ public class ObjectCreator {
       e.printStackTrace();
     }
 
+    finally {
+      if (log != null) {
+        log.close();
+      }
+    }
+
+  }
+
+  /**
+   * Open the log every object created is appended to, and add the objects already in it to the list of created objects
+   * @param file File of the log, created if it does not exist
+   * @return the log
+   */
+  private static SnapshotLog openLog (java.nio.file.Path file) throws Exception {
+    SnapshotLog log = new SnapshotLog(file);
+    try (SnapshotLog.Replay replay = log.replay()) {
+      // Objects are logged under their position in the list, so a later record of a key replaces the earlier one
+      Map<String, Integer> positions = new HashMap<String, Integer>();
+      while (replay.hasNext()) {
+        SnapshotLog.Record record = replay.next();
+        Integer position = positions.get(record.getKey());
+        if (position == null) {
+          positions.put(record.getKey(), created.size());
+          created.add(record.getValue());
+        }
+        else {
+          created.set(position, record.getValue());
+        }
+      }
+    }
+    System.out.println("ObjectCreator: Replayed " + Integer.toString(created.size()) + " objects from " + file);
+    return log;
+  }
+
+  /**
+   * Send every object created so far as one Json document, in which objects they share are written once
+   * @param server Server of the connections with every Inspector
+   * @param format Wire format of the connections. Batches are Json documents, so they are only sent over Json connections
+   */
+  private static void sendBatch (FrameServer server, Format format) throws Exception {
+    if (!(format instanceof JsonFormat)) {
+      System.out.println("--- Batches can only be sent as Json, restart with --format=json to send them ---");
+      return;
+    }
+    ByteArrayOutputStream message = new ByteArrayOutputStream();
+    Serializer.serializeAll(created, message);
+    server.broadcast(message.toByteArray());
+    System.out.println("--- ObjectCreator: Have sent a batch of " + Integer.toString(created.size()) + " objects to "
+        + Integer.toString(server.clientCount()) + " Inspectors ---");
   }
 
   /**
-   * Display Menu Prompt #1: The user will decide whether they want to create an Object or exit program
-   * @return int representing the user's choice. 1 = Create object and 2 = Exit
+   * Display Menu Prompt #1: The user will decide whether they want to create an Object, send a batch or exit program
+   * @return int representing the user's choice. 1 = Create object, 2 = Exit and 3 = Send every object created so far
    */
   private static int menuDisplayCreateObjectOrExit () {
     System.out.println("-----------------------------------------");
     System.out.println("        Object Serializer Server         ");
     System.out.println("-----------------------------------------");
     System.out.println("--- What would you like to do? ---");
-    System.out.println("\t1) Create an object\n\t2) Exit");
+    System.out.println("\t1) Create an object\n\t2) Exit\n\t3) Send every object created so far as one batch");
     System.out.print("Your Choice: ");
     String choice = keyboard.nextLine();
     System.out.println();
@@ -0,0 +1,15 @@
+/**
+ * Gives the id of each object a document refers to, which is all Serializer needs to write references.
+ * ObjectTable assigns the ids of a single pass, ConcurrentObjectTable those of ParallelSerializer,
+ * and a SerializerSession looks up the ids it keeps across messages.
+ **/
+
+public interface ObjectIds {
+
+  /**
+   * @param obj Non-null object referenced by the document
+   * @return id of obj
+   */
+  int idOf (Object obj);
+
+}
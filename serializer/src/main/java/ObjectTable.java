@@ -0,0 +1,107 @@
+/**
+ * Tracks every object encountered while serializing a graph.
+ * Each distinct object (by identity) is given the next dense id starting from 0 the first
+ * time it is seen, so shared objects and cycles are serialized exactly once and referenced
+ * by id afterwards. Objects are kept in discovery order so they can be serialized in id order.
+ * Ids are kept in an open addressing identity table of plain arrays, so looking up and adding
+ * objects allocates nothing, and a table that is cleared and reused allocates nothing at all.
+ **/
+
+import java.util.*;
+
+public class ObjectTable implements ObjectIds {
+
+  // Identity table, half full at most: each object and its id in the same slot
+  private Object[] keys = new Object[32];
+  private int[] values = new int[32];
+  // Objects indexed by id
+  private Object[] objects = new Object[16];
+  private int size = 0;
+
+  /**
+   * Return the id of the given object, assigning the next free id if it has not been seen before
+   * @param obj Non-null object to look up
+   * @return id of obj
+   */
+  @Override
+  public int idOf (Object obj) {
+    int mask = keys.length - 1;
+    int slot = hash(obj) & mask;
+    Object key;
+    while ((key = keys[slot]) != null) {
+      if (key == obj) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    int id = size;
+    if (id == objects.length) {
+      objects = Arrays.copyOf(objects, id * 2);
+    }
+    objects[id] = obj;
+    size = id + 1;
+    keys[slot] = obj;
+    values[slot] = id;
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+    return id;
+  }
+
+  /**
+   * @param id Id previously returned by idOf
+   * @return the object with the given id
+   */
+  public Object get (int id) {
+    if (id >= size) {
+      throw new IndexOutOfBoundsException("Id " + id + " of " + size + " objects");
+    }
+    return objects[id];
+  }
+
+  /**
+   * @return number of objects encountered so far
+   */
+  public int size () {
+    return size;
+  }
+
+  /**
+   * Forget every object, keeping the arrays for the next graph. A table grown by a graph far larger
+   * than the current one shrinks back, so one large graph does not make every later clear slow.
+   */
+  public void clear () {
+    int needed = Math.max(32, Integer.highestOneBit(Math.max(size, 1)) * 4);
+    if (keys.length > needed * 8) {
+      keys = new Object[needed];
+      values = new int[needed];
+      objects = new Object[needed / 2];
+    }
+    else {
+      Arrays.fill(keys, null);
+      Arrays.fill(objects, 0, size, null);
+    }
+    size = 0;
+  }
+
+  private void rehash (int capacity) {
+    keys = new Object[capacity];
+    values = new int[capacity];
+    int mask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hash(objects[id]) & mask;
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = objects[id];
+      values[slot] = id;
+    }
+  }
+
+  private static int hash (Object obj) {
+    // Spread the bits into the low ones the mask keeps
+    int h = System.identityHashCode(obj) * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -0,0 +1,403 @@
+/**
+ * Serializes large object graphs on a ForkJoinPool. The document is exactly the one
+ * Serializer.serializeObject writes for the same graph, so the output is deterministic
+ * and read back by the Deserializer as usual.
+ * The graph is discovered level by level, in the order the Serializer assigns ids: the objects of a level
+ * are split into segments whose references are claimed in a ConcurrentObjectTable in parallel, then the
+ * new objects are numbered in the order the sequential ObjectTable would have numbered them.
+ * Once every object has an id, each segment of objects, and each part of the entries of a large object
+ * array, is encoded into a buffer of its own in parallel, and the buffers are written out in id order.
+ * The extra passes do not pay off for small graphs, which are better written with Serializer, nor when only
+ * one thread can run at a time, with a pool of one thread or on a single core, which write with Serializer
+ * instead. Serializer stays the default: ParallelSerializer is only worth it for large graphs on several
+ * cores, see ParallelSerializerBenchmark in the benchmarks module.
+ **/
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class ParallelSerializer {
+
+  // Looking up the JSON provider is expensive, so generators all come from one factory
+  private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+  // Number of fields, entries and elements a segment covers, larger object arrays are split into parts of this size
+  static final int SEGMENT_SIZE = 4096;
+
+  // Phases a SegmentTask runs
+  private static final int CLAIM = 0;
+  private static final int COUNT = 1;
+  private static final int ASSIGN = 2;
+  private static final int ENCODE = 3;
+
+  /**
+   * Given an Object, serialize it into Json format on the given pool
+   * @param source Object to be serialized
+   * @param pool ForkJoinPool the work is split across
+   * @return String representation of source, the same as Serializer.serializeObject(source)
+   */
+  public static String serializeObject (Object source, ForkJoinPool pool) throws Exception {
+    StringWriter writer = new StringWriter();
+    serializeObject(source, writer, pool);
+    return writer.toString();
+  }
+
+  /**
+   * Given an Object, serialize it into Json format on the given pool and write it to the given Writer.
+   * The Writer is flushed but not closed.
+   * @param source Object to be serialized
+   * @param out Writer the Json is written to
+   * @param pool ForkJoinPool the work is split across
+   */
+  public static void serializeObject (Object source, Writer out, ForkJoinPool pool) throws Exception {
+    if (Math.min(pool.getParallelism(), Runtime.getRuntime().availableProcessors()) == 1) {
+      Serializer.serializeObject(source, out);
+    }
+    else {
+      serializeParallel(source, out, pool);
+    }
+  }
+
+  /**
+   * Serialize source on the given pool, however many threads can actually run at once
+   * @param source Object to be serialized
+   * @param out Writer the Json is written to
+   * @param pool ForkJoinPool the work is split across
+   */
+  static void serializeParallel (Object source, Writer out, ForkJoinPool pool) throws Exception {
+    ConcurrentObjectTable object_table = new ConcurrentObjectTable();
+    object_table.idOf(source);
+    discover(object_table, pool);
+
+    // Encode every object, then write the buffers in id order
+    Segment[] segments = segmentsOf(object_table, 0, object_table.size());
+    run(ENCODE, segments, object_table, pool);
+
+    out.write("{\"version\":" + Serializer.VERSION + ",\"objects\":[");
+    for (int i = 0; i < segments.length; i++) {
+      Segment segment = segments[i];
+      if (i > 0) {
+        out.write(',');
+      }
+      if (segment.header != null) {
+        out.write(segment.header);
+      }
+      // Leave out the brackets around the encoded objects or entries
+      out.write(segment.text, 1, segment.text.length() - 2);
+      if (segment.from >= 0 && segment.to == ((Object[]) object_table.get(segment.first)).length) {
+        out.write("]}");
+      }
+    }
+    out.write("]}");
+    out.flush();
+  }
+
+  /**
+   * Assign an id to every object reachable from the objects already in object_table, one level at a time.
+   * A level is the objects that were given ids while the previous level was discovered.
+   */
+  private static void discover (ConcurrentObjectTable object_table, ForkJoinPool pool) throws Exception {
+    int level_start = 0;
+    while (level_start < object_table.size()) {
+      int level_end = object_table.size();
+      Segment[] segments = segmentsOf(object_table, level_start, level_end);
+
+      // Every reference of the level could be to a new object
+      long references = 0;
+      for (Segment segment : segments) {
+        references += segment.size;
+      }
+      object_table.ensureCapacity(references);
+      run(CLAIM, segments, object_table, pool);
+      run(COUNT, segments, object_table, pool);
+
+      // New objects are numbered in segment order, and in reference order within a segment
+      int next_id = level_end;
+      for (Segment segment : segments) {
+        segment.next_id = next_id;
+        next_id += segment.wins;
+      }
+      object_table.reserve(next_id);
+      run(ASSIGN, segments, object_table, pool);
+      object_table.setSize(next_id);
+      level_start = level_end;
+    }
+  }
+
+  /**
+   * Split the objects with ids from first to last into segments of about SEGMENT_SIZE fields, entries and elements.
+   * Object arrays with more entries than that are split into parts of their own.
+   */
+  private static Segment[] segmentsOf (ConcurrentObjectTable object_table, int first, int last) {
+    List<Segment> segments = new ArrayList<Segment>();
+    int run_start = first;
+    long run_size = 0;
+    for (int id = first; id < last; id++) {
+      Object obj = object_table.get(id);
+      int size = sizeOf(obj);
+      if (obj instanceof Object[] && size > SEGMENT_SIZE) {
+        if (run_start < id) {
+          segments.add(new Segment(run_start, id, -1, -1, run_size));
+        }
+        for (int from = 0; from < size; from += SEGMENT_SIZE) {
+          int to = Math.min(size, from + SEGMENT_SIZE);
+          segments.add(new Segment(id, id + 1, from, to, to - from));
+        }
+        run_start = id + 1;
+        run_size = 0;
+        continue;
+      }
+      // Count the object itself, so runs of objects without fields end too
+      run_size += size + 1;
+      if (run_size >= SEGMENT_SIZE) {
+        segments.add(new Segment(run_start, id + 1, -1, -1, run_size));
+        run_start = id + 1;
+        run_size = 0;
+      }
+    }
+    if (run_start < last) {
+      segments.add(new Segment(run_start, last, -1, -1, run_size));
+    }
+    return segments.toArray(new Segment[segments.size()]);
+  }
+
+  /**
+   * @return number of fields, entries or elements of obj, which bounds the number of objects it references
+   */
+  @SuppressWarnings("rawtypes")
+  private static int sizeOf (Object obj) {
+    ClassMetadata metadata = ClassMetadata.forClass(obj.getClass());
+    if (metadata.inline) return 0;
+    if (metadata.type.isArray()) return Array.getLength(obj);
+    if (metadata.container == JdkCollections.COLLECTION) return ((Collection) obj).size();
+    if (metadata.container == JdkCollections.MAP) return ((Map) obj).size() * 2;
+    return metadata.fields.length;
+  }
+
+  /**
+   * Run one phase over every segment, on the calling thread when there is only one
+   */
+  private static void run (int phase, Segment[] segments, ConcurrentObjectTable object_table, ForkJoinPool pool) throws Exception {
+    SegmentTask task = new SegmentTask(phase, segments, 0, segments.length, object_table);
+    try {
+      if (segments.length == 1) {
+        task.compute();
+      }
+      else {
+        pool.invoke(task);
+      }
+    }
+    catch (CompletionException e) {
+      // A checked exception of a task, possibly wrapped again when rethrown on this thread
+      Throwable cause = e;
+      while (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Claim every object referenced by the objects or entries of the segment that may not have an id yet.
+   * The position of a reference is the id of the object holding it and the index of the field, entry or
+   * element, so references are ordered the way the sequential Serializer reaches them.
+   */
+  @SuppressWarnings("rawtypes")
+  private static void claimReferences (Segment segment, ConcurrentObjectTable object_table) {
+    for (int id = segment.first; id < segment.last; id++) {
+      Object obj = object_table.get(id);
+      ClassMetadata metadata = ClassMetadata.forClass(obj.getClass());
+      long position = (long) id << 31;
+      if (metadata.inline) {
+        continue;
+      }
+      if (obj instanceof Object[]) {
+        Object[] entries = (Object[]) obj;
+        int from = segment.from >= 0 ? segment.from : 0;
+        int to = segment.from >= 0 ? segment.to : entries.length;
+        for (int j = from; j < to; j++) {
+          segment.claim(entries[j], position | j, object_table);
+        }
+      }
+      else if (metadata.container != JdkCollections.NONE) {
+        Object[] elements = JdkCollections.elementsOf(obj, metadata.container);
+        for (int j = 0; j < elements.length; j++) {
+          segment.claim(elements[j], position | j, object_table);
+        }
+      }
+      else if (!metadata.type.isArray()) {
+        for (int j = 0; j < metadata.fields.length; j++) {
+          if (metadata.kinds[j] == ClassMetadata.KIND_OBJECT) {
+            segment.claim(metadata.accessors[j].get(obj), position | j, object_table);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode the objects of the segment, or its part of the entries of a large object array, as a Json array
+   * of them as they appear in the "objects" list
+   */
+  @SuppressWarnings("rawtypes")
+  private static void encode (Segment segment, ConcurrentObjectTable object_table) throws Exception {
+    StringWriter writer = new StringWriter();
+    JsonGenerator generator = GENERATOR_FACTORY.createGenerator(writer);
+    generator.writeStartArray();
+    if (segment.from < 0) {
+      for (int id = segment.first; id < segment.last; id++) {
+        Serializer.serializeHelper(object_table.get(id), id, generator, object_table);
+      }
+    }
+    else {
+      Object[] entries = (Object[]) object_table.get(segment.first);
+      Class component = entries.getClass().getComponentType();
+      for (int j = segment.from; j < segment.to; j++) {
+        generator.writeStartObject();
+        Serializer.serializeObjectValue(entries[j], component, generator, object_table);
+        generator.writeEnd();
+      }
+      if (segment.from == 0) {
+        segment.header = arrayHeader(entries, segment.first);
+      }
+    }
+    generator.writeEnd();
+    generator.close();
+    segment.text = writer.toString();
+  }
+
+  /**
+   * @return the JsonObject Serializer writes for an object array, up to the opening bracket of its entries
+   */
+  private static String arrayHeader (Object[] entries, int id) {
+    StringWriter writer = new StringWriter();
+    JsonGenerator generator = GENERATOR_FACTORY.createGenerator(writer);
+    generator.writeStartObject();
+    generator.write("class", entries.getClass().getName());
+    generator.write("id", id);
+    generator.write("type", "array");
+    generator.write("length", entries.length);
+    generator.writeStartArray("entries");
+    generator.writeEnd();
+    generator.writeEnd();
+    generator.close();
+    // Cut the closing "]}", the entries and the closing brackets are written after it
+    String header = writer.toString();
+    return header.substring(0, header.length() - 2);
+  }
+
+  /**
+   * Objects with ids from first to last, or the entries from to to of the object array with id first.
+   * Holds what the phases of one level produce for the segment.
+   */
+  private static final class Segment {
+    final int first;
+    final int last;
+    // Entries of a split object array, or -1
+    final int from;
+    final int to;
+    // Number of fields, entries and elements covered
+    final long size;
+
+    // References claimed by the segment and their positions, in position order
+    Object[] references = new Object[16];
+    long[] positions = new long[16];
+    int count = 0;
+    // Number of claims that won, and the id of the first of them
+    int wins = 0;
+    int next_id;
+
+    // Json array of the encoded objects or entries, and the start of a split object array
+    String text;
+    String header;
+
+    Segment (int first, int last, int from, int to, long size) {
+      this.first = first;
+      this.last = last;
+      this.from = from;
+      this.to = to;
+      this.size = size;
+    }
+
+    /**
+     * Claim a referenced object unless it is null, inline, or already has an id or a lower claim
+     */
+    void claim (Object obj, long position, ConcurrentObjectTable object_table) {
+      if (obj == null || ClassMetadata.forClass(obj.getClass()).inline || !object_table.claim(obj, position)) {
+        return;
+      }
+      if (count == references.length) {
+        references = Arrays.copyOf(references, count * 2);
+        positions = Arrays.copyOf(positions, count * 2);
+      }
+      references[count] = obj;
+      positions[count] = position;
+      count++;
+    }
+  }
+
+  /**
+   * Runs one phase over a range of segments, splitting the range in halves until one segment is left
+   */
+  private static final class SegmentTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int phase;
+    private final Segment[] segments;
+    private final int start;
+    private final int end;
+    private final ConcurrentObjectTable object_table;
+
+    SegmentTask (int phase, Segment[] segments, int start, int end, ConcurrentObjectTable object_table) {
+      this.phase = phase;
+      this.segments = segments;
+      this.start = start;
+      this.end = end;
+      this.object_table = object_table;
+    }
+
+    @Override
+    protected void compute () {
+      if (end - start > 1) {
+        int middle = (start + end) >>> 1;
+        invokeAll(new SegmentTask(phase, segments, start, middle, object_table), new SegmentTask(phase, segments, middle, end, object_table));
+        return;
+      }
+      Segment segment = segments[start];
+      try {
+        switch (phase) {
+          case CLAIM:
+            claimReferences(segment, object_table);
+            break;
+          case COUNT:
+            for (int j = 0; j < segment.count; j++) {
+              if (object_table.isClaimedBy(segment.references[j], segment.positions[j])) segment.wins++;
+            }
+            break;
+          case ASSIGN:
+            int id = segment.next_id;
+            for (int j = 0; j < segment.count; j++) {
+              if (object_table.isClaimedBy(segment.references[j], segment.positions[j])) object_table.assign(segment.references[j], id++);
+            }
+            break;
+          default:
+            encode(segment, object_table);
+            break;
+        }
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }
+  }
+
+}
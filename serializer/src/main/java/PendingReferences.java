@@ -0,0 +1,94 @@
+/**
+ * Fields and array entries whose referenced object had not been read yet when they were.
+ * Each pending reference is stored across parallel arrays instead of as its own object,
+ * and they are all patched once the whole message has been read.
+ **/
+
+import java.util.*;
+
+public class PendingReferences {
+
+  private Object[] holders = new Object[16];
+  // Field to set on the holder, or null when the holder is an array
+  private FieldAccessor[] fields = new FieldAccessor[16];
+  private int[] indices = new int[16];
+  private int[] ids = new int[16];
+  private int size = 0;
+
+  /**
+   * @param holder Object whose field, or array whose entry, references the object
+   * @param field Field to set, or null if holder is an array
+   * @param index Index of the entry when holder is an array
+   * @param id ID of the referenced object
+   */
+  public void add (Object holder, FieldAccessor field, int index, int id) {
+    if (size == holders.length) {
+      holders = Arrays.copyOf(holders, size * 2);
+      fields = Arrays.copyOf(fields, size * 2);
+      indices = Arrays.copyOf(indices, size * 2);
+      ids = Arrays.copyOf(ids, size * 2);
+    }
+    holders[size] = holder;
+    fields[size] = field;
+    indices[size] = index;
+    ids[size] = id;
+    size++;
+  }
+
+  /**
+   * @return number of pending references added since the last clear
+   */
+  public int size () {
+    return size;
+  }
+
+  /**
+   * @param i Index of a pending reference, in the order they were added
+   * @return ID of the object it references
+   */
+  public int idAt (int i) {
+    return ids[i];
+  }
+
+  /**
+   * @param i Index of a pending reference, in the order they were added
+   * @return object or array holding it
+   */
+  public Object holderAt (int i) {
+    return holders[i];
+  }
+
+  /**
+   * @param i Index of a pending reference, in the order they were added
+   * @return index of the array entry holding it
+   */
+  public int indexAt (int i) {
+    return indices[i];
+  }
+
+  /**
+   * Set every pending field and array entry to the object it references
+   * @param instances Every instance of the message
+   */
+  public void resolve (InstanceTable instances) throws IllegalAccessException {
+    for (int i = 0; i < size; i++) {
+      Object value = instances.get(ids[i]);
+      if (fields[i] != null) {
+        fields[i].set(holders[i], value);
+      }
+      else {
+        ((Object[]) holders[i])[indices[i]] = value;
+      }
+    }
+  }
+
+  /**
+   * Forget every pending reference, keeping the arrays for the next message
+   */
+  public void clear () {
+    Arrays.fill(holders, 0, size, null);
+    Arrays.fill(fields, 0, size, null);
+    size = 0;
+  }
+
+}
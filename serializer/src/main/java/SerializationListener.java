@@ -0,0 +1,15 @@
+/**
+ * Receives a CallTrace of every object serialized by Serializer.serializeObject or SerializerContext,
+ * and of every object deserialized by Deserializer.deserializeObject or DeserializerContext, once the call returns.
+ * Register one with Instrumentation.setListener. It is called on the thread that made the call,
+ * so it has to be quick and safe to call from several threads at once. SerializationMetrics is one.
+ **/
+
+public interface SerializationListener {
+
+  /**
+   * @param trace What the call did and how long each of its phases took. Only valid during the callback
+   */
+  void completed (CallTrace trace);
+
+}
@@ -0,0 +1,197 @@
+/**
+ * SerializationListener keeping counters and histograms of every call reported to it, separately for
+ * serializing and deserializing: the number of calls, and histograms of the objects, Json length and
+ * nanoseconds of each call and of each of its phases. Histograms have a bucket per power of two, so
+ * percentiles are upper bounds within a factor of two. Safe to update and read from several threads at once.
+ * Use with Instrumentation.setListener(metrics), and print report() or read the histograms.
+ **/
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SerializationMetrics implements SerializationListener {
+
+  /**
+   * Counts of the values recorded in each power of two: bucket 0 holds 0, bucket b holds 2^(b-1) to 2^b - 1
+   */
+  public static class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    // Count, sum and max of the values recorded
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    /**
+     * Record one value, 0 or more
+     */
+    public void record (long value) {
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+      totals.incrementAndGet(0);
+      totals.addAndGet(1, value);
+      long max;
+      while (value > (max = totals.get(2)) && !totals.compareAndSet(2, max, value)) {
+      }
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long count () {
+      return totals.get(0);
+    }
+
+    /**
+     * @return sum of the values recorded
+     */
+    public long sum () {
+      return totals.get(1);
+    }
+
+    /**
+     * @return largest value recorded, 0 if there are none
+     */
+    public long max () {
+      return totals.get(2);
+    }
+
+    /**
+     * @param fraction Fraction of the values, such as 0.99
+     * @return upper bound of the bucket holding that fraction of the values, at most max(), 0 if there are none
+     */
+    public long percentile (double fraction) {
+      long count = count();
+      long rank = (long) Math.ceil(fraction * count);
+      long seen = 0;
+      for (int b = 0; b < 65 && count > 0; b++) {
+        seen += buckets.get(b);
+        if (seen >= rank) {
+          long upper = b == 0 ? 0 : b == 64 ? Long.MAX_VALUE : (1L << b) - 1;
+          return Math.min(upper, max());
+        }
+      }
+      return max();
+    }
+
+    /**
+     * Forget every value recorded
+     */
+    public void clear () {
+      for (int b = 0; b < 65; b++) {
+        buckets.set(b, 0);
+      }
+      for (int i = 0; i < 3; i++) {
+        totals.set(i, 0);
+      }
+    }
+  }
+
+  // Histograms by operation, CallTrace.SERIALIZE or CallTrace.DESERIALIZE
+  private final Histogram[] objects = { new Histogram(), new Histogram() };
+  private final Histogram[] lengths = { new Histogram(), new Histogram() };
+  private final Histogram[] totals = { new Histogram(), new Histogram() };
+  // Nanoseconds of each phase by operation, then by CallTrace phase
+  private final Histogram[][] phases = new Histogram[2][CallTrace.PHASES];
+
+  public SerializationMetrics () {
+    for (int operation = 0; operation < 2; operation++) {
+      for (int phase = 0; phase < CallTrace.PHASES; phase++) {
+        phases[operation][phase] = new Histogram();
+      }
+    }
+  }
+
+  @Override
+  public void completed (CallTrace trace) {
+    int operation = trace.getOperation();
+    objects[operation].record(trace.getObjects());
+    lengths[operation].record(trace.getLength());
+    totals[operation].record(trace.getTotalNanos());
+    for (int phase = 0; phase < CallTrace.PHASES; phase++) {
+      long nanos = trace.getPhaseNanos(phase);
+      // Only phases the call went through, so percentiles are not diluted by zeros
+      if (nanos > 0) {
+        phases[operation][phase].record(nanos);
+      }
+    }
+  }
+
+  /**
+   * @param operation CallTrace.SERIALIZE or CallTrace.DESERIALIZE
+   * @return number of calls reported
+   */
+  public long calls (int operation) {
+    return totals[operation].count();
+  }
+
+  /**
+   * @param operation CallTrace.SERIALIZE or CallTrace.DESERIALIZE
+   * @return histogram of the objects written or read per call
+   */
+  public Histogram objects (int operation) {
+    return objects[operation];
+  }
+
+  /**
+   * @param operation CallTrace.SERIALIZE or CallTrace.DESERIALIZE
+   * @return histogram of the Json length per call
+   */
+  public Histogram lengths (int operation) {
+    return lengths[operation];
+  }
+
+  /**
+   * @param operation CallTrace.SERIALIZE or CallTrace.DESERIALIZE
+   * @return histogram of the nanoseconds per call
+   */
+  public Histogram nanos (int operation) {
+    return totals[operation];
+  }
+
+  /**
+   * @param operation CallTrace.SERIALIZE or CallTrace.DESERIALIZE
+   * @param phase One of the phases of CallTrace, such as CallTrace.PARSE
+   * @return histogram of the nanoseconds spent in the phase, by the calls that went through it
+   */
+  public Histogram phaseNanos (int operation, int phase) {
+    return phases[operation][phase];
+  }
+
+  /**
+   * Forget every call reported
+   */
+  public void clear () {
+    for (int operation = 0; operation < 2; operation++) {
+      objects[operation].clear();
+      lengths[operation].clear();
+      totals[operation].clear();
+      for (Histogram histogram : phases[operation]) {
+        histogram.clear();
+      }
+    }
+  }
+
+  /**
+   * @return a table of the calls, objects, lengths and times reported so far, with times in microseconds
+   */
+  public String report () {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-20s %10s %10s %10s %10s %10s%n", "", "count", "mean", "p50", "p99", "max"));
+    for (int operation = 0; operation < 2; operation++) {
+      String name = operation == CallTrace.SERIALIZE ? "serialize" : "deserialize";
+      appendRow(report, name + " objects", objects[operation], 1);
+      appendRow(report, name + " length", lengths[operation], 1);
+      appendRow(report, name + " us", totals[operation], 1000);
+      for (int phase = 0; phase < CallTrace.PHASES; phase++) {
+        if (phases[operation][phase].count() > 0) {
+          appendRow(report, "  " + CallTrace.phaseName(phase) + " us", phases[operation][phase], 1000);
+        }
+      }
+    }
+    return report.toString();
+  }
+
+  private static void appendRow (StringBuilder report, String name, Histogram histogram, double unit) {
+    long count = histogram.count();
+    double mean = count == 0 ? 0 : histogram.sum() / unit / count;
+    report.append(String.format("%-20s %10d %10.1f %10.1f %10.1f %10.1f%n", name, count, mean,
+        histogram.percentile(0.5) / unit, histogram.percentile(0.99) / unit, histogram.max() / unit));
+  }
+
+}
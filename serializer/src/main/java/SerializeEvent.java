@@ -0,0 +1,41 @@
+/**
+ * Flight Recorder event of one call to serialize an object, tagged with the class of its root.
+ * Enable serializer.Serialize in a recording to get it, see CallTrace.
+ **/
+
+import jdk.jfr.*;
+
+@Name("serializer.Serialize")
+@Label("Serialize")
+@Category("Serializer")
+@Description("Serialization of an object graph to Json")
+@StackTrace(false)
+final class SerializeEvent extends Event {
+
+  @Label("Root Class")
+  Class<?> root_class;
+
+  @Label("Objects")
+  int objects;
+
+  @Label("Length")
+  @Description("Bytes written to a stream, or chars written to a Writer or String")
+  long length;
+
+  @Label("Traverse")
+  @Timespan
+  long traverse;
+
+  @Label("Output")
+  @Timespan
+  long output;
+
+  void set (CallTrace trace) {
+    root_class = trace.getRootClass();
+    objects = trace.getObjects();
+    length = trace.getLength();
+    traverse = trace.getPhaseNanos(CallTrace.TRAVERSE);
+    output = trace.getPhaseNanos(CallTrace.OUTPUT);
+  }
+
+}
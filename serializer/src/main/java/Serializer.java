@@ -0,0 +1,684 @@
+/**
+ * Will serialize the complete state of a given object passed in and
+ * produce a JSON object String that will be sent over a network connection.
+ * The base of the JSON container is a list of objects.
+ * The base object being sent will be first, and then any objects it
+ * references will be stored after it within this list.
+ * The JSON is written incrementally through a JsonGenerator, so it can be
+ * streamed straight to a Writer or OutputStream without building it in memory.
+ * serializeAll writes a batch of roots as one document, listing the id of each root.
+ **/
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.util.*;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class Serializer {
+
+  // Looking up the JSON provider is expensive, so generators all come from one factory
+  private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+  // Version of the Json documents, written as "version". Version 2 writes ids, references, lengths
+  // and primitive values as Json numbers and booleans instead of Strings
+  static final int VERSION = 2;
+
+  /**
+   * Given an Object, serialize it into Json format
+   * @param source Object to be serialized
+   * @return String representation of source
+   */
+  public static String serializeObject (Object source) throws Exception {
+    CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+    StringWriter writer = new StringWriter();
+    int objects = writeDocument(source, GENERATOR_FACTORY.createGenerator(writer), trace);
+    String json = writer.toString();
+    if (trace != null) {
+      trace.mark(CallTrace.OUTPUT);
+      trace.objects = objects;
+      trace.end(source, json.length());
+    }
+    return json;
+  }
+
+  /**
+   * Given an Object, serialize it into Json format and write it to the given Writer as it is produced.
+   * The Writer is flushed but not closed.
+   * @param source Object to be serialized
+   * @param out Writer the Json is written to
+   */
+  public static void serializeObject (Object source, Writer out) throws Exception {
+    CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+    if (trace == null) {
+      writeDocument(source, GENERATOR_FACTORY.createGenerator(out), null);
+      return;
+    }
+    Instrumentation.CountingWriter counter = new Instrumentation.CountingWriter(out);
+    trace.objects = writeDocument(source, GENERATOR_FACTORY.createGenerator(counter), trace);
+    trace.end(source, counter.count);
+  }
+
+  /**
+   * Given an Object, serialize it into UTF-8 encoded Json format and write it to the given OutputStream
+   * as it is produced. The OutputStream is flushed but not closed.
+   * @param source Object to be serialized
+   * @param out OutputStream the Json is written to
+   */
+  public static void serializeObject (Object source, OutputStream out) throws Exception {
+    serializeJson(source, out, false);
+  }
+
+  /**
+   * Given an Object, serialize it in the given wire format and write it to the given OutputStream.
+   * The OutputStream is flushed but not closed.
+   * @param source Object to be serialized
+   * @param out OutputStream the message is written to
+   * @param format Format of the message, such as Format.JSON or Format.BINARY
+   */
+  public static void serializeObject (Object source, OutputStream out, Format format) throws Exception {
+    format.write(source, out);
+  }
+
+  /**
+   * Given a collection of root Objects, serialize them into one Json document with a single objects table,
+   * so objects shared between roots are written once: {"version":2, "roots":[id, ...], "objects":[...]}.
+   * Roots get ids in their order in the collection, before the objects they reference.
+   * @param roots Objects to be serialized, any of which may be null
+   * @return String representation of roots
+   */
+  public static String serializeAll (Collection<?> roots) throws Exception {
+    StringWriter writer = new StringWriter();
+    serializeAll(roots, writer);
+    return writer.toString();
+  }
+
+  /**
+   * Given a collection of root Objects, serialize them into one Json document and write it to the given Writer
+   * as it is produced. The Writer is flushed but not closed.
+   * @param roots Objects to be serialized, any of which may be null
+   * @param out Writer the Json is written to
+   */
+  public static void serializeAll (Collection<?> roots, Writer out) throws Exception {
+    CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+    if (trace == null) {
+      writeBatchDocument(roots, GENERATOR_FACTORY.createGenerator(out), null);
+      return;
+    }
+    Instrumentation.CountingWriter counter = new Instrumentation.CountingWriter(out);
+    trace.objects = writeBatchDocument(roots, GENERATOR_FACTORY.createGenerator(counter), trace);
+    trace.end(roots, counter.count);
+  }
+
+  /**
+   * Given a collection of root Objects, serialize them into one UTF-8 encoded Json document and write it
+   * to the given OutputStream as it is produced. The OutputStream is flushed but not closed.
+   * @param roots Objects to be serialized, any of which may be null
+   * @param out OutputStream the Json is written to
+   */
+  public static void serializeAll (Collection<?> roots, OutputStream out) throws Exception {
+    CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+    if (trace == null) {
+      writeBatchDocument(roots, GENERATOR_FACTORY.createGenerator(out), null);
+      return;
+    }
+    Instrumentation.CountingOutputStream counter = new Instrumentation.CountingOutputStream(out);
+    trace.objects = writeBatchDocument(roots, GENERATOR_FACTORY.createGenerator(counter), trace);
+    trace.end(roots, counter.count);
+  }
+
+  /**
+   * Given an Object, serialize it into a snapshot file: the entry of each object as its own Json object,
+   * followed by an index of where each entry starts, so SnapshotFile can read single objects without
+   * parsing the others. The file is replaced if it exists.
+   * @param source Object to be serialized
+   * @param file File the snapshot is written to
+   */
+  public static void serializeSnapshot (Object source, java.nio.file.Path file) throws Exception {
+    CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+    ObjectTable object_table = new ObjectTable();
+    object_table.idOf(source);
+    Utf8Buffer buffer = new Utf8Buffer();
+    // Offset of the entry of each id, then of the end of the last entry
+    long[] offsets = new long[16];
+    long position = SnapshotFile.HEADER;
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(java.nio.file.Files.newOutputStream(file), 1 << 16))) {
+      out.writeInt(SnapshotFile.MAGIC);
+      out.writeInt(SnapshotFile.VERSION);
+
+      // Serializing an object may discover more objects, as in serializeObjects
+      int id = 0;
+      for (; id < object_table.size(); id++) {
+        buffer.reset();
+        JsonGenerator generator = GENERATOR_FACTORY.createGenerator(buffer);
+        serializeHelper(object_table.get(id), id, generator, object_table);
+        generator.close();
+        buffer.writeTo(out);
+        if (id + 1 == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[id] = position;
+        position += buffer.size();
+      }
+      offsets[id] = position;
+      if (trace != null) {
+        trace.mark(CallTrace.TRAVERSE);
+      }
+
+      for (int i = 0; i <= id; i++) {
+        out.writeLong(offsets[i]);
+      }
+      out.writeLong(position);
+      out.writeInt(id);
+      out.writeInt(SnapshotFile.MAGIC);
+    }
+    if (trace != null) {
+      trace.mark(CallTrace.OUTPUT);
+      trace.objects = object_table.size();
+      trace.end(source, position + (object_table.size() + 1L) * 8 + SnapshotFile.TRAILER);
+    }
+  }
+
+  /**
+   * Serialize source into UTF-8 encoded Json, optionally in the schema-once layout. Used by JsonFormat.
+   * @param source Object to be serialized
+   * @param out OutputStream the Json is written to
+   * @param schema_once true to write the class layouts once at the top, see serializeSchemaDocument
+   */
+  static void serializeJson (Object source, OutputStream out, boolean schema_once) throws Exception {
+    CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+    Instrumentation.CountingOutputStream counter = trace == null ? null : new Instrumentation.CountingOutputStream(out);
+    JsonGenerator generator = GENERATOR_FACTORY.createGenerator(trace == null ? out : counter);
+    int objects;
+    if (schema_once) {
+      objects = serializeSchemaDocument(source, generator);
+      if (trace != null) {
+        trace.mark(CallTrace.TRAVERSE);
+      }
+      generator.flush();
+      if (trace != null) {
+        trace.mark(CallTrace.OUTPUT);
+      }
+    }
+    else {
+      objects = writeDocument(source, generator, trace);
+    }
+    if (trace != null) {
+      trace.objects = objects;
+      trace.end(source, counter.count);
+    }
+  }
+
+  /**
+   * Write the complete {"objects":[...]} document for source to the generator and flush it
+   * @param source Object to be serialized
+   * @param generator JsonGenerator the document is written to
+   * @param trace Trace the TRAVERSE and OUTPUT phases are marked in, or null
+   * @return number of objects written
+   */
+  private static int writeDocument (Object source, JsonGenerator generator, CallTrace trace) throws Exception {
+    ObjectTable object_table = new ObjectTable();
+    serializeDocument(source, generator, object_table);
+    if (trace != null) {
+      trace.mark(CallTrace.TRAVERSE);
+    }
+    generator.flush();
+    if (trace != null) {
+      trace.mark(CallTrace.OUTPUT);
+    }
+    return object_table.size();
+  }
+
+  /**
+   * Write the complete {"objects":[...]} document for source to the generator, tracking objects in the given table
+   * @param source Object to be serialized
+   * @param generator JsonGenerator the document is written to
+   * @param object_table Empty table, such as the reused one of a SerializerContext
+   */
+  static void serializeDocument (Object source, JsonGenerator generator, ObjectTable object_table) throws Exception {
+    object_table.idOf(source);
+
+    generator.writeStartObject();
+    generator.write("version", VERSION);
+    serializeObjects(object_table, generator);
+    generator.writeEnd();
+  }
+
+  /**
+   * Write the {"roots":[...], "objects":[...]} document for a batch of roots to the generator and flush it
+   * @param roots Objects to be serialized, any of which may be null
+   * @param generator JsonGenerator the document is written to
+   * @param trace Trace the TRAVERSE and OUTPUT phases are marked in, or null
+   * @return number of objects written
+   */
+  private static int writeBatchDocument (Collection<?> roots, JsonGenerator generator, CallTrace trace) throws Exception {
+    ObjectTable object_table = new ObjectTable();
+
+    // List the id of each root, which also puts the roots first in object_table
+    generator.writeStartObject();
+    generator.write("version", VERSION);
+    generator.writeStartArray("roots");
+    for (Object root : roots) {
+      if (root == null) {
+        generator.writeNull();
+      }
+      else {
+        generator.write(object_table.idOf(root));
+      }
+    }
+    generator.writeEnd();
+    serializeObjects(object_table, generator);
+    generator.writeEnd();
+    if (trace != null) {
+      trace.mark(CallTrace.TRAVERSE);
+    }
+    generator.flush();
+    if (trace != null) {
+      trace.mark(CallTrace.OUTPUT);
+    }
+    return object_table.size();
+  }
+
+  /**
+   * Write the "objects" list of every object in object_table and every object they reference
+   * @param object_table Table holding the roots of the document
+   * @param generator JsonGenerator positioned inside the document object
+   */
+  private static void serializeObjects (ObjectTable object_table, JsonGenerator generator) throws Exception {
+    // Store information of all objects found in the "objects" list
+    generator.writeStartArray("objects");
+
+    // Serialize objects in the order they were discovered. Serializing an object may discover
+    // more objects, which are appended to object_table, so the loop runs until none are left
+    for (int id = 0; id < object_table.size(); id++) {
+      serializeHelper(object_table.get(id), id, generator, object_table);
+    }
+
+    generator.writeEnd();
+  }
+
+  /**
+   * Write the schema-once layout of the document for source:
+   * {"classes":[{"name":..., "fields":[{"name":..., "declaringclass":...}, ...]}, ...], "objects":[[...], ...]}
+   * Every class is described once in "classes". Each object is then a Json array of the index of its class
+   * followed by its field values in the order of the class description, so its position in "objects" is its ID.
+   * An array is the index of its class followed by its entries, in the compact form of primitive arrays.
+   * A JDK collection or map is the index of its class followed by its elements, or its keys and values alternating.
+   * Primitive values are Json numbers and booleans, and references are the ID of the object or null.
+   * Strings and Booleans are written in place, other inline values as a Json array of their class index and value.
+   * @param source Object to be serialized
+   * @param generator JsonGenerator the document is written to
+   * @return number of objects written
+   */
+  @SuppressWarnings("rawtypes")
+  private static int serializeSchemaDocument (Object source, JsonGenerator generator) throws Exception {
+    ObjectTable object_table = new ObjectTable();
+    object_table.idOf(source);
+    Map<Class, Integer> class_table = new HashMap<Class, Integer>();
+    List<Class> classes = new ArrayList<Class>();
+
+    // Find every object and class first, since the classes are written before any object
+    for (int id = 0; id < object_table.size(); id++) {
+      Object obj = object_table.get(id);
+      addClass(obj.getClass(), class_table, classes);
+      discoverReferences(obj, object_table, class_table, classes);
+    }
+
+    generator.writeStartObject();
+    generator.write("version", VERSION);
+
+    // Describe each class once
+    generator.writeStartArray("classes");
+    for (Class object_class : classes) {
+      generator.writeStartObject();
+      ClassMetadata metadata = ClassMetadata.forClass(object_class);
+      generator.write("name", metadata.name);
+      if (metadata.describesFields()) {
+        generator.writeStartArray("fields");
+        for (int i = 0; i < metadata.fields.length; i++) {
+          generator.writeStartObject();
+          generator.write("name", metadata.names[i]);
+          generator.write("declaringclass", metadata.declaring_classes[i]);
+          generator.writeEnd();
+        }
+        generator.writeEnd();
+      }
+      generator.writeEnd();
+    }
+    generator.writeEnd();
+
+    // Write each object as its class index and positional values
+    generator.writeStartArray("objects");
+    for (int id = 0; id < object_table.size(); id++) {
+      Object obj = object_table.get(id);
+      Class object_class = obj.getClass();
+      generator.writeStartArray();
+      generator.write(class_table.get(object_class));
+
+      if (object_class.isArray()) {
+        Class component = object_class.getComponentType();
+        if (component.isPrimitive()) {
+          serializePrimitiveEntries(obj, ClassMetadata.kindOf(component), null, generator);
+        }
+        else {
+          generator.writeStartArray();
+          for (Object entry : (Object[]) obj) {
+            writeSchemaReference(entry, generator, object_table, class_table);
+          }
+          generator.writeEnd();
+        }
+      }
+      else {
+        ClassMetadata metadata = ClassMetadata.forClass(object_class);
+        if (metadata.inline) {
+          InlineValues.write(obj, generator);
+        }
+        if (metadata.container != JdkCollections.NONE) {
+          generator.writeStartArray();
+          for (Object element : JdkCollections.elementsOf(obj, metadata.container)) {
+            writeSchemaReference(element, generator, object_table, class_table);
+          }
+          generator.writeEnd();
+        }
+        for (int i = 0; i < metadata.fields.length; i++) {
+          if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+            writeSchemaReference(metadata.accessors[i].get(obj), generator, object_table, class_table);
+          }
+          else {
+            writePrimitiveValue(metadata.accessors[i], metadata.kinds[i], obj, generator);
+          }
+        }
+      }
+      generator.writeEnd();
+    }
+    generator.writeEnd();
+
+    generator.writeEnd();
+    return object_table.size();
+  }
+
+  /**
+   * Assign an ID to every object directly referenced by obj, and a class index to the class of every inline value
+   */
+  @SuppressWarnings("rawtypes")
+  private static void discoverReferences (Object obj, ObjectTable object_table, Map<Class, Integer> class_table, List<Class> classes) throws IllegalAccessException {
+    if (obj instanceof Object[]) {
+      for (Object entry : (Object[]) obj) {
+        discoverReference(entry, object_table, class_table, classes);
+      }
+    }
+    else if (!obj.getClass().isArray()) {
+      ClassMetadata metadata = ClassMetadata.forClass(obj.getClass());
+      if (metadata.container != JdkCollections.NONE) {
+        for (Object element : JdkCollections.elementsOf(obj, metadata.container)) {
+          discoverReference(element, object_table, class_table, classes);
+        }
+        return;
+      }
+      for (int i = 0; i < metadata.fields.length; i++) {
+        if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+          discoverReference(metadata.accessors[i].get(obj), object_table, class_table, classes);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static void discoverReference (Object value, ObjectTable object_table, Map<Class, Integer> class_table, List<Class> classes) {
+    if (value == null) return;
+    if (ClassMetadata.forClass(value.getClass()).inline) {
+      if (!InlineValues.isSelfDescribing(value)) addClass(InlineValues.classOf(value), class_table, classes);
+    }
+    else {
+      object_table.idOf(value);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static void addClass (Class c, Map<Class, Integer> class_table, List<Class> classes) {
+    if (!class_table.containsKey(c)) {
+      class_table.put(c, classes.size());
+      classes.add(c);
+    }
+  }
+
+  /**
+   * Write a reference in the schema-once layout: the ID of obj, or null. Inline values are written in place,
+   * Strings and Booleans as themselves and other values as a Json array of their class index and value.
+   */
+  @SuppressWarnings("rawtypes")
+  private static void writeSchemaReference (Object obj, JsonGenerator generator, ObjectTable object_table, Map<Class, Integer> class_table) {
+    if (obj == null) {
+      generator.writeNull();
+    }
+    else if (ClassMetadata.forClass(obj.getClass()).inline) {
+      if (InlineValues.isSelfDescribing(obj)) {
+        InlineValues.write(obj, generator);
+        return;
+      }
+      generator.writeStartArray();
+      generator.write(class_table.get(InlineValues.classOf(obj)));
+      InlineValues.write(obj, generator);
+      generator.writeEnd();
+    }
+    else {
+      generator.write(object_table.idOf(obj));
+    }
+  }
+
+  /**
+   * Write the shortest decimal form of a float, not the longer form of the float widened to double.
+   * Values that are not finite are written as Strings such as "NaN", since Json numbers cannot hold them.
+   */
+  private static void writeFloat (float f, JsonGenerator generator) {
+    if (Float.isFinite(f)) generator.write(new BigDecimal(Float.toString(f)));
+    else generator.write(Float.toString(f));
+  }
+
+  /**
+   * Write a double, or a String such as "NaN" for values that are not finite
+   */
+  private static void writeDouble (double d, JsonGenerator generator) {
+    if (Double.isFinite(d)) generator.write(d);
+    else generator.write(Double.toString(d));
+  }
+
+  /**
+   * Write the JsonObject for the given source Object. Objects it references are
+   * assigned an id in object_table and serialized later by serializeDocument
+   * @param source Object to be serialized
+   * @param id ID of source in object_table
+   * @param generator JsonGenerator positioned inside the "objects" array
+   * @param object_table Table used to track Object IDs and whether an Object has been encountered before
+   */
+  @SuppressWarnings("rawtypes")
+  static void serializeHelper(Object source, int id, JsonGenerator generator, ObjectIds object_table) throws Exception {
+    // Start the JsonObject for given source Object
+    generator.writeStartObject();
+
+    // Add source class name
+    Class object_class = source.getClass();
+    ClassMetadata metadata = ClassMetadata.forClass(object_class);
+    generator.write("class", metadata.name);
+
+    // Add source ID
+    generator.write("id", id);
+
+    // Array: Store the type as array, length and its entries
+    if (object_class.isArray()) {
+      // Type = Array
+      generator.write("type", "array");
+      // Store length
+      int length = Array.getLength(source);
+      generator.write("length", length);
+      Class entries_component = object_class.getComponentType();
+      // Primitive Array: Store all entries at once as a compact list of Json values
+      if (entries_component.isPrimitive()) {
+        serializePrimitiveEntries(source, ClassMetadata.kindOf(entries_component), "entries", generator);
+      }
+      // Object Array: Store each entry in an array
+      else {
+        Object[] entries = (Object[]) source;
+        generator.writeStartArray("entries");
+        for (int i = 0; i < length; i++) {
+          // Write a JsonObject for this entry
+          generator.writeStartObject();
+          serializeObjectValue(entries[i], entries_component, generator, object_table);
+          generator.writeEnd();
+        }
+        generator.writeEnd();
+      }
+    }
+
+    // Inline value at the root: Store the type as value and the value itself
+    else if (metadata.inline) {
+      generator.write("type", "value");
+      generator.writeKey("value");
+      InlineValues.write(source, generator);
+    }
+
+    // JDK Collection or Map: Store the type, its size and its elements, or keys and values alternating, as entries
+    else if (metadata.container != JdkCollections.NONE) {
+      Object[] elements = JdkCollections.elementsOf(source, metadata.container);
+      boolean map = metadata.container == JdkCollections.MAP;
+      generator.write("type", map ? "map" : "collection");
+      generator.write("length", map ? elements.length / 2 : elements.length);
+      generator.writeStartArray("entries");
+      for (Object element : elements) {
+        generator.writeStartObject();
+        serializeObjectValue(element, Object.class, generator, object_table);
+        generator.writeEnd();
+      }
+      generator.writeEnd();
+    }
+
+    // Object: Store the type as object and its fields
+    else {
+      // Type = Object
+      generator.write("type", "object");
+
+      // Add source fields using the cached metadata of its class
+      generator.writeStartArray("fields");
+
+      // For Each Field: Write its name, declaring class and value
+      for (int i = 0; i < metadata.fields.length; i++) {
+        generator.writeStartObject();
+        generator.write("name", metadata.names[i]);
+        generator.write("declaringclass", metadata.declaring_classes[i]);
+
+        if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+          serializeObjectValue(metadata.accessors[i].get(source), metadata.fields[i].getType(), generator, object_table);
+        }
+        else {
+          generator.writeKey("value");
+          writePrimitiveValue(metadata.accessors[i], metadata.kinds[i], source, generator);
+        }
+        generator.writeEnd();
+      }
+      // Close the list of the source's fields
+      generator.writeEnd();
+    }
+    // Close the source's Json object within the overall list of objects
+    generator.writeEnd();
+  }
+
+  /**
+   * Write the "entries" of a primitive array without boxing its elements. byte[] is stored as a base64
+   * String, every other primitive array as a list of Json numbers or booleans, with char stored as its code.
+   * Float and double values that are not finite are stored as Strings such as "NaN", since Json numbers cannot hold them.
+   * @param source Primitive array to be serialized
+   * @param kind ClassMetadata kind of the component type of source
+   * @param key Name the entries are written under, or null to write them as the next value of a Json array
+   * @param generator JsonGenerator positioned inside the JsonObject or Json array of the array
+   */
+  static void serializePrimitiveEntries (Object source, int kind, String key, JsonGenerator generator) {
+    if (kind == ClassMetadata.KIND_BYTE) {
+      String base64 = Base64.getEncoder().encodeToString((byte[]) source);
+      if (key == null) generator.write(base64);
+      else generator.write(key, base64);
+      return;
+    }
+
+    if (key == null) generator.writeStartArray();
+    else generator.writeStartArray(key);
+    switch (kind) {
+      case ClassMetadata.KIND_BOOLEAN:
+        for (boolean b : (boolean[]) source) generator.write(b);
+        break;
+      case ClassMetadata.KIND_CHAR:
+        for (char c : (char[]) source) generator.write((int) c);
+        break;
+      case ClassMetadata.KIND_SHORT:
+        for (short s : (short[]) source) generator.write((int) s);
+        break;
+      case ClassMetadata.KIND_INT:
+        for (int i : (int[]) source) generator.write(i);
+        break;
+      case ClassMetadata.KIND_LONG:
+        for (long l : (long[]) source) generator.write(l);
+        break;
+      case ClassMetadata.KIND_FLOAT:
+        for (float f : (float[]) source) writeFloat(f, generator);
+        break;
+      default:
+        for (double d : (double[]) source) writeDouble(d, generator);
+        break;
+    }
+    generator.writeEnd();
+  }
+
+  /**
+   * Read a primitive field without boxing it and write it as the next value of the generator,
+   * as a Json boolean or number, with char stored as its code like the entries of a char[]
+   * @param accessor FieldAccessor of the field
+   * @param kind ClassMetadata kind of the field
+   * @param source Object the field is read from
+   * @param generator JsonGenerator positioned where a value can be written
+   */
+  static void writePrimitiveValue (FieldAccessor accessor, int kind, Object source, JsonGenerator generator) {
+    switch (kind) {
+      case ClassMetadata.KIND_BOOLEAN: generator.write(accessor.getBoolean(source)); break;
+      case ClassMetadata.KIND_BYTE: generator.write(accessor.getByte(source)); break;
+      case ClassMetadata.KIND_CHAR: generator.write((int) accessor.getChar(source)); break;
+      case ClassMetadata.KIND_SHORT: generator.write(accessor.getShort(source)); break;
+      case ClassMetadata.KIND_INT: generator.write(accessor.getInt(source)); break;
+      case ClassMetadata.KIND_LONG: generator.write(accessor.getLong(source)); break;
+      case ClassMetadata.KIND_FLOAT: writeFloat(accessor.getFloat(source), generator); break;
+      default: writeDouble(accessor.getDouble(source), generator); break;
+    }
+  }
+
+  /**
+   * Given an Object that is the value of a reference field or object array entry, write its reference into the
+   * JsonObject currently open in the generator. If the given Object is not already in object_table it is assigned
+   * the next ID there, and is serialized once serializeDocument reaches that ID.
+   * Inline values such as Strings and boxed primitives are written in place as "value" instead, with their class
+   * as "valueclass" unless it is the declared type or the Json form tells it.
+   * @param obj Object node representing a field whose value will be serialized
+   * @param declared_type Declared type of the field or array component
+   * @param generator JsonGenerator positioned inside the JsonObject of the field
+   * @param object_table Total list of objects found in the program so far
+   */
+  @SuppressWarnings("rawtypes")
+  static void serializeObjectValue (Object obj, Class declared_type, JsonGenerator generator, ObjectIds object_table) {
+    // Null Value: Store null reference
+    if (obj == null) {
+      generator.writeNull("reference");
+    }
+    // Inline Value: Store the value itself
+    else if (ClassMetadata.forClass(obj.getClass()).inline) {
+      generator.writeKey("value");
+      InlineValues.write(obj, generator);
+      Class value_class = InlineValues.classOf(obj);
+      if (value_class != declared_type && !InlineValues.isSelfDescribing(obj)) {
+        generator.write("valueclass", value_class.getName());
+      }
+    }
+    // Object Value: Store its reference value, looking up or assigning its ID in object_table
+    else {
+      generator.write("reference", object_table.idOf(obj));
+    }
+  }
+
+}
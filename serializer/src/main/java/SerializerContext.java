@@ -0,0 +1,165 @@
+/**
+ * Serializes one message after another with the same identity table and output buffer, cleared between
+ * messages, so that once they have grown to the size of the largest message, serializing allocates only
+ * a small constant amount per message besides what the result itself needs.
+ * The JsonGenerator of each message is closed against a Writer that does not close the destination,
+ * which returns its buffer to the pool of the Json provider instead of leaving it to the garbage collector.
+ * Writes the same documents as Serializer.serializeObject. A context serializes one message at a time:
+ * share one per thread through forThread, or give each thread its own.
+ **/
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class SerializerContext {
+
+  // Looking up the JSON provider is expensive, so generators all come from one factory
+  private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+  private static final ThreadLocal<SerializerContext> THREAD_CONTEXT = ThreadLocal.withInitial(SerializerContext::new);
+
+  private final ObjectTable object_table = new ObjectTable();
+  // UTF-8 output of messages written to an OutputStream or returned as a String
+  private final Utf8Buffer buffer = new Utf8Buffer();
+  // Messages written to a Writer go through it, so closing the generator leaves the Writer open
+  private final TargetWriter target = new TargetWriter();
+  private boolean in_use = false;
+
+  /**
+   * Writer passing everything on to the destination of the message, except close
+   */
+  private static class TargetWriter extends Writer {
+    Writer out;
+
+    @Override
+    public void write (char[] chars, int offset, int length) throws IOException {
+      out.write(chars, offset, length);
+    }
+
+    @Override
+    public void write (String str, int offset, int length) throws IOException {
+      out.write(str, offset, length);
+    }
+
+    @Override
+    public void write (int c) throws IOException {
+      out.write(c);
+    }
+
+    @Override
+    public void flush () throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close () throws IOException {
+      out.flush();
+    }
+  }
+
+  /**
+   * @return the context of the current thread, created on first use
+   */
+  public static SerializerContext forThread () {
+    return THREAD_CONTEXT.get();
+  }
+
+  /**
+   * Serialize source into Json format
+   * @param source Object to be serialized
+   * @return String representation of source
+   */
+  public String serialize (Object source) throws Exception {
+    begin();
+    try {
+      CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+      buffer.reset();
+      write(source, buffer, trace);
+      String json = new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8);
+      if (trace != null) {
+        trace.mark(CallTrace.OUTPUT);
+        trace.end(source, buffer.size());
+      }
+      return json;
+    }
+    finally {
+      in_use = false;
+    }
+  }
+
+  /**
+   * Serialize source into Json format and write it to the given Writer, which is flushed but not closed
+   * @param source Object to be serialized
+   * @param out Writer the Json is written to
+   */
+  public void serialize (Object source, Writer out) throws Exception {
+    begin();
+    try {
+      CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+      if (trace == null) {
+        target.out = out;
+        write(source, target, null);
+        return;
+      }
+      Instrumentation.CountingWriter counter = new Instrumentation.CountingWriter(out);
+      target.out = counter;
+      write(source, target, trace);
+      trace.end(source, counter.count);
+    }
+    finally {
+      target.out = null;
+      in_use = false;
+    }
+  }
+
+  /**
+   * Serialize source into UTF-8 encoded Json format and write it to the given OutputStream, which is flushed but not closed
+   * @param source Object to be serialized
+   * @param out OutputStream the Json is written to
+   */
+  public void serialize (Object source, OutputStream out) throws Exception {
+    begin();
+    try {
+      CallTrace trace = CallTrace.begin(CallTrace.SERIALIZE);
+      buffer.reset();
+      write(source, buffer, trace);
+      buffer.writeTo(out);
+      out.flush();
+      if (trace != null) {
+        trace.mark(CallTrace.OUTPUT);
+        trace.end(source, buffer.size());
+      }
+    }
+    finally {
+      in_use = false;
+    }
+  }
+
+  private void begin () {
+    if (in_use) {
+      throw new IllegalStateException("SerializerContext is already serializing a message");
+    }
+    in_use = true;
+  }
+
+  private void write (Object source, Writer out, CallTrace trace) throws Exception {
+    try {
+      JsonGenerator generator = GENERATOR_FACTORY.createGenerator(out);
+      Serializer.serializeDocument(source, generator, object_table);
+      if (trace != null) {
+        trace.mark(CallTrace.TRAVERSE);
+      }
+      // Closing writes out what the generator buffered and returns its buffer to the pool
+      generator.close();
+      if (trace != null) {
+        trace.mark(CallTrace.OUTPUT);
+        trace.objects = object_table.size();
+      }
+    }
+    finally {
+      object_table.clear();
+    }
+  }
+
+}
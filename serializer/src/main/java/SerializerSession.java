@@ -0,0 +1,412 @@
+/**
+ * Sending side of a session that keeps the object table between messages, so each message after the first
+ * only carries what changed since the previous one:
+ * {"version":2, "session":n, "root":{...}, "released":[id, ...], "objects":[...], "changes":[...]}
+ * "session" numbers the messages from 0, and message 0 is a full snapshot. "root" is the root written like a
+ * field value. "objects" holds the objects that are new since the previous message, as Serializer writes them.
+ * "changes" holds, for objects sent before, the fields and object array entries whose value changed,
+ * the contents of changed primitive arrays, and every element of changed JDK collections and maps.
+ * "released" lists the ids of objects that are no longer reachable from the root. Released ids are
+ * reused for new objects in later messages.
+ * The whole graph is walked for every message, but messages and the work of a DeserializerSession applying
+ * them scale with the changes. Fields and arrays are compared in place with the state they were last sent in,
+ * which is only updated where it changed, so walking unchanged objects allocates nothing; JDK collections and
+ * maps are still read as a copy of their elements. Every message has to be applied, in order, by the same
+ * DeserializerSession, from a message 0 on.
+ **/
+
+import java.io.*;
+import java.util.*;
+import javax.json.*;
+import javax.json.stream.*;
+
+public class SerializerSession {
+
+  // Looking up the JSON provider is expensive, so generators all come from one factory
+  private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+  // Id of every object sent and still reachable
+  private final Map<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+  // Objects indexed by id, null for free ids
+  private Object[] objects = new Object[16];
+  // State of each object as it was last sent: a copy of an array, elements, or a SentFields of field values
+  private Object[] states = new Object[16];
+  // Number of the last message each object was reached in
+  private int[] reached = new int[16];
+  // Ids released by earlier messages, reused before new ones
+  private int[] free = new int[16];
+  private int free_count = 0;
+  // One more than the highest id used
+  private int id_count = 0;
+  // Number of the next message
+  private int sequence = 0;
+  // Ids of the objects reached by the current message, in the order they were reached
+  private int[] queue = new int[16];
+  private int queue_end = 0;
+
+  // Serializer looks up the ids of referenced objects here, every one of them is known when writing
+  private final ObjectIds object_table = ids::get;
+
+  /**
+   * Serialize what changed in the graph of root since the previous message into Json format
+   * @param root Object to be serialized, which may differ from the root of the previous message
+   * @return String of the next message of the session
+   */
+  public String serialize (Object root) throws Exception {
+    StringWriter writer = new StringWriter();
+    serialize(root, writer);
+    return writer.toString();
+  }
+
+  /**
+   * Serialize what changed in the graph of root since the previous message and write it to the given Writer.
+   * The Writer is flushed but not closed.
+   * @param root Object to be serialized
+   * @param out Writer the Json is written to
+   */
+  public void serialize (Object root, Writer out) throws Exception {
+    JsonGenerator generator = GENERATOR_FACTORY.createGenerator(out);
+    serializeMessage(root, generator);
+    generator.flush();
+  }
+
+  /**
+   * Serialize what changed in the graph of root since the previous message and write it UTF-8 encoded
+   * to the given OutputStream. The OutputStream is flushed but not closed.
+   * @param root Object to be serialized
+   * @param out OutputStream the Json is written to
+   */
+  public void serialize (Object root, OutputStream out) throws Exception {
+    JsonGenerator generator = GENERATOR_FACTORY.createGenerator(out);
+    serializeMessage(root, generator);
+    generator.flush();
+  }
+
+  /**
+   * Forget every object sent, so the next message is a full snapshot again, as for a new receiver
+   */
+  public void reset () {
+    ids.clear();
+    Arrays.fill(objects, null);
+    Arrays.fill(states, null);
+    Arrays.fill(reached, 0);
+    free_count = 0;
+    id_count = 0;
+    sequence = 0;
+  }
+
+  private void serializeMessage (Object root, JsonGenerator generator) throws Exception {
+    int message = sequence++;
+    // Message numbers start from 1 in reached, where 0 means never reached
+    int mark = message + 1;
+
+    // Walk the graph, giving new objects ids and comparing the others in place with their last sent state
+    int[] created = new int[16];
+    int created_count = 0;
+    int[] changed = new int[16];
+    // Elements of each changed JDK collection or map, which can only be read as a copy
+    Object[][] changed_elements = new Object[16][];
+    int changed_count = 0;
+    queue_end = 0;
+    if (root != null && !ClassMetadata.forClass(root.getClass()).inline) {
+      reach(root, mark);
+    }
+    for (int next = 0; next < queue_end; next++) {
+      int id = queue[next];
+      Object obj = objects[id];
+      ClassMetadata metadata = ClassMetadata.forClass(obj.getClass());
+      Object[] elements = metadata.container != JdkCollections.NONE ? JdkCollections.elementsOf(obj, metadata.container) : null;
+      reachReferences(obj, metadata, elements, mark);
+      if (states[id] == null) {
+        if (created_count == created.length) {
+          created = Arrays.copyOf(created, created_count * 2);
+        }
+        created[created_count++] = id;
+        states[id] = elements != null ? elements : stateOf(obj, metadata);
+      }
+      else if (!sameState(obj, metadata, elements, states[id])) {
+        if (changed_count == changed.length) {
+          changed = Arrays.copyOf(changed, changed_count * 2);
+          changed_elements = Arrays.copyOf(changed_elements, changed_count * 2);
+        }
+        changed[changed_count] = id;
+        changed_elements[changed_count++] = elements;
+      }
+    }
+
+    generator.writeStartObject();
+    generator.write("version", Serializer.VERSION);
+    generator.write("session", message);
+    generator.writeStartObject("root");
+    Serializer.serializeObjectValue(root, Object.class, generator, object_table);
+    generator.writeEnd();
+
+    // Objects that were not reached are released, and their ids freed for later messages
+    generator.writeStartArray("released");
+    for (int id = 0; id < id_count; id++) {
+      if (objects[id] != null && reached[id] != mark) {
+        generator.write(id);
+        release(id);
+      }
+    }
+    generator.writeEnd();
+
+    generator.writeStartArray("objects");
+    for (int i = 0; i < created_count; i++) {
+      Serializer.serializeHelper(objects[created[i]], created[i], generator, object_table);
+    }
+    generator.writeEnd();
+
+    generator.writeStartArray("changes");
+    for (int i = 0; i < changed_count; i++) {
+      serializeChange(changed[i], changed_elements[i], generator);
+    }
+    generator.writeEnd();
+    generator.writeEnd();
+  }
+
+  /**
+   * Mark obj as reached in this message, giving it an id if it is new, and add its id to the queue
+   */
+  private void reach (Object obj, int mark) {
+    Integer known = ids.get(obj);
+    int id;
+    if (known != null) {
+      id = known;
+    }
+    else {
+      id = free_count > 0 ? free[--free_count] : id_count++;
+      if (id >= objects.length) {
+        int length = Math.max(objects.length * 2, id + 1);
+        objects = Arrays.copyOf(objects, length);
+        states = Arrays.copyOf(states, length);
+        reached = Arrays.copyOf(reached, length);
+      }
+      ids.put(obj, id);
+      objects[id] = obj;
+    }
+    reached[id] = mark;
+    if (queue_end == queue.length) {
+      queue = Arrays.copyOf(queue, queue_end * 2);
+    }
+    queue[queue_end++] = id;
+  }
+
+  private boolean isReached (Object obj, int mark) {
+    Integer id = ids.get(obj);
+    return id != null && reached[id] == mark;
+  }
+
+  private void release (int id) {
+    ids.remove(objects[id]);
+    objects[id] = null;
+    states[id] = null;
+    if (free_count == free.length) {
+      free = Arrays.copyOf(free, free_count * 2);
+    }
+    free[free_count++] = id;
+  }
+
+
+  /**
+   * Reach every object obj references, in the order Serializer writes them
+   * @param elements Elements of a JDK collection or map, null for other objects
+   */
+  private void reachReferences (Object obj, ClassMetadata metadata, Object[] elements, int mark) {
+    if (elements != null || obj instanceof Object[]) {
+      for (Object reference : elements != null ? elements : (Object[]) obj) {
+        reachIfNew(reference, mark);
+      }
+    }
+    else if (!metadata.type.isArray()) {
+      for (int i = 0; i < metadata.fields.length; i++) {
+        if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+          reachIfNew(metadata.accessors[i].get(obj), mark);
+        }
+      }
+    }
+  }
+
+  private void reachIfNew (Object reference, int mark) {
+    if (reference != null && !ClassMetadata.forClass(reference.getClass()).inline && !isReached(reference, mark)) {
+      reach(reference, mark);
+    }
+  }
+
+  /**
+   * State of an object written as its fields, as it was last sent: the bits of each primitive field
+   * and the value of each reference field, so fields are compared without boxing
+   */
+  private static final class SentFields {
+    final long[] bits;
+    final Object[] references;
+
+    SentFields (int length) {
+      bits = new long[length];
+      references = new Object[length];
+    }
+  }
+
+  /**
+   * @return the current state of obj: a copy of an array, or the values of the fields of an object
+   */
+  private static Object stateOf (Object obj, ClassMetadata metadata) {
+    if (metadata.type.isArray()) {
+      int length = java.lang.reflect.Array.getLength(obj);
+      Object copy = java.lang.reflect.Array.newInstance(metadata.type.getComponentType(), length);
+      System.arraycopy(obj, 0, copy, 0, length);
+      return copy;
+    }
+    SentFields state = new SentFields(metadata.fields.length);
+    for (int i = 0; i < metadata.fields.length; i++) {
+      if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+        state.references[i] = metadata.accessors[i].get(obj);
+      }
+      else {
+        state.bits[i] = bitsOf(metadata.accessors[i], metadata.kinds[i], obj);
+      }
+    }
+    return state;
+  }
+
+  /**
+   * @return the value of a primitive field as a long, with floats and doubles compared the way their boxes are
+   */
+  private static long bitsOf (FieldAccessor accessor, int kind, Object obj) {
+    switch (kind) {
+      case ClassMetadata.KIND_BOOLEAN: return accessor.getBoolean(obj) ? 1 : 0;
+      case ClassMetadata.KIND_BYTE: return accessor.getByte(obj);
+      case ClassMetadata.KIND_CHAR: return accessor.getChar(obj);
+      case ClassMetadata.KIND_SHORT: return accessor.getShort(obj);
+      case ClassMetadata.KIND_INT: return accessor.getInt(obj);
+      case ClassMetadata.KIND_LONG: return accessor.getLong(obj);
+      case ClassMetadata.KIND_FLOAT: return Float.floatToIntBits(accessor.getFloat(obj));
+      default: return Double.doubleToLongBits(accessor.getDouble(obj));
+    }
+  }
+
+  /**
+   * @param elements Current elements of a JDK collection or map, null for other objects
+   * @return true if obj holds the same values and references the same objects as its sent state
+   */
+  private static boolean sameState (Object obj, ClassMetadata metadata, Object[] elements, Object sent) {
+    if (elements != null || obj instanceof Object[]) {
+      Object[] sent_values = (Object[]) sent;
+      Object[] current_values = elements != null ? elements : (Object[]) obj;
+      if (sent_values.length != current_values.length) {
+        return false;
+      }
+      for (int i = 0; i < sent_values.length; i++) {
+        if (!sameValue(sent_values[i], current_values[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (metadata.type.isArray()) {
+      // Compares primitive arrays with the Arrays.equals of their type
+      return Objects.deepEquals(sent, obj);
+    }
+    SentFields state = (SentFields) sent;
+    for (int i = 0; i < metadata.fields.length; i++) {
+      if (!sameField(state, metadata, i, obj)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameField (SentFields state, ClassMetadata metadata, int i, Object obj) {
+    if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+      return sameValue(state.references[i], metadata.accessors[i].get(obj));
+    }
+    return state.bits[i] == bitsOf(metadata.accessors[i], metadata.kinds[i], obj);
+  }
+
+  /**
+   * Objects are the same by identity, inline values and boxed primitives by equality
+   */
+  private static boolean sameValue (Object sent, Object current) {
+    if (sent == current) {
+      return true;
+    }
+    return sent != null && current != null && ClassMetadata.forClass(sent.getClass()).inline && sent.equals(current);
+  }
+
+  /**
+   * Write the JsonObject of the change of one object since its sent state, which then becomes its current state
+   * @param elements Current elements of a JDK collection or map, null for other objects
+   */
+  @SuppressWarnings("rawtypes")
+  private void serializeChange (int id, Object[] elements, JsonGenerator generator) throws Exception {
+    Object obj = objects[id];
+    Object sent = states[id];
+    ClassMetadata metadata = ClassMetadata.forClass(obj.getClass());
+    generator.writeStartObject();
+    generator.write("id", id);
+
+    // Object Array: The entries that changed with their index
+    if (obj instanceof Object[]) {
+      Object[] sent_entries = (Object[]) sent;
+      Object[] current_entries = (Object[]) obj;
+      Class component = metadata.type.getComponentType();
+      generator.writeStartArray("entries");
+      for (int i = 0; i < current_entries.length; i++) {
+        if (!sameValue(sent_entries[i], current_entries[i])) {
+          generator.writeStartObject();
+          generator.write("index", i);
+          Serializer.serializeObjectValue(current_entries[i], component, generator, object_table);
+          generator.writeEnd();
+          sent_entries[i] = current_entries[i];
+        }
+      }
+      generator.writeEnd();
+    }
+
+    // Primitive Array: Every entry in the compact form
+    else if (metadata.type.isArray()) {
+      Serializer.serializePrimitiveEntries(obj, ClassMetadata.kindOf(metadata.type.getComponentType()), "values", generator);
+      System.arraycopy(obj, 0, sent, 0, java.lang.reflect.Array.getLength(obj));
+    }
+
+    // JDK Collection or Map: Every element, or key and value alternating
+    else if (elements != null) {
+      generator.writeStartArray("elements");
+      for (Object element : elements) {
+        generator.writeStartObject();
+        Serializer.serializeObjectValue(element, Object.class, generator, object_table);
+        generator.writeEnd();
+      }
+      generator.writeEnd();
+      states[id] = elements;
+    }
+
+    // Object: The fields that changed, as Serializer writes fields
+    else {
+      SentFields state = (SentFields) sent;
+      generator.writeStartArray("fields");
+      for (int i = 0; i < metadata.fields.length; i++) {
+        if (sameField(state, metadata, i, obj)) {
+          continue;
+        }
+        generator.writeStartObject();
+        generator.write("name", metadata.names[i]);
+        generator.write("declaringclass", metadata.declaring_classes[i]);
+        if (metadata.kinds[i] == ClassMetadata.KIND_OBJECT) {
+          Object value = metadata.accessors[i].get(obj);
+          Serializer.serializeObjectValue(value, metadata.fields[i].getType(), generator, object_table);
+          state.references[i] = value;
+        }
+        else {
+          generator.writeKey("value");
+          Serializer.writePrimitiveValue(metadata.accessors[i], metadata.kinds[i], obj, generator);
+          state.bits[i] = bitsOf(metadata.accessors[i], metadata.kinds[i], obj);
+        }
+        generator.writeEnd();
+      }
+      generator.writeEnd();
+    }
+    generator.writeEnd();
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * A snapshot file written by Serializer.serializeSnapshot, opened for random access to its objects.
+ * The file holds the entry of every object as its own UTF-8 Json object, as they appear in the "objects"
+ * list of a document, followed by an index of where each entry starts:
+ *   "SNAP" magic, int version, entries..., long offset of each entry and of the end of the last one,
+ *   long offset of the index, int number of entries, "SNAP" magic
+ * Integers are big-endian. Opening a file maps it read-only and reads only its last 16 bytes, so it takes the
+ * same time whatever the size of the file, and getting an object parses only its entry and the entries of the
+ * objects it references, through a LazyGraph. The mapping is released once the SnapshotFile is unreachable,
+ * as the JDK offers no way to unmap a file explicitly.
+ **/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import javax.json.Json;
+import javax.json.stream.*;
+
+public class SnapshotFile implements Closeable {
+
+  // Looking up the JSON provider is expensive, so parsers all come from one factory
+  private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+  static final int MAGIC = 0x534e4150;
+  static final int VERSION = 1;
+  // Magic and version
+  static final int HEADER = 8;
+  // Offset of the index, number of entries and magic
+  static final int TRAILER = 16;
+  // A MappedByteBuffer holds at most 2 GB, so larger files are mapped in chunks
+  private static final long CHUNK = 1L << 30;
+
+  private final FileChannel channel;
+  private final long chunk_size;
+  private final MappedByteBuffer[] chunks;
+  private final LongBuffer index;
+  private final long index_offset;
+  private final int size;
+  private final LazyGraph graph;
+
+  private SnapshotFile (FileChannel channel, long chunk_size) throws IOException {
+    this.channel = channel;
+    this.chunk_size = chunk_size;
+    long length = channel.size();
+    if (length < HEADER + TRAILER) {
+      throw new IOException("Not a snapshot file: only " + length + " bytes");
+    }
+
+    chunks = new MappedByteBuffer[(int) ((length + chunk_size - 1) / chunk_size)];
+    for (int i = 0; i < chunks.length; i++) {
+      long start = i * chunk_size;
+      chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunk_size, length - start));
+    }
+
+    ByteBuffer header = read(0, HEADER);
+    ByteBuffer trailer = read(length - TRAILER, TRAILER);
+    index_offset = trailer.getLong();
+    size = trailer.getInt();
+    if (header.getInt() != MAGIC || trailer.getInt() != MAGIC) {
+      throw new IOException("Not a snapshot file");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Snapshot file version " + version + " is not supported");
+    }
+    if (size < 0 || index_offset < HEADER || index_offset + (size + 1L) * 8 + TRAILER != length) {
+      throw new IOException("Snapshot file index does not match its length of " + length + " bytes");
+    }
+    if ((size + 1L) * 8 > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot file has too many entries to index: " + size);
+    }
+    index = read(index_offset, (size + 1) * 8).asLongBuffer();
+    graph = new LazyGraph(new Entries());
+  }
+
+  /**
+   * Open a snapshot file for reading. Nothing is parsed until objects are asked for.
+   * @param file Snapshot file written by Serializer.serializeSnapshot
+   * @return the snapshot, to be closed once done with
+   */
+  public static SnapshotFile open (Path file) throws IOException {
+    return open(file, CHUNK);
+  }
+
+  /**
+   * @param chunk_size Number of bytes mapped at a time, smaller than CHUNK to test entries crossing chunks
+   */
+  static SnapshotFile open (Path file, long chunk_size) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      return new SnapshotFile(channel, chunk_size);
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return number of objects in the snapshot
+   */
+  public int size () {
+    return size;
+  }
+
+  /**
+   * @return the root object, built with every object it references
+   */
+  public Object root () throws Exception {
+    return graph.root();
+  }
+
+  /**
+   * @param id ID of an object
+   * @return the object, built with every object it references, the same instance on every call
+   */
+  public Object get (int id) throws Exception {
+    return graph.get(id);
+  }
+
+  /**
+   * @param id ID of an object
+   * @return a view of its entry, which builds nothing
+   */
+  public LazyGraph.View view (int id) {
+    return graph.view(id);
+  }
+
+  /**
+   * @return the LazyGraph the objects are built by
+   */
+  public LazyGraph graph () {
+    return graph;
+  }
+
+  @Override
+  public void close () throws IOException {
+    channel.close();
+  }
+
+  /**
+   * @return a buffer of the given range of the file, positioned at its start
+   */
+  private ByteBuffer read (long start, int length) throws IOException {
+    int first = (int) (start / chunk_size);
+    int offset = (int) (start - first * chunk_size);
+    if (offset + length <= chunks[first].capacity()) {
+      return chunks[first].slice(offset, length);
+    }
+    // The range crosses chunks: map it on its own
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+  }
+
+  /**
+   * Entries of the snapshot, found through the index
+   */
+  private class Entries implements LazyGraph.Entries {
+    @Override
+    public int size () {
+      return size;
+    }
+
+    @Override
+    public JsonParser parser (int id) throws IOException {
+      long start = index.get(id);
+      long end = index.get(id + 1);
+      if (start < HEADER || end < start || end > index_offset || end - start > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot file index has a bad entry for id " + id);
+      }
+      return PARSER_FACTORY.createParser(new BufferInputStream(read(start, (int) (end - start))), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * InputStream over what is left of a ByteBuffer
+   */
+  private static class BufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    BufferInputStream (ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read () {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read (byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+  }
+
+}
@@ -0,0 +1,655 @@
+/**
+ * Append-only log of serialized objects, each stored under a key, such as the objects ObjectCreator produces.
+ * The file starts with the "SLOG" magic, a version and the synced length, followed by one record per append:
+ *   int length of the body, int CRC32C of the body, body: int length of the key, UTF-8 key, UTF-8 Json of the object
+ * Integers are big-endian. Appending serializes the object in the calling thread and queues the record; one commit
+ * thread writes everything queued since its last write and forces it to disk with a single fsync, so appends from
+ * any number of threads share fsyncs instead of waiting for one each. sync waits until what was appended before it
+ * is on disk. After each fsync the commit thread writes the length synced so far into the header, which the next
+ * fsync makes durable, so the synced length on disk never covers a record that was not forced.
+ * A crash before an fsync can leave any of the pages of its batch unwritten, not only the last ones, so opening
+ * a log cuts it at the first record past the synced length that is cut short or does not match its CRC. Those
+ * records were never reported durable. A record below the synced length that does not match its CRC was damaged
+ * after it was on disk, and opening the log fails rather than drop it and the records after it.
+ * Once the file holds more than twice the bytes of the latest record of each key, and at least the compaction
+ * threshold, a compaction thread rewrites it with only those records, while appends go on. Records appended
+ * during a compaction are all kept, to be compacted the next time.
+ **/
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+public class SnapshotLog implements Closeable {
+
+  public static final long DEFAULT_COMPACTION_THRESHOLD = 16 << 20;
+  static final int MAGIC = 0x534c4f47;
+  static final int VERSION = 1;
+  // Magic, version and synced length
+  static final int HEADER = 16;
+  // Offset of the synced length in the header
+  static final int SYNCED = 8;
+  // Length and CRC of a record
+  static final int RECORD_HEADER = 8;
+  // Appends wait once this many bytes are queued and not written yet
+  private static final int MAX_PENDING_BYTES = 16 << 20;
+  private static final ThreadLocal<RecordBuffer> THREAD_RECORD = ThreadLocal.withInitial(RecordBuffer::new);
+
+  private final Path file;
+  private final Path compact_file;
+  private final long compaction_threshold;
+  private final Thread committer;
+  private final Thread compactor;
+  // Held while the file is written or replaced, so a compaction never swaps it under a write
+  private final Object io = new Object();
+  // Held for a whole compaction, so only one runs at a time
+  private final Object compaction = new Object();
+
+  // Everything below is guarded by this
+  private FileChannel channel;
+  // Records queued and not written yet, and the batch being written
+  private RecordBuffer pending = new RecordBuffer();
+  private RecordBuffer writing = new RecordBuffer();
+  // Latest record of each key
+  private final Map<String, Location> index = new HashMap<String, Location>();
+  // Bytes of the latest record of each key
+  private long live_bytes = 0;
+  // Length of the file once everything queued is written, and the length written so far
+  private long end;
+  private long written;
+  // Number of records appended, and how many of them are on disk
+  private long appended = 0;
+  private long durable = 0;
+  private boolean compaction_requested = false;
+  private boolean closing = false;
+  // Why the commit thread stopped, thrown by every later append and sync
+  private IOException failure;
+  // Why the last background compaction failed, thrown by close
+  private IOException compaction_failure;
+
+  /**
+   * Where the latest record of a key is
+   */
+  private static class Location {
+    long offset;
+    int length;
+  }
+
+  /**
+   * Growable byte array, which a SerializerContext can write a record to
+   */
+  private static class RecordBuffer extends OutputStream {
+    byte[] bytes = new byte[1024];
+    int size = 0;
+
+    @Override
+    public void write (int b) {
+      ensure(1);
+      bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write (byte[] source, int offset, int length) {
+      ensure(length);
+      System.arraycopy(source, offset, bytes, size, length);
+      size += length;
+    }
+
+    void writeInt (int position, int value) {
+      bytes[position] = (byte) (value >>> 24);
+      bytes[position + 1] = (byte) (value >>> 16);
+      bytes[position + 2] = (byte) (value >>> 8);
+      bytes[position + 3] = (byte) value;
+    }
+
+    void ensure (int more) {
+      if (size + more > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+      }
+    }
+  }
+
+  /**
+   * One record read back from the log
+   */
+  public static class Record {
+    private final String key;
+    private final byte[] body;
+    private final int value_offset;
+
+    Record (String key, byte[] body, int value_offset) {
+      this.key = key;
+      this.body = body;
+      this.value_offset = value_offset;
+    }
+
+    /**
+     * @return key the object was appended under
+     */
+    public String getKey () {
+      return key;
+    }
+
+    /**
+     * @return the Json the object was serialized to
+     */
+    public String getJson () {
+      return new String(body, value_offset, body.length - value_offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the object, deserialized anew on every call by the DeserializerContext of the current thread
+     */
+    public Object getValue () throws Exception {
+      return DeserializerContext.forThread().deserialize(body, value_offset, body.length - value_offset);
+    }
+
+    /**
+     * @return number of bytes of the record in the file
+     */
+    int length () {
+      return RECORD_HEADER + body.length;
+    }
+  }
+
+  /**
+   * Reads the records of a log in the order they were appended, from a channel of its own,
+   * so appends and compactions of the log go on while it is read. Closing it closes the channel.
+   */
+  public static class Replay implements Iterator<Record>, Closeable {
+    private final FileChannel channel;
+    private final DataInputStream in;
+    private final CRC32C crc = new CRC32C();
+    private long position;
+    private final long limit;
+
+    Replay (Path file, long limit) throws IOException {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+      channel.position(HEADER);
+      in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+      position = HEADER;
+      this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext () {
+      return position < limit;
+    }
+
+    /**
+     * @throws UncheckedIOException if the record cannot be read or is corrupt
+     */
+    @Override
+    public Record next () {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      try {
+        Record record = read();
+        if (record == null) {
+          throw new IOException("Snapshot log record at " + position + " is corrupt");
+        }
+        return record;
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * @return the next record, or null if it is cut short by the end of the log or does not match its CRC
+     */
+    Record read () throws IOException {
+      if (limit - position < RECORD_HEADER) {
+        return null;
+      }
+      int length = in.readInt();
+      int checksum = in.readInt();
+      if (length < 4 || length > limit - position - RECORD_HEADER) {
+        return null;
+      }
+      byte[] body = new byte[length];
+      in.readFully(body);
+      crc.reset();
+      crc.update(body, 0, length);
+      int key_length = ((body[0] & 0xff) << 24) | ((body[1] & 0xff) << 16) | ((body[2] & 0xff) << 8) | (body[3] & 0xff);
+      if ((int) crc.getValue() != checksum || key_length < 0 || key_length > length - 4) {
+        return null;
+      }
+      position += RECORD_HEADER + length;
+      return new Record(new String(body, 4, key_length, StandardCharsets.UTF_8), body, 4 + key_length);
+    }
+
+    /**
+     * @return offset in the file of the next record
+     */
+    long position () {
+      return position;
+    }
+
+    @Override
+    public void close () throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Open the log in the given file, creating it if it does not exist, with the default compaction threshold
+   */
+  public SnapshotLog (Path file) throws IOException {
+    this(file, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * @param file File of the log, created if it does not exist
+   * @param compaction_threshold Smallest file length in bytes that is compacted in the background, or Long.MAX_VALUE for none
+   */
+  public SnapshotLog (Path file, long compaction_threshold) throws IOException {
+    this.file = file;
+    this.compact_file = file.resolveSibling(file.getFileName() + ".compact");
+    this.compaction_threshold = compaction_threshold;
+    Files.deleteIfExists(compact_file);
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      recover();
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    committer = new Thread(this::commit, "SnapshotLog-commit");
+    committer.setDaemon(true);
+    compactor = new Thread(this::compactInBackground, "SnapshotLog-compact");
+    compactor.setDaemon(true);
+    committer.start();
+    compactor.start();
+  }
+
+  /**
+   * Index the records of the file, or write the header of a new one, and cut off the records a crash left torn
+   * @throws IOException if a record below the synced length is cut short or does not match its CRC
+   */
+  private void recover () throws IOException {
+    long length = channel.size();
+    if (length == 0) {
+      ByteBuffer header = header(HEADER);
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+      channel.force(true);
+      end = written = HEADER;
+      return;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+    while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+    }
+    header.flip();
+    if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+      throw new IOException("Not a snapshot log: " + file);
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Snapshot log version " + version + " is not supported");
+    }
+    long synced = header.getLong();
+
+    try (Replay replay = new Replay(file, length)) {
+      Record record;
+      while (replay.hasNext() && (record = replay.read()) != null) {
+        index(record.getKey(), replay.position() - record.length(), record.length());
+        appended++;
+      }
+      end = written = replay.position();
+    }
+    durable = appended;
+    if (written < synced) {
+      throw new IOException("Snapshot log record at " + written + " was synced but is corrupt or missing: " + file);
+    }
+    if (written < length) {
+      channel.truncate(written);
+      channel.force(true);
+    }
+  }
+
+  /**
+   * @return the header of a log whose records up to synced are on disk
+   */
+  private static ByteBuffer header (long synced) {
+    return ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putLong(synced).flip();
+  }
+
+  /**
+   * @return the synced length, to be written at SYNCED
+   */
+  private static ByteBuffer synced (long synced) {
+    return ByteBuffer.allocate(8).putLong(0, synced);
+  }
+
+  /**
+   * Make the record at the given offset the latest one of key. Called holding this, or while opening the log.
+   */
+  private void index (String key, long offset, int length) {
+    Location location = index.get(key);
+    if (location == null) {
+      location = new Location();
+      index.put(key, location);
+    }
+    else {
+      live_bytes -= location.length;
+    }
+    location.offset = offset;
+    location.length = length;
+    live_bytes += length;
+  }
+
+  /**
+   * Serialize value and queue it to be written under key, without waiting for it to be on disk. Thread safe.
+   * @param key Key of the object, of which compaction keeps only the latest record
+   * @param value Object to be serialized
+   */
+  public void append (String key, Object value) throws Exception {
+    RecordBuffer record = THREAD_RECORD.get();
+    record.size = RECORD_HEADER;
+    byte[] key_bytes = key.getBytes(StandardCharsets.UTF_8);
+    record.ensure(4);
+    record.writeInt(record.size, key_bytes.length);
+    record.size += 4;
+    record.write(key_bytes, 0, key_bytes.length);
+    SerializerContext.forThread().serialize(value, record);
+    int length = record.size - RECORD_HEADER;
+    CRC32C crc = new CRC32C();
+    crc.update(record.bytes, RECORD_HEADER, length);
+    record.writeInt(0, length);
+    record.writeInt(4, (int) crc.getValue());
+
+    synchronized (this) {
+      // Let the commit thread catch up rather than queue without limit
+      while (pending.size > 0 && pending.size + record.size > MAX_PENDING_BYTES && failure == null && !closing) {
+        wait();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      if (closing) {
+        throw new IllegalStateException("SnapshotLog is closed");
+      }
+      pending.write(record.bytes, 0, record.size);
+      index(key, end, record.size);
+      end += record.size;
+      appended++;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Wait until every record appended before the call is on disk. Thread safe.
+   */
+  public synchronized void sync () throws IOException {
+    long target = appended;
+    while (durable < target && failure == null) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the snapshot log to be written");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Read every record appended before the call, once they are on disk, in the order they were appended.
+   * Older records of a key come before its latest one unless a compaction removed them.
+   * @return the records, to be closed once done with
+   */
+  public Replay replay () throws IOException {
+    sync();
+    synchronized (io) {
+      long limit;
+      synchronized (this) {
+        limit = written;
+      }
+      return new Replay(file, limit);
+    }
+  }
+
+  /**
+   * @return number of distinct keys in the log
+   */
+  public synchronized int keyCount () {
+    return index.size();
+  }
+
+  /**
+   * @return length of the file once every record appended is written
+   */
+  public synchronized long length () {
+    return end;
+  }
+
+  /**
+   * Write the records queued by append, one batch and one fsync at a time, until the log is closed
+   */
+  private void commit () {
+    try {
+      while (true) {
+        long batch;
+        synchronized (this) {
+          while (pending.size == 0 && !closing) {
+            wait();
+          }
+          if (pending.size == 0) {
+            return;
+          }
+          RecordBuffer full = pending;
+          pending = writing;
+          writing = full;
+          batch = appended;
+          // Appends waiting for room can go on
+          notifyAll();
+        }
+
+        synchronized (io) {
+          FileChannel target;
+          long position;
+          synchronized (this) {
+            target = channel;
+            position = written;
+          }
+          ByteBuffer buffer = ByteBuffer.wrap(writing.bytes, 0, writing.size);
+          while (buffer.hasRemaining()) {
+            target.write(buffer, position + buffer.position());
+          }
+          target.force(false);
+          // Made durable by the next fsync, so the synced length on disk is never ahead of the records on disk
+          target.write(synced(position + writing.size), SYNCED);
+          synchronized (this) {
+            written = position + writing.size;
+            durable = batch;
+            if (!compaction_requested && needsCompaction()) {
+              compaction_requested = true;
+            }
+            notifyAll();
+          }
+        }
+        writing.size = 0;
+      }
+    }
+    catch (IOException e) {
+      synchronized (this) {
+        failure = e;
+        notifyAll();
+      }
+    }
+    catch (InterruptedException e) {
+      synchronized (this) {
+        failure = new InterruptedIOException("Snapshot log commit thread interrupted");
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return true if the file is past the compaction threshold and more than half of it is older records. Called holding this.
+   */
+  private boolean needsCompaction () {
+    return written >= compaction_threshold && written - HEADER > 2 * live_bytes;
+  }
+
+  private void compactInBackground () {
+    try {
+      while (true) {
+        synchronized (this) {
+          while (!compaction_requested && !closing) {
+            wait();
+          }
+          if (closing) {
+            return;
+          }
+        }
+        try {
+          compact();
+        }
+        catch (IOException e) {
+          // Keep the log as it is, uncompacted from now on
+          synchronized (this) {
+            compaction_failure = e;
+          }
+          return;
+        }
+        finally {
+          // Records appended during the compaction may call for another one
+          synchronized (this) {
+            compaction_requested = needsCompaction();
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+    }
+  }
+
+  /**
+   * Rewrite the log with only the latest record of each key, and the records appended while it is rewritten.
+   * Appends go on meanwhile, and only wait for the end of the log to be copied over. Thread safe.
+   */
+  public void compact () throws IOException {
+    synchronized (compaction) {
+      // Copy the latest records below the length written so far, in the order they were appended
+      long start;
+      FileChannel source;
+      long[] offsets;
+      synchronized (this) {
+        start = written;
+        source = channel;
+        offsets = new long[index.size()];
+        int count = 0;
+        for (Location location : index.values()) {
+          if (location.offset < start) {
+            offsets[count++] = location.offset;
+          }
+        }
+        offsets = Arrays.copyOf(offsets, count);
+      }
+      Arrays.sort(offsets);
+
+      long[] moved = new long[offsets.length];
+      FileChannel target = FileChannel.open(compact_file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        target.write(header(HEADER));
+        ByteBuffer length = ByteBuffer.allocate(4);
+        for (int i = 0; i < offsets.length; i++) {
+          length.clear();
+          while (length.hasRemaining() && source.read(length, offsets[i] + length.position()) >= 0) {
+          }
+          moved[i] = target.position();
+          transfer(source, offsets[i], RECORD_HEADER + length.getInt(0), target);
+        }
+
+        // Copy what was written meanwhile, and switch to the new file before anything more is written
+        synchronized (io) {
+          synchronized (this) {
+            long delta = target.position() - start;
+            transfer(source, start, written - start, target);
+            // The whole file is forced before it replaces the log
+            target.write(synced(target.size()), SYNCED);
+            target.force(true);
+            Files.move(compact_file, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+            for (Location location : index.values()) {
+              location.offset = location.offset >= start ? location.offset + delta : moved[Arrays.binarySearch(offsets, location.offset)];
+            }
+            written += delta;
+            end += delta;
+            channel = target;
+          }
+        }
+      }
+      catch (IOException | RuntimeException e) {
+        target.close();
+        Files.deleteIfExists(compact_file);
+        throw e;
+      }
+      source.close();
+    }
+  }
+
+  private static void transfer (FileChannel source, long position, long count, FileChannel target) throws IOException {
+    while (count > 0) {
+      long moved = source.transferTo(position, count, target);
+      position += moved;
+      count -= moved;
+    }
+  }
+
+  /**
+   * Make the rename of the compacted file durable, where the platform can open a directory
+   */
+  private void forceDirectory () {
+    Path directory = file.toAbsolutePath().getParent();
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+    catch (IOException e) {
+      // Windows cannot open directories, and makes renames durable itself
+    }
+  }
+
+  /**
+   * Write every record appended so far, stop the compaction thread once its compaction is done, and close the file
+   */
+  @Override
+  public void close () throws IOException {
+    synchronized (this) {
+      if (closing) {
+        return;
+      }
+      closing = true;
+      notifyAll();
+    }
+    try {
+      committer.join();
+      compactor.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (io) {
+      channel.close();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    if (compaction_failure != null) {
+      throw compaction_failure;
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Instances read back from a message, for readers that only build some of its objects, such as LazyGraph.
+ * An InstanceTable grows its array to the highest id put, so building the last object of a snapshot of a million
+ * objects would allocate an array of a million. This table keeps ids in an open addressing table of plain arrays
+ * instead, which only grows with the number of instances put.
+ **/
+
+import java.util.*;
+
+public class SparseInstanceTable extends InstanceTable {
+
+  // Open addressing table, half full at most: each id and its instance in the same slot, null for empty slots
+  private int[] ids = new int[32];
+  private Object[] instances = new Object[32];
+  private int count = 0;
+  // One more than the highest id put so far
+  private int size = 0;
+
+  @Override
+  public void put (int id, Object instance) {
+    int slot = find(id);
+    if (instances[slot] == null) {
+      ids[slot] = id;
+      count++;
+    }
+    instances[slot] = instance;
+    if (id >= size) {
+      size = id + 1;
+    }
+    if (count * 2 > ids.length) {
+      rehash(ids.length * 2);
+    }
+  }
+
+  @Override
+  public Object get (int id) {
+    return instances[find(id)];
+  }
+
+  @Override
+  public boolean has (int id) {
+    return instances[find(id)] != null;
+  }
+
+  @Override
+  public int size () {
+    return size;
+  }
+
+  @Override
+  public void clear () {
+    Arrays.fill(instances, null);
+    count = 0;
+    size = 0;
+  }
+
+  /**
+   * @return the slot holding id, or the empty slot it would go in
+   */
+  private int find (int id) {
+    int mask = ids.length - 1;
+    int slot = hash(id) & mask;
+    while (instances[slot] != null && ids[slot] != id) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash (int capacity) {
+    int[] old_ids = ids;
+    Object[] old_instances = instances;
+    ids = new int[capacity];
+    instances = new Object[capacity];
+    for (int i = 0; i < old_ids.length; i++) {
+      if (old_instances[i] != null) {
+        int slot = find(old_ids[i]);
+        ids[slot] = old_ids[i];
+        instances[slot] = old_instances[i];
+      }
+    }
+  }
+
+  private static int hash (int id) {
+    // Spread the bits into the low ones the mask keeps
+    int h = id * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Writer that encodes what is written to it as UTF-8 into a growable byte array, kept between uses.
+ * Unlike an OutputStreamWriter over a ByteArrayOutputStream, it allocates nothing once the array has grown
+ * to the size of the largest message, which is what lets a SerializerContext reuse it for every message.
+ * Unpaired surrogates are encoded as '?', like the JDK encoder does.
+ **/
+
+import java.io.*;
+import java.util.Arrays;
+
+public class Utf8Buffer extends Writer {
+
+  private byte[] bytes = new byte[1024];
+  private int size = 0;
+  // High surrogate written last, waiting for its low surrogate, or 0
+  private char high = 0;
+
+  @Override
+  public void write (int c) {
+    ensure(4);
+    encode((char) c);
+  }
+
+  @Override
+  public void write (char[] chars, int offset, int length) {
+    ensure(length * 3 + 4);
+    int end = offset + length;
+    int i = offset;
+    if (high == 0) {
+      // Json is mostly ASCII: copy it in a loop over locals, which the JIT keeps in registers
+      byte[] out = bytes;
+      int next = size;
+      for (char c; i < end && (c = chars[i]) < 0x80; i++) {
+        out[next++] = (byte) c;
+      }
+      size = next;
+    }
+    for (; i < end; i++) {
+      encode(chars[i]);
+    }
+  }
+
+  @Override
+  public void write (String str, int offset, int length) {
+    ensure(length * 3 + 4);
+    int end = offset + length;
+    int i = offset;
+    if (high == 0) {
+      byte[] out = bytes;
+      int next = size;
+      for (char c; i < end && (c = str.charAt(i)) < 0x80; i++) {
+        out[next++] = (byte) c;
+      }
+      size = next;
+    }
+    for (; i < end; i++) {
+      encode(str.charAt(i));
+    }
+  }
+
+  @Override
+  public void flush () {
+  }
+
+  /**
+   * Does nothing, the buffer stays usable
+   */
+  @Override
+  public void close () {
+  }
+
+  /**
+   * Forget what was written, keeping the array
+   */
+  public void reset () {
+    size = 0;
+    high = 0;
+  }
+
+  /**
+   * @return number of bytes written since the last reset
+   */
+  public int size () {
+    return size;
+  }
+
+  /**
+   * @return the array holding the bytes written since the last reset from 0 to size(), overwritten by later uses
+   */
+  public byte[] array () {
+    return bytes;
+  }
+
+  /**
+   * Write the bytes written since the last reset to the given OutputStream
+   */
+  public void writeTo (OutputStream out) throws IOException {
+    out.write(bytes, 0, size);
+  }
+
+  private void ensure (int more) {
+    if (size + more > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+    }
+  }
+
+  private void encode (char c) {
+    if (high != 0) {
+      char first = high;
+      high = 0;
+      if (Character.isLowSurrogate(c)) {
+        int code_point = Character.toCodePoint(first, c);
+        bytes[size++] = (byte) (0xf0 | code_point >> 18);
+        bytes[size++] = (byte) (0x80 | (code_point >> 12 & 0x3f));
+        bytes[size++] = (byte) (0x80 | (code_point >> 6 & 0x3f));
+        bytes[size++] = (byte) (0x80 | (code_point & 0x3f));
+        return;
+      }
+      bytes[size++] = '?';
+    }
+    if (c < 0x80) {
+      bytes[size++] = (byte) c;
+    }
+    else if (c < 0x800) {
+      bytes[size++] = (byte) (0xc0 | c >> 6);
+      bytes[size++] = (byte) (0x80 | (c & 0x3f));
+    }
+    else if (Character.isHighSurrogate(c)) {
+      high = c;
+    }
+    else if (Character.isLowSurrogate(c)) {
+      bytes[size++] = '?';
+    }
+    else {
+      bytes[size++] = (byte) (0xe0 | c >> 12);
+      bytes[size++] = (byte) (0x80 | (c >> 6 & 0x3f));
+      bytes[size++] = (byte) (0x80 | (c & 0x3f));
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Reader that decodes UTF-8 from a byte array or an InputStream, and can be pointed at the next message
+ * once done with one. Unlike an InputStreamReader, it allocates nothing per message once its buffer exists,
+ * which is what lets a DeserializerContext reuse it for every message.
+ * Malformed input is decoded as one U+FFFD per maximal invalid subpart, as Unicode recommends and the JDK decoder does.
+ **/
+
+import java.io.*;
+
+public class Utf8Reader extends Reader {
+
+  // Bytes being decoded: the array of the message, or the buffer filled from the stream
+  private byte[] bytes;
+  private int position = 0;
+  private int limit = 0;
+  // Stream being read, or null when decoding an array
+  private InputStream stream;
+  private byte[] buffer;
+  // Low surrogate of a supplementary character whose high surrogate was returned last, or 0
+  private char low = 0;
+
+  /**
+   * Decode the given bytes next
+   */
+  public void reset (byte[] source, int offset, int length) {
+    bytes = source;
+    position = offset;
+    limit = offset + length;
+    stream = null;
+    low = 0;
+  }
+
+  /**
+   * Decode what the given stream holds next. The stream is not closed.
+   */
+  public void reset (InputStream source) {
+    if (buffer == null) {
+      buffer = new byte[8192];
+    }
+    bytes = buffer;
+    position = 0;
+    limit = 0;
+    stream = source;
+    low = 0;
+  }
+
+  @Override
+  public int read (char[] chars, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    int count = 0;
+    if (low != 0) {
+      chars[offset + count++] = low;
+      low = 0;
+    }
+    while (count < length) {
+      // Refill once every byte is decoded, unless that would block with chars already read
+      if (position >= limit && stream != null && (count == 0 || stream.available() > 0)) {
+        fill();
+      }
+      if (position >= limit) {
+        break;
+      }
+      // Json is mostly ASCII: copy it in a loop over locals, which the JIT keeps in registers
+      byte[] in = bytes;
+      int next = position;
+      int end = Math.min(limit, next + length - count);
+      int out = offset + count;
+      while (next < end && in[next] >= 0) {
+        chars[out++] = (char) in[next++];
+      }
+      count += next - position;
+      position = next;
+      if (count == length || position >= limit) {
+        continue;
+      }
+      int b = bytes[position] & 0xff;
+      int needed = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+      if (limit - position < needed && stream != null) {
+        // Finish the sequence on the next read rather than block with chars already read
+        if (count > 0) {
+          break;
+        }
+        while (limit - position < needed && fill()) {
+        }
+      }
+      int code_point = decode(b, needed);
+      if (code_point > 0xffff) {
+        chars[offset + count++] = Character.highSurrogate(code_point);
+        if (count == length) {
+          low = Character.lowSurrogate(code_point);
+          break;
+        }
+        chars[offset + count++] = Character.lowSurrogate(code_point);
+      }
+      else {
+        chars[offset + count++] = (char) code_point;
+      }
+    }
+    return count == 0 ? -1 : count;
+  }
+
+  /**
+   * Nothing to release. The stream of the message is left open.
+   */
+  @Override
+  public void close () {
+  }
+
+  /**
+   * Decode the sequence starting with lead byte b at position
+   * @return its code point, U+FFFD if it is malformed
+   */
+  private int decode (int b, int needed) {
+    // The second byte also rules out overlong forms, surrogates and code points past U+10FFFF,
+    // so every byte of a sequence that can never be valid is replaced on its own
+    int second = position + 1 < limit ? bytes[position + 1] & 0xff : 0;
+    int low = b == 0xe0 ? 0xa0 : b == 0xf0 ? 0x90 : 0x80;
+    int high = b == 0xed ? 0x9f : b == 0xf4 ? 0x8f : 0xbf;
+    if (needed == 1 || b < 0xc2 || b > 0xf4 || second < low || second > high) {
+      position++;
+      return 0xfffd;
+    }
+    // A valid start cut short by a byte that does not continue it, or by the end, is replaced as a whole
+    int code_point = needed == 2 ? b & 0x1f : needed == 3 ? b & 0x0f : b & 0x07;
+    for (int i = 1; i < needed; i++) {
+      int next = position + i < limit ? bytes[position + i] & 0xff : 0;
+      if ((next & 0xc0) != 0x80) {
+        position += i;
+        return 0xfffd;
+      }
+      code_point = code_point << 6 | (next & 0x3f);
+    }
+    position += needed;
+    return code_point;
+  }
+
+  /**
+   * Move the bytes left to the start of the buffer and read more after them
+   * @return false if the stream has ended
+   */
+  private boolean fill () throws IOException {
+    int left = limit - position;
+    System.arraycopy(buffer, position, buffer, 0, left);
+    position = 0;
+    limit = left;
+    int read = stream.read(buffer, limit, buffer.length - limit);
+    if (read < 0) {
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Tests the codecs CodecProcessor generates for classes annotated with GenerateCodec
+ */
+
+import static org.junit.Assert.*;
+import java.lang.reflect.Field;
+import java.util.*;
+import org.junit.Test;
+
+public class CodecTest {
+
+	public static class Base {
+		private int hidden = 1;
+		final String name;
+
+		Base () {
+			name = "base";
+		}
+	}
+
+	@GenerateCodec
+	public static class Derived extends Base {
+		private static class Secret {
+		}
+
+		private final long[] values = { 1, 2 };
+		char letter = 'a';
+		private float ratio;
+		private Object secret = new Secret();
+		// Same name as the field of Base
+		private int hidden = 2;
+	}
+
+	/**
+	 * Read a field of source through a Field of its own, made accessible
+	 */
+	private static Object reflectiveGet (ClassMetadata metadata, int i, Object source) throws Exception {
+		Field field = metadata.fields[i].getDeclaringClass().getDeclaredField(metadata.names[i]);
+		field.setAccessible(true);
+		return field.get(source);
+	}
+
+	@Test
+	public void testGeneratedCodecIsUsed () throws Exception {
+		ClassMetadata metadata = ClassMetadata.forClass(Object1.class);
+		assertNotNull(metadata.codec);
+		Object1 instance = new Object1();
+		for (int i = 0; i < metadata.fields.length; i++) {
+			assertEquals(Codec.class, metadata.accessors[i].getClass().getEnclosingClass());
+			// The codec does not need the private fields made accessible
+			assertFalse(metadata.fields[i].canAccess(instance));
+		}
+		assertTrue(Deserializer.newInstance(Object1.class, 0) instanceof Object1);
+	}
+
+	@Test
+	public void testCodecMatchesReflection () throws Exception {
+		Object2 original = new Object2();
+		original.setB(true);
+		original.setObj1X(42);
+		original.setObj1Y(-1.5f);
+
+		for (Object source : new Object[] { original, original.getObj1() }) {
+			ClassMetadata metadata = ClassMetadata.forClass(source.getClass());
+			for (int i = 0; i < metadata.fields.length; i++) {
+				assertEquals(reflectiveGet(metadata, i, source), metadata.accessors[i].get(source));
+			}
+		}
+
+		Object2 after = (Object2) Deserializer.deserializeObject(Serializer.serializeObject(original));
+		assertTrue(after.getB());
+		assertEquals(42, after.getObj1().getX());
+		assertEquals(-1.5f, after.getObj1().getY(), 0f);
+	}
+
+	@Test
+	public void testPrivateFinalAndInheritedFields () throws Exception {
+		ClassMetadata metadata = ClassMetadata.forClass(Derived.class);
+		assertNotNull(metadata.codec);
+		Derived original = new Derived();
+		original.letter = 'z';
+		original.ratio = Float.NaN;
+		for (int i = 0; i < metadata.fields.length; i++) {
+			assertEquals(reflectiveGet(metadata, i, original), metadata.accessors[i].get(original));
+		}
+
+		// Final fields are written too, and each hidden field keeps its own value
+		int values = metadata.indexOf("values", Derived.class.getName(), 0);
+		metadata.accessors[values].set(original, new long[] { 3 });
+		assertArrayEquals(new long[] { 3 }, original.values);
+		int base_hidden = metadata.indexOf("hidden", Base.class.getName(), 0);
+		metadata.accessors[base_hidden].setInt(original, 10);
+		assertEquals(10, ((Base) original).hidden);
+		assertEquals(2, original.hidden);
+
+		// Typed methods widen as Field does
+		int letter = metadata.indexOf("letter", Derived.class.getName(), 0);
+		assertEquals((long) 'z', metadata.accessors[letter].getLong(original));
+		int ratio = metadata.indexOf("ratio", Derived.class.getName(), 0);
+		metadata.accessors[ratio].setInt(original, 7);
+		assertEquals(7f, original.ratio, 0f);
+		try {
+			metadata.accessors[letter].setInt(original, 7);
+			fail("int should not narrow to char");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		Derived after = (Derived) Deserializer.deserializeObject(Serializer.serializeObject(original));
+		assertArrayEquals(new long[] { 3 }, after.values);
+		assertEquals(10, ((Base) after).hidden);
+		assertEquals(2, after.hidden);
+		assertEquals("base", after.name);
+		assertEquals(7f, after.ratio, 0f);
+		assertEquals(Derived.Secret.class, after.secret.getClass());
+	}
+
+	@Test
+	public void testFallBackToReflection () throws Exception {
+		// Not annotated
+		ClassMetadata metadata = ClassMetadata.forClass(SerializerTest.Node.class);
+		assertNull(metadata.codec);
+		assertNotEquals(Codec.class, metadata.accessors[0].getClass().getEnclosingClass());
+		assertTrue(metadata.fields[0].canAccess(new SerializerTest.Node()));
+
+		// Typed methods of another type than the field go through the Field, which widens
+		int value = metadata.indexOf("value", SerializerTest.Node.class.getName(), 0);
+		SerializerTest.Node node = new SerializerTest.Node();
+		metadata.accessors[value].setInt(node, 12);
+		assertEquals(12L, metadata.accessors[value].getLong(node));
+		assertEquals(12.0, metadata.accessors[value].getDouble(node), 0.0);
+		try {
+			metadata.accessors[value].getShort(node);
+			fail("int should not narrow to short");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		// Object5 has a getter for items but no setter, which makes no difference to its codec
+		metadata = ClassMetadata.forClass(Object5.class);
+		assertNotNull(metadata.codec);
+		Object5 object = new Object5();
+		metadata.accessors[0].set(object, new ArrayList<String>(Arrays.asList("a")));
+		assertEquals(Arrays.asList("a"), metadata.accessors[0].get(object));
+	}
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Tests that SerializerContext and DeserializerContext read and write the same documents as Serializer and Deserializer,
+ * message after message, and that Utf8Buffer and Utf8Reader agree with the JDK codec
+ */
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.Test;
+
+public class ContextTest {
+
+	public static class Holder {
+		private int count;
+		private String label;
+		private Object item;
+		private Object[] items = new Object[3];
+		private List<Object> list = new ArrayList<Object>();
+	}
+
+	@Test
+	public void testSameDocumentAsSerializer () throws Exception {
+		Object graph = buildGraph(20);
+		SerializerContext context = new SerializerContext();
+		String expected = Serializer.serializeObject(graph);
+		assertEquals(expected, context.serialize(graph));
+		// Second use starts from a cleared table
+		assertEquals(expected, context.serialize(graph));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		context.serialize(graph, bytes);
+		assertEquals(expected, bytes.toString("UTF-8"));
+
+		StringWriter writer = new StringWriter();
+		context.serialize(graph, writer);
+		assertEquals(expected, writer.toString());
+	}
+
+	@Test
+	public void testReuseAcrossDifferentGraphs () throws Exception {
+		SerializerContext serializer = new SerializerContext();
+		DeserializerContext deserializer = new DeserializerContext();
+		Holder big = new Holder();
+		big.item = new Object1();
+		big.items[0] = new Object2();
+		big.items[1] = big.item;
+		big.list.add(big.items[0]);
+		Holder small = new Holder();
+		small.count = 7;
+		small.label = "small";
+
+		Holder first = (Holder) deserializer.deserialize(serializer.serialize(big));
+		assertSame(first.item, first.items[1]);
+		assertSame(first.items[0], first.list.get(0));
+
+		// Ids and instances of the bigger graph must not leak into the smaller one
+		String json = serializer.serialize(small);
+		assertEquals(Serializer.serializeObject(small), json);
+		Holder second = (Holder) deserializer.deserialize(json);
+		assertEquals(7, second.count);
+		assertEquals("small", second.label);
+		assertNull(second.item);
+		assertNull(second.items[0]);
+		assertTrue(second.list.isEmpty());
+	}
+
+	@Test
+	public void testDeserializeEverySource () throws Exception {
+		Holder holder = new Holder();
+		holder.label = "caf\u00e9 \u6f22\u5b57 \ud83d\ude00";
+		holder.item = new Object3();
+		String json = Serializer.serializeObject(holder);
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		DeserializerContext context = DeserializerContext.forThread();
+
+		assertEquals(holder.label, ((Holder) context.deserialize(json)).label);
+		assertEquals(holder.label, ((Holder) context.deserialize(new StringReader(json))).label);
+		assertEquals(holder.label, ((Holder) context.deserialize(new ByteArrayInputStream(bytes))).label);
+		byte[] padded = new byte[bytes.length + 6];
+		System.arraycopy(bytes, 0, padded, 3, bytes.length);
+		assertEquals(holder.label, ((Holder) context.deserialize(padded, 3, bytes.length)).label);
+		// A stream handing out one byte at a time splits every multi-byte sequence
+		InputStream trickle = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+			@Override
+			public int read (byte[] b, int offset, int length) throws IOException {
+				return super.read(b, offset, Math.min(length, 1));
+			}
+		};
+		assertEquals(holder.label, ((Holder) context.deserialize(trickle)).label);
+	}
+
+	@Test
+	public void testContextIsNotReentrant () throws Exception {
+		final SerializerContext context = new SerializerContext();
+		Writer reentrant = new StringWriter() {
+			@Override
+			public void write (String str, int offset, int length) {
+				try {
+					context.serialize(new Object1());
+					fail("Nested serialize should be refused");
+				}
+				catch (IllegalStateException e) {
+				}
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				super.write(str, offset, length);
+			}
+		};
+		context.serialize(new Object1(), reentrant);
+		// Refusing the nested call leaves the context usable
+		assertEquals(Serializer.serializeObject(new Object1()), context.serialize(new Object1()));
+	}
+
+	@Test
+	public void testUtf8MatchesJdk () throws Exception {
+		String text = "a\u00e9\u07ff\u0800\uffff\ud800\udc00\udbff\udfff z \ud800 x \udc00";
+		Utf8Buffer buffer = new Utf8Buffer();
+		buffer.write(text);
+		byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(expected, Arrays.copyOf(buffer.array(), buffer.size()));
+
+		byte[] malformed = { 'a', (byte) 0xc3, 'b', (byte) 0xe2, (byte) 0x82, (byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80, (byte) 0xc0, (byte) 0x80, (byte) 0xe2, (byte) 0x82 };
+		Utf8Reader reader = new Utf8Reader();
+		reader.reset(malformed, 0, malformed.length);
+		assertEquals(new String(malformed, StandardCharsets.UTF_8), readAll(reader));
+		reader.reset(expected, 0, expected.length);
+		assertEquals(new String(expected, StandardCharsets.UTF_8), readAll(reader));
+	}
+
+	@Test
+	public void testSteadyStateAllocatesLess () throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		Object graph = buildGraph(100);
+		OutputStream sink = new ByteArrayOutputStream() {
+			@Override
+			public void write (byte[] b, int offset, int length) {
+			}
+		};
+		SerializerContext context = new SerializerContext();
+		long thread = Thread.currentThread().getId();
+		long[] allocated = new long[2];
+		for (int round = 0; round < 2; round++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < 200; i++) {
+				Serializer.serializeObject(graph, sink);
+			}
+			long between = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < 200; i++) {
+				context.serialize(graph, sink);
+			}
+			allocated[0] = between - before;
+			allocated[1] = threads.getThreadAllocatedBytes(thread) - between;
+		}
+		assertTrue(allocated[1] + " bytes against " + allocated[0], allocated[1] < allocated[0]);
+	}
+
+	/**
+	 * An Object[] of Object2 and Object3, where every Object2 is followed by its Object1
+	 */
+	private static Object buildGraph (int objects) {
+		Object[] array = new Object[objects];
+		for (int i = 0; i + 1 < objects; i += 2) {
+			Object2 object2 = new Object2();
+			object2.setB(i % 4 == 0);
+			object2.setObj1X(i);
+			object2.setObj1Y(i / 3f);
+			array[i] = object2;
+			array[i + 1] = i % 8 == 2 ? new Object3() : object2.getObj1();
+		}
+		return array;
+	}
+
+	private static String readAll (Reader reader) throws IOException {
+		StringBuilder text = new StringBuilder();
+		char[] chars = new char[3];
+		int count;
+		while ((count = reader.read(chars, 0, chars.length)) >= 0) {
+			text.append(chars, 0, count);
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Tests Deserializer.java functionality
+ */
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import org.junit.Test;
+
+public class DeserializerTest {
+
+	/**
+	 * Has no no-arg constructor, and its constructor counts the instances it creates
+	 */
+	public static class Point {
+		static int constructed = 0;
+		private final int x;
+		private final Point origin;
+		private String label = "unset";
+
+		public Point (int x, Point origin) {
+			this.x = x;
+			this.origin = origin;
+			constructed++;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testDeserializeObject () throws Exception {
+		Object1 original = new Object1();
+		original.setX(0);
+		original.setY(1);
+		
+		String origSerial = Serializer.serializeObject(original);
+		Object1 after = (Object1) Deserializer.deserializeObject(origSerial);
+		
+		// Compare class names and fields
+		Class originalClass = original.getClass();
+		Class afterClass = after.getClass();
+		
+		assertTrue(afterClass.equals(originalClass));
+		assertTrue(after.getX() == original.getX());
+		assertTrue(after.getY() == original.getY());
+		
+	}
+
+	@Test
+	public void testStreamingMatchesTwoPass () throws Exception {
+		Object4 original = new Object4();
+		original.setObj1Arr0(1, 2.5f);
+		original.setObj1Arr1(3, 4.5f);
+		String origSerial = Serializer.serializeObject(original);
+
+		Object4 twoPass = (Object4) Deserializer.deserializeObject(origSerial);
+		Object4 fromReader = (Object4) Deserializer.deserializeObject(new StringReader(origSerial));
+		Object4 fromStream = (Object4) Deserializer.deserializeObject(new ByteArrayInputStream(origSerial.getBytes("UTF-8")));
+
+		// Serializing each result again gives back the same document
+		assertEquals(origSerial, Serializer.serializeObject(twoPass));
+		assertEquals(origSerial, Serializer.serializeObject(fromReader));
+		assertEquals(origSerial, Serializer.serializeObject(fromStream));
+	}
+
+	@Test
+	public void testStreamingResolvesForwardReferences () throws Exception {
+		// Every node references the next one, which is only read after it, and the last one the first
+		SerializerTest.Node first = new SerializerTest.Node();
+		first.setNext(new SerializerTest.Node());
+		first.getNext().setNext(first);
+
+		SerializerTest.Node after = (SerializerTest.Node) Deserializer.deserializeObject(new StringReader(Serializer.serializeObject(first)));
+		assertNotSame(after, after.getNext());
+		assertSame(after, after.getNext().getNext());
+	}
+
+	@Test
+	public void testPrimitiveArrays () throws Exception {
+		Object[] original = new Object[] {
+			new boolean[] { true, false },
+			new byte[] { -128, 0, 127 },
+			new char[] { 'a', '\u20ac' },
+			new short[] { Short.MIN_VALUE, 7 },
+			new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE },
+			new long[] { Long.MIN_VALUE, Long.MAX_VALUE },
+			new float[] { 1.1f, Float.NaN, Float.NEGATIVE_INFINITY, Float.MIN_VALUE },
+			new double[] { 0.1, Double.NaN, Double.POSITIVE_INFINITY, Double.MAX_VALUE }
+		};
+		String origSerial = Serializer.serializeObject(original);
+
+		Object[] twoPass = (Object[]) Deserializer.deserializeObject(origSerial);
+		Object[] streamed = (Object[]) Deserializer.deserializeObject(new StringReader(origSerial));
+		for (int i = 0; i < original.length; i++) {
+			assertTrue(Objects.deepEquals(original[i], twoPass[i]));
+			assertTrue(Objects.deepEquals(original[i], streamed[i]));
+		}
+	}
+
+	@Test
+	public void testPrimitiveArrayWithEntryObjects () throws Exception {
+		// Primitive arrays written with one JsonObject per entry are still read
+		String origSerial = "{\"objects\":[{\"class\":\"[I\",\"id\":\"0\",\"type\":\"array\",\"length\":\"2\","
+				+ "\"entries\":[{\"value\":\"4\"},{\"value\":\"5\"}]}]}";
+
+		assertArrayEquals(new int[] { 4, 5 }, (int[]) Deserializer.deserializeObject(origSerial));
+		assertArrayEquals(new int[] { 4, 5 }, (int[]) Deserializer.deserializeObject(new StringReader(origSerial)));
+	}
+
+	/**
+	 * Has a field of every primitive type
+	 */
+	public static class Primitives {
+		private boolean flag;
+		private byte b;
+		private char c;
+		private short s;
+		private int i;
+		private long l;
+		private float f;
+		private double d;
+		private Object none;
+	}
+
+	@Test
+	public void testNumericIdsAndValues () throws Exception {
+		Primitives original = new Primitives();
+		original.flag = true;
+		original.b = -8;
+		original.c = '"';
+		original.s = Short.MIN_VALUE;
+		original.i = 7;
+		original.l = Long.MAX_VALUE;
+		original.f = 0.1f;
+		original.d = Double.NEGATIVE_INFINITY;
+
+		String origSerial = Serializer.serializeObject(original);
+		assertTrue(origSerial.contains("\"version\":2"));
+		assertTrue(origSerial.contains("\"id\":0"));
+		assertTrue(origSerial.contains("\"value\":-32768"));
+		assertTrue(origSerial.contains("\"value\":34"));
+		assertTrue(origSerial.contains("\"reference\":null"));
+
+		Primitives[] after = {
+			(Primitives) Deserializer.deserializeObject(origSerial),
+			(Primitives) Deserializer.deserializeObject(new StringReader(origSerial)) };
+		for (Primitives p : after) {
+			assertTrue(p.flag);
+			assertEquals(original.b, p.b);
+			assertEquals(original.c, p.c);
+			assertEquals(original.s, p.s);
+			assertEquals(original.i, p.i);
+			assertEquals(original.l, p.l);
+			assertEquals(original.f, p.f, 0f);
+			assertEquals(original.d, p.d, 0d);
+			assertNull(p.none);
+		}
+	}
+
+	@Test
+	public void testStringIdsStillRead () throws Exception {
+		// Documents written before ids, references and values were Json numbers
+		String origSerial = "{\"objects\":[{\"class\":\"[Ljava.lang.Object;\",\"id\":\"0\",\"type\":\"array\",\"length\":\"3\","
+				+ "\"entries\":[{\"reference\":\"1\"},{\"reference\":\"2\"},{\"reference\":\"null\"}]},"
+				+ "{\"class\":\"SerializerTest$Node\",\"id\":\"1\",\"type\":\"object\",\"fields\":["
+				+ "{\"name\":\"value\",\"declaringclass\":\"SerializerTest$Node\",\"value\":\"9\"},"
+				+ "{\"name\":\"next\",\"declaringclass\":\"SerializerTest$Node\",\"reference\":\"1\"},"
+				+ "{\"name\":\"shared\",\"declaringclass\":\"SerializerTest$Node\",\"reference\":\"null\"}]},"
+				+ "{\"class\":\"[S\",\"id\":\"2\",\"type\":\"array\",\"length\":\"1\",\"entries\":[{\"value\":\"-3\"}]}]}";
+
+		Object[] twoPass = (Object[]) Deserializer.deserializeObject(origSerial);
+		Object[] streamed = (Object[]) Deserializer.deserializeObject(new StringReader(origSerial));
+		for (Object[] after : new Object[][] { twoPass, streamed }) {
+			SerializerTest.Node node = (SerializerTest.Node) after[0];
+			assertSame(node, node.getNext());
+			assertArrayEquals(new short[] { -3 }, (short[]) after[1]);
+			assertNull(after[2]);
+		}
+	}
+
+	@Test
+	public void testDeserializeAll () throws Exception {
+		Object1 shared = new Object1();
+		shared.setX(4);
+		Object[] holder = { shared };
+		List<Object> roots = Arrays.asList(shared, holder, null, "text", holder);
+
+		String origSerial = Serializer.serializeAll(roots);
+		List<List<Object>> results = Arrays.asList(
+				Deserializer.deserializeAll(origSerial),
+				Deserializer.deserializeAll(new StringReader(origSerial)),
+				Deserializer.deserializeAll(new ByteArrayInputStream(origSerial.getBytes("UTF-8"))));
+		for (List<Object> after : results) {
+			assertEquals(5, after.size());
+			assertEquals(4, ((Object1) after.get(0)).getX());
+			assertSame(after.get(0), ((Object[]) after.get(1))[0]);
+			assertNull(after.get(2));
+			assertEquals("text", after.get(3));
+			assertSame(after.get(1), after.get(4));
+		}
+
+		// A document with a single root is a batch of one
+		List<Object> single = Deserializer.deserializeAll(Serializer.serializeObject(shared));
+		assertEquals(1, single.size());
+		assertEquals(4, ((Object1) single.get(0)).getX());
+	}
+
+	@Test
+	public void testClassWithoutNoArgConstructor () throws Exception {
+		Point original = new Point(3, new Point(0, null));
+		original.label = null;
+		int constructed = Point.constructed;
+
+		Point after = (Point) Deserializer.deserializeObject(Serializer.serializeObject(original));
+		assertEquals(3, after.x);
+		assertEquals(0, after.origin.x);
+		assertNull(after.origin.origin);
+		assertNull(after.label);
+		// Fields that were never written keep their defaults, the constructor and initializers do not run
+		assertEquals(constructed, Point.constructed);
+
+		Point binary = (Point) roundTrip(after.origin, Format.BINARY);
+		assertEquals("unset", binary.label);
+		assertSame(ClassMetadata.forClass(Point.class).instantiator(), ClassMetadata.forClass(Point.class).instantiator());
+	}
+
+	private static Object roundTrip (Object original, Format format) throws Exception {
+		java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
+		Serializer.serializeObject(original, output, format);
+		return Deserializer.deserializeObject(new ByteArrayInputStream(output.toByteArray()), format);
+	}
+
+}
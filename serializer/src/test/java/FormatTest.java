@@ -0,0 +1,130 @@
+/**
+ * Tests Format.java functionality for the JSON and binary wire formats
+ */
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Objects;
+import org.junit.Test;
+
+public class FormatTest {
+
+	@Test
+	public void testBinaryRoundTrip () throws Exception {
+		Object2 original = new Object2();
+		original.setB(true);
+		original.setObj1X(-7);
+		original.setObj1Y(2.5f);
+
+		Object2 after = (Object2) roundTrip(original, Format.BINARY);
+		assertTrue(after.getB());
+		assertEquals(-7, after.getObj1().getX());
+		assertEquals(2.5f, after.getObj1().getY(), 0f);
+	}
+
+	@Test
+	public void testBinaryArraysAndCycles () throws Exception {
+		SerializerTest.Node first = new SerializerTest.Node();
+		first.setNext(new SerializerTest.Node());
+		first.getNext().setNext(first);
+		Object[] original = new Object[] { new int[] { 1, -2, 3 }, new double[] { 0.5, Double.NaN }, new byte[] { 9 },
+				new char[] { 'x' }, new boolean[] { true, false }, null, first, first };
+
+		Object[] after = (Object[]) roundTrip(original, Format.BINARY);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(Objects.deepEquals(original[i], after[i]));
+		}
+		assertNull(after[5]);
+		SerializerTest.Node node = (SerializerTest.Node) after[6];
+		assertSame(node, after[7]);
+		assertSame(node, node.getNext().getNext());
+	}
+
+	@Test
+	public void testBinaryMessagesOnOneStream () throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (int i = 0; i < 3; i++) {
+			Object1 obj1 = new Object1();
+			obj1.setX(i);
+			Serializer.serializeObject(obj1, output, Format.BINARY);
+		}
+
+		ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i, ((Object1) Deserializer.deserializeObject(input, Format.BINARY)).getX());
+		}
+		assertEquals(-1, input.read());
+	}
+
+	@Test
+	public void testBinaryIsSmallerThanJson () throws Exception {
+		Object1[] original = new Object1[1000];
+		for (int i = 0; i < original.length; i++) {
+			original[i] = new Object1();
+			original[i].setX(i);
+		}
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, json, Format.JSON);
+		Serializer.serializeObject(original, binary, Format.BINARY);
+
+		assertTrue(json.size() + " vs " + binary.size(), binary.size() * 10 < json.size());
+	}
+
+	@Test
+	public void testSchemaOnceRoundTrip () throws Exception {
+		SerializerTest.Node first = new SerializerTest.Node();
+		first.setNext(new SerializerTest.Node());
+		first.getNext().setNext(first);
+		Object4 object4 = new Object4();
+		object4.setObj1Arr1(5, -1.25f);
+		Object[] original = new Object[] { object4, new float[] { 1.1f, Float.NaN }, new byte[] { 1, 2 }, null, first };
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, output, Format.JSON_SCHEMA);
+		String document = output.toString("UTF-8");
+
+		// Both the String and the streaming path read the layout, with the same result
+		Object[] twoPass = (Object[]) Deserializer.deserializeObject(document);
+		Object[] streamed = (Object[]) Deserializer.deserializeObject(new ByteArrayInputStream(output.toByteArray()), Format.JSON_SCHEMA);
+		for (Object[] after : new Object[][] { twoPass, streamed }) {
+			assertEquals(Serializer.serializeObject(object4), Serializer.serializeObject(after[0]));
+			assertTrue(Objects.deepEquals(original[1], after[1]));
+			assertTrue(Objects.deepEquals(original[2], after[2]));
+			assertNull(after[3]);
+			SerializerTest.Node node = (SerializerTest.Node) after[4];
+			assertSame(node, node.getNext().getNext());
+		}
+	}
+
+	@Test
+	public void testSchemaOnceDescribesEachClassOnce () throws Exception {
+		Object1[] original = new Object1[10000];
+		for (int i = 0; i < original.length; i++) {
+			original[i] = new Object1();
+		}
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		ByteArrayOutputStream schema = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, json, Format.JSON);
+		Serializer.serializeObject(original, schema, Format.JSON_SCHEMA);
+
+		String document = schema.toString("UTF-8");
+		// x and y of Object1 are each described once
+		assertEquals(2, document.split("\"declaringclass\"", -1).length - 1);
+		assertTrue(json.size() + " vs " + schema.size(), schema.size() * 5 < json.size());
+	}
+
+	@Test
+	public void testForName () {
+		assertSame(Format.JSON, Format.forName("json"));
+		assertSame(Format.BINARY, Format.forName("BINARY"));
+	}
+
+	private static Object roundTrip (Object original, Format format) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, output, format);
+		return Deserializer.deserializeObject(new ByteArrayInputStream(output.toByteArray()), format);
+	}
+
+}
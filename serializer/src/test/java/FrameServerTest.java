@@ -0,0 +1,214 @@
+/**
+ * Tests FrameServer and Frames over loopback connections
+ */
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import org.junit.Test;
+
+public class FrameServerTest {
+
+	private static final int CLIENTS = 40;
+	private static final int MESSAGES = 25;
+
+	@Test
+	public void testFramesRoundTrip () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Frames.write(out, "line one\nline two".getBytes(StandardCharsets.UTF_8));
+		Frames.write(out, new byte[0]);
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertEquals("line one\nline two", new String(Frames.read(in), StandardCharsets.UTF_8));
+		assertEquals(0, Frames.read(in).length);
+		assertNull(Frames.read(in));
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedFrame () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Frames.write(out, new byte[10]);
+		Frames.read(new ByteArrayInputStream(Arrays.copyOf(out.toByteArray(), 8)));
+	}
+
+	@Test
+	public void testBroadcastToManyClients () throws Exception {
+		try (FrameServer server = new FrameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), FrameServer.DEFAULT_MAX_PENDING_BYTES)) {
+			server.start();
+			ExecutorService readers = Executors.newFixedThreadPool(CLIENTS);
+			List<Socket> sockets = new ArrayList<Socket>();
+			List<Future<List<Object>>> received = new ArrayList<Future<List<Object>>>();
+			try {
+				for (int i = 0; i < CLIENTS; i++) {
+					Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+					sockets.add(socket);
+					received.add(readers.submit(() -> readObjects(socket.getInputStream(), MESSAGES)));
+				}
+				awaitClients(server, CLIENTS);
+
+				// Strings with newlines show messages no longer depend on line breaks
+				for (int i = 0; i < MESSAGES; i++) {
+					Object[] message = { i, "message\n" + i, new Object1() };
+					server.broadcast(Serializer.serializeObject(message).getBytes(StandardCharsets.UTF_8));
+				}
+
+				for (Future<List<Object>> objects : received) {
+					List<Object> messages = objects.get(30, TimeUnit.SECONDS);
+					assertEquals(MESSAGES, messages.size());
+					for (int i = 0; i < MESSAGES; i++) {
+						Object[] message = (Object[]) messages.get(i);
+						assertEquals(i, message[0]);
+						assertEquals("message\n" + i, message[1]);
+						assertTrue(message[2] instanceof Object1);
+					}
+				}
+			}
+			finally {
+				for (Socket socket : sockets) {
+					socket.close();
+				}
+				readers.shutdownNow();
+			}
+		}
+	}
+
+	@Test
+	public void testSlowReaderIsDropped () throws Exception {
+		try (FrameServer server = new FrameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1 << 20);
+				Socket slow = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+				Socket fast = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+			slow.setReceiveBufferSize(4096);
+			server.start();
+			awaitClients(server, 2);
+
+			// The slow client never reads, the fast one reads each frame before the next one is broadcast
+			int frames = 200;
+			Semaphore read_frames = new Semaphore(0);
+			ExecutorService reader = Executors.newSingleThreadExecutor();
+			Future<Integer> read = reader.submit(() -> {
+				InputStream in = new BufferedInputStream(fast.getInputStream());
+				int count = 0;
+				while (count < frames && Frames.read(in) != null) {
+					count++;
+					read_frames.release();
+				}
+				return count;
+			});
+			byte[] payload = new byte[64 * 1024];
+			for (int i = 0; i < frames; i++) {
+				server.broadcast(payload);
+				assertTrue(read_frames.tryAcquire(10, TimeUnit.SECONDS));
+			}
+			try {
+				assertEquals(frames, (int) read.get(30, TimeUnit.SECONDS));
+			}
+			finally {
+				reader.shutdownNow();
+			}
+			assertEquals(1, server.droppedCount());
+			assertEquals(1, server.clientCount());
+		}
+	}
+
+	@Test
+	public void testCompressedFramesRoundTrip () throws Exception {
+		byte[] message = Serializer.serializeObject(new Object[] { new Object1(), new Object1(), new Object1(), new Object1() })
+			.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		Inflater inflater = new Inflater();
+		try {
+			ByteBuffer compressed = Frames.deflate(message, deflater);
+			assertTrue(compressed.remaining() < message.length / 2);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(compressed.array(), 0, compressed.remaining());
+			// The Deflater and Inflater are reused for the next frame
+			out.write(Frames.deflate(message, deflater).array());
+			Frames.write(out, message);
+			InputStream in = new ByteArrayInputStream(out.toByteArray());
+			assertArrayEquals(message, Frames.read(in, inflater));
+			assertArrayEquals(message, Frames.read(in, inflater));
+			assertArrayEquals(message, Frames.read(in, inflater));
+			assertNull(Frames.read(in, inflater));
+
+			// Incompressible messages are not compressed
+			byte[] random = new byte[4096];
+			new Random(3).nextBytes(random);
+			assertNull(Frames.deflate(random, deflater));
+		}
+		finally {
+			deflater.end();
+			inflater.end();
+		}
+	}
+
+	@Test
+	public void testCompressionNegotiated () throws Exception {
+		try (FrameServer server = new FrameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), FrameServer.DEFAULT_MAX_PENDING_BYTES, 100);
+				Socket plain = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+				Socket deflating = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+			server.start();
+			deflating.getOutputStream().write(Frames.hello(Frames.ACCEPT_DEFLATE));
+			deflating.getOutputStream().flush();
+			awaitClients(server, 2);
+
+			byte[] small = Serializer.serializeObject(1).getBytes(StandardCharsets.UTF_8);
+			assertTrue(small.length < 100);
+			Object[] graph = new Object[50];
+			Arrays.fill(graph, new Object1());
+			byte[] large = Serializer.serializeObject(new Object[] { graph, new int[500] }).getBytes(StandardCharsets.UTF_8);
+			// Wait for the hello to be read, large messages sent before that are not compressed
+			long deadline = System.currentTimeMillis() + 10000;
+			int[] headers;
+			do {
+				server.broadcast(small);
+				server.broadcast(large);
+				headers = readHeaders(deflating.getInputStream(), 2);
+				assertArrayEquals(new int[] { small.length, large.length }, readHeaders(plain.getInputStream(), 2));
+			} while ((headers[1] & Frames.COMPRESSED) == 0 && System.currentTimeMillis() < deadline);
+
+			// Only the large message is compressed, for the client that accepts it
+			assertEquals(small.length, headers[0]);
+			assertTrue((headers[1] & Frames.COMPRESSED) != 0);
+			assertTrue((headers[1] & ~Frames.COMPRESSED) < large.length / 4);
+		}
+	}
+
+	/**
+	 * Read count frames, returning their headers
+	 */
+	private static int[] readHeaders (InputStream in, int count) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int[] headers = new int[count];
+		for (int i = 0; i < count; i++) {
+			headers[i] = data.readInt();
+			data.readFully(new byte[headers[i] & ~Frames.COMPRESSED]);
+		}
+		return headers;
+	}
+
+	private static List<Object> readObjects (InputStream socket_input, int count) throws Exception {
+		InputStream in = new BufferedInputStream(socket_input);
+		List<Object> objects = new ArrayList<Object>();
+		while (objects.size() < count) {
+			byte[] frame = Frames.read(in);
+			if (frame == null) {
+				break;
+			}
+			objects.add(Deserializer.deserializeObject(new String(frame, StandardCharsets.UTF_8)));
+		}
+		return objects;
+	}
+
+	private static void awaitClients (FrameServer server, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (server.clientCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, server.clientCount());
+	}
+
+}
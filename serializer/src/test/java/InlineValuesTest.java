@@ -0,0 +1,116 @@
+/**
+ * Tests that Strings, boxed primitives, enums, BigDecimal, BigInteger and java.time values are written inline
+ */
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.*;
+import java.util.*;
+import org.junit.Test;
+
+public class InlineValuesTest {
+
+	private static final Format[] FORMATS = { Format.JSON, Format.JSON_SCHEMA, Format.BINARY };
+
+	public enum Shape {
+		SQUARE,
+		CIRCLE { @Override public String toString () { return "round"; } }
+	}
+
+	public static class Values {
+		private String name;
+		private Integer count;
+		private Object any;
+		private Number number;
+		private Shape shape;
+		private Object shape_any;
+		private BigDecimal price;
+		private BigInteger big;
+		private LocalDate date;
+		private Instant instant;
+		private ZoneId zone;
+		private Character letter;
+		private Double ratio;
+		private Object[] mixed;
+	}
+
+	@Test
+	public void testValuesWrittenInline () throws Exception {
+		Values original = new Values();
+		original.name = "caf\u00e9 \"quoted\"";
+		original.count = 42;
+		original.any = Long.MAX_VALUE;
+		original.number = 2.5f;
+		original.shape = Shape.CIRCLE;
+		original.shape_any = DayOfWeek.FRIDAY;
+		original.price = new BigDecimal("12345678901234567890.0100");
+		original.big = new BigInteger("-98765432109876543210");
+		original.date = LocalDate.of(2020, 11, 26);
+		original.instant = Instant.ofEpochSecond(1606400000L, 123);
+		original.zone = ZoneId.of("Europe/Paris");
+		original.letter = 'x';
+		original.ratio = Double.NaN;
+		original.mixed = new Object[] { "a", true, (short) 3, (byte) -1, null, Shape.SQUARE };
+
+		String json = Serializer.serializeObject(original);
+		assertFalse(json.contains("java.lang.String"));
+		assertFalse(json.contains("coder"));
+		// The Values object and its Object[] are the only entries
+		assertEquals(2, json.split("\"id\"").length - 1);
+
+		assertValues(original, (Values) Deserializer.deserializeObject(json));
+		for (Format format : FORMATS) {
+			assertValues(original, (Values) roundTrip(original, format));
+		}
+	}
+
+	@Test
+	public void testCollectionsOfValues () throws Exception {
+		Object5 object5 = new Object5();
+		object5.addItem("first");
+		object5.addItem("second");
+		TreeSet<Integer> sorted = new TreeSet<Integer>(Arrays.asList(3, 1, 2));
+
+		for (Format format : FORMATS) {
+			assertEquals(object5.getItems(), ((Object5) roundTrip(object5, format)).getItems());
+			assertEquals(sorted, roundTrip(sorted, format));
+		}
+	}
+
+	@Test
+	public void testValueAtRoot () throws Exception {
+		for (Format format : FORMATS) {
+			assertEquals("root", roundTrip("root", format));
+			assertEquals(7, roundTrip(7, format));
+			assertEquals(Shape.CIRCLE, roundTrip(Shape.CIRCLE, format));
+		}
+		assertEquals("root", Deserializer.deserializeObject(Serializer.serializeObject("root")));
+	}
+
+	private static void assertValues (Values original, Values after) {
+		assertEquals(original.name, after.name);
+		assertEquals(original.count, after.count);
+		assertEquals(original.any, after.any);
+		assertEquals(original.number, after.number);
+		assertSame(original.shape, after.shape);
+		assertSame(original.shape_any, after.shape_any);
+		assertEquals(original.price, after.price);
+		assertEquals(original.big, after.big);
+		assertEquals(original.date, after.date);
+		assertEquals(original.instant, after.instant);
+		assertEquals(original.zone, after.zone);
+		assertEquals(original.letter, after.letter);
+		assertEquals(original.ratio, after.ratio);
+		assertArrayEquals(original.mixed, after.mixed);
+	}
+
+	private static Object roundTrip (Object original, Format format) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, output, format);
+		return Deserializer.deserializeObject(new ByteArrayInputStream(output.toByteArray()), format);
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Tests that serializing and deserializing report a CallTrace to the listener and to Flight Recorder,
+ * and that SerializationMetrics counts them
+ */
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.*;
+import org.junit.After;
+import org.junit.Test;
+
+public class InstrumentationTest {
+
+	/**
+	 * Listener keeping a copy of every trace
+	 */
+	private static class Recorder implements SerializationListener {
+		final List<long[]> phases = new ArrayList<long[]>();
+		final List<Class<?>> roots = new ArrayList<Class<?>>();
+		final List<Integer> objects = new ArrayList<Integer>();
+		final List<Long> lengths = new ArrayList<Long>();
+
+		@Override
+		public synchronized void completed (CallTrace trace) {
+			long[] nanos = new long[CallTrace.PHASES + 1];
+			for (int phase = 0; phase < CallTrace.PHASES; phase++) {
+				nanos[phase] = trace.getPhaseNanos(phase);
+			}
+			nanos[CallTrace.PHASES] = trace.getOperation();
+			phases.add(nanos);
+			roots.add(trace.getRootClass());
+			objects.add(trace.getObjects());
+			lengths.add(trace.getLength());
+		}
+	}
+
+	@After
+	public void tearDown () {
+		Instrumentation.setListener(null);
+	}
+
+	@Test
+	public void testNothingReportedWithoutListener () throws Exception {
+		Recorder recorder = new Recorder();
+		Instrumentation.setListener(recorder);
+		Instrumentation.setListener(null);
+		Deserializer.deserializeObject(Serializer.serializeObject(new Object2()));
+		assertTrue(recorder.roots.isEmpty());
+	}
+
+	@Test
+	public void testSerializeAndDeserializeString () throws Exception {
+		Recorder recorder = new Recorder();
+		Instrumentation.setListener(recorder);
+		String json = Serializer.serializeObject(new Object2());
+		Deserializer.deserializeObject(json);
+
+		assertEquals(Arrays.asList(Object2.class, Object2.class), recorder.roots);
+		assertEquals(Arrays.asList(2, 2), recorder.objects);
+		assertEquals(Arrays.asList((long) json.length(), (long) json.length()), recorder.lengths);
+
+		long[] serialize = recorder.phases.get(0);
+		assertEquals(CallTrace.SERIALIZE, serialize[CallTrace.PHASES]);
+		assertTrue(serialize[CallTrace.TRAVERSE] > 0);
+		assertTrue(serialize[CallTrace.OUTPUT] > 0);
+		assertEquals(0, serialize[CallTrace.PARSE]);
+
+		long[] deserialize = recorder.phases.get(1);
+		assertEquals(CallTrace.DESERIALIZE, deserialize[CallTrace.PHASES]);
+		assertTrue(deserialize[CallTrace.PARSE] > 0);
+		assertTrue(deserialize[CallTrace.CREATE] > 0);
+		assertTrue(deserialize[CallTrace.ASSIGN] > 0);
+		assertEquals(0, deserialize[CallTrace.READ]);
+	}
+
+	@Test
+	public void testStreamsAndContextsCountLength () throws Exception {
+		Object[] graph = { new Object1(), new Object3(), "caf\u00e9" };
+		byte[] json = Serializer.serializeObject(graph).getBytes(StandardCharsets.UTF_8);
+		Recorder recorder = new Recorder();
+		Instrumentation.setListener(recorder);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Serializer.serializeObject(graph, out);
+		Deserializer.deserializeObject(new ByteArrayInputStream(json));
+		SerializerContext.forThread().serialize(graph, new ByteArrayOutputStream());
+		DeserializerContext.forThread().deserialize(json, 0, json.length);
+
+		assertEquals(4, recorder.roots.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(Object[].class, recorder.roots.get(i));
+			// The array, Object1, Object3 and its int[]
+			assertEquals(4, (int) recorder.objects.get(i));
+			assertEquals(json.length, (long) recorder.lengths.get(i));
+		}
+		long[] streamed = recorder.phases.get(1);
+		assertTrue(streamed[CallTrace.READ] > 0);
+		assertTrue(streamed[CallTrace.RESOLVE] > 0);
+		assertEquals(0, streamed[CallTrace.PARSE]);
+	}
+
+	@Test
+	public void testBatches () throws Exception {
+		Object2 shared = new Object2();
+		List<Object> roots = Arrays.asList(shared, new Object1(), shared);
+		String json = Serializer.serializeAll(roots);
+		Recorder recorder = new Recorder();
+		Instrumentation.setListener(recorder);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Serializer.serializeAll(roots, out);
+		Serializer.serializeAll(roots, new StringWriter());
+		Deserializer.deserializeAll(json);
+		Deserializer.deserializeAll(new StringReader(json));
+		Deserializer.deserializeAll(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(5, recorder.roots.size());
+		for (int i = 0; i < 5; i++) {
+			assertTrue(List.class.isAssignableFrom(recorder.roots.get(i)));
+			// Object2, its Object1 and the second Object1
+			assertEquals(3, (int) recorder.objects.get(i));
+			assertEquals(json.length(), (long) recorder.lengths.get(i));
+		}
+		long[] serialize = recorder.phases.get(0);
+		assertEquals(CallTrace.SERIALIZE, serialize[CallTrace.PHASES]);
+		assertTrue(serialize[CallTrace.TRAVERSE] > 0);
+		long[] parsed = recorder.phases.get(2);
+		assertEquals(CallTrace.DESERIALIZE, parsed[CallTrace.PHASES]);
+		assertTrue(parsed[CallTrace.PARSE] > 0);
+		assertTrue(parsed[CallTrace.ASSIGN] > 0);
+		long[] streamed = recorder.phases.get(4);
+		assertTrue(streamed[CallTrace.READ] > 0);
+		assertEquals(0, streamed[CallTrace.PARSE]);
+	}
+
+	@Test
+	public void testMetricsHistograms () throws Exception {
+		SerializationMetrics metrics = new SerializationMetrics();
+		Instrumentation.setListener(metrics);
+		for (int i = 0; i < 10; i++) {
+			Deserializer.deserializeObject(Serializer.serializeObject(new Object4()));
+		}
+		assertEquals(10, metrics.calls(CallTrace.SERIALIZE));
+		assertEquals(10, metrics.calls(CallTrace.DESERIALIZE));
+		// Object4, its array and two Object1
+		assertEquals(40, metrics.objects(CallTrace.SERIALIZE).sum());
+		assertEquals(4, metrics.objects(CallTrace.DESERIALIZE).max());
+		assertEquals(10, metrics.phaseNanos(CallTrace.DESERIALIZE, CallTrace.PARSE).count());
+		assertEquals(0, metrics.phaseNanos(CallTrace.DESERIALIZE, CallTrace.READ).count());
+		assertTrue(metrics.report().contains("parse us"));
+
+		SerializationMetrics.Histogram histogram = new SerializationMetrics.Histogram();
+		for (long value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+		assertEquals(63, histogram.percentile(0.5));
+		assertEquals(100, histogram.percentile(0.99));
+		assertEquals(5050, histogram.sum());
+		metrics.clear();
+		assertEquals(0, metrics.calls(CallTrace.SERIALIZE));
+	}
+
+	@Test
+	public void testFlightRecorderEvents () throws Exception {
+		Path file = Files.createTempFile("instrumentation", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("serializer.Serialize");
+			recording.enable("serializer.Deserialize");
+			recording.start();
+			Deserializer.deserializeObject(Serializer.serializeObject(new Object5()));
+			recording.stop();
+			recording.dump(file);
+
+			List<String> seen = new ArrayList<String>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+				RecordedClass root = event.getClass("root_class");
+				seen.add(event.getEventType().getName() + " " + root.getName() + " " + event.getInt("objects"));
+				assertTrue(event.getDuration().toNanos() > 0);
+			}
+			Collections.sort(seen);
+			assertEquals(Arrays.asList("serializer.Deserialize Object5 2", "serializer.Serialize Object5 2"), seen);
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+}
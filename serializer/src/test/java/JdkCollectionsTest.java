@@ -0,0 +1,164 @@
+/**
+ * Tests the logical form of JDK collections and maps in every wire format
+ */
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import org.junit.Test;
+
+public class JdkCollectionsTest {
+
+	private static final Format[] FORMATS = { Format.JSON, Format.JSON_SCHEMA, Format.BINARY };
+
+	@Test
+	public void testListWrittenAsElements () throws Exception {
+		Object1 shared = new Object1();
+		shared.setX(5);
+		List<Object1> original = new ArrayList<Object1>(1000);
+		original.add(shared);
+		original.add(null);
+		original.add(shared);
+
+		String json = Serializer.serializeObject(original);
+		assertFalse(json.contains("elementData"));
+		assertFalse(json.contains("modCount"));
+		assertTrue(json.contains("\"type\":\"collection\""));
+
+		for (Format format : FORMATS) {
+			@SuppressWarnings("unchecked")
+			List<Object1> after = (List<Object1>) roundTrip(original, format);
+			assertEquals(ArrayList.class, after.getClass());
+			assertEquals(3, after.size());
+			assertEquals(5, after.get(0).getX());
+			assertNull(after.get(1));
+			assertSame(after.get(0), after.get(2));
+		}
+		@SuppressWarnings("unchecked")
+		List<Object1> after = (List<Object1>) Deserializer.deserializeObject(json);
+		assertSame(after.get(0), after.get(2));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMapsAndCycles () throws Exception {
+		Map<Object, Object> original = new LinkedHashMap<Object, Object>();
+		Object1 key = new Object1();
+		key.setX(1);
+		List<Object> values = new ArrayList<Object>();
+		values.add(original);
+		original.put(key, values);
+		original.put(new Object1(), new ArrayDeque<Object>(Arrays.asList(key, key)));
+
+		for (Format format : FORMATS) {
+			Map<Object, Object> after = (Map<Object, Object>) roundTrip(original, format);
+			assertEquals(LinkedHashMap.class, after.getClass());
+			assertEquals(2, after.size());
+			Iterator<Map.Entry<Object, Object>> entries = after.entrySet().iterator();
+			Map.Entry<Object, Object> first = entries.next();
+			assertEquals(1, ((Object1) first.getKey()).getX());
+			assertSame(after, ((List<Object>) first.getValue()).get(0));
+			ArrayDeque<Object> deque = (ArrayDeque<Object>) entries.next().getValue();
+			assertSame(first.getKey(), deque.peekFirst());
+			assertSame(first.getKey(), deque.peekLast());
+		}
+	}
+
+	@Test
+	public void testContainerInField () throws Exception {
+		SerializerTest.Node node = new SerializerTest.Node();
+		Set<Object> set = new HashSet<Object>();
+		set.add(node);
+		node.setNext(new SerializerTest.Node());
+
+		for (Format format : FORMATS) {
+			Object[] after = (Object[]) roundTrip(new Object[] { set, node }, format);
+			assertEquals(Collections.singleton(after[1]), after[0]);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFactoryCollections () throws Exception {
+		Object1 shared = new Object1();
+		shared.setX(7);
+		List<Object> immutable = List.of(shared, "a");
+		List<Object> original = new ArrayList<Object>();
+		original.add(immutable);
+		original.add(Set.of(1, 2, 3));
+		original.add(Map.of("k", immutable));
+		original.add(Arrays.asList(shared, null));
+		original.add(Collections.unmodifiableList(new LinkedList<Object>(immutable)));
+		original.add(Collections.unmodifiableMap(new TreeMap<Object, Object>(Map.of("b", 2, "a", 1))));
+		original.add(Collections.synchronizedList(new ArrayList<Object>(immutable)));
+		original.add(Collections.emptyList());
+		original.add(Collections.singletonList(shared));
+		original.add(java.util.stream.Stream.of("x", null).toList());
+		original.add(immutable);
+
+		String json = Serializer.serializeObject(original);
+		assertTrue(json.contains("\"java.util.List:immutable\""));
+		assertTrue(json.contains("\"java.util.Map:unmodifiable\""));
+
+		for (Format format : FORMATS) {
+			List<Object> after = (List<Object>) roundTrip(original, format);
+			List<Object> list = (List<Object>) after.get(0);
+			// Object1 has no equals, so the contents are compared as text
+			assertEquals(original.toString().replace(shared.toString(), "shared"), after.toString().replace(list.get(0).toString(), "shared"));
+			// Same interface and factory, the unmodifiable LinkedList comes back around an ArrayList
+			for (int i = 0; i < original.size(); i++) {
+				assertEquals(ClassMetadata.forClass(original.get(i).getClass()).name, ClassMetadata.forClass(after.get(i).getClass()).name);
+			}
+			assertSame(list, after.get(10));
+			assertSame(list, ((Map<Object, Object>) after.get(2)).get("k"));
+			assertSame(list.get(0), ((List<Object>) after.get(3)).get(0));
+			assertSame(list.get(0), ((List<Object>) after.get(8)).get(0));
+			assertEquals(Arrays.asList("a", "b"), new ArrayList<Object>(((Map<Object, Object>) after.get(5)).keySet()));
+			try {
+				list.add("b");
+				fail("List.of should stay immutable");
+			}
+			catch (UnsupportedOperationException e) {
+			}
+			((List<Object>) after.get(6)).add("b");
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFactoryCollectionReferencedBeforeItIsRead () throws Exception {
+		// The node is written before the list it references, and the list holds an immutable map in turn
+		SerializerTest.Node node = new SerializerTest.Node();
+		SerializerTest.Node next = new SerializerTest.Node();
+		node.setNext(next);
+		Object[] original = { node, List.of(Map.of("node", next), node), Collections.singleton(next) };
+
+		for (Format format : FORMATS) {
+			Object[] after = (Object[]) roundTrip(original, format);
+			List<Object> list = (List<Object>) after[1];
+			assertSame(after[0], list.get(1));
+			SerializerTest.Node after_next = ((SerializerTest.Node) after[0]).getNext();
+			assertSame(after_next, ((Map<Object, Object>) list.get(0)).get("node"));
+			assertSame(after_next, ((Set<Object>) after[2]).iterator().next());
+		}
+
+		// Built on its own first, then found by the root
+		LazyGraph graph = Deserializer.deserializeLazy(Serializer.serializeObject(original));
+		Object list = ((LazyGraph.View) graph.view(0).getEntry(1)).materialize();
+		assertEquals(original[1].getClass(), list.getClass());
+		assertSame(list, ((Object[]) graph.root())[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testComparatorRejected () throws Exception {
+		Serializer.serializeObject(new TreeMap<Object, Object>(Collections.reverseOrder()));
+	}
+
+	private static Object roundTrip (Object original, Format format) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, output, format);
+		return Deserializer.deserializeObject(new ByteArrayInputStream(output.toByteArray()), format);
+	}
+
+}
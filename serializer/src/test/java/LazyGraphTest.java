@@ -0,0 +1,226 @@
+/**
+ * Tests that LazyGraph builds objects only once they are reached, and builds them the same as Deserializer
+ */
+
+import static org.junit.Assert.*;
+import java.util.*;
+import javax.json.JsonException;
+import org.junit.Test;
+
+public class LazyGraphTest {
+
+	public static class Node {
+		private int value;
+		private String label;
+		private Node next;
+		private Object item;
+		private Object[] items;
+	}
+
+	public static class Holder {
+		private byte[] bytes = { 1, 2, 3 };
+		private double[] values = { 0.5, Double.NaN };
+		private List<Object> list = new ArrayList<Object>(Arrays.asList("x", 3L));
+		private Map<String, Object> map = new HashMap<String, Object>();
+		private char c = 'q';
+	}
+
+	private static Node chain (int length) {
+		Node head = new Node();
+		Node tail = head;
+		for (int i = 1; i < length; i++) {
+			tail.next = new Node();
+			tail = tail.next;
+			tail.value = i;
+			tail.label = "node " + i;
+		}
+		return head;
+	}
+
+	@Test
+	public void testIndexBuildsNothing () throws Exception {
+		LazyGraph graph = Deserializer.deserializeLazy(Serializer.serializeObject(chain(100)));
+		assertEquals(100, graph.size());
+		assertEquals(0, graph.materializedCount());
+
+		// Views read entries without building them
+		LazyGraph.View view = graph.view(0);
+		assertEquals(Node.class.getName(), view.getClassName());
+		LazyGraph.View second = (LazyGraph.View) view.getField("next");
+		assertEquals(1, second.getField("value"));
+		assertEquals("node 1", second.getField("label"));
+		assertNull(second.getField("item"));
+		assertEquals(0, graph.materializedCount());
+	}
+
+	@Test
+	public void testGetBuildsOnlyWhatIsReached () throws Exception {
+		LazyGraph graph = new LazyGraph(Serializer.serializeObject(chain(100)));
+		LazyGraph.View view = graph.view(0);
+		for (int i = 0; i < 90; i++) {
+			view = (LazyGraph.View) view.getField("next");
+		}
+		Node tail = (Node) view.materialize();
+		assertEquals(90, tail.value);
+		assertEquals(10, graph.materializedCount());
+		assertNull(tail.next.next.next.next.next.next.next.next.next.next);
+
+		// Building the root reuses the objects already built
+		Node head = (Node) graph.root();
+		Node node = head;
+		for (int i = 0; i < 90; i++) {
+			node = node.next;
+		}
+		assertSame(tail, node);
+		assertSame(head, graph.get(0));
+		assertEquals(100, graph.materializedCount());
+	}
+
+	@Test
+	public void testSharedReferencesAndCycles () throws Exception {
+		Node a = new Node();
+		Node b = new Node();
+		a.next = b;
+		b.next = a;
+		a.item = b;
+		a.items = new Object[] { a, b, null, "text", 7 };
+		LazyGraph graph = new LazyGraph(Serializer.serializeObject(a));
+
+		LazyGraph.View items = (LazyGraph.View) graph.view(0).getField("items");
+		assertEquals(5, items.getLength());
+		assertEquals(0, ((LazyGraph.View) items.getEntry(0)).getId());
+		assertNull(items.getEntry(2));
+		assertEquals("text", items.getEntry(3));
+		assertEquals(7, items.getEntry(4));
+
+		Node built = (Node) graph.root();
+		assertSame(built, built.next.next);
+		assertSame(built.next, built.item);
+		assertSame(built, built.items[0]);
+		assertSame(built.next, built.items[1]);
+		assertEquals(Arrays.asList("text", 7), Arrays.asList(built.items).subList(3, 5));
+	}
+
+	@Test
+	public void testSameAsDeserializer () throws Exception {
+		Holder holder = new Holder();
+		holder.map.put("key", new Object1());
+		String json = Serializer.serializeObject(holder);
+		Holder eager = (Holder) Deserializer.deserializeObject(json);
+		Holder lazy = (Holder) new LazyGraph(json).root();
+		assertEquals(Serializer.serializeObject(eager), Serializer.serializeObject(lazy));
+
+		LazyGraph.View view = new LazyGraph(json).view(0);
+		assertEquals('q', view.getField("c"));
+		LazyGraph.View bytes = (LazyGraph.View) view.getField("bytes");
+		assertEquals((byte) 3, bytes.getEntry(2));
+		LazyGraph.View values = (LazyGraph.View) view.getField("values");
+		assertEquals(0.5, values.getEntry(0));
+		assertEquals(Double.NaN, values.getEntry(1));
+		LazyGraph.View list = (LazyGraph.View) view.getField("list");
+		assertEquals(2, list.getLength());
+		assertEquals(3L, list.getEntry(1));
+	}
+
+	@Test
+	public void testInlineRootAndErrors () throws Exception {
+		assertEquals("root", new LazyGraph(Serializer.serializeObject("root")).root());
+
+		LazyGraph graph = new LazyGraph(Serializer.serializeObject(new Object1()));
+		try {
+			graph.view(0).getField("missing");
+			fail("Unknown field should throw");
+		}
+		catch (NoSuchFieldException e) {
+		}
+		try {
+			graph.get(1);
+			fail("Unknown id should throw");
+		}
+		catch (IndexOutOfBoundsException e) {
+		}
+		try {
+			new LazyGraph(Serializer.serializeObject(new Object1()).substring(0, 40));
+			fail("Truncated document should throw");
+		}
+		catch (JsonException e) {
+		}
+	}
+
+	@Test
+	public void testRecoversAfterBadEntry () throws Exception {
+		Node shared = new Node();
+		shared.label = "shared";
+		// References are followed last field first, so the shared node is built before the node holding the bad entry
+		Node first = new Node();
+		first.next = new Node();
+		first.next.item = new Holder();
+		first.item = shared;
+		Node second = new Node();
+		second.next = shared;
+		String json = Serializer.serializeObject(new Object[] { first, second });
+		LazyGraph graph = new LazyGraph(json.replace(Holder.class.getName(), "NoSuchHolder"));
+		int bad = ((LazyGraph.View) graph.view(0).getEntry(0)).getId();
+		int good = ((LazyGraph.View) graph.view(0).getEntry(1)).getId();
+
+		// The failed call keeps none of the objects it built
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				graph.get(bad);
+				fail("Unknown class should throw");
+			}
+			catch (ClassNotFoundException e) {
+			}
+			assertEquals(0, graph.materializedCount());
+		}
+
+		Node built = (Node) graph.get(good);
+		assertEquals("shared", built.next.label);
+		assertNull(built.next.next);
+		assertEquals(2, graph.materializedCount());
+		try {
+			graph.root();
+			fail("Unknown class should throw");
+		}
+		catch (ClassNotFoundException e) {
+		}
+		assertSame(built, graph.get(good));
+		assertEquals(2, graph.materializedCount());
+	}
+
+	@Test
+	public void testStringIdsInAnyOrder () throws Exception {
+		// Documents written before version 2 have String ids, and may list objects after the ones they reference
+		String json = "{\"objects\":["
+				+ "{\"class\":\"[S\",\"id\":\"2\",\"type\":\"array\",\"length\":\"1\",\"entries\":[{\"value\":\"-3\"}]},"
+				+ "{\"class\":\"SerializerTest$Node\",\"id\":\"1\",\"type\":\"object\",\"fields\":["
+				+ "{\"name\":\"value\",\"declaringclass\":\"SerializerTest$Node\",\"value\":\"9\"},"
+				+ "{\"name\":\"next\",\"declaringclass\":\"SerializerTest$Node\",\"reference\":\"1\"},"
+				+ "{\"name\":\"shared\",\"declaringclass\":\"SerializerTest$Node\",\"reference\":\"null\"}]},"
+				+ "{\"class\":\"[Ljava.lang.Object;\",\"id\":\"0\",\"type\":\"array\",\"length\":\"3\","
+				+ "\"entries\":[{\"reference\":\"1\"},{\"reference\":\"2\"},{\"reference\":\"null\"}]}]}";
+
+		LazyGraph graph = Deserializer.deserializeLazy(json);
+		assertEquals(3, graph.size());
+		LazyGraph.View view = graph.view(0);
+		assertEquals(3, view.getLength());
+		LazyGraph.View node = (LazyGraph.View) view.getEntry(0);
+		assertEquals(1, node.getId());
+		assertEquals(9, node.getField("value"));
+
+		Object[] root = (Object[]) graph.root();
+		assertEquals(Serializer.serializeObject(Deserializer.deserializeObject(json)), Serializer.serializeObject(root));
+		SerializerTest.Node built = (SerializerTest.Node) root[0];
+		assertSame(built, built.getNext());
+		assertArrayEquals(new short[] { -3 }, (short[]) root[1]);
+		assertNull(root[2]);
+
+		try {
+			new LazyGraph(json.replace("\"id\":\"2\"", "\"id\":\"1\""));
+			fail("Duplicate id should throw");
+		}
+		catch (JsonException e) {
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Tests that MessagePipeline outputs messages in the order their frames arrived, with bounded read ahead
+ */
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+public class MessagePipelineTest {
+
+	@Test
+	public void testOutputInReceiveOrder () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < 500; i++) {
+			Object[] message = { i, new Object1() };
+			Frames.write(out, Serializer.serializeObject(message).getBytes(StandardCharsets.UTF_8));
+		}
+
+		// Random delays make workers finish out of order
+		Random random = new Random(17);
+		int[] delays = new int[500];
+		for (int i = 0; i < delays.length; i++) {
+			delays[i] = random.nextInt(3);
+		}
+		List<Object> output = new ArrayList<Object>();
+		ExecutorService workers = Executors.newFixedThreadPool(8);
+		try {
+			MessagePipeline.Decoder<Object> decoder = frame -> {
+				Object[] message = (Object[]) Deserializer.deserializeObject(new String(frame, StandardCharsets.UTF_8));
+				Thread.sleep(delays[(Integer) message[0]]);
+				return message[0];
+			};
+			new MessagePipeline<Object>(decoder, output::add, workers, 16).run(new ByteArrayInputStream(out.toByteArray()));
+		}
+		finally {
+			workers.shutdown();
+		}
+
+		assertEquals(500, output.size());
+		for (int i = 0; i < 500; i++) {
+			assertEquals(i, output.get(i));
+		}
+	}
+
+	@Test
+	public void testReadAheadBoundedByCapacity () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < 200; i++) {
+			Frames.write(out, new byte[] { (byte) i });
+		}
+
+		// The output is slower than decoding, so the reader has to wait for it
+		AtomicInteger decoded = new AtomicInteger();
+		AtomicInteger output_count = new AtomicInteger();
+		AtomicInteger max_ahead = new AtomicInteger();
+		MessagePipeline.Decoder<Integer> decoder = frame -> {
+			int ahead = decoded.incrementAndGet() - output_count.get();
+			max_ahead.accumulateAndGet(ahead, Math::max);
+			return (int) frame[0];
+		};
+		MessagePipeline.Output<Integer> output = message -> {
+			Thread.sleep(1);
+			output_count.incrementAndGet();
+		};
+		ExecutorService workers = MessagePipeline.newWorkers(4);
+		try {
+			new MessagePipeline<Integer>(decoder, output, workers, 8).run(new ByteArrayInputStream(out.toByteArray()));
+		}
+		finally {
+			workers.shutdown();
+		}
+
+		assertEquals(200, output_count.get());
+		// The queue holds 8 tasks, and the output holds the one it is on
+		assertTrue("Read " + max_ahead.get() + " ahead", max_ahead.get() <= 9);
+	}
+
+	@Test
+	public void testCompressedFramesInflated () throws Exception {
+		byte[] message = Serializer.serializeObject(new Object[] { new Object1(), new Object1(), new Object1() }).getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater();
+		out.write(Frames.deflate(message, deflater).array());
+		deflater.end();
+		Frames.write(out, message);
+
+		List<byte[]> output = new ArrayList<byte[]>();
+		ExecutorService workers = MessagePipeline.newWorkers(2);
+		try {
+			new MessagePipeline<byte[]>(frame -> frame, output::add, workers, 4).run(new ByteArrayInputStream(out.toByteArray()));
+		}
+		finally {
+			workers.shutdown();
+		}
+		assertEquals(2, output.size());
+		assertArrayEquals(message, output.get(0));
+		assertArrayEquals(message, output.get(1));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testDecoderFailureThrown () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Frames.write(out, "1".getBytes(StandardCharsets.UTF_8));
+		Frames.write(out, "x".getBytes(StandardCharsets.UTF_8));
+		ExecutorService workers = MessagePipeline.newWorkers(2);
+		try {
+			MessagePipeline.Decoder<Integer> decoder = frame -> Integer.parseInt(new String(frame, StandardCharsets.UTF_8));
+			new MessagePipeline<Integer>(decoder, message -> { }, workers, 4).run(new ByteArrayInputStream(out.toByteArray()));
+		}
+		finally {
+			workers.shutdown();
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedStreamThrown () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Frames.write(out, new byte[10]);
+		ExecutorService workers = MessagePipeline.newWorkers(2);
+		try {
+			new MessagePipeline<byte[]>(frame -> frame, message -> { }, workers, 4)
+				.run(new ByteArrayInputStream(Arrays.copyOf(out.toByteArray(), 6)));
+		}
+		finally {
+			workers.shutdown();
+		}
+	}
+
+	@Test(expected = RejectedExecutionException.class, timeout = 10000)
+	public void testRejectedTaskThrown () throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Frames.write(out, new byte[10]);
+		ExecutorService workers = MessagePipeline.newWorkers(2);
+		workers.shutdown();
+		new MessagePipeline<byte[]>(frame -> frame, message -> { }, workers, 4).run(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Tests that ParallelSerializer writes the same document as Serializer
+ */
+
+import static org.junit.Assert.*;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class ParallelSerializerTest {
+
+	private static final int[] PARALLELISM = { 1, 2, 4, 8 };
+
+	@Test
+	public void testSameDocumentAsSerializer () throws Exception {
+		// Large enough to be split into many segments and array parts, shared and cyclic
+		SerializerTest.Node[] nodes = new SerializerTest.Node[3 * ParallelSerializer.SEGMENT_SIZE + 17];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new SerializerTest.Node();
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].setNext(nodes[(i * 7919) % nodes.length]);
+		}
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+		for (int i = 0; i < 5000; i++) {
+			map.put("key" + i, i % 3 == 0 ? nodes[i] : new Object1());
+		}
+		Object object5 = new Object5();
+		((Object5) object5).addItem("item");
+		Object[] graph = { nodes, map, new int[] { 1, 2, 3 }, "value", object5, null, nodes[1] };
+
+		String expected = Serializer.serializeObject(graph);
+		for (int parallelism : PARALLELISM) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				assertEquals(expected, serializeParallel(graph, pool));
+				assertEquals(expected, serializeParallel(graph, pool));
+				assertEquals(expected, ParallelSerializer.serializeObject(graph, pool));
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+
+		Object[] after = (Object[]) Deserializer.deserializeObject(expected);
+		SerializerTest.Node[] nodes_after = (SerializerTest.Node[]) after[0];
+		assertSame(nodes_after[(7 * 7919) % nodes.length], nodes_after[7].getNext());
+		assertSame(nodes_after[1], after[6]);
+	}
+
+	@Test
+	public void testDeepAndSmallGraphs () throws Exception {
+		// A long chain has one object per level
+		SerializerTest.Node first = new SerializerTest.Node();
+		SerializerTest.Node current = first;
+		for (int i = 0; i < 20000; i++) {
+			current.setNext(new SerializerTest.Node());
+			current = current.getNext();
+		}
+		current.setNext(first);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(Serializer.serializeObject(first), serializeParallel(first, pool));
+			assertEquals(Serializer.serializeObject(new Object1()), serializeParallel(new Object1(), pool));
+			assertEquals(Serializer.serializeObject(42), serializeParallel(42, pool));
+			assertEquals(Serializer.serializeObject(new Object[0]), serializeParallel(new Object[0], pool));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testComparatorRejected () throws Exception {
+		Object[] graph = new Object[2 * ParallelSerializer.SEGMENT_SIZE];
+		graph[graph.length - 1] = new TreeSet<Object>(Collections.reverseOrder());
+		serializeParallel(graph, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Serialize on the parallel path even where the machine has a single core, where serializeObject would not
+	 */
+	private static String serializeParallel (Object source, ForkJoinPool pool) throws Exception {
+		StringWriter writer = new StringWriter();
+		ParallelSerializer.serializeParallel(source, writer, pool);
+		return writer.toString();
+	}
+
+}
@@ -0,0 +1,190 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.junit.Test;
+
+public class SerializerTest {
+
+	@Test
+	public void testSerializeObject() throws Exception {
+		Object1 obj1Original = new Object1();
+		obj1Original.setX(10);
+		obj1Original.setY(9);
+		
+		String obj1Json = Serializer.serializeObject(obj1Original);
+		JsonReader reader = Json.createReader(new StringReader(obj1Json));
+	    JsonObject obj = reader.readObject();
+	    reader.close();
+		
+	    JsonArray object_list = obj.getJsonArray("objects");
+	    JsonObject obj1New = object_list.getJsonObject(0);
+	    String obj1NewClass = obj1New.getString("class");
+
+	    assertTrue(obj1Original.getClass().equals(Class.forName(obj1NewClass)));
+	}
+
+	@Test
+	public void testSerializeObjectToStream() throws Exception {
+		Object2 original = new Object2();
+		original.setB(true);
+		original.setObj1X(3);
+		String expected = Serializer.serializeObject(original);
+
+		StringWriter writer = new StringWriter();
+		Serializer.serializeObject(original, writer);
+		assertEquals(expected, writer.toString());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Serializer.serializeObject(original, output);
+		assertEquals(expected, output.toString("UTF-8"));
+	}
+
+	/**
+	 * Graph node used to build large cyclic and shared graphs
+	 */
+	public static class Node {
+		private int value;
+		private Node next;
+		private Node shared;
+
+		public Node getNext () { return next; }
+
+		public void setNext (Node newVal) { next = newVal; }
+	}
+
+	@Test
+	public void testCyclicGraphSerializesEachObjectOnce() throws Exception {
+		Node first = buildRing(100000);
+
+		String json = Serializer.serializeObject(first);
+		JsonArray object_list = readObjectList(json);
+		assertEquals(100000, object_list.size());
+
+		// Deserialized ring keeps the back-pointer from the last node to the first
+		Node after = (Node) Deserializer.deserializeObject(json);
+		Node current = after;
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(i, current.value);
+			current = current.next;
+		}
+		assertSame(after, current);
+	}
+
+	@Test
+	public void testSharedGraphSerializesEachObjectOnce() throws Exception {
+		Node[] nodes = buildShared(100000);
+
+		String json = Serializer.serializeObject(nodes);
+		JsonArray object_list = readObjectList(json);
+		// The array itself plus one entry per node
+		assertEquals(100001, object_list.size());
+
+		Node[] after = (Node[]) Deserializer.deserializeObject(json);
+		IdentityHashMap<Node, Boolean> distinct = new IdentityHashMap<Node, Boolean>();
+		for (int i = 0; i < after.length; i++) {
+			distinct.put(after[i], Boolean.TRUE);
+			assertSame(after[i / 2], after[i].shared);
+		}
+		assertEquals(100000, distinct.size());
+	}
+
+	@Test
+	public void testSerializeAllWritesSharedObjectsOnce() throws Exception {
+		Node shared = new Node();
+		shared.value = 7;
+		List<Object> roots = new ArrayList<Object>();
+		for (int i = 0; i < 10; i++) {
+			Node root = new Node();
+			root.value = i;
+			root.shared = shared;
+			roots.add(root);
+		}
+		roots.add(null);
+		roots.add(roots.get(0));
+
+		String json = Serializer.serializeAll(roots);
+		JsonReader reader = Json.createReader(new StringReader(json));
+		JsonObject obj = reader.readObject();
+		reader.close();
+		// Ten roots and the node they share, which is written once
+		assertEquals(11, obj.getJsonArray("objects").size());
+		assertEquals("[0,1,2,3,4,5,6,7,8,9,null,0]", obj.getJsonArray("roots").toString());
+
+		StringWriter writer = new StringWriter();
+		Serializer.serializeAll(roots, writer);
+		assertEquals(json, writer.toString());
+	}
+
+	@Test
+	public void testSerializationTimeGrowsLinearly() throws Exception {
+		// Warm up so the timed runs are not dominated by class loading and compilation
+		timeSerialization(10000);
+
+		long small = timeSerialization(25000);
+		long large = timeSerialization(100000);
+
+		// 4x the nodes should take about 4x the time; a quadratic lookup would take about 16x
+		assertTrue("25k: " + small + "ns, 100k: " + large + "ns", large < small * 10);
+	}
+
+	/**
+	 * Best of two serialization times of a ring and a shared graph with n nodes each
+	 */
+	private static long timeSerialization (int n) throws Exception {
+		Node ring = buildRing(n);
+		Node[] shared = buildShared(n);
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < 2; run++) {
+			long start = System.nanoTime();
+			Serializer.serializeObject(ring);
+			Serializer.serializeObject(shared);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	/**
+	 * Build a cycle of n nodes where the last node points back to the first
+	 */
+	private static Node buildRing (int n) {
+		Node first = new Node();
+		Node current = first;
+		for (int i = 1; i < n; i++) {
+			current.next = new Node();
+			current.next.value = i;
+			current = current.next;
+		}
+		current.next = first;
+		return first;
+	}
+
+	/**
+	 * Build n nodes where node i shares node i/2, so the early nodes are referenced many times
+	 */
+	private static Node[] buildShared (int n) {
+		Node[] nodes = new Node[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = new Node();
+			nodes[i].value = i;
+			nodes[i].shared = nodes[i / 2];
+		}
+		return nodes;
+	}
+
+	private static JsonArray readObjectList (String json) {
+		JsonReader reader = Json.createReader(new StringReader(json));
+		JsonObject obj = reader.readObject();
+		reader.close();
+		return obj.getJsonArray("objects");
+	}
+
+}
@@ -0,0 +1,244 @@
+/**
+ * Tests that SerializerSession sends only what changed and DeserializerSession patches the same live objects
+ */
+
+import static org.junit.Assert.*;
+import java.io.StringReader;
+import java.util.*;
+import javax.json.Json;
+import javax.json.JsonObject;
+import org.junit.Test;
+
+public class SessionTest {
+
+	public static class Holder {
+		private int count;
+		private String label;
+		private Object item;
+		private Object[] items = new Object[4];
+		private double[] values = new double[3];
+		private Map<String, Object> map = new HashMap<String, Object>();
+	}
+
+	@Test
+	public void testFirstMessageIsFullGraph () throws Exception {
+		Holder holder = new Holder();
+		holder.count = 3;
+		holder.label = "first";
+		holder.item = new Object1();
+
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		JsonObject message = read(sender.serialize(holder));
+		assertEquals(0, message.getInt("session"));
+		assertEquals(5, message.getJsonArray("objects").size());
+		assertEquals(0, message.getJsonArray("changes").size());
+
+		Holder after = (Holder) receiver.deserialize(message.toString());
+		assertEquals(3, after.count);
+		assertEquals("first", after.label);
+		assertTrue(after.item instanceof Object1);
+	}
+
+	@Test
+	public void testChangedFieldPatchesSameInstance () throws Exception {
+		Holder holder = new Holder();
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		Holder after = (Holder) receiver.deserialize(sender.serialize(holder));
+
+		holder.count = 42;
+		holder.label = "changed";
+		JsonObject message = read(sender.serialize(holder));
+		assertEquals(0, message.getJsonArray("objects").size());
+		assertEquals(1, message.getJsonArray("changes").size());
+		assertEquals(2, message.getJsonArray("changes").getJsonObject(0).getJsonArray("fields").size());
+
+		assertSame(after, receiver.deserialize(message.toString()));
+		assertEquals(42, after.count);
+		assertEquals("changed", after.label);
+
+		// Nothing changed: Nothing but the root is sent
+		message = read(sender.serialize(holder));
+		assertEquals(0, message.getJsonArray("changes").size());
+		assertSame(after, receiver.deserialize(message.toString()));
+	}
+
+	@Test
+	public void testNewAndReleasedObjects () throws Exception {
+		Holder holder = new Holder();
+		Object1 first = new Object1();
+		holder.item = first;
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		Holder after = (Holder) receiver.deserialize(sender.serialize(holder));
+		Object first_after = after.item;
+
+		// The Object1 is replaced: the old one is released
+		Object1 second = new Object1();
+		second.setX(7);
+		holder.item = second;
+		JsonObject message = read(sender.serialize(holder));
+		assertEquals(1, message.getJsonArray("released").size());
+		int released = message.getJsonArray("released").getInt(0);
+		assertEquals(1, message.getJsonArray("objects").size());
+
+		receiver.deserialize(message.toString());
+		assertNotSame(first_after, after.item);
+		assertEquals(7, ((Object1) after.item).getX());
+
+		// The same object referenced again is sent again, as it was released, with the released id
+		holder.item = first;
+		holder.items[0] = second;
+		message = read(sender.serialize(holder));
+		assertEquals(1, message.getJsonArray("objects").size());
+		assertEquals(released, message.getJsonArray("objects").getJsonObject(0).getInt("id"));
+		receiver.deserialize(message.toString());
+		assertSame(after.items[0].getClass(), Object1.class);
+		assertEquals(7, ((Object1) after.items[0]).getX());
+		assertEquals(0, ((Object1) after.item).getX());
+	}
+
+	@Test
+	public void testArrayAndContainerChanges () throws Exception {
+		Holder holder = new Holder();
+		holder.map.put("a", 1);
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		Holder after = (Holder) receiver.deserialize(sender.serialize(holder));
+
+		holder.items[2] = holder;
+		holder.items[3] = "text";
+		holder.values[1] = 2.5;
+		holder.map.remove("a");
+		holder.map.put("b", holder.items);
+		JsonObject message = read(sender.serialize(holder));
+		assertEquals(3, message.getJsonArray("changes").size());
+
+		receiver.deserialize(message.toString());
+		assertSame(after, after.items[2]);
+		assertEquals("text", after.items[3]);
+		assertArrayEquals(new double[] { 0, 2.5, 0 }, after.values, 0);
+		assertEquals(1, after.map.size());
+		assertSame(after.items, after.map.get("b"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBuiltContainerChanges () throws Exception {
+		Holder holder = new Holder();
+		List<Object> backing = new ArrayList<Object>(Arrays.asList("a"));
+		List<Object> view = Collections.unmodifiableList(backing);
+		holder.item = view;
+		holder.items[0] = view;
+		holder.items[1] = List.of(1, 2);
+		// An immutable list holding the view, which has to be rebuilt around the new view too
+		holder.items[2] = List.of(view);
+		holder.map.put("view", view);
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		Holder after = (Holder) receiver.deserialize(sender.serialize(holder));
+		assertEquals(Arrays.asList("a"), after.item);
+
+		// The view changes through its backing list, and cannot be changed in place on the receiver
+		backing.add("b");
+		assertSame(after, receiver.deserialize(sender.serialize(holder)));
+		List<Object> view_after = (List<Object>) after.item;
+		assertEquals(Arrays.asList("a", "b"), view_after);
+		assertEquals(ClassMetadata.forClass(view.getClass()).name, ClassMetadata.forClass(view_after.getClass()).name);
+		assertSame(view_after, after.items[0]);
+		assertSame(view_after, ((List<Object>) after.items[2]).get(0));
+		assertSame(view_after, after.map.get("view"));
+		try {
+			view_after.add("c");
+			fail("The view should stay unmodifiable");
+		}
+		catch (UnsupportedOperationException e) {
+		}
+
+		// An immutable list is replaced by another one
+		holder.items[1] = List.of(1, 2, 3);
+		backing.remove("a");
+		assertSame(after, receiver.deserialize(sender.serialize(holder)));
+		assertEquals(List.of(1, 2, 3), after.items[1]);
+		assertEquals(Arrays.asList("b"), after.item);
+		assertSame(after.item, ((List<Object>) after.items[2]).get(0));
+	}
+
+	@Test
+	public void testSmallChangeOfLargeGraphIsSmallMessage () throws Exception {
+		Object[] graph = new Object[10000];
+		for (int i = 0; i < graph.length; i++) {
+			graph[i] = new Object1();
+		}
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		String full = sender.serialize(graph);
+		Object[] after = (Object[]) receiver.deserialize(full);
+
+		((Object1) graph[5000]).setY(1.5f);
+		String delta = sender.serialize(graph);
+		assertTrue(delta.length() * 100 < full.length());
+		receiver.deserialize(delta);
+		assertEquals(1.5f, ((Object1) after[5000]).getY(), 0);
+	}
+
+	@Test
+	public void testInlineAndNullRoots () throws Exception {
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		assertEquals("text", receiver.deserialize(sender.serialize("text")));
+		assertNull(receiver.deserialize(sender.serialize(null)));
+		assertEquals(12, receiver.deserialize(sender.serialize(12)));
+	}
+
+	@Test
+	public void testResetStartsNewSession () throws Exception {
+		Holder holder = new Holder();
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		receiver.deserialize(sender.serialize(holder));
+		receiver.deserialize(sender.serialize(holder));
+
+		sender.reset();
+		holder.count = 5;
+		JsonObject message = read(sender.serialize(holder));
+		assertEquals(0, message.getInt("session"));
+		assertEquals(5, ((Holder) receiver.deserialize(message.toString())).count);
+	}
+
+	@Test
+	public void testLateReceiverWaitsForSnapshot () throws Exception {
+		Holder holder = new Holder();
+		SerializerSession sender = new SerializerSession();
+		sender.serialize(holder);
+
+		// Joined after message 0, as a client accepted while the sender was writing the next message
+		DeserializerSession receiver = new DeserializerSession();
+		holder.count = 1;
+		assertNull(receiver.deserialize(sender.serialize(holder)));
+		assertFalse(receiver.isStarted());
+
+		sender.reset();
+		holder.count = 2;
+		assertEquals(2, ((Holder) receiver.deserialize(sender.serialize(holder))).count);
+		assertTrue(receiver.isStarted());
+		holder.values[1] = 2.5;
+		assertEquals(2.5, ((Holder) receiver.deserialize(sender.serialize(holder))).values[1], 0);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMissedMessageRejected () throws Exception {
+		Holder holder = new Holder();
+		SerializerSession sender = new SerializerSession();
+		DeserializerSession receiver = new DeserializerSession();
+		receiver.deserialize(sender.serialize(holder));
+		sender.serialize(holder);
+		receiver.deserialize(sender.serialize(holder));
+	}
+
+	private static JsonObject read (String json) {
+		return Json.createReader(new StringReader(json)).readObject();
+	}
+
+}
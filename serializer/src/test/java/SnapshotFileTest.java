@@ -0,0 +1,120 @@
+/**
+ * Tests that snapshot files written by Serializer give back single objects, and the same objects as Deserializer
+ */
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotFileTest {
+
+	public static class Node {
+		private Object item;
+		private Object[] items;
+		private Map<String, Object> map = new HashMap<String, Object>();
+		private double[] values = { 0.5, Double.NaN };
+	}
+
+	private Path file;
+
+	@Before
+	public void createFile () throws IOException {
+		file = Files.createTempFile("snapshot", ".snap");
+	}
+
+	@After
+	public void deleteFile () throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static Node chain (int length) {
+		Node head = new Node();
+		Node tail = head;
+		for (int i = 1; i < length; i++) {
+			Node next = new Node();
+			next.items = new Object[] { "node \u00e9 " + i, i };
+			tail.item = next;
+			tail = next;
+		}
+		return head;
+	}
+
+	@Test
+	public void testSameAsDeserializer () throws Exception {
+		Node holder = chain(3);
+		holder.map.put("key", new Object1());
+		holder.map.put("self", holder);
+		Serializer.serializeSnapshot(holder, file);
+		try (SnapshotFile snapshot = Deserializer.openSnapshot(file)) {
+			String json = Serializer.serializeObject(holder);
+			assertEquals(new LazyGraph(json).size(), snapshot.size());
+			Node built = (Node) snapshot.root();
+			assertSame(built, built.map.get("self"));
+			assertEquals(Serializer.serializeObject(Deserializer.deserializeObject(json)), Serializer.serializeObject(built));
+		}
+	}
+
+	@Test
+	public void testGetParsesOnlyWhatIsReached () throws Exception {
+		Serializer.serializeSnapshot(chain(1000), file);
+		try (SnapshotFile snapshot = SnapshotFile.open(file)) {
+			LazyGraph.View view = snapshot.view(0);
+			for (int i = 0; i < 996; i++) {
+				view = (LazyGraph.View) view.getField("item");
+			}
+			assertEquals(0, snapshot.graph().materializedCount());
+			Node node = (Node) view.materialize();
+			assertEquals("node \u00e9 996", node.items[0]);
+			// The node, the 3 nodes after it and the items, map and values of each
+			assertEquals(16, snapshot.graph().materializedCount());
+			assertSame(node, snapshot.get(view.getId()));
+			assertEquals(Node.class.getName(), view.getClassName());
+			assertEquals(2, ((LazyGraph.View) view.getField("items")).getLength());
+			assertEquals(16, snapshot.graph().materializedCount());
+		}
+	}
+
+	@Test
+	public void testEntriesAcrossChunks () throws Exception {
+		Serializer.serializeSnapshot(chain(300), file);
+		String expected = Serializer.serializeObject(Deserializer.deserializeObject(Serializer.serializeObject(chain(300))));
+		// Chunks smaller than most entries, so entries and the index cross them
+		try (SnapshotFile snapshot = SnapshotFile.open(file, 61)) {
+			assertEquals(expected, Serializer.serializeObject(snapshot.root()));
+		}
+	}
+
+	@Test
+	public void testRejectsOtherFiles () throws Exception {
+		Files.write(file, new byte[] { 1, 2, 3 });
+		try {
+			SnapshotFile.open(file);
+			fail("Short file should throw");
+		}
+		catch (IOException e) {
+		}
+
+		Files.write(file, Serializer.serializeObject(chain(10)).getBytes("UTF-8"));
+		try {
+			SnapshotFile.open(file);
+			fail("Json document should throw");
+		}
+		catch (IOException e) {
+		}
+
+		Serializer.serializeSnapshot(chain(10), file);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+		try {
+			SnapshotFile.open(file);
+			fail("Truncated file should throw");
+		}
+		catch (IOException e) {
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Tests that SnapshotLog replays what was appended, survives torn writes, refuses records corrupted once synced and keeps the latest record of each key when compacting
+ */
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotLogTest {
+
+	public static class Version {
+		private String name;
+		private int number;
+		private int[] history;
+
+		public Version () {
+		}
+
+		Version (String name, int number) {
+			this.name = name;
+			this.number = number;
+			this.history = new int[] { number, number * 2 };
+		}
+	}
+
+	private Path file;
+
+	@Before
+	public void createFile () throws IOException {
+		file = Files.createTempFile("snapshot", ".log");
+		Files.delete(file);
+	}
+
+	@After
+	public void deleteFile () throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".compact"));
+	}
+
+	/**
+	 * @return the key and number of every record of the log, in order
+	 */
+	private static List<String> replay (SnapshotLog log) throws Exception {
+		List<String> records = new ArrayList<String>();
+		try (SnapshotLog.Replay replay = log.replay()) {
+			while (replay.hasNext()) {
+				SnapshotLog.Record record = replay.next();
+				Version version = (Version) record.getValue();
+				assertEquals(version.number * 2, version.history[1]);
+				records.add(record.getKey() + "=" + version.number);
+			}
+		}
+		return records;
+	}
+
+	@Test
+	public void testReplayAfterReopening () throws Exception {
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			log.append("a", new Version("a", 1));
+			log.append("b \u00e9", new Version("b", 2));
+			log.append("a", new Version("a", 3));
+			assertEquals(Arrays.asList("a=1", "b \u00e9=2", "a=3"), replay(log));
+		}
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			assertEquals(2, log.keyCount());
+			log.append("c", new Version("c", 4));
+			assertEquals(Arrays.asList("a=1", "b \u00e9=2", "a=3", "c=4"), replay(log));
+		}
+	}
+
+	/**
+	 * Damage the file as a crash before an fsync can: set the synced length in its header to where an earlier
+	 * fsync left it, the start of the record of the given key
+	 * @return the bytes of the file
+	 */
+	private byte[] syncedUpTo (String key) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		long synced = recordOf(bytes, key);
+		for (int i = 0; i < 8; i++) {
+			bytes[SnapshotLog.SYNCED + i] = (byte) (synced >>> (56 - 8 * i));
+		}
+		Files.write(file, bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return offset of the first record of the given key: its length, CRC and key length come before the key
+	 */
+	private static int recordOf (byte[] bytes, String key) throws IOException {
+		return new String(bytes, "ISO-8859-1").indexOf(key) - SnapshotLog.RECORD_HEADER - 4;
+	}
+
+	@Test
+	public void testTornAndCorruptTails () throws Exception {
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			for (int i = 0; i < 5; i++) {
+				log.append("k" + i, new Version("v", i));
+			}
+		}
+		long length = Files.size(file);
+
+		// A record past the last fsync cut short is dropped
+		syncedUpTo("k2");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(length - 3);
+		}
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			assertEquals(Arrays.asList("k0=0", "k1=1", "k2=2", "k3=3"), replay(log));
+			log.append("k4", new Version("v", 40));
+		}
+
+		// The batch of a crashed fsync may have any of its pages written, so a record in the middle of it that does
+		// not match its CRC is dropped with the records after it, even though those look fine
+		byte[] bytes = syncedUpTo("k2");
+		bytes[recordOf(bytes, "k3") + SnapshotLog.RECORD_HEADER + 4] ^= 1;
+		Files.write(file, bytes);
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			assertEquals(Arrays.asList("k0=0", "k1=1", "k2=2"), replay(log));
+		}
+
+		// A record below the synced length was on disk, so one that does not match its CRC fails the open without dropping anything
+		bytes = Files.readAllBytes(file);
+		int k1 = recordOf(bytes, "k1");
+		int k2 = recordOf(bytes, "k2");
+		bytes[k1 + SnapshotLog.RECORD_HEADER + 4] ^= 1;
+		Files.write(file, bytes);
+		try {
+			new SnapshotLog(file).close();
+			fail("Corrupt record should throw");
+		}
+		catch (IOException e) {
+		}
+		assertEquals(bytes.length, Files.size(file));
+
+		// So does a file shorter than its synced length
+		bytes[k1 + SnapshotLog.RECORD_HEADER + 4] ^= 1;
+		Files.write(file, Arrays.copyOf(bytes, k2 - 3));
+		try {
+			new SnapshotLog(file).close();
+			fail("Missing records should throw");
+		}
+		catch (IOException e) {
+		}
+
+		Files.write(file, "not a log".getBytes("UTF-8"));
+		try {
+			new SnapshotLog(file).close();
+			fail("Other files should throw");
+		}
+		catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testCompactKeepsLatest () throws Exception {
+		try (SnapshotLog log = new SnapshotLog(file, Long.MAX_VALUE)) {
+			for (int i = 0; i < 100; i++) {
+				log.append("k" + (i % 3), new Version("v", i));
+			}
+			log.sync();
+			long length = log.length();
+			log.compact();
+			assertTrue(log.length() < length / 10);
+			assertEquals(Arrays.asList("k1=97", "k2=98", "k0=99"), replay(log));
+
+			// Appends go on in the compacted file, the older record of k1 stays until the next compaction
+			log.append("k1", new Version("v", 100));
+			assertEquals(Arrays.asList("k1=97", "k2=98", "k0=99", "k1=100"), replay(log));
+			log.compact();
+			assertEquals(Arrays.asList("k2=98", "k0=99", "k1=100"), replay(log));
+		}
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			assertEquals(Arrays.asList("k2=98", "k0=99", "k1=100"), replay(log));
+		}
+	}
+
+	@Test
+	public void testBackgroundCompactionWithConcurrentAppends () throws Exception {
+		int threads = 4;
+		int appends = 3000;
+		try (SnapshotLog log = new SnapshotLog(file, 64 << 10)) {
+			List<Thread> appenders = new ArrayList<Thread>();
+			List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+			for (int t = 0; t < threads; t++) {
+				String prefix = "t" + t + "-";
+				Thread appender = new Thread(() -> {
+					try {
+						for (int i = 0; i < appends; i++) {
+							log.append(prefix + (i % 10), new Version(prefix, i));
+							if (i % 100 == 0) {
+								log.sync();
+							}
+						}
+					}
+					catch (Exception e) {
+						failures.add(e);
+					}
+				});
+				appenders.add(appender);
+				appender.start();
+			}
+			for (Thread appender : appenders) {
+				appender.join();
+			}
+			assertEquals(Collections.emptyList(), failures);
+			log.sync();
+			assertEquals(threads * 10, log.keyCount());
+			// Compactions go on until the file is below the threshold, far smaller than the 12000 records appended
+			long deadline = System.currentTimeMillis() + 10000;
+			while (log.length() >= 64 << 10 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(log.length() < 64 << 10);
+		}
+
+		// The last record of each key is its last append
+		Map<String, String> latest = new HashMap<String, String>();
+		try (SnapshotLog log = new SnapshotLog(file)) {
+			for (String record : replay(log)) {
+				latest.put(record.substring(0, record.indexOf('=')), record);
+			}
+		}
+		assertEquals(threads * 10, latest.size());
+		for (int t = 0; t < threads; t++) {
+			for (int k = 0; k < 10; k++) {
+				assertEquals("t" + t + "-" + k + "=" + (appends - 10 + k), latest.get("t" + t + "-" + k));
+			}
+		}
+	}
+
+}